@@ -0,0 +1,329 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+//
+// A deterministic pseudorandom generator built from AES in counter
+// mode.
+//
+// Two parties that construct an AesCtrPrg with the same seed and the
+// same stream number get the same sequence of bytes, and the same
+// sequence of values from genMod() as long as they request them with
+// the same modulus and value size in the same order. How the requests
+// are split into calls does not matter.
+//
+// unittest/java/com/stealthsoftwareinc/pulsarvlds/AesCtrPrgBench.java
+// compares the throughput of genMod() with the jdk random engine.
+//
+
+final class AesCtrPrg {
+  public static final int SEED_SIZE = 16;
+
+  private static final int BUFFER_SIZE = 4096;
+
+  private final Cipher cipher_;
+  private final byte[] zeros_ = new byte[BUFFER_SIZE];
+  private final byte[] buffer_ = new byte[BUFFER_SIZE];
+  private int bufferIndex_ = BUFFER_SIZE;
+
+  private BigInteger modulus_ = null;
+  private int valueSize_ = 0;
+  private byte[] modulusBytes_ = null;
+
+  public AesCtrPrg(final byte[] seed, final long stream) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(seed != null);
+        SST_ASSERT(seed.length == SEED_SIZE);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    final byte[] iv = new byte[16];
+    for (int i = 0; i < 8; ++i) {
+      iv[i] = (byte)(stream >>> (56 - 8 * i));
+    }
+    try {
+      cipher_ = Cipher.getInstance("AES/CTR/NoPadding");
+      cipher_.init(Cipher.ENCRYPT_MODE,
+                   new SecretKeySpec(seed, "AES"),
+                   new IvParameterSpec(iv));
+    } catch (final GeneralSecurityException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  //--------------------------------------------------------------------
+  // Per-thread instances
+  //--------------------------------------------------------------------
+  //
+  // local() returns an instance that belongs to the calling thread and
+  // is seeded from the JDK's cryptographically secure generator. The
+  // first call on any thread runs selfTest() once.
+  //
+
+  private static final SecureRandom seedRandom_ = new SecureRandom();
+
+  private static final class SelfTested {
+    private static final boolean OK = selfTest();
+  }
+
+  private static final ThreadLocal<AesCtrPrg> local_ =
+      new ThreadLocal<AesCtrPrg>() {
+        @Override
+        protected final AesCtrPrg initialValue() {
+          if (!SelfTested.OK) {
+            throw new RuntimeException("AesCtrPrg self-test failed");
+          }
+          final byte[] seed = new byte[SEED_SIZE];
+          synchronized (seedRandom_) {
+            seedRandom_.nextBytes(seed);
+          }
+          return new AesCtrPrg(seed, 0);
+        }
+      };
+
+  public static AesCtrPrg local() {
+    return local_.get();
+  }
+
+  //
+  // Checks a freshly seeded instance with the monobit, poker, and runs
+  // tests of FIPS 140-1 on 20000 bits, and checks that two instances
+  // with the same seed agree no matter how their output is split into
+  // calls. This is a sanity check against a broken cipher provider,
+  // not a substitute for a proper evaluation of the generator.
+  //
+
+  private static boolean selfTest() {
+    final byte[] seed = new byte[SEED_SIZE];
+    synchronized (seedRandom_) {
+      seedRandom_.nextBytes(seed);
+    }
+    final byte[] x = new byte[2500];
+    new AesCtrPrg(seed, 0).fill(x, 0, x.length);
+
+    int ones = 0;
+    final int[] nibbles = new int[16];
+    final int[][] runs = new int[2][7];
+    int run = 0;
+    int previous = -1;
+    for (int i = 0; i < x.length * 8; ++i) {
+      final int bit = (x[i / 8] >>> (7 - i % 8)) & 1;
+      ones += bit;
+      if (bit == previous) {
+        ++run;
+      } else {
+        if (previous >= 0) {
+          ++runs[previous][Math.min(run, 6)];
+          if (run >= 34) {
+            return false;
+          }
+        }
+        previous = bit;
+        run = 1;
+      }
+    }
+    ++runs[previous][Math.min(run, 6)];
+    if (ones <= 9654 || ones >= 10346) {
+      return false;
+    }
+    for (int i = 0; i < x.length; ++i) {
+      ++nibbles[(x[i] >>> 4) & 0xF];
+      ++nibbles[x[i] & 0xF];
+    }
+    long sum = 0;
+    for (int i = 0; i < 16; ++i) {
+      sum += (long)nibbles[i] * nibbles[i];
+    }
+    final double poker = 16.0 / 5000.0 * sum - 5000.0;
+    if (poker <= 1.03 || poker >= 57.4) {
+      return false;
+    }
+    final int[] runMin = {0, 2267, 1079, 502, 223, 90, 90};
+    final int[] runMax = {0, 2733, 1421, 748, 402, 223, 223};
+    for (int b = 0; b < 2; ++b) {
+      for (int n = 1; n <= 6; ++n) {
+        if (runs[b][n] < runMin[n] || runs[b][n] > runMax[n]) {
+          return false;
+        }
+      }
+    }
+
+    final byte[] y = new byte[x.length];
+    final AesCtrPrg prg = new AesCtrPrg(seed, 0);
+    for (int i = 0, n = 1; i < y.length; i += n, n = n * 3 + 1) {
+      prg.fill(y, i, Math.min(n, y.length - i));
+    }
+    for (int i = 0; i < x.length; ++i) {
+      if (x[i] != y[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //--------------------------------------------------------------------
+
+  private void refill() {
+    try {
+      cipher_.update(zeros_, 0, BUFFER_SIZE, buffer_, 0);
+    } catch (final GeneralSecurityException e) {
+      throw new RuntimeException(e);
+    }
+    bufferIndex_ = 0;
+  }
+
+  public final void fill(final byte[] dst, int offset, int length) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(dst != null);
+        SST_ASSERT(offset >= 0);
+        SST_ASSERT(length >= 0);
+        SST_ASSERT(length <= dst.length - offset);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    while (length > 0) {
+      if (bufferIndex_ == BUFFER_SIZE) {
+        refill();
+      }
+      final int n = Math.min(length, BUFFER_SIZE - bufferIndex_);
+      System.arraycopy(buffer_, bufferIndex_, dst, offset, n);
+      bufferIndex_ += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  //
+  // Writes count values drawn uniformly from [0, modulus) to dst, each
+  // as valueSize bytes in big endian order. If modulus is a power of
+  // two, the values are taken directly from the stream. Otherwise,
+  // rejection sampling is used, which discards fewer than half of the
+  // candidates on average.
+  //
+
+  public final void genMod(final byte[] dst,
+                           final int offset,
+                           final int count,
+                           final int valueSize,
+                           final BigInteger modulus) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(dst != null);
+        SST_ASSERT(count >= 0);
+        SST_ASSERT(valueSize > 0);
+        SST_ASSERT(modulus != null);
+        SST_ASSERT(modulus.signum() > 0);
+        SST_ASSERT(modulus.subtract(BigInteger.ONE).bitLength()
+                   <= valueSize * 8);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    final int bits = modulus.subtract(BigInteger.ONE).bitLength();
+    final boolean pow2 = modulus.bitCount() == 1;
+    final int lead = valueSize - (bits + 7) / 8;
+    final int width = valueSize - lead;
+    final int topMask = bits % 8 == 0 ? 0xFF : (1 << (bits % 8)) - 1;
+    if (pow2) {
+      // Every candidate is accepted, so the whole batch can be taken
+      // from the stream at once. The candidates are filled into the
+      // tail of the output and then spread out to make room for the
+      // leading zero bytes, which consumes the stream exactly as the
+      // one-value-at-a-time loop below would.
+      final int tail = offset + count * lead;
+      fill(dst, tail, count * width);
+      if (lead > 0 || topMask != 0xFF) {
+        for (int i = 0; i < count; ++i) {
+          final int j = offset + i * valueSize;
+          if (lead > 0) {
+            System.arraycopy(dst,
+                             tail + i * width,
+                             dst,
+                             j + lead,
+                             width);
+            for (int k = 0; k < lead; ++k) {
+              dst[j + k] = 0;
+            }
+          }
+          if (width > 0) {
+            dst[j + lead] &= topMask;
+          }
+        }
+      }
+      return;
+    }
+    if (!modulus.equals(modulus_) || valueSize != valueSize_) {
+      final byte[] m = new byte[valueSize];
+      final byte[] x = modulus.toByteArray();
+      final int n = Math.min(x.length, valueSize);
+      System.arraycopy(x, x.length - n, m, valueSize - n, n);
+      modulus_ = modulus;
+      valueSize_ = valueSize;
+      modulusBytes_ = m;
+    }
+    final byte[] m = modulusBytes_;
+    for (int i = 0, j = offset; i < count; ++i, j += valueSize) {
+      for (int k = 0; k < lead; ++k) {
+        dst[j + k] = 0;
+      }
+      do {
+        fill(dst, j + lead, width);
+        dst[j + lead] &= topMask;
+      } while (!lessThan(dst, j, m, valueSize));
+    }
+  }
+
+  private static boolean lessThan(final byte[] x,
+                                  final int offset,
+                                  final byte[] y,
+                                  final int size) {
+    for (int i = 0; i < size; ++i) {
+      final int a = x[offset + i] & 0xFF;
+      final int b = y[i] & 0xFF;
+      if (a != b) {
+        return a < b;
+      }
+    }
+    return false;
+  }
+}
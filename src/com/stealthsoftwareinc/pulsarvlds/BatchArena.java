@@ -0,0 +1,133 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+//
+// A party-wide store of batch buffers left over from earlier queries.
+//
+// Each buffer is filed under its shape, which is a string that names
+// its type and dimensions, such as "byte[4096]". The batch code relies
+// on the exact lengths of its buffers, so the shapes are the size
+// classes: a buffer is only ever handed out again for the same shape.
+// Repeated queries of the same form produce the same shapes, so their
+// batch pools are filled from here instead of from new allocations.
+// The buffers are ordinary heap arrays, not direct memory, because the
+// batch code reads and writes them as arrays.
+//
+// The total size of the stored buffers never exceeds the limit. A
+// buffer that would exceed it is dropped for the garbage collector.
+//
+
+final class BatchArena {
+  private final long limit_;
+  private final AtomicLong size_ = new AtomicLong(0);
+  private final ConcurrentHashMap<String, Queue<Object>> buffers_ =
+      new ConcurrentHashMap<String, Queue<Object>>();
+
+  public BatchArena(final long limit) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(limit >= 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    limit_ = limit;
+  }
+
+  //
+  // Removes and returns a buffer of the given shape, or returns null if
+  // there is none.
+  //
+
+  public final Object take(final String shape, final long bytes) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(shape != null);
+        SST_ASSERT(bytes >= 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    final Queue<Object> q = buffers_.get(shape);
+    if (q == null) {
+      return null;
+    }
+    final Object x = q.poll();
+    if (x != null) {
+      size_.addAndGet(-bytes);
+    }
+    return x;
+  }
+
+  //
+  // Stores a buffer of the given shape. The caller must no longer use
+  // the buffer in any way.
+  //
+
+  public final void give(final String shape,
+                         final Object x,
+                         final long bytes) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(shape != null);
+        SST_ASSERT(x != null);
+        SST_ASSERT(bytes >= 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    for (;;) {
+      final long n = size_.get();
+      if (n + bytes > limit_) {
+        return;
+      }
+      if (size_.compareAndSet(n, n + bytes)) {
+        break;
+      }
+    }
+    Queue<Object> q = buffers_.get(shape);
+    if (q == null) {
+      final Queue<Object> q2 = new ConcurrentLinkedQueue<Object>();
+      q = buffers_.putIfAbsent(shape, q2);
+      if (q == null) {
+        q = q2;
+      }
+    }
+    q.offer(x);
+  }
+}
@@ -0,0 +1,227 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+//
+// The batch memory budget of one query on one party.
+//
+// The budget counts the bytes of all batch buffers that the query has
+// acquired from its BatchPools and not yet released. A limit of 0
+// means that there is no limit. Producers that cannot get a buffer
+// within the limit register a waiter, and the next release runs all
+// registered waiters, which usually tick the waiting handlers. A
+// waiter that is already registered is not registered again, so a
+// handler that retries while over the budget is still only run once
+// per release.
+//
+// The waiter is registered before the producer checks the budget for
+// the second time, so a release that happens between the two checks
+// either lets the second check succeed or sees the waiter.
+//
+
+final class BatchBudget {
+  private static final int BIG_OVERHEAD = 48;
+
+  private final BatchArena arena_;
+  private final long limit_;
+  private final AtomicLong used_ = new AtomicLong(0);
+  private final Set<Runnable> waiters_ =
+      ConcurrentHashMap.<Runnable>newKeySet();
+  private final List<BatchPool<?>> pools_ =
+      new ArrayList<BatchPool<?>>();
+  private boolean closed_ = false;
+
+  public BatchBudget(final BatchArena arena, final long limit) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(arena != null);
+        SST_ASSERT(limit >= 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    arena_ = arena;
+    limit_ = limit;
+  }
+
+  public final synchronized <T> BatchPool<T> pool(
+      final String shape,
+      final long bytes,
+      final Supplier<T> supplier,
+      final Consumer<T> clearer) {
+    final BatchPool<T> pool = new BatchPool<T>(this,
+                                               arena_,
+                                               shape,
+                                               bytes,
+                                               supplier,
+                                               clearer);
+    if (closed_) {
+      pool.close();
+    } else {
+      pools_.add(pool);
+    }
+    return pool;
+  }
+
+  //
+  // Returns a pool of arrays of the given length. The size of a
+  // BigInteger[] array is estimated as if every element held a
+  // valueSize-byte value.
+  //
+
+  public final BatchPool<byte[]> bytePool(final int length) {
+    return pool("byte[" + length + "]",
+                length,
+                new Supplier<byte[]>() {
+                  @Override
+                  public final byte[] get() {
+                    return new byte[length];
+                  }
+                },
+                new Consumer<byte[]>() {
+                  @Override
+                  public final void accept(final byte[] x) {
+                    Arrays.fill(x, (byte)0);
+                  }
+                });
+  }
+
+  public final BatchPool<int[]> intPool(final int length) {
+    return pool("int[" + length + "]",
+                4L * length,
+                new Supplier<int[]>() {
+                  @Override
+                  public final int[] get() {
+                    return new int[length];
+                  }
+                },
+                new Consumer<int[]>() {
+                  @Override
+                  public final void accept(final int[] x) {
+                    Arrays.fill(x, 0);
+                  }
+                });
+  }
+
+  public final BatchPool<long[]> longPool(final int length) {
+    return pool("long[" + length + "]",
+                8L * length,
+                new Supplier<long[]>() {
+                  @Override
+                  public final long[] get() {
+                    return new long[length];
+                  }
+                },
+                new Consumer<long[]>() {
+                  @Override
+                  public final void accept(final long[] x) {
+                    Arrays.fill(x, 0);
+                  }
+                });
+  }
+
+  public final BatchPool<BigInteger[]> bigPool(final int length,
+                                               final int valueSize) {
+    return pool("BigInteger[" + length + "]",
+                bigBytes(length, valueSize),
+                new Supplier<BigInteger[]>() {
+                  @Override
+                  public final BigInteger[] get() {
+                    return new BigInteger[length];
+                  }
+                },
+                new Consumer<BigInteger[]>() {
+                  @Override
+                  public final void accept(final BigInteger[] x) {
+                    Arrays.fill(x, null);
+                  }
+                });
+  }
+
+  static final long bigBytes(final int length, final int valueSize) {
+    return (long)length * (BIG_OVERHEAD + valueSize);
+  }
+
+  public final long used() {
+    return used_.get();
+  }
+
+  final boolean reserve(final long bytes, final boolean force) {
+    for (;;) {
+      final long n = used_.get();
+      if (!force && limit_ > 0 && n + bytes > limit_) {
+        return false;
+      }
+      if (used_.compareAndSet(n, n + bytes)) {
+        return true;
+      }
+    }
+  }
+
+  final void await(final Runnable waiter) {
+    waiters_.add(waiter);
+  }
+
+  final void release(final long bytes) {
+    used_.addAndGet(-bytes);
+    for (final Runnable waiter : waiters_) {
+      if (waiters_.remove(waiter)) {
+        waiter.run();
+      }
+    }
+  }
+
+  //
+  // Gives the released buffers of all pools of the query back to the
+  // arena. This must only be called once the query is done.
+  //
+
+  public final synchronized void close() {
+    if (!closed_) {
+      closed_ = true;
+      for (final BatchPool<?> pool : pools_) {
+        pool.close();
+      }
+      pools_.clear();
+    }
+  }
+}
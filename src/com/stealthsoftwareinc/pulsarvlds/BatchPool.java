@@ -0,0 +1,150 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+//
+// A pool of batch buffers of one shape for one query.
+//
+// A new buffer is taken from the BatchArena if it has one of the same
+// shape and is only created by the supplier otherwise. Every acquired
+// buffer counts against the BatchBudget of the query until it is
+// released. When the query is done, the budget closes the pool, which
+// gives the buffers that were released back to the arena for the next
+// query. Buffers that are released after that are simply dropped.
+// A released buffer is cleared by the clearer before it is kept, so
+// that the next batch, possibly of another query, never sees the old
+// contents in the part of the buffer that it does not fill.
+//
+// acquire() always succeeds, even over the budget. tryAcquire() is for
+// producers that can wait: it returns null instead of going over the
+// budget and arranges for the given waiter to be run once some buffer
+// of the query is released. A pool with no buffers out can always
+// acquire one, so every producer can always make progress.
+//
+
+final class BatchPool<T> {
+  private final BatchBudget budget_;
+  private final BatchArena arena_;
+  private final String shape_;
+  private final long bytes_;
+  private final Supplier<T> supplier_;
+  private final Consumer<T> clearer_;
+  private final Queue<BatchEntry<T>> free_ =
+      new ConcurrentLinkedQueue<BatchEntry<T>>();
+  private final AtomicInteger out_ = new AtomicInteger(0);
+  private volatile boolean closed_ = false;
+
+  BatchPool(final BatchBudget budget,
+            final BatchArena arena,
+            final String shape,
+            final long bytes,
+            final Supplier<T> supplier,
+            final Consumer<T> clearer) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(budget != null);
+        SST_ASSERT(arena != null);
+        SST_ASSERT(shape != null);
+        SST_ASSERT(bytes >= 0);
+        SST_ASSERT(supplier != null);
+        SST_ASSERT(clearer != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    budget_ = budget;
+    arena_ = arena;
+    shape_ = shape;
+    bytes_ = bytes;
+    supplier_ = supplier;
+    clearer_ = clearer;
+  }
+
+  @SuppressWarnings("unchecked")
+  private BatchEntry<T> take() {
+    out_.incrementAndGet();
+    final BatchEntry<T> entry = free_.poll();
+    if (entry != null) {
+      return entry;
+    }
+    T x = (T)arena_.take(shape_, bytes_);
+    if (x == null) {
+      x = supplier_.get();
+    }
+    return new BatchEntry<T>(this, x);
+  }
+
+  public final BatchEntry<T> acquire() {
+    budget_.reserve(bytes_, true);
+    return take();
+  }
+
+  public final BatchEntry<T> tryAcquire(final Runnable waiter) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(waiter != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    final boolean force = out_.get() == 0;
+    if (!budget_.reserve(bytes_, force)) {
+      budget_.await(waiter);
+      if (!budget_.reserve(bytes_, force)) {
+        return null;
+      }
+    }
+    return take();
+  }
+
+  final void release(final BatchEntry<T> entry) {
+    if (!closed_) {
+      clearer_.accept(entry.object());
+      free_.offer(entry);
+    }
+    out_.decrementAndGet();
+    budget_.release(bytes_);
+  }
+
+  final void close() {
+    closed_ = true;
+    for (BatchEntry<T> entry; (entry = free_.poll()) != null;) {
+      arena_.give(shape_, entry.object(), bytes_);
+    }
+  }
+}
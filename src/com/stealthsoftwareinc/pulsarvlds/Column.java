@@ -39,6 +39,8 @@ import com.stealthsoftwareinc.sst.Json;
 import com.stealthsoftwareinc.sst.JsonException;
 import com.stealthsoftwareinc.sst.ToJson;
 import com.stealthsoftwareinc.sst.Types;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -307,5 +309,39 @@ public final class Column implements ToJson {
     return true;
   }
 
+  //
+  // Writes everything that lexiconEquals() compares to dst in a
+  // canonical form, so that two columns are lexiconEquals() if and
+  // only if they write the same bytes. Domain values are written with
+  // their class names, as values of different classes are never
+  // equal.
+  //
+
+  public final void lexiconDigest(final DataOutput dst)
+      throws IOException {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(dst != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    Lexicon.digestString(dst, name());
+    dst.writeInt(type().toInt());
+    if (domain() == null) {
+      dst.writeInt(-1);
+    } else {
+      dst.writeInt(domain().size());
+      for (final Object value : domain()) {
+        if (value == null) {
+          Lexicon.digestString(dst, null);
+        } else {
+          Lexicon.digestString(dst, value.getClass().getName());
+          Lexicon.digestString(dst, value.toString());
+        }
+      }
+    }
+  }
+
   //--------------------------------------------------------------------
 }
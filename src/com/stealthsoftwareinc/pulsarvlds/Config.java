@@ -53,6 +53,46 @@ public final class Config {
   private static final String DEFAULT_LISTEN_HOST = "0.0.0.0";
   private static final int FIRST_RAW_PORT = 19501;
 
+  //--------------------------------------------------------------------
+  // batch_arena_limit
+  //--------------------------------------------------------------------
+
+  private static final String BATCH_ARENA_LIMIT_KEY =
+      "batch_arena_limit";
+  private static final int DEFAULT_BATCH_ARENA_LIMIT = 67108864;
+  private int batchArenaLimit_;
+  private boolean doneBatchArenaLimit_ = false;
+
+  private int batchArenaLimit(final Map<String, ?> src) {
+    if (!doneBatchArenaLimit_) {
+      batchArenaLimit_ = Json.removeAs(src,
+                                       BATCH_ARENA_LIMIT_KEY,
+                                       batchArenaLimit_,
+                                       DEFAULT_BATCH_ARENA_LIMIT);
+      try {
+        if (batchArenaLimit_ < 0) {
+          throw new JsonException(
+              "value must be a nonnegative integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(BATCH_ARENA_LIMIT_KEY);
+      }
+      doneBatchArenaLimit_ = true;
+    }
+    return batchArenaLimit_;
+  }
+
+  public final int batchArenaLimit() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneBatchArenaLimit_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return batchArenaLimit_;
+  }
+
   //--------------------------------------------------------------------
   // calculation_scale
   //--------------------------------------------------------------------
@@ -125,6 +165,179 @@ public final class Config {
     return channelOutputBufferLimit_;
   }
 
+  //--------------------------------------------------------------------
+  // cpu_thread_count
+  //--------------------------------------------------------------------
+
+  private static final String CPU_THREAD_COUNT_KEY = "cpu_thread_count";
+  private static final int DEFAULT_CPU_THREAD_COUNT = 0;
+  private int cpuThreadCount_;
+  private boolean doneCpuThreadCount_ = false;
+
+  private int cpuThreadCount(final Map<String, ?> src) {
+    if (!doneCpuThreadCount_) {
+      cpuThreadCount_ = Json.removeAs(src,
+                                      CPU_THREAD_COUNT_KEY,
+                                      cpuThreadCount_,
+                                      DEFAULT_CPU_THREAD_COUNT);
+      try {
+        if (cpuThreadCount_ < 0) {
+          throw new JsonException(
+              "value must be a nonnegative integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(CPU_THREAD_COUNT_KEY);
+      }
+      doneCpuThreadCount_ = true;
+    }
+    return cpuThreadCount_;
+  }
+
+  public final int cpuThreadCount() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneCpuThreadCount_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return cpuThreadCount_;
+  }
+
+  //--------------------------------------------------------------------
+  // epoll_edge_triggered
+  //--------------------------------------------------------------------
+
+  private static final String EPOLL_EDGE_TRIGGERED_KEY =
+      "epoll_edge_triggered";
+  private static final boolean DEFAULT_EPOLL_EDGE_TRIGGERED = true;
+  private boolean epollEdgeTriggered_;
+  private boolean doneEpollEdgeTriggered_ = false;
+
+  private boolean epollEdgeTriggered(final Map<String, ?> src) {
+    if (!doneEpollEdgeTriggered_) {
+      epollEdgeTriggered_ = Json.removeAs(src,
+                                          EPOLL_EDGE_TRIGGERED_KEY,
+                                          epollEdgeTriggered_,
+                                          DEFAULT_EPOLL_EDGE_TRIGGERED);
+      doneEpollEdgeTriggered_ = true;
+    }
+    return epollEdgeTriggered_;
+  }
+
+  public final boolean epollEdgeTriggered() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneEpollEdgeTriggered_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return epollEdgeTriggered_;
+  }
+
+  //--------------------------------------------------------------------
+  // full_query_partitions
+  //--------------------------------------------------------------------
+
+  private static final String FULL_QUERY_PARTITIONS_KEY =
+      "full_query_partitions";
+  private static final int DEFAULT_FULL_QUERY_PARTITIONS = 1;
+  private int fullQueryPartitions_;
+  private boolean doneFullQueryPartitions_ = false;
+
+  private int fullQueryPartitions(final Map<String, ?> src) {
+    if (!doneFullQueryPartitions_) {
+      fullQueryPartitions_ =
+          Json.removeAs(src,
+                        FULL_QUERY_PARTITIONS_KEY,
+                        fullQueryPartitions_,
+                        DEFAULT_FULL_QUERY_PARTITIONS);
+      try {
+        if (fullQueryPartitions_ < 1) {
+          throw new JsonException("value must be a positive integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(FULL_QUERY_PARTITIONS_KEY);
+      }
+      doneFullQueryPartitions_ = true;
+    }
+    return fullQueryPartitions_;
+  }
+
+  public final int fullQueryPartitions() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneFullQueryPartitions_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return fullQueryPartitions_;
+  }
+
+  //--------------------------------------------------------------------
+  // grouped_count
+  //--------------------------------------------------------------------
+
+  private static final String GROUPED_COUNT_KEY = "grouped_count";
+  private static final boolean DEFAULT_GROUPED_COUNT = false;
+  private boolean groupedCount_;
+  private boolean doneGroupedCount_ = false;
+
+  private boolean groupedCount(final Map<String, ?> src) {
+    if (!doneGroupedCount_) {
+      groupedCount_ = Json.removeAs(src,
+                                    GROUPED_COUNT_KEY,
+                                    groupedCount_,
+                                    DEFAULT_GROUPED_COUNT);
+      doneGroupedCount_ = true;
+    }
+    return groupedCount_;
+  }
+
+  public final boolean groupedCount() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneGroupedCount_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return groupedCount_;
+  }
+
+  //--------------------------------------------------------------------
+  // grouped_scan
+  //--------------------------------------------------------------------
+
+  private static final String GROUPED_SCAN_KEY = "grouped_scan";
+  private static final boolean DEFAULT_GROUPED_SCAN = false;
+  private boolean groupedScan_;
+  private boolean doneGroupedScan_ = false;
+
+  private boolean groupedScan(final Map<String, ?> src) {
+    if (!doneGroupedScan_) {
+      groupedScan_ = Json.removeAs(src,
+                                   GROUPED_SCAN_KEY,
+                                   groupedScan_,
+                                   DEFAULT_GROUPED_SCAN);
+      doneGroupedScan_ = true;
+    }
+    return groupedScan_;
+  }
+
+  public final boolean groupedScan() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneGroupedScan_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return groupedScan_;
+  }
+
   //--------------------------------------------------------------------
   // home
   //--------------------------------------------------------------------
@@ -384,6 +597,77 @@ public final class Config {
     return ioThreadCount_;
   }
 
+  //--------------------------------------------------------------------
+  // jdbc_thread_count
+  //--------------------------------------------------------------------
+
+  private static final String JDBC_THREAD_COUNT_KEY =
+      "jdbc_thread_count";
+  private static final int DEFAULT_JDBC_THREAD_COUNT = 32;
+  private int jdbcThreadCount_;
+  private boolean doneJdbcThreadCount_ = false;
+
+  private int jdbcThreadCount(final Map<String, ?> src) {
+    if (!doneJdbcThreadCount_) {
+      jdbcThreadCount_ = Json.removeAs(src,
+                                       JDBC_THREAD_COUNT_KEY,
+                                       jdbcThreadCount_,
+                                       DEFAULT_JDBC_THREAD_COUNT);
+      try {
+        if (jdbcThreadCount_ < 1) {
+          throw new JsonException("value must be a positive integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(JDBC_THREAD_COUNT_KEY);
+      }
+      doneJdbcThreadCount_ = true;
+    }
+    return jdbcThreadCount_;
+  }
+
+  public final int jdbcThreadCount() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneJdbcThreadCount_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return jdbcThreadCount_;
+  }
+
+  //--------------------------------------------------------------------
+  // jdbc_virtual_threads
+  //--------------------------------------------------------------------
+
+  private static final String JDBC_VIRTUAL_THREADS_KEY =
+      "jdbc_virtual_threads";
+  private static final boolean DEFAULT_JDBC_VIRTUAL_THREADS = false;
+  private boolean jdbcVirtualThreads_;
+  private boolean doneJdbcVirtualThreads_ = false;
+
+  private boolean jdbcVirtualThreads(final Map<String, ?> src) {
+    if (!doneJdbcVirtualThreads_) {
+      jdbcVirtualThreads_ = Json.removeAs(src,
+                                          JDBC_VIRTUAL_THREADS_KEY,
+                                          jdbcVirtualThreads_,
+                                          DEFAULT_JDBC_VIRTUAL_THREADS);
+      doneJdbcVirtualThreads_ = true;
+    }
+    return jdbcVirtualThreads_;
+  }
+
+  public final boolean jdbcVirtualThreads() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneJdbcVirtualThreads_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return jdbcVirtualThreads_;
+  }
+
   //--------------------------------------------------------------------
   // lexicon
   //--------------------------------------------------------------------
@@ -439,6 +723,85 @@ public final class Config {
     return localParty_;
   }
 
+  //--------------------------------------------------------------------
+  // mask_pool_size
+  //--------------------------------------------------------------------
+
+  private static final String MASK_POOL_SIZE_KEY = "mask_pool_size";
+  private static final int DEFAULT_MASK_POOL_SIZE = 0;
+  private int maskPoolSize_;
+  private boolean doneMaskPoolSize_ = false;
+
+  private int maskPoolSize(final Map<String, ?> src) {
+    if (!doneMaskPoolSize_) {
+      maskPoolSize_ = Json.removeAs(src,
+                                    MASK_POOL_SIZE_KEY,
+                                    maskPoolSize_,
+                                    DEFAULT_MASK_POOL_SIZE);
+      try {
+        if (maskPoolSize_ < 0) {
+          throw new JsonException(
+              "value must be a nonnegative integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(MASK_POOL_SIZE_KEY);
+      }
+      doneMaskPoolSize_ = true;
+    }
+    return maskPoolSize_;
+  }
+
+  public final int maskPoolSize() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneMaskPoolSize_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return maskPoolSize_;
+  }
+
+  //--------------------------------------------------------------------
+  // merge_thread_count
+  //--------------------------------------------------------------------
+
+  private static final String MERGE_THREAD_COUNT_KEY =
+      "merge_thread_count";
+  private static final int DEFAULT_MERGE_THREAD_COUNT = 0;
+  private int mergeThreadCount_;
+  private boolean doneMergeThreadCount_ = false;
+
+  private int mergeThreadCount(final Map<String, ?> src) {
+    if (!doneMergeThreadCount_) {
+      mergeThreadCount_ = Json.removeAs(src,
+                                        MERGE_THREAD_COUNT_KEY,
+                                        mergeThreadCount_,
+                                        DEFAULT_MERGE_THREAD_COUNT);
+      try {
+        if (mergeThreadCount_ < 0) {
+          throw new JsonException(
+              "value must be a nonnegative integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(MERGE_THREAD_COUNT_KEY);
+      }
+      doneMergeThreadCount_ = true;
+    }
+    return mergeThreadCount_;
+  }
+
+  public final int mergeThreadCount() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneMergeThreadCount_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return mergeThreadCount_;
+  }
+
   //--------------------------------------------------------------------
   // order_by_override
   //--------------------------------------------------------------------
@@ -469,6 +832,37 @@ public final class Config {
     return orderByOverride_;
   }
 
+  //--------------------------------------------------------------------
+  // parallel_merge
+  //--------------------------------------------------------------------
+
+  private static final String PARALLEL_MERGE_KEY = "parallel_merge";
+  private static final boolean DEFAULT_PARALLEL_MERGE = false;
+  private boolean parallelMerge_;
+  private boolean doneParallelMerge_ = false;
+
+  private boolean parallelMerge(final Map<String, ?> src) {
+    if (!doneParallelMerge_) {
+      parallelMerge_ = Json.removeAs(src,
+                                     PARALLEL_MERGE_KEY,
+                                     parallelMerge_,
+                                     DEFAULT_PARALLEL_MERGE);
+      doneParallelMerge_ = true;
+    }
+    return parallelMerge_;
+  }
+
+  public final boolean parallelMerge() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneParallelMerge_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return parallelMerge_;
+  }
+
   //--------------------------------------------------------------------
   // prefix
   //--------------------------------------------------------------------
@@ -499,6 +893,276 @@ public final class Config {
     return prefix_;
   }
 
+  //--------------------------------------------------------------------
+  // query_batch_budget
+  //--------------------------------------------------------------------
+
+  private static final String QUERY_BATCH_BUDGET_KEY =
+      "query_batch_budget";
+  private static final int DEFAULT_QUERY_BATCH_BUDGET = 0;
+  private int queryBatchBudget_;
+  private boolean doneQueryBatchBudget_ = false;
+
+  private int queryBatchBudget(final Map<String, ?> src) {
+    if (!doneQueryBatchBudget_) {
+      queryBatchBudget_ = Json.removeAs(src,
+                                        QUERY_BATCH_BUDGET_KEY,
+                                        queryBatchBudget_,
+                                        DEFAULT_QUERY_BATCH_BUDGET);
+      try {
+        if (queryBatchBudget_ < 0) {
+          throw new JsonException(
+              "value must be a nonnegative integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(QUERY_BATCH_BUDGET_KEY);
+      }
+      doneQueryBatchBudget_ = true;
+    }
+    return queryBatchBudget_;
+  }
+
+  public final int queryBatchBudget() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneQueryBatchBudget_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return queryBatchBudget_;
+  }
+
+  //--------------------------------------------------------------------
+  // random_engine
+  //--------------------------------------------------------------------
+
+  private static final String RANDOM_ENGINE_KEY = "random_engine";
+  private RandomEngine randomEngine_;
+  private boolean doneRandomEngine_ = false;
+
+  private RandomEngine randomEngine(final Map<String, ?> src) {
+    if (!doneRandomEngine_) {
+      randomEngine_ = Json.removeAs(src,
+                                    RANDOM_ENGINE_KEY,
+                                    randomEngine_.fromJson(),
+                                    RandomEngine.JDK);
+      doneRandomEngine_ = true;
+    }
+    return randomEngine_;
+  }
+
+  public final RandomEngine randomEngine() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneRandomEngine_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return randomEngine_;
+  }
+
+  //--------------------------------------------------------------------
+  // raw_max_streams
+  //--------------------------------------------------------------------
+
+  private static final String RAW_MAX_STREAMS_KEY = "raw_max_streams";
+  private static final int DEFAULT_RAW_MAX_STREAMS = 100;
+  private int rawMaxStreams_;
+  private boolean doneRawMaxStreams_ = false;
+
+  private int rawMaxStreams(final Map<String, ?> src) {
+    if (!doneRawMaxStreams_) {
+      rawMaxStreams_ = Json.removeAs(src,
+                                     RAW_MAX_STREAMS_KEY,
+                                     rawMaxStreams_,
+                                     DEFAULT_RAW_MAX_STREAMS);
+      try {
+        if (rawMaxStreams_ < 1) {
+          throw new JsonException("value must be a positive integer");
+        }
+        if ((long)rawMaxStreams_ * rawStreamWindow(src)
+            > Integer.MAX_VALUE) {
+          throw new JsonException(
+              "value times raw_stream_window must not exceed "
+              + Integer.MAX_VALUE);
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(RAW_MAX_STREAMS_KEY);
+      }
+      doneRawMaxStreams_ = true;
+    }
+    return rawMaxStreams_;
+  }
+
+  public final int rawMaxStreams() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneRawMaxStreams_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return rawMaxStreams_;
+  }
+
+  //--------------------------------------------------------------------
+  // raw_multiplexing
+  //--------------------------------------------------------------------
+
+  private static final String RAW_MULTIPLEXING_KEY =
+      "raw_multiplexing";
+  private static final boolean DEFAULT_RAW_MULTIPLEXING = false;
+  private boolean rawMultiplexing_;
+  private boolean doneRawMultiplexing_ = false;
+
+  private boolean rawMultiplexing(final Map<String, ?> src) {
+    if (!doneRawMultiplexing_) {
+      rawMultiplexing_ = Json.removeAs(src,
+                                       RAW_MULTIPLEXING_KEY,
+                                       rawMultiplexing_,
+                                       DEFAULT_RAW_MULTIPLEXING);
+      doneRawMultiplexing_ = true;
+    }
+    return rawMultiplexing_;
+  }
+
+  public final boolean rawMultiplexing() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneRawMultiplexing_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return rawMultiplexing_;
+  }
+
+  //--------------------------------------------------------------------
+  // raw_pool_check_cooldown
+  //--------------------------------------------------------------------
+
+  private static final String RAW_POOL_CHECK_COOLDOWN_KEY =
+      "raw_pool_check_cooldown";
+  private static final int DEFAULT_RAW_POOL_CHECK_COOLDOWN = 60;
+  private int rawPoolCheckCooldown_;
+  private boolean doneRawPoolCheckCooldown_ = false;
+
+  private int rawPoolCheckCooldown(final Map<String, ?> src) {
+    if (!doneRawPoolCheckCooldown_) {
+      rawPoolCheckCooldown_ =
+          Json.removeAs(src,
+                        RAW_POOL_CHECK_COOLDOWN_KEY,
+                        rawPoolCheckCooldown_,
+                        DEFAULT_RAW_POOL_CHECK_COOLDOWN);
+      try {
+        if (rawPoolCheckCooldown_ < 1) {
+          throw new JsonException("value must be a positive integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(RAW_POOL_CHECK_COOLDOWN_KEY);
+      }
+      doneRawPoolCheckCooldown_ = true;
+    }
+    return rawPoolCheckCooldown_;
+  }
+
+  public final int rawPoolCheckCooldown() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneRawPoolCheckCooldown_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return rawPoolCheckCooldown_;
+  }
+
+  //--------------------------------------------------------------------
+  // raw_pool_min_idle
+  //--------------------------------------------------------------------
+
+  private static final String RAW_POOL_MIN_IDLE_KEY =
+      "raw_pool_min_idle";
+  private static final int DEFAULT_RAW_POOL_MIN_IDLE = 0;
+  private int rawPoolMinIdle_;
+  private boolean doneRawPoolMinIdle_ = false;
+
+  private int rawPoolMinIdle(final Map<String, ?> src) {
+    if (!doneRawPoolMinIdle_) {
+      rawPoolMinIdle_ = Json.removeAs(src,
+                                      RAW_POOL_MIN_IDLE_KEY,
+                                      rawPoolMinIdle_,
+                                      DEFAULT_RAW_POOL_MIN_IDLE);
+      try {
+        if (rawPoolMinIdle_ < 0) {
+          throw new JsonException(
+              "value must be a nonnegative integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(RAW_POOL_MIN_IDLE_KEY);
+      }
+      doneRawPoolMinIdle_ = true;
+    }
+    return rawPoolMinIdle_;
+  }
+
+  public final int rawPoolMinIdle() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneRawPoolMinIdle_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return rawPoolMinIdle_;
+  }
+
+  //--------------------------------------------------------------------
+  // raw_stream_window
+  //--------------------------------------------------------------------
+
+  private static final String RAW_STREAM_WINDOW_KEY =
+      "raw_stream_window";
+  private static final int DEFAULT_RAW_STREAM_WINDOW = 1048576;
+  private int rawStreamWindow_;
+  private boolean doneRawStreamWindow_ = false;
+
+  private int rawStreamWindow(final Map<String, ?> src) {
+    if (!doneRawStreamWindow_) {
+      final boolean given = src.containsKey(RAW_STREAM_WINDOW_KEY);
+      rawStreamWindow_ = Json.removeAs(src,
+                                       RAW_STREAM_WINDOW_KEY,
+                                       rawStreamWindow_,
+                                       DEFAULT_RAW_STREAM_WINDOW);
+      try {
+        if (rawStreamWindow_ < 1) {
+          throw new JsonException("value must be a positive integer");
+        }
+        if (given && !rawMultiplexing(src)) {
+          throw new JsonException(
+              "value may only be given when raw_multiplexing is true");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(RAW_STREAM_WINDOW_KEY);
+      }
+      doneRawStreamWindow_ = true;
+    }
+    return rawStreamWindow_;
+  }
+
+  public final int rawStreamWindow() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneRawStreamWindow_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return rawStreamWindow_;
+  }
+
   //--------------------------------------------------------------------
   // result_scale
   //--------------------------------------------------------------------
@@ -634,42 +1298,349 @@ public final class Config {
   }
 
   //--------------------------------------------------------------------
-  // worker_thread_count
+  // snapshot
   //--------------------------------------------------------------------
 
-  private static final String WORKER_THREAD_COUNT_KEY =
-      "worker_thread_count";
-  private static final int DEFAULT_WORKER_THREAD_COUNT = 8;
-  private int workerThreadCount_;
-  private boolean doneWorkerThreadCount_ = false;
+  private static final String SNAPSHOT_KEY = "snapshot";
+  private static final boolean DEFAULT_SNAPSHOT = false;
+  private boolean snapshot_;
+  private boolean doneSnapshot_ = false;
 
-  private int workerThreadCount(final Map<String, ?> src) {
-    if (!doneWorkerThreadCount_) {
-      workerThreadCount_ = Json.removeAs(src,
-                                         WORKER_THREAD_COUNT_KEY,
-                                         workerThreadCount_,
-                                         DEFAULT_WORKER_THREAD_COUNT);
+  private boolean snapshot(final Map<String, ?> src) {
+    if (!doneSnapshot_) {
+      snapshot_ =
+          Json.removeAs(src, SNAPSHOT_KEY, snapshot_, DEFAULT_SNAPSHOT);
+      doneSnapshot_ = true;
+    }
+    return snapshot_;
+  }
+
+  public final boolean snapshot() {
+    if (!SST_NDEBUG) {
       try {
-        if (workerThreadCount_ < 1) {
+        SST_ASSERT(doneSnapshot_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return snapshot_;
+  }
+
+  //--------------------------------------------------------------------
+  // snapshot_max_age
+  //--------------------------------------------------------------------
+
+  private static final String SNAPSHOT_MAX_AGE_KEY = "snapshot_max_age";
+  private static final int DEFAULT_SNAPSHOT_MAX_AGE = 3600;
+  private int snapshotMaxAge_;
+  private boolean doneSnapshotMaxAge_ = false;
+
+  private int snapshotMaxAge(final Map<String, ?> src) {
+    if (!doneSnapshotMaxAge_) {
+      snapshotMaxAge_ = Json.removeAs(src,
+                                      SNAPSHOT_MAX_AGE_KEY,
+                                      snapshotMaxAge_,
+                                      DEFAULT_SNAPSHOT_MAX_AGE);
+      try {
+        if (snapshotMaxAge_ < 0) {
+          throw new JsonException(
+              "value must be a nonnegative integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(SNAPSHOT_MAX_AGE_KEY);
+      }
+      doneSnapshotMaxAge_ = true;
+    }
+    return snapshotMaxAge_;
+  }
+
+  public final int snapshotMaxAge() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneSnapshotMaxAge_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return snapshotMaxAge_;
+  }
+
+  //--------------------------------------------------------------------
+  // so_busy_poll
+  //--------------------------------------------------------------------
+
+  private static final String SO_BUSY_POLL_KEY = "so_busy_poll";
+  private static final int DEFAULT_SO_BUSY_POLL = 0;
+  private int soBusyPoll_;
+  private boolean doneSoBusyPoll_ = false;
+
+  private int soBusyPoll(final Map<String, ?> src) {
+    if (!doneSoBusyPoll_) {
+      soBusyPoll_ = Json.removeAs(src,
+                                  SO_BUSY_POLL_KEY,
+                                  soBusyPoll_,
+                                  DEFAULT_SO_BUSY_POLL);
+      try {
+        if (soBusyPoll_ < 0) {
+          throw new JsonException(
+              "value must be a nonnegative integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(SO_BUSY_POLL_KEY);
+      }
+      doneSoBusyPoll_ = true;
+    }
+    return soBusyPoll_;
+  }
+
+  public final int soBusyPoll() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneSoBusyPoll_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return soBusyPoll_;
+  }
+
+  //--------------------------------------------------------------------
+  // statement_cache_size
+  //--------------------------------------------------------------------
+
+  private static final String STATEMENT_CACHE_SIZE_KEY =
+      "statement_cache_size";
+  private static final int DEFAULT_STATEMENT_CACHE_SIZE = 0;
+  private int statementCacheSize_;
+  private boolean doneStatementCacheSize_ = false;
+
+  private int statementCacheSize(final Map<String, ?> src) {
+    if (!doneStatementCacheSize_) {
+      statementCacheSize_ = Json.removeAs(src,
+                                          STATEMENT_CACHE_SIZE_KEY,
+                                          statementCacheSize_,
+                                          DEFAULT_STATEMENT_CACHE_SIZE);
+      try {
+        if (statementCacheSize_ < 0) {
+          throw new JsonException(
+              "value must be a nonnegative integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(STATEMENT_CACHE_SIZE_KEY);
+      }
+      doneStatementCacheSize_ = true;
+    }
+    return statementCacheSize_;
+  }
+
+  public final int statementCacheSize() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneStatementCacheSize_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return statementCacheSize_;
+  }
+
+  //--------------------------------------------------------------------
+  // tcp_quickack
+  //--------------------------------------------------------------------
+
+  private static final String TCP_QUICKACK_KEY = "tcp_quickack";
+  private static final boolean DEFAULT_TCP_QUICKACK = false;
+  private boolean tcpQuickack_;
+  private boolean doneTcpQuickack_ = false;
+
+  private boolean tcpQuickack(final Map<String, ?> src) {
+    if (!doneTcpQuickack_) {
+      tcpQuickack_ = Json.removeAs(src,
+                                   TCP_QUICKACK_KEY,
+                                   tcpQuickack_,
+                                   DEFAULT_TCP_QUICKACK);
+      doneTcpQuickack_ = true;
+    }
+    return tcpQuickack_;
+  }
+
+  public final boolean tcpQuickack() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneTcpQuickack_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return tcpQuickack_;
+  }
+
+  //--------------------------------------------------------------------
+  // tls_engine
+  //--------------------------------------------------------------------
+
+  private static final String TLS_ENGINE_KEY = "tls_engine";
+  private TlsEngine tlsEngine_;
+  private boolean doneTlsEngine_ = false;
+
+  private TlsEngine tlsEngine(final Map<String, ?> src) {
+    if (!doneTlsEngine_) {
+      tlsEngine_ = Json.removeAs(src,
+                                 TLS_ENGINE_KEY,
+                                 tlsEngine_.fromJson(),
+                                 TlsEngine.JDK);
+      doneTlsEngine_ = true;
+    }
+    return tlsEngine_;
+  }
+
+  public final TlsEngine tlsEngine() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneTlsEngine_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return tlsEngine_;
+  }
+
+  //--------------------------------------------------------------------
+  // tls_key_type
+  //--------------------------------------------------------------------
+
+  private static final String TLS_KEY_TYPE_KEY = "tls_key_type";
+  private TlsKeyType tlsKeyType_;
+  private boolean doneTlsKeyType_ = false;
+
+  private TlsKeyType tlsKeyType(final Map<String, ?> src) {
+    if (!doneTlsKeyType_) {
+      tlsKeyType_ = Json.removeAs(src,
+                                  TLS_KEY_TYPE_KEY,
+                                  tlsKeyType_.fromJson(),
+                                  TlsKeyType.RSA);
+      doneTlsKeyType_ = true;
+    }
+    return tlsKeyType_;
+  }
+
+  public final TlsKeyType tlsKeyType() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneTlsKeyType_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return tlsKeyType_;
+  }
+
+  //--------------------------------------------------------------------
+  // transport
+  //--------------------------------------------------------------------
+
+  private static final String TRANSPORT_KEY = "transport";
+  private Transport transport_;
+  private boolean doneTransport_ = false;
+
+  private Transport transport(final Map<String, ?> src) {
+    if (!doneTransport_) {
+      transport_ = Json.removeAs(src,
+                                 TRANSPORT_KEY,
+                                 transport_.fromJson(),
+                                 Transport.NIO);
+      doneTransport_ = true;
+    }
+    return transport_;
+  }
+
+  public final Transport transport() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneTransport_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return transport_;
+  }
+
+  //--------------------------------------------------------------------
+  // tuple_pipeline_depth
+  //--------------------------------------------------------------------
+
+  private static final String TUPLE_PIPELINE_DEPTH_KEY =
+      "tuple_pipeline_depth";
+  private static final int DEFAULT_TUPLE_PIPELINE_DEPTH = 1;
+  private int tuplePipelineDepth_;
+  private boolean doneTuplePipelineDepth_ = false;
+
+  private int tuplePipelineDepth(final Map<String, ?> src) {
+    if (!doneTuplePipelineDepth_) {
+      tuplePipelineDepth_ = Json.removeAs(src,
+                                          TUPLE_PIPELINE_DEPTH_KEY,
+                                          tuplePipelineDepth_,
+                                          DEFAULT_TUPLE_PIPELINE_DEPTH);
+      try {
+        if (tuplePipelineDepth_ < 1) {
           throw new JsonException("value must be a positive integer");
         }
       } catch (final JsonException e) {
-        throw e.addKey(WORKER_THREAD_COUNT_KEY);
+        throw e.addKey(TUPLE_PIPELINE_DEPTH_KEY);
+      }
+      doneTuplePipelineDepth_ = true;
+    }
+    return tuplePipelineDepth_;
+  }
+
+  public final int tuplePipelineDepth() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneTuplePipelineDepth_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return tuplePipelineDepth_;
+  }
+
+  //--------------------------------------------------------------------
+  // x_batch_prefetch
+  //--------------------------------------------------------------------
+
+  private static final String X_BATCH_PREFETCH_KEY = "x_batch_prefetch";
+  private static final int DEFAULT_X_BATCH_PREFETCH = 1;
+  private int xBatchPrefetch_;
+  private boolean doneXBatchPrefetch_ = false;
+
+  private int xBatchPrefetch(final Map<String, ?> src) {
+    if (!doneXBatchPrefetch_) {
+      xBatchPrefetch_ = Json.removeAs(src,
+                                      X_BATCH_PREFETCH_KEY,
+                                      xBatchPrefetch_,
+                                      DEFAULT_X_BATCH_PREFETCH);
+      try {
+        if (xBatchPrefetch_ < 0) {
+          throw new JsonException(
+              "value must be a nonnegative integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(X_BATCH_PREFETCH_KEY);
       }
-      doneWorkerThreadCount_ = true;
+      doneXBatchPrefetch_ = true;
     }
-    return workerThreadCount_;
+    return xBatchPrefetch_;
   }
 
-  public final int workerThreadCount() {
+  public final int xBatchPrefetch() {
     if (!SST_NDEBUG) {
       try {
-        SST_ASSERT(doneWorkerThreadCount_);
+        SST_ASSERT(doneXBatchPrefetch_);
       } catch (final Throwable e) {
         SST_ASSERT(e);
       }
     }
-    return workerThreadCount_;
+    return xBatchPrefetch_;
   }
 
   //--------------------------------------------------------------------
@@ -756,21 +1727,48 @@ public final class Config {
 
   private Config(final Map<String, ?> src,
                  final CreateFromJson<Config> createFromJsonTag) {
+    batchArenaLimit(src);
     calculationScale(src);
     channelOutputBufferLimit(src);
+    cpuThreadCount(src);
     databaseConnection(src);
+    epollEdgeTriggered(src);
+    fullQueryPartitions(src);
+    groupedCount(src);
+    groupedScan(src);
     home(src);
     httpListenHost(src);
     httpListenPort(src);
     interserverConnections(src);
     ioThreadCount(src);
+    jdbcThreadCount(src);
+    jdbcVirtualThreads(src);
     lexicon(src);
     localParty(src);
+    maskPoolSize(src);
+    mergeThreadCount(src);
     orderByOverride(src);
+    parallelMerge(src);
     prefix(src);
+    queryBatchBudget(src);
+    randomEngine(src);
+    rawMaxStreams(src);
+    rawMultiplexing(src);
+    rawPoolCheckCooldown(src);
+    rawPoolMinIdle(src);
+    rawStreamWindow(src);
     resultScale(src);
     resultUpdateCooldown(src);
-    workerThreadCount(src);
+    snapshot(src);
+    snapshotMaxAge(src);
+    soBusyPoll(src);
+    statementCacheSize(src);
+    tcpQuickack(src);
+    tlsEngine(src);
+    tlsKeyType(src);
+    transport(src);
+    tuplePipelineDepth(src);
+    xBatchPrefetch(src);
     zombieCheckCooldown(src);
     zombieCheckThreshold(src);
 
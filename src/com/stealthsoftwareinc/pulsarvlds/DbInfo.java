@@ -34,6 +34,8 @@ import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
 import com.stealthsoftwareinc.sst.CreateFromJson;
 import com.stealthsoftwareinc.sst.Json;
 import com.stealthsoftwareinc.sst.ToJson;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -127,5 +129,17 @@ public final class DbInfo implements ToJson {
     return true;
   }
 
+  public final void lexiconDigest(final DataOutput dst)
+      throws IOException {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(dst != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    table().lexiconDigest(dst);
+  }
+
   //--------------------------------------------------------------------
 }
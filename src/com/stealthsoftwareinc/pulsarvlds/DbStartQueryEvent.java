@@ -33,19 +33,20 @@ import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
 
 import com.stealthsoftwareinc.sst.Guid;
 import com.stealthsoftwareinc.sst.PoolEntry;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.Future;
 
 public final class DbStartQueryEvent {
 
   private final String queryString_;
   private final Guid queryId_;
   private final Query query_;
-  private final PoolEntry<ChannelFuture> channel_;
+  private final PoolEntry<Future<Channel>> channel_;
 
   public DbStartQueryEvent(final String queryString,
                            final Guid queryId,
                            final Query query,
-                           final PoolEntry<ChannelFuture> channel) {
+                           final PoolEntry<Future<Channel>> channel) {
     if (!SST_NDEBUG) {
       try {
         SST_ASSERT(queryString != null);
@@ -74,7 +75,7 @@ public final class DbStartQueryEvent {
     return query_;
   }
 
-  public final PoolEntry<ChannelFuture> channel() {
+  public final PoolEntry<Future<Channel>> channel() {
     return channel_;
   }
 }
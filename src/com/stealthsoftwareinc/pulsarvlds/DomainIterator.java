@@ -33,6 +33,7 @@ import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
 public final class DomainIterator {
@@ -103,6 +104,238 @@ public final class DomainIterator {
     }
   }
 
+  //--------------------------------------------------------------------
+  // Grouped scans
+  //--------------------------------------------------------------------
+  //
+  // A grouped scan retrieves the rows for many domain tuples with a
+  // single query instead of one query per domain tuple. Each local
+  // group-by column is mapped to the position of its value within its
+  // domain by a CASE expression, and the rows are sorted by these
+  // positions before the linking column. Sorting by domain position
+  // instead of by value means the database's collation cannot disturb
+  // the order, which must match the order in which next() produces
+  // the domain tuples.
+  //
+  // The CASE expressions and the IN condition use the same equality
+  // comparison as the per-tuple "column = ?" conditions generated by
+  // toSql(), so both kinds of scan see exactly the same rows.
+  //
+  // If alias is not null, the i'th CASE expression is named alias + i
+  // so that it can be referred to from an enclosing query.
+  //
+
+  public final int myGroupByCount() {
+    return myGroupBys_.size();
+  }
+
+  public final int myCount() {
+    int count = 1;
+    for (final int i : myGroupBys_) {
+      count *= groupBys_.get(i).domain().size();
+    }
+    return count;
+  }
+
+  public final int myIndex(final int[] positions) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(positions != null);
+        SST_ASSERT(positions.length == myGroupBys_.size());
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    int index = 0;
+    for (int i = 0; i != myGroupBys_.size(); ++i) {
+      final int n = groupBys_.get(myGroupBys_.get(i)).domain().size();
+      if (positions[i] < 0 || positions[i] >= n) {
+        throw new IndexOutOfBoundsException();
+      }
+      index = index * n + positions[i];
+    }
+    return index;
+  }
+
+  public final boolean supportsGroupedScan() {
+    for (final int i : myGroupBys_) {
+      final List<Object> domain = groupBys_.get(i).domain();
+      if (new HashSet<Object>(domain).size() != domain.size()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public final void toGroupedSelectSql(final StringBuilder sql,
+                                       final List<Object> parameters,
+                                       final StringBuilder format,
+                                       final String alias) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(sql != null);
+        SST_ASSERT(parameters != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    for (int k = 0; k != myGroupBys_.size(); ++k) {
+      final Column column = groupBys_.get(myGroupBys_.get(k));
+      sql.append(", (CASE ");
+      sql.append(column.underlyingName());
+      if (format != null) {
+        format.append(", (CASE ");
+        format.append(column.underlyingName().replace("%", "%%"));
+      }
+      for (int j = 0; j != column.domain().size(); ++j) {
+        sql.append(" WHEN ? THEN ");
+        sql.append(j);
+        parameters.add(column.domain().get(j));
+        if (format != null) {
+          format.append(" WHEN %s THEN ");
+          format.append(j);
+        }
+      }
+      sql.append(" END)");
+      if (format != null) {
+        format.append(" END)");
+      }
+      if (alias != null) {
+        sql.append(" AS ");
+        sql.append(alias);
+        sql.append(k);
+        if (format != null) {
+          format.append(" AS ");
+          format.append(alias.replace("%", "%%"));
+          format.append(k);
+        }
+      }
+    }
+  }
+
+  public final void toGroupedWhereSql(final StringBuilder sql,
+                                      final List<Object> parameters,
+                                      final StringBuilder format) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(sql != null);
+        SST_ASSERT(parameters != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    for (final int i : myGroupBys_) {
+      final Column column = groupBys_.get(i);
+      sql.append(" AND ");
+      sql.append(column.underlyingName());
+      sql.append(" IN (");
+      if (format != null) {
+        format.append(" AND ");
+        format.append(column.underlyingName().replace("%", "%%"));
+        format.append(" IN (");
+      }
+      for (int j = 0; j != column.domain().size(); ++j) {
+        if (j > 0) {
+          sql.append(", ");
+          if (format != null) {
+            format.append(", ");
+          }
+        }
+        sql.append("?");
+        parameters.add(column.domain().get(j));
+        if (format != null) {
+          format.append("%s");
+        }
+      }
+      sql.append(")");
+      if (format != null) {
+        format.append(")");
+      }
+    }
+  }
+
+  public final void myPositions(final int[] dst) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(dst != null);
+        SST_ASSERT(dst.length == myGroupBys_.size());
+        SST_ASSERT(index_ >= 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    for (int i = 0; i != myGroupBys_.size(); ++i) {
+      dst[i] = positions_[myGroupBys_.get(i)];
+    }
+  }
+
+  //
+  // Like myPositions(), but maps each position to the first position
+  // of its domain that holds an equal value. This is the position that
+  // the CASE expressions of toGroupedSelectSql() give to the value, so
+  // the grouped count of a domain tuple can be found even if a domain
+  // repeats a value.
+  //
+
+  public final void myFirstPositions(final int[] dst) {
+    myPositions(dst);
+    for (int i = 0; i != myGroupBys_.size(); ++i) {
+      final List<Object> domain =
+          groupBys_.get(myGroupBys_.get(i)).domain();
+      dst[i] = domain.indexOf(domain.get(dst[i]));
+    }
+  }
+
+  //--------------------------------------------------------------------
+  // Row count vectors
+  //--------------------------------------------------------------------
+  //
+  // The row count of a domain tuple at a database party only depends
+  // on the group-by columns of that party, so the row counts of all
+  // domain tuples can be sent as one vector of partyCount(party)
+  // counts. partyIndex(party) is the index of the current domain tuple
+  // in such a vector. For the local party, it is the same as myIndex()
+  // of myPositions().
+  //
+
+  public final int partyCount(final Party party) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(party != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    int count = 1;
+    for (final Column column : groupBys_) {
+      if (column.db() == party) {
+        count *= column.domain().size();
+      }
+    }
+    return count;
+  }
+
+  public final int partyIndex(final Party party) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(party != null);
+        SST_ASSERT(index_ >= 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    int index = 0;
+    for (int i = 0; i != groupBys_.size(); ++i) {
+      final Column column = groupBys_.get(i);
+      if (column.db() == party) {
+        index = index * column.domain().size() + positions_[i];
+      }
+    }
+    return index;
+  }
+
+  //--------------------------------------------------------------------
+
   public final int count() {
     return count_;
   }
@@ -40,12 +40,10 @@ import com.stealthsoftwareinc.sst.Maps;
 import com.stealthsoftwareinc.sst.RandModContext;
 import com.stealthsoftwareinc.sst.ThreadedLogFile;
 import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.UnorderedThreadPoolEventExecutor;
 import java.io.File;
@@ -53,13 +51,13 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.security.SecureRandom;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -81,11 +79,10 @@ public final class Globals {
   // SSL for raw connections
   //--------------------------------------------------------------------
 
-  private final SelfSignedCertificate selfSignedCertificate_ =
-      new SelfSignedCertificate("localhost", new SecureRandom(), 2048);
+  private final RawTlsIdentity rawTlsIdentity_;
 
-  public final SelfSignedCertificate selfSignedCertificate() {
-    return selfSignedCertificate_;
+  public final RawTlsIdentity rawTlsIdentity() {
+    return rawTlsIdentity_;
   }
 
   //--------------------------------------------------------------------
@@ -146,15 +143,26 @@ public final class Globals {
   //--------------------------------------------------------------------
 
   private final String lexiconString_;
+  private final byte[] lexiconDigest_;
 
   private final EventLoopGroup ioThreadGroup_;
-  private final UnorderedThreadPoolEventExecutor workerThreadGroup_;
+  private final UnorderedThreadPoolEventExecutor cpuThreadGroup_;
+  private final JdbcExecutor jdbcThreadGroup_;
+  private final UnorderedThreadPoolEventExecutor mergeThreadGroup_;
+  private final int mergeThreadCount_;
 
-  private final ConcurrentHashMap<Party, ConcurrentPool<ChannelFuture>>
-      rawChannels_;
+  private static final long JDBC_THREAD_KEEP_ALIVE = 60;
+
+  private final ConcurrentHashMap<Party, RawChannelPool> rawChannels_;
 
   private final ConcurrentPool<Future<JdbcConnection>> sqlChannels_;
 
+  private final MaskPool maskPool_;
+
+  private final BatchArena batchArena_;
+
+  private final SnapshotStore snapshots_;
+
   //--------------------------------------------------------------------
   // Shared handler data
   //--------------------------------------------------------------------
@@ -292,38 +300,103 @@ public final class Globals {
     logPrefix_ = config_.localParty() + ": ";
 
     lexiconString_ = Json.dump(config_.lexicon().toJson());
+    lexiconDigest_ = config_.lexicon().lexiconDigest();
+
+    rawTlsIdentity_ = new RawTlsIdentity(config_);
 
     ioThreadGroup_ = ioThreadGroup;
-    workerThreadGroup_ = new UnorderedThreadPoolEventExecutor(
-        config_.workerThreadCount());
 
-    rawChannels_ =
-        new ConcurrentHashMap<Party, ConcurrentPool<ChannelFuture>>();
+    //
+    // Blocking JDBC calls, CPU-bound batch computations, and merge
+    // machine ticks each get their own thread group so that none of
+    // them can starve the others. The merge thread group is shared by
+    // all the queries of the PH, so it is sized to the processors by
+    // default, like the CPU thread group.
+    //
+    // A slow database only ties up JDBC threads. The JDBC thread group
+    // is a cached pool (see JdbcExecutor): a thread is only started
+    // when a task arrives and fewer than jdbc_thread_count threads
+    // exist, and it ends after JDBC_THREAD_KEEP_ALIVE seconds without a
+    // task, so an idle party holds no JDBC threads. With
+    // jdbc_virtual_threads enabled and a JVM that has virtual threads,
+    // each of them is a virtual thread, which costs next to nothing
+    // while it waits on the database, so jdbc_thread_count can be much
+    // higher.
+    //
+
+    cpuThreadGroup_ = new UnorderedThreadPoolEventExecutor(
+        config_.cpuThreadCount() > 0 ?
+            config_.cpuThreadCount() :
+            Runtime.getRuntime().availableProcessors(),
+        new DefaultThreadFactory("pulsar-vlds-cpu"));
+    {
+      ThreadFactory factory = null;
+      if (config_.jdbcVirtualThreads()) {
+        factory = virtualThreadFactory("pulsar-vlds-jdbc-");
+      }
+      if (factory == null) {
+        factory = new DefaultThreadFactory("pulsar-vlds-jdbc");
+      }
+      jdbcThreadGroup_ = new JdbcExecutor(config_.jdbcThreadCount(),
+                                          JDBC_THREAD_KEEP_ALIVE,
+                                          TimeUnit.SECONDS,
+                                          factory);
+    }
+    mergeThreadCount_ = config_.mergeThreadCount() > 0 ?
+                            config_.mergeThreadCount() :
+                            Runtime.getRuntime().availableProcessors();
+    mergeThreadGroup_ = new UnorderedThreadPoolEventExecutor(
+        mergeThreadCount_,
+        new DefaultThreadFactory("pulsar-vlds-merge"));
+
+    rawChannels_ = new ConcurrentHashMap<Party, RawChannelPool>();
     for (final Party party : Party.values()) {
+      final RawChannelInitializer initializer =
+          new RawChannelInitializer(this, party);
       rawChannels_.put(
           party,
-          new ConcurrentPool<ChannelFuture>(new RawChannelFactory(
-              new Bootstrap()
+          new RawChannelPool(this, party, new RawChannelFactory(
+              config_.transport()
+                  .resolve()
+                  .configure(new Bootstrap(), config_)
                   .group(ioThreadGroup_)
-                  .channel(NioSocketChannel.class)
-                  .handler(new RawChannelInitializer(this, party))
+                  .handler(initializer)
                   .option(ChannelOption.AUTO_READ, false)
                   .option(ChannelOption.SO_KEEPALIVE, true)
                   .option(ChannelOption.TCP_NODELAY, false),
               config_.rawConnectHost(party),
-              config_.rawConnectPort(party))));
+              config_.rawConnectPort(party),
+              config_.rawMultiplexing() ? initializer : null,
+              config_.rawMaxStreams())));
     }
 
     if (config_.localParty().isDb()) {
       sqlChannels_ = new ConcurrentPool<Future<JdbcConnection>>(
           new JdbcConnectionFactory<Future<JdbcConnection>>(
               config_.databaseConnection(),
-              workerThreadGroup_));
+              jdbcThreadGroup_));
     } else {
       sqlChannels_ = null;
     }
 
-    workerThreadGroup_.scheduleWithFixedDelay(
+    if (config_.localParty().isDb() && config_.maskPoolSize() > 0) {
+      maskPool_ = new MaskPool(this,
+                               config_.lexicon().common().modulus(),
+                               config_.maskPoolSize());
+      maskPool_.refill();
+    } else {
+      maskPool_ = null;
+    }
+
+    batchArena_ = new BatchArena(config_.batchArenaLimit());
+
+    if (config_.localParty().isDb() && config_.snapshot()) {
+      snapshots_ = new SnapshotStore(config_);
+    } else {
+      snapshots_ = null;
+    }
+
+    cpuThreadGroup_.scheduleWithFixedDelay(
         new Runnable() {
           @Override
           public final void run() {
@@ -359,6 +432,37 @@ public final class Globals {
         config_.zombieCheckCooldown(),
         config_.zombieCheckCooldown(),
         TimeUnit.SECONDS);
+
+    //
+    // Keep raw_pool_min_idle handshaken channels ready in each pool of
+    // outgoing channels, starting right away and checking again every
+    // raw_pool_check_cooldown seconds. See RawChannelPool.
+    //
+
+    if (config_.rawPoolMinIdle() > 0) {
+      cpuThreadGroup_.scheduleWithFixedDelay(
+          new Runnable() {
+            @Override
+            public final void run() {
+              for (final Party party : Party.values()) {
+                if (config_.localParty().toInt() < party.toInt()) {
+                  try {
+                    rawChannels_.get(party).warm(
+                        config_.rawPoolMinIdle());
+                  } catch (final Throwable e) {
+                    try {
+                      log("raw pool warm-up: error: " + e.getMessage());
+                    } catch (final Throwable e2) {
+                    }
+                  }
+                }
+              }
+            }
+          },
+          0,
+          config_.rawPoolCheckCooldown(),
+          TimeUnit.SECONDS);
+    }
   }
 
   //--------------------------------------------------------------------
@@ -385,16 +489,61 @@ public final class Globals {
     return lexiconString_;
   }
 
+  public final byte[] lexiconDigest() {
+    return lexiconDigest_;
+  }
+
   public final EventLoopGroup ioThreadGroup() {
     return ioThreadGroup_;
   }
 
-  public final UnorderedThreadPoolEventExecutor workerThreadGroup() {
-    return workerThreadGroup_;
+  public final UnorderedThreadPoolEventExecutor cpuThreadGroup() {
+    return cpuThreadGroup_;
+  }
+
+  public final JdbcExecutor jdbcThreadGroup() {
+    return jdbcThreadGroup_;
+  }
+
+  public final UnorderedThreadPoolEventExecutor mergeThreadGroup() {
+    return mergeThreadGroup_;
+  }
+
+  public final int mergeThreadCount() {
+    return mergeThreadCount_;
+  }
+
+  public final void shutdownThreadGroups() throws InterruptedException {
+    cpuThreadGroup_.shutdownGracefully(0, 0, TimeUnit.NANOSECONDS);
+    jdbcThreadGroup_.shutdownGracefully(0, 0, TimeUnit.NANOSECONDS);
+    mergeThreadGroup_.shutdownGracefully(0, 0, TimeUnit.NANOSECONDS);
+    cpuThreadGroup_.terminationFuture().sync();
+    jdbcThreadGroup_.terminationFuture().sync();
+    mergeThreadGroup_.terminationFuture().sync();
   }
 
-  public final ConcurrentPool<ChannelFuture>
-  rawChannels(final Party party) {
+  //
+  // Returns a factory of virtual threads whose names start with
+  // prefix, or null if the JVM does not have virtual threads. Virtual
+  // threads only exist in Java 21 and later, so they are reached by
+  // reflection.
+  //
+
+  private static final ThreadFactory
+  virtualThreadFactory(final String prefix) {
+    try {
+      final Class<?> builder =
+          Class.forName("java.lang.Thread$Builder");
+      Object b = Thread.class.getMethod("ofVirtual").invoke(null);
+      b = builder.getMethod("name", String.class, long.class)
+              .invoke(b, prefix, 0L);
+      return (ThreadFactory)builder.getMethod("factory").invoke(b);
+    } catch (final ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  public final RawChannelPool rawChannels(final Party party) {
     if (!SST_NDEBUG) {
       SST_ASSERT(party != null);
     }
@@ -405,5 +554,17 @@ public final class Globals {
     return sqlChannels_;
   }
 
+  public final MaskPool maskPool() {
+    return maskPool_;
+  }
+
+  public final BatchArena batchArena() {
+    return batchArena_;
+  }
+
+  public final SnapshotStore snapshots() {
+    return snapshots_;
+  }
+
   //--------------------------------------------------------------------
 }
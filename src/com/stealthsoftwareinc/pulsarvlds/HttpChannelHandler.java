@@ -40,6 +40,7 @@ import com.stealthsoftwareinc.sst.netty.HttpDirectoryServerCore;
 import com.stealthsoftwareinc.sst.netty.HttpResponseStatusException;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -61,6 +62,8 @@ import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
 import java.net.URI;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
@@ -537,7 +540,7 @@ public final class HttpChannelHandler
            Arrays.asList(StateStream.S1,
                          StateStream.S2,
                          StateStream.S3)) {
-        final PoolEntry<ChannelFuture> channel =
+        final PoolEntry<Future<Channel>> channel =
             globals_.rawChannels(party).acquire();
         final PhStartQueryEvent event =
             new PhStartQueryEvent(stateStream,
@@ -547,10 +550,10 @@ public final class HttpChannelHandler
                                   party,
                                   channel,
                                   ctx.pipeline());
-        channel.object().addListener(new ChannelFutureListener() {
+        channel.object().addListener(new FutureListener<Channel>() {
           @Override
           public final void operationComplete(
-              final ChannelFuture future) throws Exception {
+              final Future<Channel> future) throws Exception {
             if (!SST_NDEBUG) {
               try {
                 try {
@@ -564,7 +567,7 @@ public final class HttpChannelHandler
             }
             if (future.isSuccess()) {
               channel.object()
-                  .channel()
+                  .getNow()
                   .pipeline()
                   .fireUserEventTriggered(event);
             } else {
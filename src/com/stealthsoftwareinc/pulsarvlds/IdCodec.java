@@ -0,0 +1,172 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import io.netty.buffer.ByteBuf;
+
+//
+// Front coding for batches of rows that each begin with a fixed-size
+// linking ID.
+//
+// A DB party sends its rows sorted by linking ID, and the IDs are
+// fixed-size byte strings that sort the same way as the rows. This is
+// true for string IDs and for integer IDs, which are stored as big
+// endian offset values. Consecutive IDs therefore tend to share long
+// prefixes. Each encoded row is the length of the prefix its ID
+// shares with the previous ID in the batch as a varint, followed by
+// the rest of the ID, followed by the rest of the row unchanged. The
+// first row of each batch is compared against an all-zero ID, so
+// batches can be decoded independently.
+//
+// For integer IDs with small gaps, this stores little more than the
+// bytes of each gap, much like a delta-varint encoding, while also
+// working for string IDs.
+//
+
+final class IdCodec {
+
+  private IdCodec() {
+  }
+
+  public static int maxEncodedSize(final int rowCount,
+                                   final int rowSize,
+                                   final int idSize) {
+    return rowCount * (rowSize + varintSize(idSize));
+  }
+
+  private static int varintSize(int x) {
+    int n = 1;
+    while ((x >>>= 7) != 0) {
+      ++n;
+    }
+    return n;
+  }
+
+  //
+  // Encodes rowCount rows of rowSize bytes from src into dst and
+  // returns the number of bytes written. dst must have room for at
+  // least maxEncodedSize(rowCount, rowSize, idSize) bytes.
+  //
+
+  public static int encode(final byte[] src,
+                           final int rowCount,
+                           final int rowSize,
+                           final int idSize,
+                           final byte[] dst) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(src != null);
+        SST_ASSERT(rowCount >= 0);
+        SST_ASSERT(idSize > 0);
+        SST_ASSERT(rowSize >= idSize);
+        SST_ASSERT(src.length >= rowCount * rowSize);
+        SST_ASSERT(dst != null);
+        SST_ASSERT(dst.length
+                   >= maxEncodedSize(rowCount, rowSize, idSize));
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    int di = 0;
+    for (int i = 0, si = 0; i < rowCount; ++i, si += rowSize) {
+      int p = 0;
+      if (i == 0) {
+        while (p < idSize && src[si + p] == 0) {
+          ++p;
+        }
+      } else {
+        while (p < idSize && src[si + p] == src[si - rowSize + p]) {
+          ++p;
+        }
+      }
+      for (int x = p; true; x >>>= 7) {
+        if ((x >>> 7) == 0) {
+          dst[di++] = (byte)x;
+          break;
+        }
+        dst[di++] = (byte)(x | 0x80);
+      }
+      System.arraycopy(src, si + p, dst, di, rowSize - p);
+      di += rowSize - p;
+    }
+    return di;
+  }
+
+  //
+  // Decodes rowCount rows of rowSize bytes from src into dst, reading
+  // exactly the bytes that encode() wrote for them.
+  //
+
+  public static void decode(final ByteBuf src,
+                            final int rowCount,
+                            final int rowSize,
+                            final int idSize,
+                            final byte[] dst) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(src != null);
+        SST_ASSERT(rowCount >= 0);
+        SST_ASSERT(idSize > 0);
+        SST_ASSERT(rowSize >= idSize);
+        SST_ASSERT(dst != null);
+        SST_ASSERT(dst.length >= rowCount * rowSize);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    for (int i = 0, di = 0; i < rowCount; ++i, di += rowSize) {
+      int p = 0;
+      for (int shift = 0; true; shift += 7) {
+        if (shift > 28) {
+          throw new RuntimeException("Invalid linking ID prefix.");
+        }
+        final int b = src.readByte();
+        p |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          break;
+        }
+      }
+      if (p < 0 || p > idSize) {
+        throw new RuntimeException("Invalid linking ID prefix.");
+      }
+      if (i == 0) {
+        for (int k = 0; k < p; ++k) {
+          dst[k] = 0;
+        }
+      } else {
+        System.arraycopy(dst, di - rowSize, dst, di, p);
+      }
+      src.readBytes(dst, di + p, rowSize - p);
+    }
+  }
+}
@@ -0,0 +1,579 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import java.math.BigInteger;
+
+//
+// Allocation-free arithmetic on unsigned 128-bit integers.
+//
+// A 128-bit integer is stored as a pair of longs in a flat long[]
+// array, with the high half at index k and the low half at index
+// k + 1. Arrays of such integers are laid out as consecutive pairs,
+// i.e., the i'th integer occupies indices 2 * i and 2 * i + 1, so a
+// single long[] from a ConcurrentPool<long[]> can hold a whole row or
+// batch of values without any per-value objects.
+//
+// Arithmetic modulo 2^128 wraps naturally, so arithmetic modulo any
+// power of two 2^bits with bits <= 128 can be done by wrapping and
+// calling mask() once at the end. Any other modulus in (2^64, 2^128)
+// goes through a Mod instead, accumulating products in a 320-bit
+// accumulator and reducing them once at the end. These are what the
+// wide tiers of RawChannelHandler use for moduli in (2^64, 2^128].
+//
+// unittest/java/com/stealthsoftwareinc/pulsarvlds/Int128Check.java
+// checks every operation against BigInteger, and Int128Bench.java next
+// to it compares the wide tier loops with their BigInteger versions.
+//
+
+final class Int128 {
+  private Int128() {
+  }
+
+  //--------------------------------------------------------------------
+  // Byte conversions
+  //--------------------------------------------------------------------
+  //
+  // The byte representation is the same as the big endian pure
+  // unsigned representation used by Rep.fromBytes() and Rep.toBytes()
+  // in the wire formats, so values can be decoded and encoded in place
+  // without going through BigInteger.
+  //
+
+  public static long hi(final byte[] src,
+                        final int offset,
+                        final int size) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(src != null);
+        SST_ASSERT(size > 0);
+        SST_ASSERT(size <= 16);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    long x = 0;
+    for (int i = offset, n = offset + size - 8; i < n; ++i) {
+      x = (x << 8) | (src[i] & 0xFF);
+    }
+    return x;
+  }
+
+  public static long lo(final byte[] src,
+                        final int offset,
+                        final int size) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(src != null);
+        SST_ASSERT(size > 0);
+        SST_ASSERT(size <= 16);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    long x = 0;
+    for (int i = offset + Math.max(size - 8, 0), n = offset + size;
+         i < n;
+         ++i) {
+      x = (x << 8) | (src[i] & 0xFF);
+    }
+    return x;
+  }
+
+  public static void fromBytes(final byte[] src,
+                               final int offset,
+                               final int size,
+                               final long[] dst,
+                               final int k) {
+    dst[k] = hi(src, offset, size);
+    dst[k + 1] = lo(src, offset, size);
+  }
+
+  public static void toBytes(final long hi,
+                             final long lo,
+                             final byte[] dst,
+                             final int offset,
+                             final int size) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(dst != null);
+        SST_ASSERT(size > 0);
+        SST_ASSERT(size <= 16);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    long x = lo;
+    int i = offset + size;
+    for (int n = Math.min(size, 8); n > 0; --n) {
+      dst[--i] = (byte)x;
+      x >>>= 8;
+    }
+    x = hi;
+    while (i > offset) {
+      dst[--i] = (byte)x;
+      x >>>= 8;
+    }
+  }
+
+  public static void toBytes(final long[] src,
+                             final int k,
+                             final byte[] dst,
+                             final int offset,
+                             final int size) {
+    toBytes(src[k], src[k + 1], dst, offset, size);
+  }
+
+  //--------------------------------------------------------------------
+  // BigInteger conversions
+  //--------------------------------------------------------------------
+  //
+  // These are only intended for the boundaries of a computation, e.g.,
+  // once per domain tuple, not for inner loops.
+  //
+
+  public static void fromBig(final BigInteger src,
+                             final long[] dst,
+                             final int k) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(src != null);
+        SST_ASSERT(src.signum() >= 0);
+        SST_ASSERT(src.bitLength() <= 128);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    dst[k] = src.shiftRight(64).longValue();
+    dst[k + 1] = src.longValue();
+  }
+
+  public static BigInteger toBig(final long hi, final long lo) {
+    final byte[] bytes = new byte[17];
+    toBytes(hi, lo, bytes, 1, 16);
+    return new BigInteger(bytes);
+  }
+
+  public static BigInteger toBig(final long[] src, final int k) {
+    return toBig(src[k], src[k + 1]);
+  }
+
+  //--------------------------------------------------------------------
+  // Arithmetic modulo powers of two
+  //--------------------------------------------------------------------
+
+  public static long multiplyHighUnsigned(final long x, final long y) {
+    final long x1 = x >>> 32;
+    final long x0 = x & 0xFFFFFFFFL;
+    final long y1 = y >>> 32;
+    final long y0 = y & 0xFFFFFFFFL;
+    final long p00 = x0 * y0;
+    final long p01 = x0 * y1;
+    final long p10 = x1 * y0;
+    final long p11 = x1 * y1;
+    final long mid = (p00 >>> 32) + (p01 & 0xFFFFFFFFL)
+                     + (p10 & 0xFFFFFFFFL);
+    return p11 + (p01 >>> 32) + (p10 >>> 32) + (mid >>> 32);
+  }
+
+  //
+  // Sets dst to dst + x * y modulo 2^128.
+  //
+
+  public static void mulAdd(final long[] dst,
+                            final int k,
+                            final long xHi,
+                            final long xLo,
+                            final long yHi,
+                            final long yLo) {
+    final long pLo = xLo * yLo;
+    final long pHi =
+        multiplyHighUnsigned(xLo, yLo) + xLo * yHi + xHi * yLo;
+    final long lo = dst[k + 1] + pLo;
+    final long carry = Long.compareUnsigned(lo, pLo) < 0 ? 1 : 0;
+    dst[k] += pHi + carry;
+    dst[k + 1] = lo;
+  }
+
+  //
+  // Sets dst to dst + x modulo 2^128.
+  //
+
+  public static void add(final long[] dst,
+                         final int k,
+                         final long xHi,
+                         final long xLo) {
+    final long lo = dst[k + 1] + xLo;
+    final long carry = Long.compareUnsigned(lo, xLo) < 0 ? 1 : 0;
+    dst[k] += xHi + carry;
+    dst[k + 1] = lo;
+  }
+
+  //
+  // Sets dst to dst - x modulo 2^128.
+  //
+
+  public static void sub(final long[] dst,
+                         final int k,
+                         final long xHi,
+                         final long xLo) {
+    final long lo = dst[k + 1] - xLo;
+    final long borrow =
+        Long.compareUnsigned(dst[k + 1], xLo) < 0 ? 1 : 0;
+    dst[k] -= xHi + borrow;
+    dst[k + 1] = lo;
+  }
+
+  //
+  // Reduces dst modulo 2^bits.
+  //
+
+  public static void mask(final long[] dst,
+                          final int k,
+                          final int bits) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(bits >= 0);
+        SST_ASSERT(bits <= 128);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    if (bits <= 64) {
+      dst[k] = 0;
+      if (bits < 64) {
+        dst[k + 1] &= (1L << bits) - 1;
+      }
+    } else if (bits < 128) {
+      dst[k] &= (1L << (bits - 64)) - 1;
+    }
+  }
+
+  //--------------------------------------------------------------------
+  // 320-bit accumulators
+  //--------------------------------------------------------------------
+  //
+  // An accumulator is five longs in a flat long[] array, most
+  // significant first, starting at index k. mulAcc() adds the full
+  // 256-bit product of two 128-bit integers to it without reducing
+  // anything, so an accumulator can absorb 2^64 products before it
+  // wraps. A loop over a batch or a whole domain tuple can therefore
+  // accumulate every product and call Mod.reduce() once at the end,
+  // just like the power-of-two loops wrap and call mask() once at the
+  // end.
+  //
+
+  public static final int ACC_SIZE = 5;
+
+  //
+  // Adds the 128-bit integer (hi, lo) to the accumulator at k after
+  // shifting it left by 64 * limb bits.
+  //
+
+  private static void addShifted(final long[] acc,
+                                 final int k,
+                                 final int limb,
+                                 final long hi,
+                                 final long lo) {
+    int i = k + ACC_SIZE - 1 - limb;
+    long t = acc[i] + lo;
+    long c = Long.compareUnsigned(t, lo) < 0 ? 1 : 0;
+    acc[i] = t;
+    --i;
+    t = acc[i] + hi;
+    long c2 = Long.compareUnsigned(t, hi) < 0 ? 1 : 0;
+    if (c != 0) {
+      ++t;
+      if (t == 0) {
+        c2 = 1;
+      }
+    }
+    acc[i] = t;
+    c = c2;
+    while (c != 0 && i > k) {
+      --i;
+      ++acc[i];
+      c = acc[i] == 0 ? 1 : 0;
+    }
+  }
+
+  //
+  // Sets acc to acc + x * y.
+  //
+
+  public static void mulAcc(final long[] acc,
+                            final int k,
+                            final long xHi,
+                            final long xLo,
+                            final long yHi,
+                            final long yLo) {
+    addShifted(acc, k, 0, multiplyHighUnsigned(xLo, yLo), xLo * yLo);
+    addShifted(acc, k, 1, multiplyHighUnsigned(xLo, yHi), xLo * yHi);
+    addShifted(acc, k, 1, multiplyHighUnsigned(xHi, yLo), xHi * yLo);
+    addShifted(acc, k, 2, multiplyHighUnsigned(xHi, yHi), xHi * yHi);
+  }
+
+  //
+  // Sets acc to acc + src, where src is the accumulator at j.
+  //
+
+  public static void accAdd(final long[] acc,
+                            final int k,
+                            final long[] src,
+                            final int j) {
+    long c = 0;
+    for (int i = ACC_SIZE - 1; i >= 0; --i) {
+      final long x = src[j + i];
+      long t = acc[k + i] + x;
+      long c2 = Long.compareUnsigned(t, x) < 0 ? 1 : 0;
+      if (c != 0) {
+        ++t;
+        if (t == 0) {
+          c2 = 1;
+        }
+      }
+      acc[k + i] = t;
+      c = c2;
+    }
+  }
+
+  //--------------------------------------------------------------------
+  // Arithmetic modulo an arbitrary modulus
+  //--------------------------------------------------------------------
+  //
+  // A Mod holds a modulus m in (2^64, 2^128). The operands of add()
+  // and sub() must already be reduced. Products are accumulated with
+  // mulAcc() and reduced with reduce(), which uses Knuth's algorithm D
+  // on 32-bit limbs with a divisor that is normalized once in the
+  // constructor.
+  //
+  // reduce() keeps its limbs in scratch space owned by the Mod, so it
+  // must only be called by one thread at a time on a given Mod. A
+  // thread that reduces on behalf of a shared Mod should make its own
+  // Mod with copy(). add() and sub() only read the Mod.
+  //
+
+  public static final class Mod {
+    private final long hi_;
+    private final long lo_;
+    private final int n_;
+    private final int shift_;
+    private final long[] v_ = new long[4];
+    private final long[] u_ = new long[2 * ACC_SIZE + 1];
+
+    public Mod(final BigInteger modulus) {
+      if (!SST_NDEBUG) {
+        try {
+          SST_ASSERT(modulus != null);
+          SST_ASSERT(modulus.bitLength() > 64);
+          SST_ASSERT(modulus.bitLength() <= 128);
+        } catch (final Throwable e) {
+          SST_ASSERT(e);
+        }
+      }
+      hi_ = modulus.shiftRight(64).longValue();
+      lo_ = modulus.longValue();
+      final long[] v = {lo_ & 0xFFFFFFFFL,
+                        lo_ >>> 32,
+                        hi_ & 0xFFFFFFFFL,
+                        hi_ >>> 32};
+      int n = 4;
+      while (v[n - 1] == 0) {
+        --n;
+      }
+      n_ = n;
+      shift_ = Long.numberOfLeadingZeros(v[n - 1]) - 32;
+      for (int i = n - 1; i >= 0; --i) {
+        long x = v[i] << shift_;
+        if (i > 0 && shift_ > 0) {
+          x |= v[i - 1] >>> (32 - shift_);
+        }
+        v_[i] = x & 0xFFFFFFFFL;
+      }
+    }
+
+    private Mod(final Mod other) {
+      hi_ = other.hi_;
+      lo_ = other.lo_;
+      n_ = other.n_;
+      shift_ = other.shift_;
+      System.arraycopy(other.v_, 0, v_, 0, v_.length);
+    }
+
+    public final Mod copy() {
+      return new Mod(this);
+    }
+
+    private final boolean geq(final long hi, final long lo) {
+      final int c = Long.compareUnsigned(hi, hi_);
+      return c > 0 || (c == 0 && Long.compareUnsigned(lo, lo_) >= 0);
+    }
+
+    //
+    // Sets dst to dst + x modulo m.
+    //
+
+    public final void add(final long[] dst,
+                          final int k,
+                          final long xHi,
+                          final long xLo) {
+      final long hi = dst[k];
+      final long lo = dst[k + 1];
+      Int128.add(dst, k, xHi, xLo);
+      final int c = Long.compareUnsigned(dst[k], hi);
+      final boolean carry =
+          c < 0 || (c == 0 && Long.compareUnsigned(dst[k + 1], lo) < 0);
+      if (carry || geq(dst[k], dst[k + 1])) {
+        Int128.sub(dst, k, hi_, lo_);
+      }
+    }
+
+    //
+    // Sets dst to dst - x modulo m.
+    //
+
+    public final void sub(final long[] dst,
+                          final int k,
+                          final long xHi,
+                          final long xLo) {
+      final int c = Long.compareUnsigned(dst[k], xHi);
+      final boolean borrow =
+          c < 0
+          || (c == 0 && Long.compareUnsigned(dst[k + 1], xLo) < 0);
+      Int128.sub(dst, k, xHi, xLo);
+      if (borrow) {
+        Int128.add(dst, k, hi_, lo_);
+      }
+    }
+
+    //
+    // Sets dst at j to the accumulator at k modulo m. This is
+    // algorithm D from The Art of Computer Programming, Volume 2,
+    // Section 4.3.1, keeping only the remainder.
+    //
+
+    public final void reduce(final long[] acc,
+                             final int k,
+                             final long[] dst,
+                             final int j) {
+      final long[] u = u_;
+      final long[] v = v_;
+      final int n = n_;
+      final int s = shift_;
+
+      // Unpack acc into 32-bit limbs, least significant first, and
+      // drop the leading zero limbs, keeping at least n of them.
+      for (int i = 0; i < ACC_SIZE; ++i) {
+        final long x = acc[k + ACC_SIZE - 1 - i];
+        u[2 * i] = x & 0xFFFFFFFFL;
+        u[2 * i + 1] = x >>> 32;
+      }
+      int size = 2 * ACC_SIZE;
+      while (size > n && u[size - 1] == 0) {
+        --size;
+      }
+
+      // Normalize u by the same shift as v, which needs one more limb.
+      u[size] = 0;
+      if (s > 0) {
+        for (int i = size; i > 0; --i) {
+          u[i] = ((u[i] << s) | (u[i - 1] >>> (32 - s))) & 0xFFFFFFFFL;
+        }
+        u[0] = (u[0] << s) & 0xFFFFFFFFL;
+      }
+
+      final long vTop = v[n - 1];
+      final long vNext = v[n - 2];
+      for (int q = size - n; q >= 0; --q) {
+        final long num = (u[q + n] << 32) | u[q + n - 1];
+        long qhat = divideUnsigned(num, vTop);
+        long rhat = num - qhat * vTop;
+        while (qhat > 0xFFFFFFFFL
+               || Long.compareUnsigned(qhat * vNext,
+                                       (rhat << 32) | u[q + n - 2])
+                      > 0) {
+          --qhat;
+          rhat += vTop;
+          if (rhat > 0xFFFFFFFFL) {
+            break;
+          }
+        }
+        long borrow = 0;
+        for (int i = 0; i < n; ++i) {
+          final long p = qhat * v[i];
+          final long t = u[i + q] - borrow - (p & 0xFFFFFFFFL);
+          u[i + q] = t & 0xFFFFFFFFL;
+          borrow = (p >>> 32) - (t >> 32);
+        }
+        final long t = u[q + n] - borrow;
+        u[q + n] = t & 0xFFFFFFFFL;
+        if (t < 0) {
+          long carry = 0;
+          for (int i = 0; i < n; ++i) {
+            final long x = u[i + q] + v[i] + carry;
+            u[i + q] = x & 0xFFFFFFFFL;
+            carry = x >>> 32;
+          }
+          u[q + n] = (u[q + n] + carry) & 0xFFFFFFFFL;
+        }
+      }
+
+      // Unnormalize the remainder, which is in the low n limbs.
+      for (int i = 0; i < n; ++i) {
+        long x = u[i] >>> s;
+        if (s > 0) {
+          x |= (u[i + 1] << (32 - s)) & 0xFFFFFFFFL;
+        }
+        u[i] = x;
+      }
+      for (int i = n; i < 4; ++i) {
+        u[i] = 0;
+      }
+      dst[j] = (u[3] << 32) | u[2];
+      dst[j + 1] = (u[1] << 32) | u[0];
+    }
+
+    //
+    // Divides an unsigned 64-bit x by a d in [2^31, 2^32). Unlike
+    // Long.divideUnsigned() in Java 8, this never allocates.
+    //
+
+    private static long divideUnsigned(final long x, final long d) {
+      long q = ((x >>> 1) / d) << 1;
+      final long r = x - q * d;
+      if (Long.compareUnsigned(r, d) >= 0) {
+        ++q;
+      }
+      return q;
+    }
+  }
+}
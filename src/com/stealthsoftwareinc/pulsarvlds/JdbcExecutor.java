@@ -0,0 +1,143 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import io.netty.util.concurrent.AbstractEventExecutor;
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//
+// The executor of the JDBC thread group. It runs its tasks on a plain
+// ThreadPoolExecutor with threadCount threads at most, each of which
+// ends after keepAlive without a task, so an idle party holds no JDBC
+// threads. Unlike UnorderedThreadPoolEventExecutor, which is a
+// ScheduledThreadPoolExecutor and should not let its core threads time
+// out, it supports no scheduled tasks.
+//
+// It is an EventExecutor so that submit() returns a Netty Future and
+// so that it can be passed to JdbcRunner and JdbcConnectionFactory
+// like the other thread groups. No thread is ever in its event loop,
+// so the listeners of its futures are always notified by a new task.
+//
+
+final class JdbcExecutor extends AbstractEventExecutor {
+
+  private final Promise<Void> terminationFuture_ =
+      new DefaultPromise<Void>(GlobalEventExecutor.INSTANCE);
+
+  private final ThreadPoolExecutor pool_;
+
+  public JdbcExecutor(final int threadCount,
+                      final long keepAlive,
+                      final TimeUnit unit,
+                      final ThreadFactory threadFactory) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(threadCount > 0);
+        SST_ASSERT(keepAlive > 0);
+        SST_ASSERT(unit != null);
+        SST_ASSERT(threadFactory != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    pool_ = new ThreadPoolExecutor(threadCount,
+                                   threadCount,
+                                   keepAlive,
+                                   unit,
+                                   new LinkedBlockingQueue<Runnable>(),
+                                   threadFactory) {
+      @Override
+      protected final void terminated() {
+        terminationFuture_.trySuccess(null);
+      }
+    };
+    pool_.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public final void execute(final Runnable task) {
+    pool_.execute(task);
+  }
+
+  @Override
+  public final boolean inEventLoop(final Thread thread) {
+    return false;
+  }
+
+  @Override
+  public final boolean isShuttingDown() {
+    return pool_.isShutdown();
+  }
+
+  @Override
+  public final Future<?> shutdownGracefully(final long quietPeriod,
+                                            final long timeout,
+                                            final TimeUnit unit) {
+    pool_.shutdown();
+    return terminationFuture_;
+  }
+
+  @Override
+  public final Future<?> terminationFuture() {
+    return terminationFuture_;
+  }
+
+  @Override
+  @Deprecated
+  public final void shutdown() {
+    pool_.shutdown();
+  }
+
+  @Override
+  public final boolean isShutdown() {
+    return pool_.isShutdown();
+  }
+
+  @Override
+  public final boolean isTerminated() {
+    return pool_.isTerminated();
+  }
+
+  @Override
+  public final boolean awaitTermination(final long timeout,
+                                        final TimeUnit unit)
+      throws InterruptedException {
+    return pool_.awaitTermination(timeout, unit);
+  }
+}
@@ -0,0 +1,203 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import com.stealthsoftwareinc.sst.FixedPointModContext;
+import com.stealthsoftwareinc.sst.JdbcType;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+//
+// A RowSource over the result of a full query or a grouped scan, whose
+// columns are the linking column followed by the value columns of the
+// local aggregates as RawChannelHandler.appendFullSelectSql() selects
+// them. Each aggregate selects min(aggCount(), 2) columns, and its X
+// values beyond the second are the squares of its second column. The
+// values are encoded with the FixedPointModContext of their aggregate,
+// or with the zero scale one if Aggregate.shouldScale() says so.
+//
+// The result can be replaced by reset(), as RawChannelHandler does
+// when it moves on to the next partition of a partitioned full query,
+// without recomputing which column each X value comes from.
+//
+
+final class JdbcRowSource implements RowSource {
+
+  //
+  // Converts the linking column of the current row of a result to its
+  // byte sequence, as RawChannelHandler does for the rows it sends.
+  //
+
+  public interface IdEncoder {
+    void encode(ResultSet result, int columnIndex, byte[] dst, int off)
+        throws Exception;
+  }
+
+  private final IdEncoder idEncoder_;
+  private final int[] columns_;
+  private final boolean[] squares_;
+  private final FixedPointModContext[] contexts_;
+  private final JdbcType[] types_;
+  private ResultSet result_ = null;
+
+  public JdbcRowSource(final List<Aggregate> aggregates,
+                       final FixedPointModContext zeroScaleContext,
+                       final FixedPointModContext[] contexts,
+                       final IdEncoder idEncoder) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(aggregates != null);
+        SST_ASSERT(zeroScaleContext != null);
+        SST_ASSERT(contexts != null);
+        SST_ASSERT(contexts.length == aggregates.size());
+        SST_ASSERT(idEncoder != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    int count = 0;
+    for (final Aggregate aggregate : aggregates) {
+      count += aggregate.aggCount();
+    }
+    idEncoder_ = idEncoder;
+    columns_ = new int[count];
+    squares_ = new boolean[count];
+    contexts_ = new FixedPointModContext[count];
+    types_ = new JdbcType[count];
+    int k = 0;
+    int ci = 2;
+    for (int ai = 0; ai < aggregates.size(); ++ai) {
+      final Aggregate aggregate = aggregates.get(ai);
+      final int n = aggregate.aggCount();
+      for (int j = 0; j < n; ++j) {
+        contexts_[k] =
+            aggregate.shouldScale(j) ? contexts[ai] : zeroScaleContext;
+        if (j < 2) {
+          columns_[k] = ci;
+          ++ci;
+        } else {
+          columns_[k] = ci - 1;
+          squares_[k] = true;
+        }
+        ++k;
+      }
+    }
+  }
+
+  public final int count() {
+    return columns_.length;
+  }
+
+  public final ResultSet result() {
+    return result_;
+  }
+
+  public final JdbcRowSource reset(final ResultSet result)
+      throws SQLException {
+    result_ = result;
+    if (result != null) {
+      final ResultSetMetaData metadata = result.getMetaData();
+      for (int k = 0; k < columns_.length; ++k) {
+        types_[k] =
+            JdbcType.fromInt(metadata.getColumnType(columns_[k]));
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public final boolean next() throws Exception {
+    return result_.next();
+  }
+
+  @Override
+  public final void id(final byte[] dst, final int off)
+      throws Exception {
+    idEncoder_.encode(result_, 1, dst, off);
+  }
+
+  @Override
+  public final int xInt(final int k) throws Exception {
+    final FixedPointModContext fp = contexts_[k];
+    if (squares_[k]) {
+      return fp.encodeSquare(result_,
+                             columns_[k],
+                             types_[k],
+                             (Integer)null,
+                             true);
+    }
+    return fp.encode(result_,
+                     columns_[k],
+                     types_[k],
+                     (Integer)null,
+                     true);
+  }
+
+  @Override
+  public final long xLong(final int k) throws Exception {
+    final FixedPointModContext fp = contexts_[k];
+    if (squares_[k]) {
+      return fp.encodeSquare(result_,
+                             columns_[k],
+                             types_[k],
+                             (Long)null,
+                             true);
+    }
+    return fp.encode(result_, columns_[k], types_[k], (Long)null, true);
+  }
+
+  @Override
+  public final BigInteger xBig(final int k) throws Exception {
+    final FixedPointModContext fp = contexts_[k];
+    if (squares_[k]) {
+      return fp.encodeSquare(result_,
+                             columns_[k],
+                             types_[k],
+                             (BigInteger)null,
+                             true);
+    }
+    return fp.encode(result_,
+                     columns_[k],
+                     types_[k],
+                     (BigInteger)null,
+                     true);
+  }
+
+  @Override
+  public final void xWide(final int k, final long[] dst, final int off)
+      throws Exception {
+    Int128.fromBig(xBig(k), dst, off);
+  }
+}
@@ -37,10 +37,17 @@ import com.stealthsoftwareinc.sst.Json;
 import com.stealthsoftwareinc.sst.JsonException;
 import com.stealthsoftwareinc.sst.ToJson;
 import com.stealthsoftwareinc.sst.Types;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 public final class Lexicon implements ToJson {
 
@@ -287,6 +294,9 @@ public final class Lexicon implements ToJson {
         SST_ASSERT(e);
       }
     }
+    if (!common().lexiconEquals(other.common())) {
+      return false;
+    }
     if (!dbInfos().keySet().equals(other.dbInfos().keySet())) {
       return false;
     }
@@ -299,5 +309,42 @@ public final class Lexicon implements ToJson {
     return true;
   }
 
+  //
+  // The lexicon digest is the SHA-256 hash of everything that
+  // lexiconEquals() compares, written in a canonical form by the
+  // lexiconDigest() functions of the classes below Lexicon. Two
+  // lexicons are lexiconEquals() if and only if their digests are
+  // equal, barring hash collisions, so connections can compare their
+  // digests instead of exchanging and parsing the full lexicons.
+  //
+
+  public static final int DIGEST_SIZE = 32;
+
+  static void digestString(final DataOutput dst, final String src)
+      throws IOException {
+    if (src == null) {
+      dst.writeInt(-1);
+    } else {
+      final byte[] bytes = src.getBytes(StandardCharsets.UTF_8);
+      dst.writeInt(bytes.length);
+      dst.write(bytes);
+    }
+  }
+
+  public final byte[] lexiconDigest() throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream dst = new DataOutputStream(bytes);
+    common().lexiconDigest(dst);
+    dst.writeInt(dbInfos().size());
+    for (final Map.Entry<Party, DbInfo> kv :
+         new TreeMap<Party, DbInfo>(dbInfos()).entrySet()) {
+      dst.writeInt(kv.getKey().toInt());
+      kv.getValue().lexiconDigest(dst);
+    }
+    dst.flush();
+    return MessageDigest.getInstance("SHA-256").digest(
+        bytes.toByteArray());
+  }
+
   //--------------------------------------------------------------------
 }
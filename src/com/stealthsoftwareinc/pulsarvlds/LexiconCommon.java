@@ -35,12 +35,90 @@ import com.stealthsoftwareinc.sst.CreateFromJson;
 import com.stealthsoftwareinc.sst.Json;
 import com.stealthsoftwareinc.sst.JsonException;
 import com.stealthsoftwareinc.sst.ToJson;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.HashMap;
 import java.util.Map;
 
 public final class LexiconCommon implements ToJson {
 
+  //--------------------------------------------------------------------
+  // batch_bytes
+  //--------------------------------------------------------------------
+
+  private static final String batchBytesKey_ = "batch_bytes";
+  private int batchBytes_ = 65536;
+  private boolean doneBatchBytes_ = false;
+
+  private final int batchBytes(final Map<String, ?> src) {
+    if (!doneBatchBytes_) {
+      batchBytes_ = Json.removeAs(src,
+                                  batchBytesKey_,
+                                  batchBytes_,
+                                  batchBytes_);
+      try {
+        if (batchBytes_ < 1) {
+          throw new JsonException("value must be a positive integer");
+        }
+      } catch (final JsonException e) {
+        throw e.addKey(batchBytesKey_);
+      }
+      doneBatchBytes_ = true;
+    }
+    return batchBytes_;
+  }
+
+  public final int batchBytes() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneBatchBytes_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return batchBytes_;
+  }
+
+  private final void batchBytesToJson(final Map<String, Object> dst) {
+    dst.put(batchBytesKey_, batchBytes_);
+  }
+
+  //--------------------------------------------------------------------
+  // front_coded_ids
+  //--------------------------------------------------------------------
+
+  private static final String frontCodedIdsKey_ = "front_coded_ids";
+  private boolean frontCodedIds_ = false;
+  private boolean doneFrontCodedIds_ = false;
+
+  private final boolean frontCodedIds(final Map<String, ?> src) {
+    if (!doneFrontCodedIds_) {
+      frontCodedIds_ = Json.removeAs(src,
+                                     frontCodedIdsKey_,
+                                     frontCodedIds_,
+                                     frontCodedIds_);
+      doneFrontCodedIds_ = true;
+    }
+    return frontCodedIds_;
+  }
+
+  public final boolean frontCodedIds() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneFrontCodedIds_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return frontCodedIds_;
+  }
+
+  private final void
+  frontCodedIdsToJson(final Map<String, Object> dst) {
+    dst.put(frontCodedIdsKey_, frontCodedIds_);
+  }
+
   //--------------------------------------------------------------------
   // guid_size
   //--------------------------------------------------------------------
@@ -230,6 +308,125 @@ public final class LexiconCommon implements ToJson {
     return modulus_;
   }
 
+  //--------------------------------------------------------------------
+  // row_count_vector
+  //--------------------------------------------------------------------
+
+  private static final String rowCountVectorKey_ = "row_count_vector";
+  private boolean rowCountVector_ = false;
+  private boolean doneRowCountVector_ = false;
+
+  private final boolean rowCountVector(final Map<String, ?> src) {
+    if (!doneRowCountVector_) {
+      rowCountVector_ = Json.removeAs(src,
+                                      rowCountVectorKey_,
+                                      rowCountVector_,
+                                      rowCountVector_);
+      doneRowCountVector_ = true;
+    }
+    return rowCountVector_;
+  }
+
+  public final boolean rowCountVector() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneRowCountVector_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return rowCountVector_;
+  }
+
+  private final void
+  rowCountVectorToJson(final Map<String, Object> dst) {
+    dst.put(rowCountVectorKey_, rowCountVector_);
+  }
+
+  //--------------------------------------------------------------------
+  // seeded_masks
+  //--------------------------------------------------------------------
+
+  private static final String seededMasksKey_ = "seeded_masks";
+  private boolean seededMasks_ = false;
+  private boolean doneSeededMasks_ = false;
+
+  private final boolean seededMasks(final Map<String, ?> src) {
+    if (!doneSeededMasks_) {
+      seededMasks_ = Json.removeAs(src,
+                                   seededMasksKey_,
+                                   seededMasks_,
+                                   seededMasks_);
+      doneSeededMasks_ = true;
+    }
+    return seededMasks_;
+  }
+
+  public final boolean seededMasks() {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(doneSeededMasks_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return seededMasks_;
+  }
+
+  private final void seededMasksToJson(final Map<String, Object> dst) {
+    dst.put(seededMasksKey_, seededMasks_);
+  }
+
+  //--------------------------------------------------------------------
+  // Verifying that two lexicons match
+  //--------------------------------------------------------------------
+  //
+  // Every common key changes what the parties send each other or how
+  // they read it, so all of them must match. A party whose batch_bytes,
+  // front_coded_ids, row_count_vector or seeded_masks differs from its
+  // peer's would otherwise desynchronize the batch streams.
+  //
+
+  public final boolean lexiconEquals(final LexiconCommon other) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(other != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return batchBytes() == other.batchBytes()
+        && frontCodedIds() == other.frontCodedIds()
+        && guidSize() == other.guidSize()
+        && linkingColumnForceString()
+               == other.linkingColumnForceString()
+        && linkingColumnSize() == other.linkingColumnSize()
+        && linkingColumnUnicode() == other.linkingColumnUnicode()
+        && modulus().equals(other.modulus())
+        && rowCountVector() == other.rowCountVector()
+        && seededMasks() == other.seededMasks();
+  }
+
+  public final void lexiconDigest(final DataOutput dst)
+      throws IOException {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(dst != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    dst.writeInt(batchBytes());
+    dst.writeBoolean(frontCodedIds());
+    dst.writeInt(guidSize());
+    dst.writeBoolean(linkingColumnForceString());
+    dst.writeInt(linkingColumnSize());
+    dst.writeBoolean(linkingColumnUnicode());
+    Lexicon.digestString(dst, modulus().toString());
+    dst.writeBoolean(rowCountVector());
+    dst.writeBoolean(seededMasks());
+  }
+
   //--------------------------------------------------------------------
   // JSON representation
   //--------------------------------------------------------------------
@@ -237,29 +434,41 @@ public final class LexiconCommon implements ToJson {
   @Override
   public final Object toJson() {
     final Map<String, Object> dst = new HashMap<String, Object>();
+    batchBytesToJson(dst);
+    frontCodedIdsToJson(dst);
     dst.put(GUID_SIZE_KEY, guidSize_);
     dst.put(MODULUS_KEY, modulus_.toString());
     linkingColumnForceStringToJson(dst);
     linkingColumnSizeToJson(dst);
     linkingColumnUnicodeToJson(dst);
+    rowCountVectorToJson(dst);
+    seededMasksToJson(dst);
     return dst;
   }
 
   private LexiconCommon(
       final Map<String, ?> src,
       final CreateFromJson<LexiconCommon> createFromJsonTag) {
+    batchBytes(src);
+    frontCodedIds(src);
     guidSize(src);
     linkingColumnForceString(src);
     linkingColumnSize(src);
     linkingColumnUnicode(src);
     modulus(src);
+    rowCountVector(src);
+    seededMasks(src);
 
     if (!SST_NDEBUG) {
+      batchBytes();
+      frontCodedIds();
       guidSize();
       linkingColumnForceString();
       linkingColumnSize();
       linkingColumnUnicode();
       modulus();
+      rowCountVector();
+      seededMasks();
     }
 
     Json.unknownKey(src);
@@ -0,0 +1,116 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+//
+// A SpscQueue specialized for long elements, which are stored in a
+// long[] ring buffer instead of being boxed. Since there is no null
+// to return from an empty queue, poll() and peek() take the value to
+// return instead, which should be a value that is never offered, such
+// as -1 for a queue of row counts.
+//
+
+final class LongSpscQueue {
+  private final long[] buffer_;
+  private final int mask_;
+  private final AtomicLong head_ = new AtomicLong(0);
+  private final AtomicLong tail_ = new AtomicLong(0);
+  private long headCache_ = 0;
+  private long tailCache_ = 0;
+
+  public LongSpscQueue(final int capacity) {
+    buffer_ = new long[SpscQueue.capacity(capacity)];
+    mask_ = buffer_.length - 1;
+  }
+
+  public final int capacity() {
+    return buffer_.length;
+  }
+
+  //
+  // Producer side.
+  //
+
+  public final boolean offer(final long x) {
+    final long t = tail_.get();
+    if (t - tailCache_ == buffer_.length) {
+      tailCache_ = head_.get();
+      if (t - tailCache_ == buffer_.length) {
+        return false;
+      }
+    }
+    buffer_[(int)t & mask_] = x;
+    tail_.lazySet(t + 1);
+    return true;
+  }
+
+  //
+  // Consumer side.
+  //
+
+  public final long peek(final long empty) {
+    final long h = head_.get();
+    if (h == headCache_) {
+      headCache_ = tail_.get();
+      if (h == headCache_) {
+        return empty;
+      }
+    }
+    return buffer_[(int)h & mask_];
+  }
+
+  public final long poll(final long empty) {
+    final long h = head_.get();
+    if (h == headCache_) {
+      headCache_ = tail_.get();
+      if (h == headCache_) {
+        return empty;
+      }
+    }
+    final long x = buffer_[(int)h & mask_];
+    head_.lazySet(h + 1);
+    return x;
+  }
+
+  //
+  // Either side. The result may already be stale when it is returned.
+  //
+
+  public final boolean isEmpty() {
+    return head_.get() == tail_.get();
+  }
+
+  public final int size() {
+    final long h = head_.get();
+    final long t = tail_.get();
+    return (int)Math.min(t - h, buffer_.length);
+  }
+}
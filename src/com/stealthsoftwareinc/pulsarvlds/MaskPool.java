@@ -0,0 +1,196 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import com.stealthsoftwareinc.sst.Rand;
+import com.stealthsoftwareinc.sst.RandModContext;
+import java.math.BigInteger;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//
+// A bounded reservoir of random values modulo the lexicon modulus,
+// each stored as valueSize bytes in big endian order.
+//
+// The a and b masks that the DB-DB SH generates for each batch depend
+// only on the modulus, not on the data, the aggregate count, or the
+// batch size: every mask is just a sequence of independent uniform
+// values. The pool therefore keeps fixed-size chunks of such values
+// for the one modulus of the lexicon, and take() can serve any batch
+// shape from them. Whenever the pool is below capacity, it refills
+// itself on the CPU threads one chunk per task, so a refill never
+// holds a CPU thread for longer than it takes to generate a single
+// chunk. A refill task only generates its chunk if no other CPU
+// thread is busy, and otherwise tries again REFILL_RETRY_MILLIS later,
+// so the pool is filled between queries instead of competing with
+// them. The bytes of the values that take() hands out are zeroed in
+// the pool, so each mask value exists only in the batch that uses it.
+//
+
+final class MaskPool {
+  private static final int CHUNK_VALUES = 4096;
+  private static final long REFILL_RETRY_MILLIS = 10;
+
+  private final Globals globals_;
+  private final BigInteger modulus_;
+  private final int valueSize_;
+  private final RandomEngine randomEngine_;
+  private final RandModContext randMod_;
+  private final ArrayBlockingQueue<byte[]> chunks_;
+  private final AtomicBoolean refilling_ = new AtomicBoolean(false);
+
+  private byte[] chunk_ = null;
+  private int chunkIndex_ = 0;
+
+  public MaskPool(final Globals globals,
+                  final BigInteger modulus,
+                  final int capacity) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(globals != null);
+        SST_ASSERT(modulus != null);
+        SST_ASSERT(capacity > 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    globals_ = globals;
+    randMod_ = new RandModContext(modulus);
+    modulus_ = modulus;
+    valueSize_ = randMod_.valueSize();
+    randomEngine_ = globals.config().randomEngine();
+    chunks_ = new ArrayBlockingQueue<byte[]>(
+        (capacity - 1) / CHUNK_VALUES + 1);
+  }
+
+  //
+  // Copies up to count values to dst starting at value index offset,
+  // and returns how many were copied. The caller must generate any
+  // remaining values itself.
+  //
+
+  public final int take(final byte[] dst,
+                        final int offset,
+                        final int count) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(dst != null);
+        SST_ASSERT(offset >= 0);
+        SST_ASSERT(count >= 0);
+        SST_ASSERT((long)(offset + count) * valueSize_ <= dst.length);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    int taken = 0;
+    synchronized (this) {
+      while (taken < count) {
+        if (chunk_ == null || chunkIndex_ == CHUNK_VALUES) {
+          chunk_ = chunks_.poll();
+          chunkIndex_ = 0;
+          if (chunk_ == null) {
+            break;
+          }
+        }
+        final int n =
+            Math.min(count - taken, CHUNK_VALUES - chunkIndex_);
+        System.arraycopy(chunk_,
+                         chunkIndex_ * valueSize_,
+                         dst,
+                         (offset + taken) * valueSize_,
+                         n * valueSize_);
+        Arrays.fill(chunk_,
+                    chunkIndex_ * valueSize_,
+                    (chunkIndex_ + n) * valueSize_,
+                    (byte)0);
+        chunkIndex_ += n;
+        taken += n;
+      }
+    }
+    refill();
+    return taken;
+  }
+
+  //
+  // Starts refilling the pool in the background if it is below
+  // capacity and no refill is already running.
+  //
+
+  public final void refill() {
+    if (chunks_.remainingCapacity() == 0) {
+      return;
+    }
+    if (!refilling_.compareAndSet(false, true)) {
+      return;
+    }
+    globals_.cpuThreadGroup().submit(new Runnable() {
+      @Override
+      public final void run() {
+        try {
+          if (globals_.cpuThreadGroup().getActiveCount() > 1) {
+            globals_.cpuThreadGroup().schedule(this,
+                                               REFILL_RETRY_MILLIS,
+                                               TimeUnit.MILLISECONDS);
+            return;
+          }
+          final byte[] chunk = new byte[CHUNK_VALUES * valueSize_];
+          if (randomEngine_ == RandomEngine.AES_CTR) {
+            AesCtrPrg.local().genMod(chunk,
+                                     0,
+                                     CHUNK_VALUES,
+                                     valueSize_,
+                                     modulus_);
+          } else {
+            randMod_.gen(Rand.cryptoRng(),
+                         chunk,
+                         0,
+                         chunk.length,
+                         ByteOrder.BIG_ENDIAN);
+          }
+          final boolean more =
+              chunks_.offer(chunk) && chunks_.remainingCapacity() > 0;
+          refilling_.set(false);
+          if (more) {
+            refill();
+          }
+        } catch (final Throwable e) {
+          refilling_.set(false);
+          globals_.log("mask pool: refill error: " + e.getMessage());
+        }
+      }
+    });
+  }
+}
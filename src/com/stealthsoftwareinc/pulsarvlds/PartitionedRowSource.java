@@ -0,0 +1,376 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import java.math.BigInteger;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+//
+// A RowSource over the partitions of a partitioned full query, which
+// yields all rows of the first partition, then all rows of the second,
+// and so on.
+//
+// Each partition is read ahead by its own job on the JDBC threads,
+// which copies the rows of its RowSource into chunks of rowsPerChunk
+// rows with their X values already encoded, and hands the chunks to
+// the consumer through a queue of QUEUE_CAPACITY chunks. All
+// partitions are therefore read at the same time, up to QUEUE_CAPACITY
+// chunks ahead of the consumer, instead of one after another. A job
+// stops when its queue is full and is restarted by the consumer when
+// it takes a chunk, so a job never waits and never holds a JDBC thread
+// that the consumer is waiting for.
+//
+// When the consumer finds the queue of its partition empty while the
+// job of the partition is not running, it takes over the RowSource of
+// the partition and reads the rest of it directly. The consumer thus
+// only ever waits for a job that is running on a thread of its own.
+//
+// Only the x*() method given by the XKind passed to the constructor is
+// supported, as only it is filled in when the chunks are read.
+//
+
+final class PartitionedRowSource implements RowSource {
+
+  public enum XKind {
+    INT,
+    LONG,
+    WIDE,
+    BIG;
+  }
+
+  private static final int QUEUE_CAPACITY = 2;
+  private static final long WAIT_NANOS = 1000000;
+
+  private static final int SCHEDULED = 0;
+  private static final int RUNNING = 1;
+  private static final int IDLE = 2;
+  private static final int DONE = 3;
+  private static final int FAILED = 4;
+  private static final int CLAIMED = 5;
+
+  private static final class Chunk {
+    public final byte[] id;
+    public final int[] xInt;
+    public final long[] xLong;
+    public final BigInteger[] xBig;
+    public int rows = 0;
+    public boolean last = false;
+
+    public Chunk(final XKind kind,
+                 final int rows,
+                 final int count,
+                 final int idSize) {
+      id = new byte[rows * idSize];
+      xInt = kind == XKind.INT ? new int[rows * count] : null;
+      xLong = kind == XKind.LONG ? new long[rows * count] :
+              kind == XKind.WIDE ? new long[2 * rows * count] :
+                                   null;
+      xBig = kind == XKind.BIG ? new BigInteger[rows * count] : null;
+    }
+  }
+
+  private final class Partition implements Runnable {
+    private final RowSource source_;
+    private final SpscQueue<Chunk> queue_ =
+        new SpscQueue<Chunk>(QUEUE_CAPACITY);
+    private final SpscQueue<Chunk> free_ =
+        new SpscQueue<Chunk>(QUEUE_CAPACITY + 1);
+    private final AtomicInteger state_ = new AtomicInteger(SCHEDULED);
+    private volatile Throwable error_ = null;
+
+    //
+    // Consumer side. chunk_ is the chunk that the current row is in,
+    // and row_ is the index of the current row in it. claimed_ is true
+    // once the consumer has taken over source_, and direct_ is true
+    // once it has also emptied queue_ and reads from source_.
+    //
+
+    private Chunk chunk_ = null;
+    private int row_ = -1;
+    private boolean claimed_ = false;
+    private boolean direct_ = false;
+
+    public Partition(final RowSource source) {
+      source_ = source;
+    }
+
+    private Chunk read() throws Exception {
+      Chunk c = free_.poll();
+      if (c == null) {
+        c = new Chunk(kind_, rowsPerChunk_, count_, idSize_);
+      }
+      c.last = false;
+      int i = 0;
+      for (; i < rowsPerChunk_; ++i) {
+        if (!source_.next()) {
+          c.last = true;
+          break;
+        }
+        source_.id(c.id, i * idSize_);
+        final int k0 = i * count_;
+        switch (kind_) {
+          case INT:
+            for (int k = 0; k < count_; ++k) {
+              c.xInt[k0 + k] = source_.xInt(k);
+            }
+            break;
+          case LONG:
+            for (int k = 0; k < count_; ++k) {
+              c.xLong[k0 + k] = source_.xLong(k);
+            }
+            break;
+          case WIDE:
+            for (int k = 0; k < count_; ++k) {
+              source_.xWide(k, c.xLong, 2 * (k0 + k));
+            }
+            break;
+          case BIG:
+            for (int k = 0; k < count_; ++k) {
+              c.xBig[k0 + k] = source_.xBig(k);
+            }
+            break;
+        }
+      }
+      c.rows = i;
+      return c;
+    }
+
+    @Override
+    public final void run() {
+      if (!state_.compareAndSet(SCHEDULED, RUNNING)) {
+        return;
+      }
+      try {
+        while (true) {
+          while (queue_.size() < queue_.capacity()) {
+            final Chunk c = read();
+            queue_.offer(c);
+            if (c.last) {
+              state_.set(DONE);
+              wake();
+              return;
+            }
+            wake();
+          }
+          state_.set(IDLE);
+          wake();
+          if (queue_.size() == queue_.capacity()
+              || !state_.compareAndSet(IDLE, RUNNING)) {
+            return;
+          }
+        }
+      } catch (final Throwable e) {
+        error_ = e;
+        state_.set(FAILED);
+        wake();
+      }
+    }
+
+    public final boolean next() throws Exception {
+      if (direct_) {
+        return source_.next();
+      }
+      if (chunk_ != null) {
+        if (++row_ < chunk_.rows) {
+          return true;
+        }
+        final boolean last = chunk_.last;
+        free_.offer(chunk_);
+        chunk_ = null;
+        if (last) {
+          return false;
+        }
+      }
+      while (true) {
+        final Chunk c = queue_.poll();
+        if (c != null) {
+          if (!claimed_ && state_.compareAndSet(IDLE, SCHEDULED)) {
+            executor_.execute(this);
+          }
+          if (c.rows > 0) {
+            chunk_ = c;
+            row_ = 0;
+            return true;
+          }
+          free_.offer(c);
+          return false;
+        }
+        if (claimed_) {
+          direct_ = true;
+          return source_.next();
+        }
+        final int s = state_.get();
+        if (s == FAILED) {
+          final Throwable e = error_;
+          if (e instanceof Exception) {
+            throw (Exception)e;
+          }
+          throw new RuntimeException(e);
+        }
+        if (s == IDLE || s == SCHEDULED) {
+          claimed_ = state_.compareAndSet(s, CLAIMED);
+          continue;
+        }
+        if (s == RUNNING) {
+          waiter_ = Thread.currentThread();
+          if (queue_.isEmpty() && state_.get() == RUNNING) {
+            LockSupport.parkNanos(this, WAIT_NANOS);
+          }
+          waiter_ = null;
+        }
+      }
+    }
+
+    public final void id(final byte[] dst, final int off)
+        throws Exception {
+      if (direct_) {
+        source_.id(dst, off);
+      } else {
+        System.arraycopy(chunk_.id, row_ * idSize_, dst, off, idSize_);
+      }
+    }
+
+    public final int xInt(final int k) throws Exception {
+      return direct_ ? source_.xInt(k) : chunk_.xInt[row_ * count_ + k];
+    }
+
+    public final long xLong(final int k) throws Exception {
+      return direct_ ? source_.xLong(k) :
+                       chunk_.xLong[row_ * count_ + k];
+    }
+
+    public final BigInteger xBig(final int k) throws Exception {
+      return direct_ ? source_.xBig(k) : chunk_.xBig[row_ * count_ + k];
+    }
+
+    public final void xWide(final int k,
+                            final long[] dst,
+                            final int off) throws Exception {
+      if (direct_) {
+        source_.xWide(k, dst, off);
+      } else {
+        final int i = 2 * (row_ * count_ + k);
+        dst[off] = chunk_.xLong[i];
+        dst[off + 1] = chunk_.xLong[i + 1];
+      }
+    }
+  }
+
+  private final XKind kind_;
+  private final int count_;
+  private final int idSize_;
+  private final int rowsPerChunk_;
+  private final Executor executor_;
+  private final Partition[] partitions_;
+  private int index_ = 0;
+  private volatile Thread waiter_ = null;
+
+  public PartitionedRowSource(final RowSource[] sources,
+                              final XKind kind,
+                              final int count,
+                              final int idSize,
+                              final int rowsPerChunk,
+                              final Executor executor) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(sources != null);
+        SST_ASSERT(sources.length > 0);
+        SST_ASSERT(kind != null);
+        SST_ASSERT(count >= 0);
+        SST_ASSERT(idSize > 0);
+        SST_ASSERT(rowsPerChunk > 0);
+        SST_ASSERT(executor != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    kind_ = kind;
+    count_ = count;
+    idSize_ = idSize;
+    rowsPerChunk_ = rowsPerChunk;
+    executor_ = executor;
+    partitions_ = new Partition[sources.length];
+    for (int i = 0; i < sources.length; ++i) {
+      partitions_[i] = new Partition(sources[i]);
+    }
+    for (final Partition partition : partitions_) {
+      executor_.execute(partition);
+    }
+  }
+
+  private void wake() {
+    final Thread waiter = waiter_;
+    if (waiter != null) {
+      LockSupport.unpark(waiter);
+    }
+  }
+
+  @Override
+  public final boolean next() throws Exception {
+    while (!partitions_[index_].next()) {
+      if (index_ == partitions_.length - 1) {
+        return false;
+      }
+      ++index_;
+    }
+    return true;
+  }
+
+  @Override
+  public final void id(final byte[] dst, final int off)
+      throws Exception {
+    partitions_[index_].id(dst, off);
+  }
+
+  @Override
+  public final int xInt(final int k) throws Exception {
+    return partitions_[index_].xInt(k);
+  }
+
+  @Override
+  public final long xLong(final int k) throws Exception {
+    return partitions_[index_].xLong(k);
+  }
+
+  @Override
+  public final BigInteger xBig(final int k) throws Exception {
+    return partitions_[index_].xBig(k);
+  }
+
+  @Override
+  public final void xWide(final int k, final long[] dst, final int off)
+      throws Exception {
+    partitions_[index_].xWide(k, dst, off);
+  }
+}
@@ -35,8 +35,9 @@ import com.stealthsoftwareinc.sst.Guid;
 import com.stealthsoftwareinc.sst.PoolEntry;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelPipeline;
+import io.netty.util.concurrent.Future;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -48,7 +49,7 @@ public final class PhStartQueryEvent {
   private final Guid queryId_;
   private final Query query_;
   private final Party remoteParty_;
-  private final PoolEntry<ChannelFuture> rawChannel_;
+  private final PoolEntry<Future<Channel>> rawChannel_;
   private final ChannelPipeline httpPipeline_;
 
   public PhStartQueryEvent(final StateStream stateStream,
@@ -56,7 +57,7 @@ public final class PhStartQueryEvent {
                            final Guid queryId,
                            final Query query,
                            final Party remoteParty,
-                           final PoolEntry<ChannelFuture> rawChannel,
+                           final PoolEntry<Future<Channel>> rawChannel,
                            final ChannelPipeline httpPipeline) {
     if (!SST_NDEBUG) {
       try {
@@ -100,7 +101,7 @@ public final class PhStartQueryEvent {
     return remoteParty_;
   }
 
-  public final PoolEntry<ChannelFuture> rawChannel() {
+  public final PoolEntry<Future<Channel>> rawChannel() {
     return rawChannel_;
   }
 
@@ -33,30 +33,145 @@ import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
 
 import com.stealthsoftwareinc.sst.Supplier;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+//
+// RawChannelFactory makes the channels for a raw channel pool. Without
+// multiplexing, each channel is a new connection. With multiplexing,
+// each channel is a new HTTP/2 stream on a shared connection, which is
+// made on first use and made again if it is ever lost. A connection
+// carries at most maxStreams streams, which is the limit that the
+// remote party advertises, so once the current connection has that
+// many, the next stream is opened on a new connection. An older
+// connection is closed once its last stream is closed. See
+// RawChannelInitializer.
+//
 
 public final class RawChannelFactory
-    implements Supplier<ChannelFuture> {
+    implements Supplier<Future<Channel>> {
   private final Bootstrap bootstrap_;
   private final String host_;
   private final int port_;
+  private final RawChannelInitializer multiplexer_;
+  private final int maxStreams_;
+  private Connection connection_ = null;
+
+  private static final class Connection {
+    public final ChannelFuture future;
+    public int streams = 0;
+    public Connection(final ChannelFuture future) {
+      this.future = future;
+    }
+  }
 
   public RawChannelFactory(final Bootstrap bootstrap,
                            final CharSequence host,
-                           final int port) {
+                           final int port,
+                           final RawChannelInitializer multiplexer,
+                           final int maxStreams) {
     if (!SST_NDEBUG) {
       SST_ASSERT(bootstrap != null);
       SST_ASSERT(host != null);
       SST_ASSERT(port >= 1);
       SST_ASSERT(port <= 65535);
+      SST_ASSERT(maxStreams >= 1);
     }
     bootstrap_ = bootstrap;
     host_ = host.toString();
     port_ = port;
+    multiplexer_ = multiplexer;
+    maxStreams_ = maxStreams;
+  }
+
+  //
+  // Returns the connection for the next stream and counts the stream
+  // against it. The caller must call release() once the stream is
+  // closed or could not be opened.
+  //
+
+  private synchronized Connection acquire() {
+    if (connection_ == null || connection_.streams >= maxStreams_
+        || (connection_.future.isDone()
+            && (!connection_.future.isSuccess()
+                || !connection_.future.channel().isActive()))) {
+      connection_ = new Connection(bootstrap_.connect(host_, port_));
+    }
+    ++connection_.streams;
+    return connection_;
+  }
+
+  private synchronized void release(final Connection connection) {
+    if (--connection.streams == 0 && connection != connection_
+        && connection.future.isSuccess()) {
+      connection.future.channel().close();
+    }
   }
 
   @Override
-  public ChannelFuture get() {
-    return bootstrap_.connect(host_, port_);
+  public Future<Channel> get() {
+    final Promise<Channel> promise =
+        ImmediateEventExecutor.INSTANCE.newPromise();
+    if (multiplexer_ == null) {
+      bootstrap_.connect(host_, port_)
+          .addListener(new ChannelFutureListener() {
+            @Override
+            public final void operationComplete(
+                final ChannelFuture future) throws Exception {
+              if (future.isSuccess()) {
+                promise.setSuccess(future.channel());
+              } else {
+                promise.setFailure(future.cause());
+              }
+            }
+          });
+      return promise;
+    }
+    final Connection connection = acquire();
+    connection.future.addListener(new ChannelFutureListener() {
+      @Override
+      public final void operationComplete(final ChannelFuture future)
+          throws Exception {
+        if (!future.isSuccess()) {
+          release(connection);
+          promise.setFailure(future.cause());
+          return;
+        }
+        new Http2StreamChannelBootstrap(future.channel())
+            .handler(multiplexer_.streamInitializer())
+            .option(ChannelOption.AUTO_READ, false)
+            .open()
+            .addListener(new FutureListener<Http2StreamChannel>() {
+              @Override
+              public final void operationComplete(
+                  final Future<Http2StreamChannel> future)
+                  throws Exception {
+                if (future.isSuccess()) {
+                  future.getNow().closeFuture().addListener(
+                      new ChannelFutureListener() {
+                        @Override
+                        public final void operationComplete(
+                            final ChannelFuture future) {
+                          release(connection);
+                        }
+                      });
+                  promise.setSuccess(future.getNow());
+                } else {
+                  release(connection);
+                  promise.setFailure(future.cause());
+                }
+              }
+            });
+      }
+    });
+    return promise;
   }
 }
@@ -32,7 +32,6 @@ import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
 import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
 
 import com.stealthsoftwareinc.sst.Arith;
-import com.stealthsoftwareinc.sst.ConcurrentPool;
 import com.stealthsoftwareinc.sst.Consumer;
 import com.stealthsoftwareinc.sst.FixedPointModContext;
 import com.stealthsoftwareinc.sst.Guid;
@@ -52,12 +51,15 @@ import com.stealthsoftwareinc.sst.Supplier;
 import com.stealthsoftwareinc.sst.netty.JdbcRunner;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.handler.codec.http2.Http2StreamChannel;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.FutureListener;
@@ -66,25 +68,26 @@ import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import org.json.JSONObject;
 
 //
@@ -137,26 +140,41 @@ import org.json.JSONObject;
 // All handlers go through the following handshake states at the
 // beginning of a connection:
 //
-//       Outgoing: SEND_PARTY -> SEND_LEXICON -> RECV_LEXICON_*
-//       Incoming: RECV_PARTY -> SEND_LEXICON -> RECV_LEXICON_*
+//       Outgoing: SEND_PARTY -> SEND_LEXICON -> RECV_LEXICON_DIGEST
+//       Incoming: RECV_PARTY -> SEND_LEXICON -> RECV_LEXICON_DIGEST
+//
+// SEND_LEXICON only sends the lexicon digest computed by Globals, and
+// RECV_LEXICON_DIGEST compares the remote digest with the local one.
+// If the digests differ, which both sides see at the same time, both
+// sides go on to exchange their full lexicons:
+//
+//       SEND_FULL_LEXICON -> RECV_LEXICON_*
+//
+// and the local and remote lexicons are compared in full, and the
+// connection is aborted if the lexicons don't match, after logging
+// the remote lexicon.
 //
 // After completing these states, the local and remote lexicons are
-// compared, and the connection is aborted if the lexicons don't match.
-// Otherwise, all handlers wait for a query to begin, going through the
-// following initial states:
+// known to match, and all handlers wait for a query to begin, going
+// through the following initial states:
 //
 //       Outgoing: SEND_QUERY
 //       Incoming: RECV_QUERY_*
 //
 // The outgoing handler always sends the query to the remote incoming
-// handler. When the query completes, the handlers go back to these
-// states, waiting to be reused for another query.
+// handler, as a RawMessage of type QUERY. When the query completes,
+// the handlers go back to these states, waiting to be reused for
+// another query.
 //
 // Note that the handshake only occurs once per connection, i.e., once
 // per handler, not per query. After a handler runs the handshake, it
 // will never run it again. In other words, a handler wakes up when a
 // new query arrives, and the handler runs the handshake only just
-// before the first query it ever processes.
+// before the first query it ever processes. The exception is when
+// raw_pool_min_idle is positive, in which case RawChannelPool sends
+// each idle outgoing handler a WarmUpEvent, which makes it run the
+// handshake right away and then send a RawMessage of type KEEPALIVE
+// instead of a query.
 //
 
 final class RawChannelHandler
@@ -208,6 +226,10 @@ final class RawChannelHandler
       id = new byte[rows * linkingColumnSize];
       xs = new int[rows * cols];
     }
+    public final void clear() {
+      Arrays.fill(id, (byte)0);
+      Arrays.fill(xs, 0);
+    }
   }
 
   private static final class XLongBatch {
@@ -219,16 +241,42 @@ final class RawChannelHandler
       id = new byte[rows * linkingColumnSize];
       xs = new long[rows * cols];
     }
+    public final void clear() {
+      Arrays.fill(id, (byte)0);
+      Arrays.fill(xs, 0);
+    }
   }
 
+  //
+  // In the wide tier, i.e., for moduli in (2^64, 2^128], an XBigBatch
+  // holds its x values as Int128 pairs in wide instead of in xs, so
+  // the xa and s loops never touch a BigInteger.
+  //
+
   private static final class XBigBatch {
     public final byte[] id;
     public final BigInteger[] xs;
+    public final long[] wide;
     public XBigBatch(final int rows,
                      final int cols,
-                     final int linkingColumnSize) {
+                     final int linkingColumnSize,
+                     final boolean valuesFitWide) {
       id = new byte[rows * linkingColumnSize];
-      xs = new BigInteger[rows * cols];
+      if (valuesFitWide) {
+        xs = null;
+        wide = new long[2 * rows * cols];
+      } else {
+        xs = new BigInteger[rows * cols];
+        wide = null;
+      }
+    }
+    public final void clear() {
+      Arrays.fill(id, (byte)0);
+      if (wide != null) {
+        Arrays.fill(wide, 0);
+      } else {
+        Arrays.fill(xs, null);
+      }
     }
   }
 
@@ -251,6 +299,8 @@ final class RawChannelHandler
     private final int tupleCount_;
     private final int columnCount_;
     private int tupleIndex_ = -1;
+    private int finishIndex_ = -1;
+    private final int pipelineDepth_;
     private final SharedHandlerData shd_;
     private final SharedWebSocketData swd_;
     private SharedWebSocketData.Progress progress_;
@@ -260,8 +310,15 @@ final class RawChannelHandler
     private final int valueSize_;
     private final boolean valuesFitInt_;
     private final boolean valuesFitLong_;
+    private final boolean valuesFitWide_;
+    private final int modulusBits_;
+    private final Int128.Mod wideMod_;
+    private final int wideSize_;
+    private final long[] ybWide_ = new long[2];
     private final int aggCount1_;
     private final int aggCount2_;
+    private final int eatAggCount1_;
+    private final int eatAggCount2_;
     private final int xaBytesSize1_;
     private final int xaBytesSize2_;
 
@@ -270,6 +327,7 @@ final class RawChannelHandler
       MM_RECV_ROW_COUNT_1,
       MM_RECV_ROW_COUNT_2,
       MM_NEXT,
+      MM_MERGE_BATCH,
       MM_RECV_XA_BATCH_1,
       MM_RECV_XA_BATCH_2,
       MM_COMPARE,
@@ -281,6 +339,8 @@ final class RawChannelHandler
       MM_SEND_YB_TO_PH_DB_S3_2,
       MM_RECV_Z_FROM_PH_DB_S1_1,
       MM_RECV_Z_FROM_PH_DB_S1_2,
+      MM_PARK_DOMAIN_TUPLE,
+      MM_RETIRE_DOMAIN_TUPLES,
       MM_RECV_S_FROM_PH_DB_S3_1,
       MM_RECV_S_FROM_PH_DB_S3_2,
       MM_FINISH_DOMAIN_TUPLE,
@@ -313,10 +373,10 @@ final class RawChannelHandler
 
     final AtomicLong tickDepth = new AtomicLong(0);
 
-    final Queue<Long> rowCountQueue1 =
-        new LinkedBlockingQueue<Long>(10000);
-    final Queue<Long> rowCountQueue2 =
-        new LinkedBlockingQueue<Long>(10000);
+    final LongSpscQueue rowCountQueue1 =
+        new LongSpscQueue(TUPLE_QUEUE_CAPACITY);
+    final LongSpscQueue rowCountQueue2 =
+        new LongSpscQueue(TUPLE_QUEUE_CAPACITY);
 
     private long rowCount1_ = -1;
     private long rowCount2_ = -1;
@@ -329,10 +389,10 @@ final class RawChannelHandler
 
     private boolean xaBytesBatchHave1_ = false;
     private boolean xaBytesBatchHave2_ = false;
-    private final Queue<PoolEntry<byte[]>> xaBytesBatchQueue1_;
-    private final Queue<PoolEntry<byte[]>> xaBytesBatchQueue2_;
-    private PoolEntry<byte[]> xaBytesBatchEntry1_ = null;
-    private PoolEntry<byte[]> xaBytesBatchEntry2_ = null;
+    private final SpscQueue<BatchEntry<byte[]>> xaBytesBatchQueue1_;
+    private final SpscQueue<BatchEntry<byte[]>> xaBytesBatchQueue2_;
+    private BatchEntry<byte[]> xaBytesBatchEntry1_ = null;
+    private BatchEntry<byte[]> xaBytesBatchEntry2_ = null;
     private byte[] xaBytesBatch1_ = null;
     private byte[] xaBytesBatch2_ = null;
     private int xaBytesBatchIndex1_ = -1;
@@ -340,47 +400,47 @@ final class RawChannelHandler
 
     private boolean bBytesBatchHave1_ = false;
     private boolean bBytesBatchHave2_ = false;
-    private final Queue<PoolEntry<byte[]>> bBytesBatchQueue1_;
-    private final Queue<PoolEntry<byte[]>> bBytesBatchQueue2_;
-    private PoolEntry<byte[]> bBytesBatchEntry1_ = null;
-    private PoolEntry<byte[]> bBytesBatchEntry2_ = null;
+    private final SpscQueue<BatchEntry<byte[]>> bBytesBatchQueue1_;
+    private final SpscQueue<BatchEntry<byte[]>> bBytesBatchQueue2_;
+    private BatchEntry<byte[]> bBytesBatchEntry1_ = null;
+    private BatchEntry<byte[]> bBytesBatchEntry2_ = null;
     private byte[] bBytesBatch1_ = null;
     private byte[] bBytesBatch2_ = null;
     private int bBytesBatchIndex1_ = -1;
     private int bBytesBatchIndex2_ = -1;
 
-    private PoolEntry<int[]> zIntEntry1_;
-    private PoolEntry<long[]> zLongEntry1_;
-    private PoolEntry<BigInteger[]> zBigEntry1_;
+    private BatchEntry<int[]> zIntEntry1_;
+    private BatchEntry<long[]> zLongEntry1_;
+    private BatchEntry<BigInteger[]> zBigEntry1_;
     private int[] zInt1_;
     private long[] zLong1_;
     private BigInteger[] zBig1_;
 
-    private PoolEntry<int[]> zIntEntry2_;
-    private PoolEntry<long[]> zLongEntry2_;
-    private PoolEntry<BigInteger[]> zBigEntry2_;
+    private BatchEntry<int[]> zIntEntry2_;
+    private BatchEntry<long[]> zLongEntry2_;
+    private BatchEntry<BigInteger[]> zBigEntry2_;
     private int[] zInt2_;
     private long[] zLong2_;
     private BigInteger[] zBig2_;
 
-    private PoolEntry<byte[]> sBytesEntry1_;
+    private BatchEntry<byte[]> sBytesEntry1_;
     private byte[] sBytes1_;
 
-    private PoolEntry<byte[]> sBytesEntry2_;
+    private BatchEntry<byte[]> sBytesEntry2_;
     private byte[] sBytes2_;
 
     private int yInt_;
     private BigInteger yBig_;
-    private final ConcurrentPool<byte[]> ybBytesBatchPool1_;
-    private final ConcurrentPool<byte[]> ybBytesBatchPool2_;
-    private PoolEntry<byte[]> ybBytesBatchEntry1_ = null;
-    private PoolEntry<byte[]> ybBytesBatchEntry2_ = null;
+    private final BatchPool<byte[]> ybBytesBatchPool1_;
+    private final BatchPool<byte[]> ybBytesBatchPool2_;
+    private BatchEntry<byte[]> ybBytesBatchEntry1_ = null;
+    private BatchEntry<byte[]> ybBytesBatchEntry2_ = null;
     private byte[] ybBytesBatch1_ = null;
     private byte[] ybBytesBatch2_ = null;
     private int ybBytesBatchIndex1_ = -1;
     private int ybBytesBatchIndex2_ = -1;
-    private final Queue<PoolEntry<byte[]>> ybBytesBatchQueue1_;
-    private final Queue<PoolEntry<byte[]>> ybBytesBatchQueue2_;
+    private final SpscQueue<BatchEntry<byte[]>> ybBytesBatchQueue1_;
+    private final SpscQueue<BatchEntry<byte[]>> ybBytesBatchQueue2_;
     private final AtomicReference<ChannelPipeline> phDbS1Pipeline1_;
     private final AtomicReference<ChannelPipeline> phDbS1Pipeline2_;
     private final AtomicReference<ChannelPipeline> phDbS2Pipeline1_;
@@ -395,6 +455,23 @@ final class RawChannelHandler
     private BigInteger[] rowBig1_;
     private BigInteger[] rowBig2_;
 
+    //
+    // When the modulus is in (2^64, 2^128], the values do not fit in a
+    // long but the merge accumulators can still be kept in longs (see
+    // Int128) instead of BigIntegers, which avoids allocating several
+    // BigIntegers per row and per aggregate in MM_EAT_1 and MM_EAT_2.
+    // For a power of two, each accumulator is a pair of longs that is
+    // masked at the end. For any other modulus, each accumulator is
+    // wideSize_ longs holding the unreduced sum of the products, which
+    // wideMod_ reduces at the end. The accumulators are converted to
+    // rowBig1_ and rowBig2_ once per domain tuple when the merge of the
+    // domain tuple is complete, so everything after that point is
+    // shared with the BigInteger path.
+    //
+
+    private final long[] rowWide1_;
+    private final long[] rowWide2_;
+
     private FixedPointModContext zeroScaleFpmContext_;
     private FixedPointModContext[] fixedPointModContexts_;
     private BigDecimal[] rowDec_;
@@ -402,6 +479,148 @@ final class RawChannelHandler
     private final List<List<Object>> tuples_;
     private final List<BigDecimal[]> result_;
 
+    //
+    // Domain tuple pipelining
+    //
+    // Finishing a domain tuple requires the s values from the DBs,
+    // which are only computed after the DBs receive the last yb batch
+    // of the domain tuple. Waiting for them before merging the next
+    // domain tuple costs a PH-DB round trip per domain tuple. Instead,
+    // once both z values of a domain tuple have been received, the
+    // domain tuple can be parked in pendingTuples_ and the merge of
+    // the next domain tuple can begin. Parked domain tuples are retired
+    // in order between domain tuples as their s values arrive, and at
+    // most pipelineDepth_ domain tuples are ever in flight.
+    //
+    // A PendingTuple holds all per-domain-tuple state needed by
+    // MM_FINISH_DOMAIN_TUPLE. Parking and retiring swap this state with
+    // the machine's own fields, so MM_FINISH_DOMAIN_TUPLE always works
+    // on the machine's fields and the spare PendingTuple objects (and
+    // their arrays) are reused instead of reallocated.
+    //
+
+    private static final class PendingTuple {
+      int tupleIndex = -1;
+      long rowCount1 = -1;
+      long rowCount2 = -1;
+      int[] rowInt1;
+      int[] rowInt2;
+      long[] rowLong1;
+      long[] rowLong2;
+      BigInteger[] rowBig1;
+      BigInteger[] rowBig2;
+      BatchEntry<int[]> zIntEntry1;
+      BatchEntry<long[]> zLongEntry1;
+      BatchEntry<BigInteger[]> zBigEntry1;
+      BatchEntry<int[]> zIntEntry2;
+      BatchEntry<long[]> zLongEntry2;
+      BatchEntry<BigInteger[]> zBigEntry2;
+    }
+
+    private final LinkedList<PendingTuple> pendingTuples_ =
+        new LinkedList<PendingTuple>();
+    private final LinkedList<PendingTuple> spareTuples_ =
+        new LinkedList<PendingTuple>();
+
+    private void swapPendingTuple(final PendingTuple p) {
+      {
+        final int x = p.tupleIndex;
+        p.tupleIndex = finishIndex_;
+        finishIndex_ = x;
+      }
+      {
+        final long x = p.rowCount1;
+        p.rowCount1 = rowCount1_;
+        rowCount1_ = x;
+      }
+      {
+        final long x = p.rowCount2;
+        p.rowCount2 = rowCount2_;
+        rowCount2_ = x;
+      }
+      {
+        final int[] x = p.rowInt1;
+        p.rowInt1 = rowInt1_;
+        rowInt1_ = x;
+      }
+      {
+        final int[] x = p.rowInt2;
+        p.rowInt2 = rowInt2_;
+        rowInt2_ = x;
+      }
+      {
+        final long[] x = p.rowLong1;
+        p.rowLong1 = rowLong1_;
+        rowLong1_ = x;
+      }
+      {
+        final long[] x = p.rowLong2;
+        p.rowLong2 = rowLong2_;
+        rowLong2_ = x;
+      }
+      {
+        final BigInteger[] x = p.rowBig1;
+        p.rowBig1 = rowBig1_;
+        rowBig1_ = x;
+      }
+      {
+        final BigInteger[] x = p.rowBig2;
+        p.rowBig2 = rowBig2_;
+        rowBig2_ = x;
+      }
+      {
+        final BatchEntry<int[]> x = p.zIntEntry1;
+        p.zIntEntry1 = zIntEntry1_;
+        zIntEntry1_ = x;
+        zInt1_ = x == null ? null : x.object();
+      }
+      {
+        final BatchEntry<long[]> x = p.zLongEntry1;
+        p.zLongEntry1 = zLongEntry1_;
+        zLongEntry1_ = x;
+        zLong1_ = x == null ? null : x.object();
+      }
+      {
+        final BatchEntry<BigInteger[]> x = p.zBigEntry1;
+        p.zBigEntry1 = zBigEntry1_;
+        zBigEntry1_ = x;
+        zBig1_ = x == null ? null : x.object();
+      }
+      {
+        final BatchEntry<int[]> x = p.zIntEntry2;
+        p.zIntEntry2 = zIntEntry2_;
+        zIntEntry2_ = x;
+        zInt2_ = x == null ? null : x.object();
+      }
+      {
+        final BatchEntry<long[]> x = p.zLongEntry2;
+        p.zLongEntry2 = zLongEntry2_;
+        zLongEntry2_ = x;
+        zLong2_ = x == null ? null : x.object();
+      }
+      {
+        final BatchEntry<BigInteger[]> x = p.zBigEntry2;
+        p.zBigEntry2 = zBigEntry2_;
+        zBigEntry2_ = x;
+        zBig2_ = x == null ? null : x.object();
+      }
+    }
+
+    private PendingTuple newPendingTuple() {
+      final PendingTuple p = new PendingTuple();
+      if (valuesFitInt_) {
+        p.rowInt1 = new int[aggCount1_];
+        p.rowInt2 = new int[aggCount2_];
+      } else if (valuesFitLong_) {
+        p.rowLong1 = new long[aggCount1_];
+        p.rowLong2 = new long[aggCount2_];
+      } else {
+        p.rowBig1 = new BigInteger[aggCount1_];
+        p.rowBig2 = new BigInteger[aggCount2_];
+      }
+      return p;
+    }
+
     MergeMachine(
         final Globals globals,
         final SharedHandlerData shd,
@@ -413,12 +632,14 @@ final class RawChannelHandler
         final boolean valuesFitLong,
         final int aggCount1,
         final int aggCount2,
-        final Queue<PoolEntry<byte[]>> xaBytesBatchQueue1,
-        final Queue<PoolEntry<byte[]>> xaBytesBatchQueue2,
-        final Queue<PoolEntry<byte[]>> bBytesBatchQueue1,
-        final Queue<PoolEntry<byte[]>> bBytesBatchQueue2,
-        final Queue<PoolEntry<byte[]>> ybBytesBatchQueue1,
-        final Queue<PoolEntry<byte[]>> ybBytesBatchQueue2,
+        final int maxBatch1,
+        final int maxBatch2,
+        final SpscQueue<BatchEntry<byte[]>> xaBytesBatchQueue1,
+        final SpscQueue<BatchEntry<byte[]>> xaBytesBatchQueue2,
+        final SpscQueue<BatchEntry<byte[]>> bBytesBatchQueue1,
+        final SpscQueue<BatchEntry<byte[]>> bBytesBatchQueue2,
+        final SpscQueue<BatchEntry<byte[]>> ybBytesBatchQueue1,
+        final SpscQueue<BatchEntry<byte[]>> ybBytesBatchQueue2,
         final AtomicReference<ChannelPipeline> phDbS1Pipeline1,
         final AtomicReference<ChannelPipeline> phDbS1Pipeline2,
         final AtomicReference<ChannelPipeline> phDbS2Pipeline1,
@@ -432,6 +653,8 @@ final class RawChannelHandler
           SST_ASSERT(valueSize > 0);
           SST_ASSERT(aggCount1 >= 0);
           SST_ASSERT(aggCount2 >= 0);
+          SST_ASSERT(maxBatch1 > 0);
+          SST_ASSERT(maxBatch2 > 0);
           SST_ASSERT(xaBytesBatchQueue1 != null);
           SST_ASSERT(xaBytesBatchQueue2 != null);
           SST_ASSERT(xaBytesBatchQueue1 != xaBytesBatchQueue2);
@@ -462,6 +685,7 @@ final class RawChannelHandler
       domainIterator_ = new DomainIterator(config_, query_);
       tupleCount_ = domainIterator_.count();
       columnCount_ = query_.aggregates().size();
+      pipelineDepth_ = config_.tuplePipelineDepth();
       shd_ = shd;
       swd_ = globals_.getSharedWebSocketData(shd_.queryId);
       modulusInt_ = modulusInt;
@@ -470,8 +694,21 @@ final class RawChannelHandler
       valueSize_ = valueSize;
       valuesFitInt_ = valuesFitInt;
       valuesFitLong_ = valuesFitLong;
+      valuesFitWide_ = valuesFitWide(valuesFitInt,
+                                     valuesFitLong,
+                                     modulusBig,
+                                     valueSize);
+      modulusBits_ = modulusBig.bitLength() - 1;
+      wideMod_ = valuesFitWide_ && modulusBig.bitCount() > 1 ?
+                     new Int128.Mod(modulusBig) :
+                     null;
+      wideSize_ = wideMod_ != null ? Int128.ACC_SIZE : 2;
       aggCount1_ = aggCount1;
       aggCount2_ = aggCount2;
+      mergeThreadCount_ = globals_.mergeThreadCount();
+      parallelMerge_ = config_.parallelMerge() && mergeThreadCount_ > 1;
+      eatAggCount1_ = parallelMerge_ ? 0 : aggCount1;
+      eatAggCount2_ = parallelMerge_ ? 0 : aggCount2;
       xaBytesSize1_ = linkingColumnSize_ + aggCount1 * valueSize;
       xaBytesSize2_ = linkingColumnSize_ + aggCount2 * valueSize;
       xaBytesBatchQueue1_ = xaBytesBatchQueue1;
@@ -479,19 +716,9 @@ final class RawChannelHandler
       bBytesBatchQueue1_ = bBytesBatchQueue1;
       bBytesBatchQueue2_ = bBytesBatchQueue2;
       ybBytesBatchPool1_ =
-          new ConcurrentPool<byte[]>(new Supplier<byte[]>() {
-            @Override
-            public final byte[] get() {
-              return new byte[100 * valueSize];
-            }
-          });
+          shd.batchBudget.bytePool(maxBatch1 * valueSize);
       ybBytesBatchPool2_ =
-          new ConcurrentPool<byte[]>(new Supplier<byte[]>() {
-            @Override
-            public final byte[] get() {
-              return new byte[100 * valueSize];
-            }
-          });
+          shd.batchBudget.bytePool(maxBatch2 * valueSize);
       ybBytesBatchQueue1_ = ybBytesBatchQueue1;
       ybBytesBatchQueue2_ = ybBytesBatchQueue2;
       phDbS1Pipeline1_ = phDbS1Pipeline1;
@@ -522,6 +749,13 @@ final class RawChannelHandler
         rowBig1_ = new BigInteger[aggCount1];
         rowBig2_ = new BigInteger[aggCount2];
       }
+      if (valuesFitWide_) {
+        rowWide1_ = new long[wideSize_ * aggCount1];
+        rowWide2_ = new long[wideSize_ * aggCount2];
+      } else {
+        rowWide1_ = null;
+        rowWide2_ = null;
+      }
 
       zeroScaleFpmContext_ = new FixedPointModContext(shd_.modulus, 0);
       fixedPointModContexts_ =
@@ -531,14 +765,1151 @@ final class RawChannelHandler
             shd_.modulus,
             query_.aggregates().get(i).column().scale());
       }
-
-      rowDec_ = new BigDecimal[aggCount1 + aggCount2];
-
-      tuples_ = new ArrayList<List<Object>>(tupleCount_);
-      result_ = swd_.result;
-      for (int i = 0; i < tupleCount_; ++i) {
-        tuples_.add(new ArrayList<Object>(query_.groupBys().size()));
+
+      rowDec_ = new BigDecimal[aggCount1 + aggCount2];
+
+      tuples_ = new ArrayList<List<Object>>(tupleCount_);
+      result_ = swd_.result;
+      for (int i = 0; i < tupleCount_; ++i) {
+        tuples_.add(new ArrayList<Object>(query_.groupBys().size()));
+      }
+    }
+
+    //
+    // Batch merging
+    //
+    // Stepping through MM_NEXT, MM_RECV_XA_BATCH_*, MM_COMPARE,
+    // MM_RECV_B_BATCH_*, MM_EAT_* and MM_SEND_YB_TO_PH_DB_S3_* for
+    // every row costs far more than the arithmetic itself. Most rows
+    // do not need anything from these states other than advancing
+    // within batches that are already resident, so MM_MERGE_BATCH
+    // merges rows in a tight loop for as long as that is the case. It
+    // drops back to the state machine as soon as a row needs a batch
+    // to be polled from a queue or a yb batch to be sent.
+    //
+    // The take*Row methods perform the same index advancement as the
+    // MM_RECV_*_BATCH_* states but return false instead of polling
+    // when the current batch is exhausted. Rows taken before the loop
+    // stops remain taken, which the MM_RECV_*_BATCH_* states already
+    // handle via the *Have* flags, so the state machine can always
+    // resume at MM_RECV_XA_BATCH_1.
+    //
+
+    private final boolean takeXaRow1() {
+      if (!xaBytesBatchHave1_) {
+        if (xaBytesBatch1_ == null
+            || xaBytesBatchIndex1_
+                   >= xaBytesBatch1_.length - xaBytesSize1_) {
+          return false;
+        }
+        xaBytesBatchIndex1_ += xaBytesSize1_;
+        xaBytesBatchHave1_ = true;
+      }
+      return true;
+    }
+
+    private final boolean takeXaRow2() {
+      if (!xaBytesBatchHave2_) {
+        if (xaBytesBatch2_ == null
+            || xaBytesBatchIndex2_
+                   >= xaBytesBatch2_.length - xaBytesSize2_) {
+          return false;
+        }
+        xaBytesBatchIndex2_ += xaBytesSize2_;
+        xaBytesBatchHave2_ = true;
+      }
+      return true;
+    }
+
+    private final boolean takeBRow1() {
+      if (!bBytesBatchHave1_) {
+        if (bBytesBatch1_ == null
+            || bBytesBatchIndex1_
+                   >= bBytesBatch1_.length - valueSize_) {
+          return false;
+        }
+        bBytesBatchIndex1_ += valueSize_;
+        bBytesBatchHave1_ = true;
+      }
+      return true;
+    }
+
+    private final boolean takeBRow2() {
+      if (!bBytesBatchHave2_) {
+        if (bBytesBatch2_ == null
+            || bBytesBatchIndex2_
+                   >= bBytesBatch2_.length - valueSize_) {
+          return false;
+        }
+        bBytesBatchIndex2_ += valueSize_;
+        bBytesBatchHave2_ = true;
+      }
+      return true;
+    }
+
+    private final boolean ybBatchReady1() {
+      return ybBytesBatch1_ != null
+          && (ybBytesBatchIndex1_ == ybBytesBatch1_.length
+              || rowIndex1_ == rowCount1_);
+    }
+
+    private final boolean ybBatchReady2() {
+      return ybBytesBatch2_ != null
+          && (ybBytesBatchIndex2_ == ybBytesBatch2_.length
+              || rowIndex2_ == rowCount2_);
+    }
+
+    //
+    // Parallel merging
+    //
+    // Every row of DB1 is eaten exactly once and in order, each time
+    // with the next b value from bBytesBatchQueue1_, and likewise for
+    // DB2. The accumulation of xa * b into rowInt1_ and friends thus
+    // only depends on which rows are eaten, not on the outcome of the
+    // merge, so sums over disjoint row ranges can be computed
+    // independently and added together modulo m. The rows are sorted
+    // by linking ID, so each row range is also a linking ID range.
+    //
+    // When parallel_merge is enabled and mergeThreadCount_ > 1,
+    // eatRow1() and eatRow2() only compute yb and extend the current
+    // Segment of their side, and each closed Segment is summed on the
+    // merge thread group. A Segment is closed when the next row does
+    // not directly follow it in both its xa batch and its b batch,
+    // when it reaches SEGMENT_ROWS rows, or at the end of the domain
+    // tuple, where MM_NEXT also waits for all Segments to be summed.
+    // At most mergeThreadCount_ - 1 Segments are summed at once.
+    //
+    // The xa and b batches are shared between the machine and its
+    // Segments, so they must be released with releaseBatch(), which
+    // only returns a batch to its pool once every holder has released
+    // it.
+    //
+
+    private static final int SEGMENT_ROWS = 4096;
+
+    private static final class Segment {
+      final BatchEntry<byte[]> xaEntry;
+      final int xaIndex;
+      final int xaSize;
+      final BatchEntry<byte[]> bEntry;
+      final int bIndex;
+      final int aggCount;
+      final int[] rowInt;
+      final long[] rowLong;
+      final BigInteger[] rowBig;
+      final long[] rowWide;
+      int rows = 1;
+
+      Segment(final BatchEntry<byte[]> xaEntry,
+              final int xaIndex,
+              final int xaSize,
+              final BatchEntry<byte[]> bEntry,
+              final int bIndex,
+              final int aggCount,
+              final int[] rowInt,
+              final long[] rowLong,
+              final BigInteger[] rowBig,
+              final long[] rowWide) {
+        this.xaEntry = xaEntry;
+        this.xaIndex = xaIndex;
+        this.xaSize = xaSize;
+        this.bEntry = bEntry;
+        this.bIndex = bIndex;
+        this.aggCount = aggCount;
+        this.rowInt = rowInt;
+        this.rowLong = rowLong;
+        this.rowBig = rowBig;
+        this.rowWide = rowWide;
+      }
+    }
+
+    private final int mergeThreadCount_;
+    private final boolean parallelMerge_;
+    private Segment segment1_ = null;
+    private Segment segment2_ = null;
+    private final AtomicInteger pendingSegments_ = new AtomicInteger(0);
+    private final AtomicReference<Throwable> segmentFailure_ =
+        new AtomicReference<Throwable>(null);
+    private final Map<BatchEntry<byte[]>, Integer> batchRefs_ =
+        new IdentityHashMap<BatchEntry<byte[]>, Integer>();
+    private Runnable ticker_ = null;
+
+    final void setTicker(final Runnable ticker) {
+      ticker_ = ticker;
+    }
+
+    private final void retainBatch(final BatchEntry<byte[]> entry) {
+      synchronized (batchRefs_) {
+        final Integer n = batchRefs_.get(entry);
+        batchRefs_.put(entry, n == null ? 2 : n + 1);
+      }
+    }
+
+    private final void releaseBatch(final BatchEntry<byte[]> entry) {
+      if (parallelMerge_) {
+        synchronized (batchRefs_) {
+          final Integer n = batchRefs_.get(entry);
+          if (n != null) {
+            if (n > 1) {
+              batchRefs_.put(entry, n - 1);
+              return;
+            }
+            batchRefs_.remove(entry);
+          }
+        }
+      }
+      entry.release();
+    }
+
+    private final boolean
+    extendsSegment(final Segment segment,
+                   final BatchEntry<byte[]> xaEntry,
+                   final int xaIndex,
+                   final BatchEntry<byte[]> bEntry,
+                   final int bIndex) {
+      return segment != null && segment.rows < SEGMENT_ROWS
+          && segment.xaEntry == xaEntry && segment.bEntry == bEntry
+          && xaIndex == segment.xaIndex + segment.rows * segment.xaSize
+          && bIndex == segment.bIndex + segment.rows * valueSize_;
+    }
+
+    private final void extendSegment1() {
+      if (extendsSegment(segment1_,
+                         xaBytesBatchEntry1_,
+                         xaBytesBatchIndex1_,
+                         bBytesBatchEntry1_,
+                         bBytesBatchIndex1_)) {
+        ++segment1_.rows;
+        return;
+      }
+      if (segment1_ != null) {
+        submitSegment(segment1_);
+      }
+      retainBatch(xaBytesBatchEntry1_);
+      retainBatch(bBytesBatchEntry1_);
+      segment1_ = new Segment(xaBytesBatchEntry1_,
+                              xaBytesBatchIndex1_,
+                              xaBytesSize1_,
+                              bBytesBatchEntry1_,
+                              bBytesBatchIndex1_,
+                              aggCount1_,
+                              rowInt1_,
+                              rowLong1_,
+                              rowBig1_,
+                              rowWide1_);
+    }
+
+    private final void extendSegment2() {
+      if (extendsSegment(segment2_,
+                         xaBytesBatchEntry2_,
+                         xaBytesBatchIndex2_,
+                         bBytesBatchEntry2_,
+                         bBytesBatchIndex2_)) {
+        ++segment2_.rows;
+        return;
+      }
+      if (segment2_ != null) {
+        submitSegment(segment2_);
+      }
+      retainBatch(xaBytesBatchEntry2_);
+      retainBatch(bBytesBatchEntry2_);
+      segment2_ = new Segment(xaBytesBatchEntry2_,
+                              xaBytesBatchIndex2_,
+                              xaBytesSize2_,
+                              bBytesBatchEntry2_,
+                              bBytesBatchIndex2_,
+                              aggCount2_,
+                              rowInt2_,
+                              rowLong2_,
+                              rowBig2_,
+                              rowWide2_);
+    }
+
+    private final void submitSegment(final Segment segment) {
+      pendingSegments_.incrementAndGet();
+      globals_.mergeThreadGroup().submit(new Runnable() {
+        @Override
+        public final void run() {
+          try {
+            sumSegment(segment);
+          } catch (final Throwable e) {
+            segmentFailure_.compareAndSet(null, e);
+          } finally {
+            releaseBatch(segment.xaEntry);
+            releaseBatch(segment.bEntry);
+            pendingSegments_.decrementAndGet();
+            ticker_.run();
+          }
+        }
+      });
+    }
+
+    private final void checkSegments() {
+      final Throwable e = segmentFailure_.get();
+      if (e != null) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    //
+    // Sums the rows of a Segment with the same arithmetic as eatRow1()
+    // and eatRow2() and adds the result into the Segment's row.
+    //
+
+    private final void sumSegment(final Segment segment) {
+      final byte[] xa = segment.xaEntry.object();
+      final byte[] bs = segment.bEntry.object();
+      final int n = segment.aggCount;
+      if (valuesFitInt_) {
+        final int m = modulusInt_;
+        final boolean pow2 = m == 0 || m == Integer.MIN_VALUE
+                             || Arith.isPowerOfTwo(m);
+        final int[] sum = new int[n];
+        for (int r = 0; r < segment.rows; ++r) {
+          final int b = Rep.fromBytes(bs,
+                                      segment.bIndex + r * valueSize_,
+                                      valueSize_,
+                                      (Integer)null,
+                                      IntegerRep.PURE_UNSIGNED,
+                                      ByteOrder.BIG_ENDIAN,
+                                      false);
+          for (int i = 0,
+                   j = segment.xaIndex + r * segment.xaSize
+                       + linkingColumnSize_;
+               i < n;
+               ++i, j += valueSize_) {
+            final int xai = Rep.fromBytes(xa,
+                                          j,
+                                          valueSize_,
+                                          (Integer)null,
+                                          IntegerRep.PURE_UNSIGNED,
+                                          ByteOrder.BIG_ENDIAN,
+                                          false);
+            if (pow2) {
+              sum[i] += xai * b;
+            } else {
+              sum[i] = (int)Arith.unsignedMod(
+                  Arith.toUnsignedLong(sum[i])
+                      + Arith.toUnsignedLong(xai)
+                            * Arith.toUnsignedLong(b),
+                  Arith.toUnsignedLong(m));
+            }
+          }
+        }
+        synchronized (segment.rowInt) {
+          for (int i = 0; i < n; ++i) {
+            if (pow2) {
+              segment.rowInt[i] += sum[i];
+            } else {
+              segment.rowInt[i] = (int)Arith.unsignedMod(
+                  Arith.toUnsignedLong(segment.rowInt[i])
+                      + Arith.toUnsignedLong(sum[i]),
+                  Arith.toUnsignedLong(m));
+            }
+          }
+        }
+      } else if (valuesFitLong_) {
+        final long m = modulusLong_;
+        final boolean pow2 = m == 0 || m == Long.MIN_VALUE
+                             || Arith.isPowerOfTwo(m);
+        final long[] sum = new long[n];
+        final BigInteger[] sumBig = pow2 ? null : new BigInteger[n];
+        if (!pow2) {
+          Arrays.fill(sumBig, BigInteger.ZERO);
+        }
+        for (int r = 0; r < segment.rows; ++r) {
+          final long b = Rep.fromBytes(bs,
+                                       segment.bIndex + r * valueSize_,
+                                       valueSize_,
+                                       (Long)null,
+                                       IntegerRep.PURE_UNSIGNED,
+                                       ByteOrder.BIG_ENDIAN,
+                                       false);
+          for (int i = 0,
+                   j = segment.xaIndex + r * segment.xaSize
+                       + linkingColumnSize_;
+               i < n;
+               ++i, j += valueSize_) {
+            final long xai = Rep.fromBytes(xa,
+                                           j,
+                                           valueSize_,
+                                           (Long)null,
+                                           IntegerRep.PURE_UNSIGNED,
+                                           ByteOrder.BIG_ENDIAN,
+                                           false);
+            if (pow2) {
+              sum[i] += xai * b;
+            } else {
+              sumBig[i] = sumBig[i]
+                              .add(Arith.toUnsignedBig(xai).multiply(
+                                  Arith.toUnsignedBig(b)))
+                              .remainder(modulusBig_);
+            }
+          }
+        }
+        if (!pow2) {
+          for (int i = 0; i < n; ++i) {
+            sum[i] = sumBig[i].longValue();
+          }
+        }
+        synchronized (segment.rowLong) {
+          for (int i = 0; i < n; ++i) {
+            if (pow2) {
+              segment.rowLong[i] += sum[i];
+            } else {
+              final long t = segment.rowLong[i];
+              long x = t + sum[i];
+              if (Long.compareUnsigned(x, t) < 0
+                  || Long.compareUnsigned(x, m) >= 0) {
+                x -= m;
+              }
+              segment.rowLong[i] = x;
+            }
+          }
+        }
+      } else if (valuesFitWide_) {
+        final boolean pow2 = wideMod_ == null;
+        final int w = wideSize_;
+        final long[] sum = new long[w * n];
+        for (int r = 0; r < segment.rows; ++r) {
+          final int k = segment.bIndex + r * valueSize_;
+          final long bHi = Int128.hi(bs, k, valueSize_);
+          final long bLo = Int128.lo(bs, k, valueSize_);
+          for (int i = 0,
+                   j = segment.xaIndex + r * segment.xaSize
+                       + linkingColumnSize_;
+               i < n;
+               ++i, j += valueSize_) {
+            final long xaiHi = Int128.hi(xa, j, valueSize_);
+            final long xaiLo = Int128.lo(xa, j, valueSize_);
+            if (pow2) {
+              Int128.mulAdd(sum, 2 * i, xaiHi, xaiLo, bHi, bLo);
+            } else {
+              Int128.mulAcc(sum, w * i, xaiHi, xaiLo, bHi, bLo);
+            }
+          }
+        }
+        synchronized (segment.rowWide) {
+          for (int i = 0; i < n; ++i) {
+            if (pow2) {
+              Int128.add(segment.rowWide,
+                         2 * i,
+                         sum[2 * i],
+                         sum[2 * i + 1]);
+            } else {
+              Int128.accAdd(segment.rowWide, w * i, sum, w * i);
+            }
+          }
+        }
+      } else {
+        final BigInteger m = modulusBig_;
+        final BigInteger[] sum = new BigInteger[n];
+        Arrays.fill(sum, BigInteger.ZERO);
+        for (int r = 0; r < segment.rows; ++r) {
+          final BigInteger b =
+              Rep.fromBytes(bs,
+                            segment.bIndex + r * valueSize_,
+                            valueSize_,
+                            (BigInteger)null,
+                            IntegerRep.PURE_UNSIGNED,
+                            ByteOrder.BIG_ENDIAN,
+                            false);
+          for (int i = 0,
+                   j = segment.xaIndex + r * segment.xaSize
+                       + linkingColumnSize_;
+               i < n;
+               ++i, j += valueSize_) {
+            final BigInteger xai =
+                Rep.fromBytes(xa,
+                              j,
+                              valueSize_,
+                              (BigInteger)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false);
+            sum[i] = sum[i].add(xai.multiply(b)).remainder(m);
+          }
+        }
+        synchronized (segment.rowBig) {
+          for (int i = 0; i < n; ++i) {
+            BigInteger x = segment.rowBig[i].add(sum[i]);
+            if (x.compareTo(m) >= 0) {
+              x = x.subtract(m);
+            }
+            segment.rowBig[i] = x;
+          }
+        }
+      }
+    }
+
+    private final void compare() {
+      if (!SST_NDEBUG) {
+        try {
+          SST_ASSERT(want1_ || want2_);
+          if (want1_) {
+            SST_ASSERT(xaBytesBatchHave1_);
+          }
+          if (want2_) {
+            SST_ASSERT(xaBytesBatchHave2_);
+          }
+        } catch (final Throwable e) {
+          SST_ASSERT(e);
+        }
+      }
+      yInt_ = 0;
+      yBig_ = BigInteger.ZERO;
+      if (want1_ && want2_) {
+        final int cmp = Memory.cmp(xaBytesBatch1_,
+                                   xaBytesBatchIndex1_,
+                                   xaBytesBatch2_,
+                                   xaBytesBatchIndex2_,
+                                   linkingColumnSize_,
+                                   ByteOrder.BIG_ENDIAN);
+        if (cmp < 0) {
+          eat1_ = true;
+          eat2_ = false;
+        } else if (cmp > 0) {
+          eat1_ = false;
+          eat2_ = true;
+        } else {
+          eat1_ = true;
+          eat2_ = true;
+          yInt_ = 1;
+          yBig_ = BigInteger.ONE;
+        }
+      } else if (want1_) {
+        eat1_ = true;
+        eat2_ = false;
+      } else if (want2_) {
+        eat1_ = false;
+        eat2_ = true;
+      } else if (!SST_NDEBUG) {
+        throw new ImpossibleException();
+      }
+    }
+
+    private final void eatRow1() {
+      if (parallelMerge_) {
+        extendSegment1();
+      }
+      if (ybBytesBatch1_ == null) {
+        ybBytesBatchEntry1_ = ybBytesBatchPool1_.acquire();
+        ybBytesBatch1_ = ybBytesBatchEntry1_.object();
+        ybBytesBatchIndex1_ = 0;
+      }
+      if (valuesFitInt_) {
+        final int m = modulusInt_;
+        final int b = Rep.fromBytes(bBytesBatch1_,
+                                    bBytesBatchIndex1_,
+                                    valueSize_,
+                                    (Integer)null,
+                                    IntegerRep.PURE_UNSIGNED,
+                                    ByteOrder.BIG_ENDIAN,
+                                    false);
+        if (m == 0 || m == Integer.MIN_VALUE
+            || Arith.isPowerOfTwo(m)) {
+          // m is a power of two in [1, 2^32]
+          for (int i = 0,
+                   j = xaBytesBatchIndex1_ + linkingColumnSize_;
+               i < eatAggCount1_;
+               ++i, j += valueSize_) {
+            final int xai =
+                Rep.fromBytes(xaBytesBatch1_,
+                              j,
+                              valueSize_,
+                              (Integer)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false);
+            rowInt1_[i] += xai * b;
+          }
+          final int yb = yInt_ - b;
+          Rep.toBytes(yb,
+                      ybBytesBatch1_,
+                      ybBytesBatchIndex1_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        } else if (m > 0) {
+          // m is a non-power-of-two in [1, 2^31]
+          for (int i = 0,
+                   j = xaBytesBatchIndex1_ + linkingColumnSize_;
+               i < eatAggCount1_;
+               ++i, j += valueSize_) {
+            final int xai =
+                Rep.fromBytes(xaBytesBatch1_,
+                              j,
+                              valueSize_,
+                              (Integer)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false);
+            rowInt1_[i] =
+                (int)(((long)rowInt1_[i] + (long)xai * (long)b)
+                      % (long)m);
+          }
+          int yb = yInt_ - b;
+          if (yb < 0) {
+            yb += m;
+          }
+          Rep.toBytes(yb,
+                      ybBytesBatch1_,
+                      ybBytesBatchIndex1_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        } else {
+          // m is a non-power-of-two in [2^31, 2^32]
+          for (int i = 0,
+                   j = xaBytesBatchIndex1_ + linkingColumnSize_;
+               i < eatAggCount1_;
+               ++i, j += valueSize_) {
+            final int xai =
+                Rep.fromBytes(xaBytesBatch1_,
+                              j,
+                              valueSize_,
+                              (Integer)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false);
+            rowInt1_[i] = (int)Arith.unsignedMod(
+                Arith.toUnsignedLong(rowInt1_[i])
+                    + Arith.toUnsignedLong(xai)
+                          * Arith.toUnsignedLong(b),
+                Arith.toUnsignedLong(m));
+          }
+          long yb = (long)yInt_ - Arith.toUnsignedLong(b);
+          if (yb < 0) {
+            yb += Arith.toUnsignedLong(m);
+          }
+          Rep.toBytes((int)yb,
+                      ybBytesBatch1_,
+                      ybBytesBatchIndex1_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        }
+      } else if (valuesFitLong_) {
+        final long m = modulusLong_;
+        final long b = Rep.fromBytes(bBytesBatch1_,
+                                     bBytesBatchIndex1_,
+                                     valueSize_,
+                                     (Long)null,
+                                     IntegerRep.PURE_UNSIGNED,
+                                     ByteOrder.BIG_ENDIAN,
+                                     false);
+        if (m == 0 || m == Long.MIN_VALUE
+            || Arith.isPowerOfTwo(m)) {
+          // m is a power of two in [2^33, 2^64]
+          for (int i = 0,
+                   j = xaBytesBatchIndex1_ + linkingColumnSize_;
+               i < eatAggCount1_;
+               ++i, j += valueSize_) {
+            final long xai =
+                Rep.fromBytes(xaBytesBatch1_,
+                              j,
+                              valueSize_,
+                              (Long)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false);
+            rowLong1_[i] += xai * b;
+          }
+          final long yb = (long)yInt_ - b;
+          Rep.toBytes(yb,
+                      ybBytesBatch1_,
+                      ybBytesBatchIndex1_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        } else if (m > 0) {
+          // m is a non-power-of-two in [2^32, 2^63]
+          final BigInteger bBig = BigInteger.valueOf(b);
+          for (int i = 0,
+                   j = xaBytesBatchIndex1_ + linkingColumnSize_;
+               i < eatAggCount1_;
+               ++i, j += valueSize_) {
+            final BigInteger xai =
+                Rep.fromBytes(xaBytesBatch1_,
+                              j,
+                              valueSize_,
+                              (BigInteger)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false);
+            rowLong1_[i] = BigInteger.valueOf(rowLong1_[i])
+                               .add(xai.multiply(bBig))
+                               .remainder(modulusBig_)
+                               .longValue();
+          }
+          long yb = (long)yInt_ - b;
+          if (yb < 0) {
+            yb += m;
+          }
+          Rep.toBytes(yb,
+                      ybBytesBatch1_,
+                      ybBytesBatchIndex1_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        } else {
+          // m is a non-power-of-two in [2^63, 2^64]
+          final BigInteger bBig = Arith.toUnsignedBig(b);
+          for (int i = 0,
+                   j = xaBytesBatchIndex1_ + linkingColumnSize_;
+               i < eatAggCount1_;
+               ++i, j += valueSize_) {
+            final BigInteger xai = Arith.toUnsignedBig(
+                Rep.fromBytes(xaBytesBatch1_,
+                              j,
+                              valueSize_,
+                              (Long)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false));
+            rowLong1_[i] = Arith.toUnsignedBig(rowLong1_[i])
+                               .add(xai.multiply(bBig))
+                               .remainder(modulusBig_)
+                               .longValue();
+          }
+          BigInteger yb = yBig_.subtract(bBig);
+          if (yb.signum() < 0) {
+            yb = yb.add(modulusBig_);
+          }
+          Rep.toBytes(yb.longValue(),
+                      ybBytesBatch1_,
+                      ybBytesBatchIndex1_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        }
+      } else if (valuesFitWide_ && wideMod_ == null) {
+        // m is a power of two in [2^65, 2^128]
+        final long bHi = Int128.hi(bBytesBatch1_,
+                                   bBytesBatchIndex1_,
+                                   valueSize_);
+        final long bLo = Int128.lo(bBytesBatch1_,
+                                   bBytesBatchIndex1_,
+                                   valueSize_);
+        for (int i = 0,
+                 j = xaBytesBatchIndex1_ + linkingColumnSize_;
+             i < eatAggCount1_;
+             ++i, j += valueSize_) {
+          final long xaiHi =
+              Int128.hi(xaBytesBatch1_, j, valueSize_);
+          final long xaiLo =
+              Int128.lo(xaBytesBatch1_, j, valueSize_);
+          Int128.mulAdd(rowWide1_,
+                        2 * i,
+                        xaiHi,
+                        xaiLo,
+                        bHi,
+                        bLo);
+        }
+        final long ybLo = (long)yInt_ - bLo;
+        long ybHi = -bHi;
+        if (Long.compareUnsigned(yInt_, bLo) < 0) {
+          --ybHi;
+        }
+        if (modulusBits_ < 128) {
+          ybHi &= (1L << (modulusBits_ - 64)) - 1;
+        }
+        Int128.toBytes(ybHi,
+                       ybLo,
+                       ybBytesBatch1_,
+                       ybBytesBatchIndex1_,
+                       valueSize_);
+      } else if (valuesFitWide_) {
+        // m is a non-power-of-two in (2^64, 2^128)
+        final Int128.Mod mod = wideMod_;
+        final int w = wideSize_;
+        final long bHi = Int128.hi(bBytesBatch1_,
+                                   bBytesBatchIndex1_,
+                                   valueSize_);
+        final long bLo = Int128.lo(bBytesBatch1_,
+                                   bBytesBatchIndex1_,
+                                   valueSize_);
+        for (int i = 0,
+                 j = xaBytesBatchIndex1_ + linkingColumnSize_;
+             i < eatAggCount1_;
+             ++i, j += valueSize_) {
+          final long xaiHi =
+              Int128.hi(xaBytesBatch1_, j, valueSize_);
+          final long xaiLo =
+              Int128.lo(xaBytesBatch1_, j, valueSize_);
+          Int128.mulAcc(rowWide1_, w * i, xaiHi, xaiLo, bHi, bLo);
+        }
+        final long[] yb = ybWide_;
+        yb[0] = 0;
+        yb[1] = yInt_;
+        mod.sub(yb, 0, bHi, bLo);
+        Int128.toBytes(yb,
+                       0,
+                       ybBytesBatch1_,
+                       ybBytesBatchIndex1_,
+                       valueSize_);
+      } else {
+        final BigInteger m = modulusBig_;
+        final BigInteger b =
+            Rep.fromBytes(bBytesBatch1_,
+                          bBytesBatchIndex1_,
+                          valueSize_,
+                          (BigInteger)null,
+                          IntegerRep.PURE_UNSIGNED,
+                          ByteOrder.BIG_ENDIAN,
+                          false);
+        for (int i = 0,
+                 j = xaBytesBatchIndex1_ + linkingColumnSize_;
+             i < eatAggCount1_;
+             ++i, j += valueSize_) {
+          final BigInteger xai =
+              Rep.fromBytes(xaBytesBatch1_,
+                            j,
+                            valueSize_,
+                            (BigInteger)null,
+                            IntegerRep.PURE_UNSIGNED,
+                            ByteOrder.BIG_ENDIAN,
+                            false);
+          rowBig1_[i] =
+              rowBig1_[i].add(xai.multiply(b)).remainder(m);
+        }
+        BigInteger yb = yBig_.subtract(b);
+        if (yb.signum() < 0) {
+          yb = yb.add(m);
+        }
+        Rep.toBytes(yb,
+                    ybBytesBatch1_,
+                    ybBytesBatchIndex1_,
+                    valueSize_,
+                    IntegerRep.TWOS_COMPLEMENT,
+                    ByteOrder.BIG_ENDIAN,
+                    false);
+      }
+      ++rowIndex1_;
+      if (rowIndex1_ % 8192 == 0 || rowIndex1_ == rowCount1_) {
+        progress_.rowIndex1.set(rowIndex1_);
+      }
+      ybBytesBatchIndex1_ += valueSize_;
+      xaBytesBatchHave1_ = false;
+      bBytesBatchHave1_ = false;
+    }
+
+    private final void eatRow2() {
+      if (parallelMerge_) {
+        extendSegment2();
+      }
+      if (ybBytesBatch2_ == null) {
+        ybBytesBatchEntry2_ = ybBytesBatchPool2_.acquire();
+        ybBytesBatch2_ = ybBytesBatchEntry2_.object();
+        ybBytesBatchIndex2_ = 0;
+      }
+      if (valuesFitInt_) {
+        final int m = modulusInt_;
+        final int b = Rep.fromBytes(bBytesBatch2_,
+                                    bBytesBatchIndex2_,
+                                    valueSize_,
+                                    (Integer)null,
+                                    IntegerRep.PURE_UNSIGNED,
+                                    ByteOrder.BIG_ENDIAN,
+                                    false);
+        if (m == 0 || m == Integer.MIN_VALUE
+            || Arith.isPowerOfTwo(m)) {
+          // m is a power of two in [1, 2^32]
+          for (int i = 0,
+                   j = xaBytesBatchIndex2_ + linkingColumnSize_;
+               i < eatAggCount2_;
+               ++i, j += valueSize_) {
+            final int xai =
+                Rep.fromBytes(xaBytesBatch2_,
+                              j,
+                              valueSize_,
+                              (Integer)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false);
+            rowInt2_[i] += xai * b;
+          }
+          final int yb = yInt_ - b;
+          Rep.toBytes(yb,
+                      ybBytesBatch2_,
+                      ybBytesBatchIndex2_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        } else if (m > 0) {
+          // m is a non-power-of-two in [1, 2^31]
+          for (int i = 0,
+                   j = xaBytesBatchIndex2_ + linkingColumnSize_;
+               i < eatAggCount2_;
+               ++i, j += valueSize_) {
+            final int xai =
+                Rep.fromBytes(xaBytesBatch2_,
+                              j,
+                              valueSize_,
+                              (Integer)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false);
+            rowInt2_[i] =
+                (int)(((long)rowInt2_[i] + (long)xai * (long)b)
+                      % (long)m);
+          }
+          int yb = yInt_ - b;
+          if (yb < 0) {
+            yb += m;
+          }
+          Rep.toBytes(yb,
+                      ybBytesBatch2_,
+                      ybBytesBatchIndex2_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        } else {
+          // m is a non-power-of-two in [2^31, 2^32]
+          for (int i = 0,
+                   j = xaBytesBatchIndex2_ + linkingColumnSize_;
+               i < eatAggCount2_;
+               ++i, j += valueSize_) {
+            final int xai =
+                Rep.fromBytes(xaBytesBatch2_,
+                              j,
+                              valueSize_,
+                              (Integer)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false);
+            rowInt2_[i] = (int)Arith.unsignedMod(
+                Arith.toUnsignedLong(rowInt2_[i])
+                    + Arith.toUnsignedLong(xai)
+                          * Arith.toUnsignedLong(b),
+                Arith.toUnsignedLong(m));
+          }
+          long yb = (long)yInt_ - Arith.toUnsignedLong(b);
+          if (yb < 0) {
+            yb += Arith.toUnsignedLong(m);
+          }
+          Rep.toBytes((int)yb,
+                      ybBytesBatch2_,
+                      ybBytesBatchIndex2_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        }
+      } else if (valuesFitLong_) {
+        final long m = modulusLong_;
+        final long b = Rep.fromBytes(bBytesBatch2_,
+                                     bBytesBatchIndex2_,
+                                     valueSize_,
+                                     (Long)null,
+                                     IntegerRep.PURE_UNSIGNED,
+                                     ByteOrder.BIG_ENDIAN,
+                                     false);
+        if (m == 0 || m == Long.MIN_VALUE
+            || Arith.isPowerOfTwo(m)) {
+          // m is a power of two in [2^33, 2^64]
+          for (int i = 0,
+                   j = xaBytesBatchIndex2_ + linkingColumnSize_;
+               i < eatAggCount2_;
+               ++i, j += valueSize_) {
+            final long xai =
+                Rep.fromBytes(xaBytesBatch2_,
+                              j,
+                              valueSize_,
+                              (Long)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false);
+            rowLong2_[i] += xai * b;
+          }
+          final long yb = (long)yInt_ - b;
+          Rep.toBytes(yb,
+                      ybBytesBatch2_,
+                      ybBytesBatchIndex2_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        } else if (m > 0) {
+          // m is a non-power-of-two in [2^32, 2^63]
+          final BigInteger bBig = BigInteger.valueOf(b);
+          for (int i = 0,
+                   j = xaBytesBatchIndex2_ + linkingColumnSize_;
+               i < eatAggCount2_;
+               ++i, j += valueSize_) {
+            final BigInteger xai =
+                Rep.fromBytes(xaBytesBatch2_,
+                              j,
+                              valueSize_,
+                              (BigInteger)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false);
+            rowLong2_[i] = BigInteger.valueOf(rowLong2_[i])
+                               .add(xai.multiply(bBig))
+                               .remainder(modulusBig_)
+                               .longValue();
+          }
+          long yb = (long)yInt_ - b;
+          if (yb < 0) {
+            yb += m;
+          }
+          Rep.toBytes(yb,
+                      ybBytesBatch2_,
+                      ybBytesBatchIndex2_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        } else {
+          // m is a non-power-of-two in [2^63, 2^64]
+          final BigInteger bBig = Arith.toUnsignedBig(b);
+          for (int i = 0,
+                   j = xaBytesBatchIndex2_ + linkingColumnSize_;
+               i < eatAggCount2_;
+               ++i, j += valueSize_) {
+            final BigInteger xai = Arith.toUnsignedBig(
+                Rep.fromBytes(xaBytesBatch2_,
+                              j,
+                              valueSize_,
+                              (Long)null,
+                              IntegerRep.PURE_UNSIGNED,
+                              ByteOrder.BIG_ENDIAN,
+                              false));
+            rowLong2_[i] = Arith.toUnsignedBig(rowLong2_[i])
+                               .add(xai.multiply(bBig))
+                               .remainder(modulusBig_)
+                               .longValue();
+          }
+          BigInteger yb = yBig_.subtract(bBig);
+          if (yb.signum() < 0) {
+            yb = yb.add(modulusBig_);
+          }
+          Rep.toBytes(yb.longValue(),
+                      ybBytesBatch2_,
+                      ybBytesBatchIndex2_,
+                      valueSize_,
+                      IntegerRep.TWOS_COMPLEMENT,
+                      ByteOrder.BIG_ENDIAN,
+                      false);
+        }
+      } else if (valuesFitWide_ && wideMod_ == null) {
+        // m is a power of two in [2^65, 2^128]
+        final long bHi = Int128.hi(bBytesBatch2_,
+                                   bBytesBatchIndex2_,
+                                   valueSize_);
+        final long bLo = Int128.lo(bBytesBatch2_,
+                                   bBytesBatchIndex2_,
+                                   valueSize_);
+        for (int i = 0,
+                 j = xaBytesBatchIndex2_ + linkingColumnSize_;
+             i < eatAggCount2_;
+             ++i, j += valueSize_) {
+          final long xaiHi =
+              Int128.hi(xaBytesBatch2_, j, valueSize_);
+          final long xaiLo =
+              Int128.lo(xaBytesBatch2_, j, valueSize_);
+          Int128.mulAdd(rowWide2_,
+                        2 * i,
+                        xaiHi,
+                        xaiLo,
+                        bHi,
+                        bLo);
+        }
+        final long ybLo = (long)yInt_ - bLo;
+        long ybHi = -bHi;
+        if (Long.compareUnsigned(yInt_, bLo) < 0) {
+          --ybHi;
+        }
+        if (modulusBits_ < 128) {
+          ybHi &= (1L << (modulusBits_ - 64)) - 1;
+        }
+        Int128.toBytes(ybHi,
+                       ybLo,
+                       ybBytesBatch2_,
+                       ybBytesBatchIndex2_,
+                       valueSize_);
+      } else if (valuesFitWide_) {
+        // m is a non-power-of-two in (2^64, 2^128)
+        final Int128.Mod mod = wideMod_;
+        final int w = wideSize_;
+        final long bHi = Int128.hi(bBytesBatch2_,
+                                   bBytesBatchIndex2_,
+                                   valueSize_);
+        final long bLo = Int128.lo(bBytesBatch2_,
+                                   bBytesBatchIndex2_,
+                                   valueSize_);
+        for (int i = 0,
+                 j = xaBytesBatchIndex2_ + linkingColumnSize_;
+             i < eatAggCount2_;
+             ++i, j += valueSize_) {
+          final long xaiHi =
+              Int128.hi(xaBytesBatch2_, j, valueSize_);
+          final long xaiLo =
+              Int128.lo(xaBytesBatch2_, j, valueSize_);
+          Int128.mulAcc(rowWide2_, w * i, xaiHi, xaiLo, bHi, bLo);
+        }
+        final long[] yb = ybWide_;
+        yb[0] = 0;
+        yb[1] = yInt_;
+        mod.sub(yb, 0, bHi, bLo);
+        Int128.toBytes(yb,
+                       0,
+                       ybBytesBatch2_,
+                       ybBytesBatchIndex2_,
+                       valueSize_);
+      } else {
+        final BigInteger m = modulusBig_;
+        final BigInteger b =
+            Rep.fromBytes(bBytesBatch2_,
+                          bBytesBatchIndex2_,
+                          valueSize_,
+                          (BigInteger)null,
+                          IntegerRep.PURE_UNSIGNED,
+                          ByteOrder.BIG_ENDIAN,
+                          false);
+        for (int i = 0,
+                 j = xaBytesBatchIndex2_ + linkingColumnSize_;
+             i < eatAggCount2_;
+             ++i, j += valueSize_) {
+          final BigInteger xai =
+              Rep.fromBytes(xaBytesBatch2_,
+                            j,
+                            valueSize_,
+                            (BigInteger)null,
+                            IntegerRep.PURE_UNSIGNED,
+                            ByteOrder.BIG_ENDIAN,
+                            false);
+          rowBig2_[i] =
+              rowBig2_[i].add(xai.multiply(b)).remainder(m);
+        }
+        BigInteger yb = yBig_.subtract(b);
+        if (yb.signum() < 0) {
+          yb = yb.add(m);
+        }
+        Rep.toBytes(yb,
+                    ybBytesBatch2_,
+                    ybBytesBatchIndex2_,
+                    valueSize_,
+                    IntegerRep.TWOS_COMPLEMENT,
+                    ByteOrder.BIG_ENDIAN,
+                    false);
+      }
+      ++rowIndex2_;
+      if (rowIndex2_ % 8192 == 0 || rowIndex2_ == rowCount2_) {
+        progress_.rowIndex2.set(rowIndex2_);
       }
+      ybBytesBatchIndex2_ += valueSize_;
+      xaBytesBatchHave2_ = false;
+      bBytesBatchHave2_ = false;
     }
 
     private final void tick2() {
@@ -581,27 +1952,31 @@ final class RawChannelHandler
               for (int i = 0; i < aggCount2_; ++i) {
                 rowBig2_[i] = BigInteger.ZERO;
               }
+              if (valuesFitWide_) {
+                Arrays.fill(rowWide1_, 0);
+                Arrays.fill(rowWide2_, 0);
+              }
             }
             if (xaBytesBatch1_ != null) {
-              xaBytesBatchEntry1_.release();
+              releaseBatch(xaBytesBatchEntry1_);
               xaBytesBatchEntry1_ = null;
               xaBytesBatch1_ = null;
               xaBytesBatchIndex1_ = -1;
             }
             if (xaBytesBatch2_ != null) {
-              xaBytesBatchEntry2_.release();
+              releaseBatch(xaBytesBatchEntry2_);
               xaBytesBatchEntry2_ = null;
               xaBytesBatch2_ = null;
               xaBytesBatchIndex2_ = -1;
             }
             if (bBytesBatch1_ != null) {
-              bBytesBatchEntry1_.release();
+              releaseBatch(bBytesBatchEntry1_);
               bBytesBatchEntry1_ = null;
               bBytesBatch1_ = null;
               bBytesBatchIndex1_ = -1;
             }
             if (bBytesBatch2_ != null) {
-              bBytesBatchEntry2_.release();
+              releaseBatch(bBytesBatchEntry2_);
               bBytesBatchEntry2_ = null;
               bBytesBatch2_ = null;
               bBytesBatchIndex2_ = -1;
@@ -609,6 +1984,7 @@ final class RawChannelHandler
             if (++tupleIndex_ < tupleCount_) {
               domainIterator_.nextAll(tuples_.get(tupleIndex_));
               progress_ = swd_.progress.get(tupleIndex_);
+              finishIndex_ = tupleIndex_;
               setState(State.MM_RECV_ROW_COUNT_1);
             } else {
               setState(State.MM_FINISH_QUERY);
@@ -616,8 +1992,8 @@ final class RawChannelHandler
           } break;
 
           case MM_RECV_ROW_COUNT_1: {
-            final Long x = rowCountQueue1.poll();
-            if (x == null) {
+            final long x = rowCountQueue1.poll(-1);
+            if (x == -1) {
               return;
             }
             fireTick(phDbS1Pipeline1_.get());
@@ -628,8 +2004,8 @@ final class RawChannelHandler
           } break;
 
           case MM_RECV_ROW_COUNT_2: {
-            final Long x = rowCountQueue2.poll();
-            if (x == null) {
+            final long x = rowCountQueue2.poll(-1);
+            if (x == -1) {
               return;
             }
             fireTick(phDbS1Pipeline2_.get());
@@ -646,7 +2022,50 @@ final class RawChannelHandler
           } break;
 
           case MM_NEXT: {
+            if (parallelMerge_) {
+              checkSegments();
+            }
             if (rowIndex1_ == rowCount1_ && rowIndex2_ == rowCount2_) {
+              if (parallelMerge_) {
+                if (segment1_ != null) {
+                  submitSegment(segment1_);
+                  segment1_ = null;
+                }
+                if (segment2_ != null) {
+                  submitSegment(segment2_);
+                  segment2_ = null;
+                }
+                if (pendingSegments_.get() != 0) {
+                  return;
+                }
+                checkSegments();
+              }
+              if (valuesFitWide_) {
+                for (int i = 0; i < aggCount1_; ++i) {
+                  if (wideMod_ == null) {
+                    Int128.mask(rowWide1_, 2 * i, modulusBits_);
+                    rowBig1_[i] = Int128.toBig(rowWide1_, 2 * i);
+                  } else {
+                    wideMod_.reduce(rowWide1_,
+                                    wideSize_ * i,
+                                    ybWide_,
+                                    0);
+                    rowBig1_[i] = Int128.toBig(ybWide_, 0);
+                  }
+                }
+                for (int i = 0; i < aggCount2_; ++i) {
+                  if (wideMod_ == null) {
+                    Int128.mask(rowWide2_, 2 * i, modulusBits_);
+                    rowBig2_[i] = Int128.toBig(rowWide2_, 2 * i);
+                  } else {
+                    wideMod_.reduce(rowWide2_,
+                                    wideSize_ * i,
+                                    ybWide_,
+                                    0);
+                    rowBig2_[i] = Int128.toBig(ybWide_, 0);
+                  }
+                }
+              }
               setState(State.MM_RECV_Z_FROM_PH_DB_S1_1);
             } else {
               if (rowIndex1_ == rowCount1_) {
@@ -659,8 +2078,36 @@ final class RawChannelHandler
                 want1_ = true;
                 want2_ = true;
               }
-              setState(State.MM_RECV_XA_BATCH_1);
+              if (parallelMerge_
+                  && pendingSegments_.get() >= mergeThreadCount_ - 1) {
+                return;
+              }
+              setState(State.MM_MERGE_BATCH);
+            }
+          } break;
+
+          case MM_MERGE_BATCH: {
+            State next = State.MM_RECV_XA_BATCH_1;
+            while ((!want1_ || takeXaRow1())
+                   && (!want2_ || takeXaRow2())) {
+              compare();
+              if ((eat1_ && !takeBRow1()) || (eat2_ && !takeBRow2())) {
+                break;
+              }
+              if (eat1_) {
+                eatRow1();
+              }
+              if (eat2_) {
+                eatRow2();
+              }
+              if (ybBatchReady1() || ybBatchReady2()) {
+                next = State.MM_SEND_YB_TO_PH_DB_S3_1;
+                break;
+              }
+              want1_ = rowIndex1_ != rowCount1_;
+              want2_ = rowIndex2_ != rowCount2_;
             }
+            setState(next);
           } break;
 
           case MM_RECV_XA_BATCH_1: {
@@ -675,7 +2122,7 @@ final class RawChannelHandler
                                            - xaBytesSize1_);
                 }
                 if (xaBytesBatchEntry1_ != null) {
-                  xaBytesBatchEntry1_.release();
+                  releaseBatch(xaBytesBatchEntry1_);
                   xaBytesBatchEntry1_ = null;
                   xaBytesBatch1_ = null;
                 }
@@ -706,7 +2153,7 @@ final class RawChannelHandler
                                            - xaBytesSize2_);
                 }
                 if (xaBytesBatchEntry2_ != null) {
-                  xaBytesBatchEntry2_.release();
+                  releaseBatch(xaBytesBatchEntry2_);
                   xaBytesBatchEntry2_ = null;
                   xaBytesBatch2_ = null;
                 }
@@ -726,49 +2173,7 @@ final class RawChannelHandler
           } break;
 
           case MM_COMPARE: {
-            if (!SST_NDEBUG) {
-              try {
-                SST_ASSERT(want1_ || want2_);
-                if (want1_) {
-                  SST_ASSERT(xaBytesBatchHave1_);
-                }
-                if (want2_) {
-                  SST_ASSERT(xaBytesBatchHave2_);
-                }
-              } catch (final Throwable e) {
-                SST_ASSERT(e);
-              }
-            }
-            yInt_ = 0;
-            yBig_ = BigInteger.ZERO;
-            if (want1_ && want2_) {
-              final int cmp = Memory.cmp(xaBytesBatch1_,
-                                         xaBytesBatchIndex1_,
-                                         xaBytesBatch2_,
-                                         xaBytesBatchIndex2_,
-                                         linkingColumnSize_,
-                                         ByteOrder.BIG_ENDIAN);
-              if (cmp < 0) {
-                eat1_ = true;
-                eat2_ = false;
-              } else if (cmp > 0) {
-                eat1_ = false;
-                eat2_ = true;
-              } else {
-                eat1_ = true;
-                eat2_ = true;
-                yInt_ = 1;
-                yBig_ = BigInteger.ONE;
-              }
-            } else if (want1_) {
-              eat1_ = true;
-              eat2_ = false;
-            } else if (want2_) {
-              eat1_ = false;
-              eat2_ = true;
-            } else if (!SST_NDEBUG) {
-              throw new ImpossibleException();
-            }
+            compare();
             setState(State.MM_RECV_B_BATCH_1);
           } break;
 
@@ -781,7 +2186,7 @@ final class RawChannelHandler
                            || bBytesBatchIndex1_
                                   == bBytesBatch1_.length - valueSize_);
                 if (bBytesBatchEntry1_ != null) {
-                  bBytesBatchEntry1_.release();
+                  releaseBatch(bBytesBatchEntry1_);
                   bBytesBatchEntry1_ = null;
                   bBytesBatch1_ = null;
                 }
@@ -811,7 +2216,7 @@ final class RawChannelHandler
                            || bBytesBatchIndex2_
                                   == bBytesBatch2_.length - valueSize_);
                 if (bBytesBatchEntry2_ != null) {
-                  bBytesBatchEntry2_.release();
+                  releaseBatch(bBytesBatchEntry2_);
                   bBytesBatchEntry2_ = null;
                   bBytesBatch2_ = null;
                 }
@@ -834,502 +2239,20 @@ final class RawChannelHandler
 
           case MM_EAT_1: {
             if (eat1_) {
-              if (ybBytesBatch1_ == null) {
-                ybBytesBatchEntry1_ = ybBytesBatchPool1_.acquire();
-                ybBytesBatch1_ = ybBytesBatchEntry1_.object();
-                ybBytesBatchIndex1_ = 0;
-              }
-              if (valuesFitInt_) {
-                final int m = modulusInt_;
-                final int b = Rep.fromBytes(bBytesBatch1_,
-                                            bBytesBatchIndex1_,
-                                            valueSize_,
-                                            (Integer)null,
-                                            IntegerRep.PURE_UNSIGNED,
-                                            ByteOrder.BIG_ENDIAN,
-                                            false);
-                if (m == 0 || m == Integer.MIN_VALUE
-                    || Arith.isPowerOfTwo(m)) {
-                  // m is a power of two in [1, 2^32]
-                  for (int i = 0,
-                           j = xaBytesBatchIndex1_ + linkingColumnSize_;
-                       i < aggCount1_;
-                       ++i, j += valueSize_) {
-                    final int xai =
-                        Rep.fromBytes(xaBytesBatch1_,
-                                      j,
-                                      valueSize_,
-                                      (Integer)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false);
-                    rowInt1_[i] += xai * b;
-                  }
-                  final int yb = yInt_ - b;
-                  Rep.toBytes(yb,
-                              ybBytesBatch1_,
-                              ybBytesBatchIndex1_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                } else if (m > 0) {
-                  // m is a non-power-of-two in [1, 2^31]
-                  for (int i = 0,
-                           j = xaBytesBatchIndex1_ + linkingColumnSize_;
-                       i < aggCount1_;
-                       ++i, j += valueSize_) {
-                    final int xai =
-                        Rep.fromBytes(xaBytesBatch1_,
-                                      j,
-                                      valueSize_,
-                                      (Integer)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false);
-                    rowInt1_[i] =
-                        (int)(((long)rowInt1_[i] + (long)xai * (long)b)
-                              % (long)m);
-                  }
-                  int yb = yInt_ - b;
-                  if (yb < 0) {
-                    yb += m;
-                  }
-                  Rep.toBytes(yb,
-                              ybBytesBatch1_,
-                              ybBytesBatchIndex1_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                } else {
-                  // m is a non-power-of-two in [2^31, 2^32]
-                  for (int i = 0,
-                           j = xaBytesBatchIndex1_ + linkingColumnSize_;
-                       i < aggCount1_;
-                       ++i, j += valueSize_) {
-                    final int xai =
-                        Rep.fromBytes(xaBytesBatch1_,
-                                      j,
-                                      valueSize_,
-                                      (Integer)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false);
-                    rowInt1_[i] = (int)Arith.unsignedMod(
-                        Arith.toUnsignedLong(rowInt1_[i])
-                            + Arith.toUnsignedLong(xai)
-                                  * Arith.toUnsignedLong(b),
-                        Arith.toUnsignedLong(m));
-                  }
-                  long yb = (long)yInt_ - Arith.toUnsignedLong(b);
-                  if (yb < 0) {
-                    yb += Arith.toUnsignedLong(m);
-                  }
-                  Rep.toBytes((int)yb,
-                              ybBytesBatch1_,
-                              ybBytesBatchIndex1_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                }
-              } else if (valuesFitLong_) {
-                final long m = modulusLong_;
-                final long b = Rep.fromBytes(bBytesBatch1_,
-                                             bBytesBatchIndex1_,
-                                             valueSize_,
-                                             (Long)null,
-                                             IntegerRep.PURE_UNSIGNED,
-                                             ByteOrder.BIG_ENDIAN,
-                                             false);
-                if (m == 0 || m == Long.MIN_VALUE
-                    || Arith.isPowerOfTwo(m)) {
-                  // m is a power of two in [2^33, 2^64]
-                  for (int i = 0,
-                           j = xaBytesBatchIndex1_ + linkingColumnSize_;
-                       i < aggCount1_;
-                       ++i, j += valueSize_) {
-                    final long xai =
-                        Rep.fromBytes(xaBytesBatch1_,
-                                      j,
-                                      valueSize_,
-                                      (Long)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false);
-                    rowLong1_[i] += xai * b;
-                  }
-                  final long yb = (long)yInt_ - b;
-                  Rep.toBytes(yb,
-                              ybBytesBatch1_,
-                              ybBytesBatchIndex1_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                } else if (m > 0) {
-                  // m is a non-power-of-two in [2^32, 2^63]
-                  final BigInteger bBig = BigInteger.valueOf(b);
-                  for (int i = 0,
-                           j = xaBytesBatchIndex1_ + linkingColumnSize_;
-                       i < aggCount1_;
-                       ++i, j += valueSize_) {
-                    final BigInteger xai =
-                        Rep.fromBytes(xaBytesBatch1_,
-                                      j,
-                                      valueSize_,
-                                      (BigInteger)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false);
-                    rowLong1_[i] = BigInteger.valueOf(rowLong1_[i])
-                                       .add(xai.multiply(bBig))
-                                       .remainder(modulusBig_)
-                                       .longValue();
-                  }
-                  long yb = (long)yInt_ - b;
-                  if (yb < 0) {
-                    yb += m;
-                  }
-                  Rep.toBytes(yb,
-                              ybBytesBatch1_,
-                              ybBytesBatchIndex1_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                } else {
-                  // m is a non-power-of-two in [2^63, 2^64]
-                  final BigInteger bBig = Arith.toUnsignedBig(b);
-                  for (int i = 0,
-                           j = xaBytesBatchIndex1_ + linkingColumnSize_;
-                       i < aggCount1_;
-                       ++i, j += valueSize_) {
-                    final BigInteger xai = Arith.toUnsignedBig(
-                        Rep.fromBytes(xaBytesBatch1_,
-                                      j,
-                                      valueSize_,
-                                      (Long)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false));
-                    rowLong1_[i] = Arith.toUnsignedBig(rowLong1_[i])
-                                       .add(xai.multiply(bBig))
-                                       .remainder(modulusBig_)
-                                       .longValue();
-                  }
-                  BigInteger yb = yBig_.subtract(bBig);
-                  if (yb.signum() < 0) {
-                    yb = yb.add(modulusBig_);
-                  }
-                  Rep.toBytes(yb.longValue(),
-                              ybBytesBatch1_,
-                              ybBytesBatchIndex1_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                }
-              } else {
-                final BigInteger m = modulusBig_;
-                final BigInteger b =
-                    Rep.fromBytes(bBytesBatch1_,
-                                  bBytesBatchIndex1_,
-                                  valueSize_,
-                                  (BigInteger)null,
-                                  IntegerRep.PURE_UNSIGNED,
-                                  ByteOrder.BIG_ENDIAN,
-                                  false);
-                for (int i = 0,
-                         j = xaBytesBatchIndex1_ + linkingColumnSize_;
-                     i < aggCount1_;
-                     ++i, j += valueSize_) {
-                  final BigInteger xai =
-                      Rep.fromBytes(xaBytesBatch1_,
-                                    j,
-                                    valueSize_,
-                                    (BigInteger)null,
-                                    IntegerRep.PURE_UNSIGNED,
-                                    ByteOrder.BIG_ENDIAN,
-                                    false);
-                  rowBig1_[i] =
-                      rowBig1_[i].add(xai.multiply(b)).remainder(m);
-                }
-                BigInteger yb = yBig_.subtract(b);
-                if (yb.signum() < 0) {
-                  yb = yb.add(m);
-                }
-                Rep.toBytes(yb,
-                            ybBytesBatch1_,
-                            ybBytesBatchIndex1_,
-                            valueSize_,
-                            IntegerRep.TWOS_COMPLEMENT,
-                            ByteOrder.BIG_ENDIAN,
-                            false);
-              }
-              ++rowIndex1_;
-              if (rowIndex1_ % 8192 == 0 || rowIndex1_ == rowCount1_) {
-                progress_.rowIndex1.set(rowIndex1_);
-              }
-              ybBytesBatchIndex1_ += valueSize_;
-              xaBytesBatchHave1_ = false;
-              bBytesBatchHave1_ = false;
+              eatRow1();
             }
             setState(State.MM_EAT_2);
           } break;
 
           case MM_EAT_2: {
             if (eat2_) {
-              if (ybBytesBatch2_ == null) {
-                ybBytesBatchEntry2_ = ybBytesBatchPool2_.acquire();
-                ybBytesBatch2_ = ybBytesBatchEntry2_.object();
-                ybBytesBatchIndex2_ = 0;
-              }
-              if (valuesFitInt_) {
-                final int m = modulusInt_;
-                final int b = Rep.fromBytes(bBytesBatch2_,
-                                            bBytesBatchIndex2_,
-                                            valueSize_,
-                                            (Integer)null,
-                                            IntegerRep.PURE_UNSIGNED,
-                                            ByteOrder.BIG_ENDIAN,
-                                            false);
-                if (m == 0 || m == Integer.MIN_VALUE
-                    || Arith.isPowerOfTwo(m)) {
-                  // m is a power of two in [1, 2^32]
-                  for (int i = 0,
-                           j = xaBytesBatchIndex2_ + linkingColumnSize_;
-                       i < aggCount2_;
-                       ++i, j += valueSize_) {
-                    final int xai =
-                        Rep.fromBytes(xaBytesBatch2_,
-                                      j,
-                                      valueSize_,
-                                      (Integer)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false);
-                    rowInt2_[i] += xai * b;
-                  }
-                  final int yb = yInt_ - b;
-                  Rep.toBytes(yb,
-                              ybBytesBatch2_,
-                              ybBytesBatchIndex2_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                } else if (m > 0) {
-                  // m is a non-power-of-two in [1, 2^31]
-                  for (int i = 0,
-                           j = xaBytesBatchIndex2_ + linkingColumnSize_;
-                       i < aggCount2_;
-                       ++i, j += valueSize_) {
-                    final int xai =
-                        Rep.fromBytes(xaBytesBatch2_,
-                                      j,
-                                      valueSize_,
-                                      (Integer)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false);
-                    rowInt2_[i] =
-                        (int)(((long)rowInt2_[i] + (long)xai * (long)b)
-                              % (long)m);
-                  }
-                  int yb = yInt_ - b;
-                  if (yb < 0) {
-                    yb += m;
-                  }
-                  Rep.toBytes(yb,
-                              ybBytesBatch2_,
-                              ybBytesBatchIndex2_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                } else {
-                  // m is a non-power-of-two in [2^31, 2^32]
-                  for (int i = 0,
-                           j = xaBytesBatchIndex2_ + linkingColumnSize_;
-                       i < aggCount2_;
-                       ++i, j += valueSize_) {
-                    final int xai =
-                        Rep.fromBytes(xaBytesBatch2_,
-                                      j,
-                                      valueSize_,
-                                      (Integer)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false);
-                    rowInt2_[i] = (int)Arith.unsignedMod(
-                        Arith.toUnsignedLong(rowInt2_[i])
-                            + Arith.toUnsignedLong(xai)
-                                  * Arith.toUnsignedLong(b),
-                        Arith.toUnsignedLong(m));
-                  }
-                  long yb = (long)yInt_ - Arith.toUnsignedLong(b);
-                  if (yb < 0) {
-                    yb += Arith.toUnsignedLong(m);
-                  }
-                  Rep.toBytes((int)yb,
-                              ybBytesBatch2_,
-                              ybBytesBatchIndex2_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                }
-              } else if (valuesFitLong_) {
-                final long m = modulusLong_;
-                final long b = Rep.fromBytes(bBytesBatch2_,
-                                             bBytesBatchIndex2_,
-                                             valueSize_,
-                                             (Long)null,
-                                             IntegerRep.PURE_UNSIGNED,
-                                             ByteOrder.BIG_ENDIAN,
-                                             false);
-                if (m == 0 || m == Long.MIN_VALUE
-                    || Arith.isPowerOfTwo(m)) {
-                  // m is a power of two in [2^33, 2^64]
-                  for (int i = 0,
-                           j = xaBytesBatchIndex2_ + linkingColumnSize_;
-                       i < aggCount2_;
-                       ++i, j += valueSize_) {
-                    final long xai =
-                        Rep.fromBytes(xaBytesBatch2_,
-                                      j,
-                                      valueSize_,
-                                      (Long)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false);
-                    rowLong2_[i] += xai * b;
-                  }
-                  final long yb = (long)yInt_ - b;
-                  Rep.toBytes(yb,
-                              ybBytesBatch2_,
-                              ybBytesBatchIndex2_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                } else if (m > 0) {
-                  // m is a non-power-of-two in [2^32, 2^63]
-                  final BigInteger bBig = BigInteger.valueOf(b);
-                  for (int i = 0,
-                           j = xaBytesBatchIndex2_ + linkingColumnSize_;
-                       i < aggCount2_;
-                       ++i, j += valueSize_) {
-                    final BigInteger xai =
-                        Rep.fromBytes(xaBytesBatch2_,
-                                      j,
-                                      valueSize_,
-                                      (BigInteger)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false);
-                    rowLong2_[i] = BigInteger.valueOf(rowLong2_[i])
-                                       .add(xai.multiply(bBig))
-                                       .remainder(modulusBig_)
-                                       .longValue();
-                  }
-                  long yb = (long)yInt_ - b;
-                  if (yb < 0) {
-                    yb += m;
-                  }
-                  Rep.toBytes(yb,
-                              ybBytesBatch2_,
-                              ybBytesBatchIndex2_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                } else {
-                  // m is a non-power-of-two in [2^63, 2^64]
-                  final BigInteger bBig = Arith.toUnsignedBig(b);
-                  for (int i = 0,
-                           j = xaBytesBatchIndex2_ + linkingColumnSize_;
-                       i < aggCount2_;
-                       ++i, j += valueSize_) {
-                    final BigInteger xai = Arith.toUnsignedBig(
-                        Rep.fromBytes(xaBytesBatch2_,
-                                      j,
-                                      valueSize_,
-                                      (Long)null,
-                                      IntegerRep.PURE_UNSIGNED,
-                                      ByteOrder.BIG_ENDIAN,
-                                      false));
-                    rowLong2_[i] = Arith.toUnsignedBig(rowLong2_[i])
-                                       .add(xai.multiply(bBig))
-                                       .remainder(modulusBig_)
-                                       .longValue();
-                  }
-                  BigInteger yb = yBig_.subtract(bBig);
-                  if (yb.signum() < 0) {
-                    yb = yb.add(modulusBig_);
-                  }
-                  Rep.toBytes(yb.longValue(),
-                              ybBytesBatch2_,
-                              ybBytesBatchIndex2_,
-                              valueSize_,
-                              IntegerRep.TWOS_COMPLEMENT,
-                              ByteOrder.BIG_ENDIAN,
-                              false);
-                }
-              } else {
-                final BigInteger m = modulusBig_;
-                final BigInteger b =
-                    Rep.fromBytes(bBytesBatch2_,
-                                  bBytesBatchIndex2_,
-                                  valueSize_,
-                                  (BigInteger)null,
-                                  IntegerRep.PURE_UNSIGNED,
-                                  ByteOrder.BIG_ENDIAN,
-                                  false);
-                for (int i = 0,
-                         j = xaBytesBatchIndex2_ + linkingColumnSize_;
-                     i < aggCount2_;
-                     ++i, j += valueSize_) {
-                  final BigInteger xai =
-                      Rep.fromBytes(xaBytesBatch2_,
-                                    j,
-                                    valueSize_,
-                                    (BigInteger)null,
-                                    IntegerRep.PURE_UNSIGNED,
-                                    ByteOrder.BIG_ENDIAN,
-                                    false);
-                  rowBig2_[i] =
-                      rowBig2_[i].add(xai.multiply(b)).remainder(m);
-                }
-                BigInteger yb = yBig_.subtract(b);
-                if (yb.signum() < 0) {
-                  yb = yb.add(m);
-                }
-                Rep.toBytes(yb,
-                            ybBytesBatch2_,
-                            ybBytesBatchIndex2_,
-                            valueSize_,
-                            IntegerRep.TWOS_COMPLEMENT,
-                            ByteOrder.BIG_ENDIAN,
-                            false);
-              }
-              ++rowIndex2_;
-              if (rowIndex2_ % 8192 == 0 || rowIndex2_ == rowCount2_) {
-                progress_.rowIndex2.set(rowIndex2_);
-              }
-              ybBytesBatchIndex2_ += valueSize_;
-              xaBytesBatchHave2_ = false;
-              bBytesBatchHave2_ = false;
+              eatRow2();
             }
             setState(State.MM_SEND_YB_TO_PH_DB_S3_1);
           } break;
 
           case MM_SEND_YB_TO_PH_DB_S3_1: {
-            if (ybBytesBatch1_ != null
-                && (ybBytesBatchIndex1_ == ybBytesBatch1_.length
-                    || rowIndex1_ == rowCount1_)) {
+            if (ybBatchReady1()) {
               if (!ybBytesBatchQueue1_.offer(ybBytesBatchEntry1_)) {
                 return;
               }
@@ -1341,9 +2264,7 @@ final class RawChannelHandler
           } break;
 
           case MM_SEND_YB_TO_PH_DB_S3_2: {
-            if (ybBytesBatch2_ != null
-                && (ybBytesBatchIndex2_ == ybBytesBatch2_.length
-                    || rowIndex2_ == rowCount2_)) {
+            if (ybBatchReady2()) {
               if (!ybBytesBatchQueue2_.offer(ybBytesBatchEntry2_)) {
                 return;
               }
@@ -1431,6 +2352,50 @@ final class RawChannelHandler
               //log("zBig2_ = " + Rep.toString(zBig2_));
             }
             fireTick(phDbS1Pipeline2_.get());
+            setState(State.MM_PARK_DOMAIN_TUPLE);
+          } break;
+
+          case MM_PARK_DOMAIN_TUPLE: {
+            final PendingTuple p = spareTuples_.isEmpty() ?
+                                       newPendingTuple() :
+                                       spareTuples_.removeFirst();
+            swapPendingTuple(p);
+            pendingTuples_.addLast(p);
+            rowIndex1_ = -1;
+            rowIndex2_ = -1;
+            setState(State.MM_RETIRE_DOMAIN_TUPLES);
+          } break;
+
+          case MM_RETIRE_DOMAIN_TUPLES: {
+            if (!SST_NDEBUG) {
+              try {
+                SST_ASSERT(rowCount1_ == -1);
+                SST_ASSERT(rowCount2_ == -1);
+                SST_ASSERT(rowIndex1_ == -1);
+                SST_ASSERT(rowIndex2_ == -1);
+                SST_ASSERT(pendingTuples_.size() <= pipelineDepth_);
+              } catch (final Throwable e) {
+                SST_ASSERT(e);
+              }
+            }
+            if (pendingTuples_.isEmpty()) {
+              setState(State.MM_NEXT_DOMAIN_TUPLE);
+              break;
+            }
+            if (shd_.sBytesQueue1.peek() == null
+                || shd_.sBytesQueue2.peek() == null) {
+              // Keep merging unless the pipeline is full or there are
+              // no domain tuples left to merge.
+              if (pendingTuples_.size() < pipelineDepth_
+                  && tupleIndex_ + 1 < tupleCount_) {
+                setState(State.MM_NEXT_DOMAIN_TUPLE);
+                break;
+              }
+              return;
+            }
+            final PendingTuple p = pendingTuples_.removeFirst();
+            swapPendingTuple(p);
+            spareTuples_.addLast(p);
             setState(State.MM_RECV_S_FROM_PH_DB_S3_1);
           } break;
 
@@ -1911,7 +2876,7 @@ final class RawChannelHandler
             {
               final int calculationScale = config_.calculationScale();
               final int resultScale = config_.resultScale();
-              final BigDecimal[] row = result_.get(tupleIndex_);
+              final BigDecimal[] row = result_.get(finishIndex_);
               int i = 0;
               for (int col = 0; col < columnCount_; ++col) {
                 final Aggregate agg = query_.aggregates().get(col);
@@ -2018,7 +2983,7 @@ final class RawChannelHandler
             }
             // TODO: This is only for debugging.
             {
-              final BigDecimal[] row = result_.get(tupleIndex_);
+              final BigDecimal[] row = result_.get(finishIndex_);
               String s = "";
               for (int i = 0; i < row.length; ++i) {
                 s += ((i > 0) ? ", " : "") + row[i];
@@ -2062,8 +3027,9 @@ final class RawChannelHandler
             rowCount2_ = -1;
             rowIndex1_ = -1;
             rowIndex2_ = -1;
+            finishIndex_ = -1;
             swd_.tupleIndex.incrementAndGet();
-            setState(State.MM_NEXT_DOMAIN_TUPLE);
+            setState(State.MM_RETIRE_DOMAIN_TUPLES);
           } break;
 
           case MM_FINISH_QUERY: {
@@ -2183,62 +3149,91 @@ final class RawChannelHandler
     // Row count queues
     //------------------------------------------------------------------
 
-    public final Map<Party, Queue<BothRowCounts>>
+    public final Map<Party, SpscQueue<BothRowCounts>>
         phDbS1ToPhDbS3BothRowCountsQueues;
-    public final Queue<BothRowCounts> dbPhS1ToDbPhS3BothRowCountsQueue;
-    public final Queue<Long> dbPhS1ToDbDbSsLocalRowCountQueue;
-    public final Queue<Long> dbPhS1ToDbDbRsLocalRowCountQueue;
-    public final Queue<Long> dbDbRhToDbPhS1OtherRowCountQueue;
-    public final Map<Party, Queue<BothRowCounts>> bothRowCountsQueues =
-        new HashMap<Party, Queue<BothRowCounts>>();
+    public final SpscQueue<BothRowCounts>
+        dbPhS1ToDbPhS3BothRowCountsQueue;
+    public final LongSpscQueue dbPhS1ToDbDbSsLocalRowCountQueue;
+    public final LongSpscQueue dbPhS1ToDbDbRsLocalRowCountQueue;
+    public final LongSpscQueue dbDbRhToDbPhS1OtherRowCountQueue;
+    public final Map<Party, SpscQueue<BothRowCounts>>
+        bothRowCountsQueues =
+            new HashMap<Party, SpscQueue<BothRowCounts>>();
+
+    //
+    // When the row_count_vector lexicon option is enabled, the DB-PH S1
+    // handler publishes the local row count vector in localRowCounts
+    // and the DB-DB RH publishes the other DB's vector in
+    // otherRowCounts. Each is set once per query.
+    //
+
+    public final AtomicReference<long[]> localRowCounts =
+        new AtomicReference<long[]>(null);
+    public final AtomicReference<long[]> otherRowCounts =
+        new AtomicReference<long[]>(null);
 
     //------------------------------------------------------------------
 
-    public final LinkedBlockingQueue<PoolEntry<int[]>> rIntQueue;
-    public final LinkedBlockingQueue<PoolEntry<long[]>> rLongQueue;
-    public final LinkedBlockingQueue<PoolEntry<BigInteger[]>> rBigQueue;
+    public final SpscQueue<BatchEntry<int[]>> rIntQueue;
+    public final SpscQueue<BatchEntry<long[]>> rLongQueue;
+    public final SpscQueue<BatchEntry<BigInteger[]>> rBigQueue;
 
     //------------------------------------------------------------------
 
-    public final Queue<PoolEntry<int[]>> zIntQueue1;
-    public final Queue<PoolEntry<long[]>> zLongQueue1;
-    public final Queue<PoolEntry<BigInteger[]>> zBigQueue1;
-    public final Queue<PoolEntry<int[]>> zIntQueue2;
-    public final Queue<PoolEntry<long[]>> zLongQueue2;
-    public final Queue<PoolEntry<BigInteger[]>> zBigQueue2;
+    public final SpscQueue<BatchEntry<int[]>> zIntQueue1;
+    public final SpscQueue<BatchEntry<long[]>> zLongQueue1;
+    public final SpscQueue<BatchEntry<BigInteger[]>> zBigQueue1;
+    public final SpscQueue<BatchEntry<int[]>> zIntQueue2;
+    public final SpscQueue<BatchEntry<long[]>> zLongQueue2;
+    public final SpscQueue<BatchEntry<BigInteger[]>> zBigQueue2;
 
     //------------------------------------------------------------------
 
-    public final Queue<PoolEntry<XIntBatch>> xIntBatchQueue;
-    public final Queue<PoolEntry<XLongBatch>> xLongBatchQueue;
-    public final Queue<PoolEntry<XBigBatch>> xBigBatchQueue;
+    public final SpscQueue<BatchEntry<XIntBatch>> xIntBatchQueue;
+    public final SpscQueue<BatchEntry<XLongBatch>> xLongBatchQueue;
+    public final SpscQueue<BatchEntry<XBigBatch>> xBigBatchQueue;
 
     //------------------------------------------------------------------
 
-    public final LinkedBlockingQueue<PoolEntry<int[]>> aIntBatchQueue;
-    public final LinkedBlockingQueue<PoolEntry<long[]>> aLongBatchQueue;
-    public final LinkedBlockingQueue<PoolEntry<BigInteger[]>>
-        aBigBatchQueue;
+    //
+    // In the wide tier, the a batches travel through aLongBatchQueue as
+    // Int128 pairs.
+    //
+
+    public final SpscQueue<BatchEntry<int[]>> aIntBatchQueue;
+    public final SpscQueue<BatchEntry<long[]>> aLongBatchQueue;
+    public final SpscQueue<BatchEntry<BigInteger[]>> aBigBatchQueue;
 
     //------------------------------------------------------------------
 
-    public final HashMap<Party, LinkedBlockingQueue<PoolEntry<byte[]>>>
+    public final HashMap<Party, SpscQueue<BatchEntry<byte[]>>>
         bBytesBatchQueues;
 
     //------------------------------------------------------------------
 
-    public final HashMap<Party, LinkedBlockingQueue<PoolEntry<byte[]>>>
+    public final HashMap<Party, SpscQueue<BatchEntry<byte[]>>>
         xaBytesBatchQueues;
 
     //------------------------------------------------------------------
 
-    public final Map<Party, Queue<PoolEntry<byte[]>>>
-        ybBytesBatchQueues;
+    public final Map<Party, SpscQueue<BatchEntry<byte[]>>>
+        ybBytesBatchQueues;
+
+    //------------------------------------------------------------------
+
+    public final SpscQueue<BatchEntry<byte[]>> sBytesQueue1;
+    public final SpscQueue<BatchEntry<byte[]>> sBytesQueue2;
 
     //------------------------------------------------------------------
+    // Batch budget
+    //------------------------------------------------------------------
+    //
+    // All batch pools of the query are created from batchBudget, which
+    // gives their buffers back to the batch arena once every handler
+    // of the query is done.
+    //
 
-    public final Queue<PoolEntry<byte[]>> sBytesQueue1;
-    public final Queue<PoolEntry<byte[]>> sBytesQueue2;
+    public final BatchBudget batchBudget;
 
     //------------------------------------------------------------------
 
@@ -2266,6 +3261,9 @@ final class RawChannelHandler
       queryId = handler.queryId_;
       query = handler.query_;
       modulus = handler.modulus_;
+      batchBudget =
+          new BatchBudget(globals.batchArena(),
+                          globals.config().queryBatchBudget());
 
       if (handler.localPartyIsPh_) {
         doneCountdown.set(6);
@@ -2287,7 +3285,18 @@ final class RawChannelHandler
         }
       }
 
-      // TODO: max capacities for queues
+      //
+      // Every queue below has exactly one producer handler and one
+      // consumer handler, so they are all SPSC ring buffers. The
+      // queues that carry one element per domain tuple get a fixed
+      // capacity, and the queues that carry one element per batch get
+      // a capacity that holds about QUEUED_ROWS rows of the smallest
+      // batch size of the query.
+      //
+
+      final int batchQueueCapacity =
+          batchQueueCapacity(Math.min(handler.localMaxBatch_,
+                                      handler.otherMaxBatch_));
 
       //----------------------------------------------------------------
       // Row count queues
@@ -2295,11 +3304,11 @@ final class RawChannelHandler
 
       if (handler.localPartyIsPh_) {
         phDbS1ToPhDbS3BothRowCountsQueues =
-            new HashMap<Party, Queue<BothRowCounts>>();
+            new HashMap<Party, SpscQueue<BothRowCounts>>();
         for (final Party db : Party.dbValues()) {
           phDbS1ToPhDbS3BothRowCountsQueues.put(
               db,
-              new LinkedBlockingQueue<BothRowCounts>(10000));
+              new SpscQueue<BothRowCounts>(TUPLE_QUEUE_CAPACITY));
         }
         dbPhS1ToDbPhS3BothRowCountsQueue = null;
         dbPhS1ToDbDbSsLocalRowCountQueue = null;
@@ -2308,40 +3317,42 @@ final class RawChannelHandler
         for (final Party db : Party.dbValues()) {
           bothRowCountsQueues.put(
               db,
-              new LinkedBlockingQueue<BothRowCounts>(10000));
+              new SpscQueue<BothRowCounts>(TUPLE_QUEUE_CAPACITY));
         }
       } else {
         phDbS1ToPhDbS3BothRowCountsQueues = null;
         dbPhS1ToDbPhS3BothRowCountsQueue =
-            new LinkedBlockingQueue<BothRowCounts>(10000);
+            new SpscQueue<BothRowCounts>(TUPLE_QUEUE_CAPACITY);
         dbPhS1ToDbDbSsLocalRowCountQueue =
-            new LinkedBlockingQueue<Long>(10000);
+            new LongSpscQueue(TUPLE_QUEUE_CAPACITY);
         dbPhS1ToDbDbRsLocalRowCountQueue =
-            new LinkedBlockingQueue<Long>(10000);
+            new LongSpscQueue(TUPLE_QUEUE_CAPACITY);
         dbDbRhToDbPhS1OtherRowCountQueue =
-            new LinkedBlockingQueue<Long>(10000);
+            new LongSpscQueue(TUPLE_QUEUE_CAPACITY);
         bothRowCountsQueues.put(
             handler.otherDb_,
-            new LinkedBlockingQueue<BothRowCounts>(10000));
+            new SpscQueue<BothRowCounts>(TUPLE_QUEUE_CAPACITY));
       }
 
       //----------------------------------------------------------------
 
       if (handler.localPartyIsDb_) {
         if (handler.valuesFitInt_) {
-          rIntQueue = new LinkedBlockingQueue<PoolEntry<int[]>>(10000);
+          rIntQueue =
+              new SpscQueue<BatchEntry<int[]>>(TUPLE_QUEUE_CAPACITY);
           rLongQueue = null;
           rBigQueue = null;
         } else if (handler.valuesFitLong_) {
           rIntQueue = null;
           rLongQueue =
-              new LinkedBlockingQueue<PoolEntry<long[]>>(10000);
+              new SpscQueue<BatchEntry<long[]>>(TUPLE_QUEUE_CAPACITY);
           rBigQueue = null;
         } else {
           rIntQueue = null;
           rLongQueue = null;
           rBigQueue =
-              new LinkedBlockingQueue<PoolEntry<BigInteger[]>>(10000);
+              new SpscQueue<BatchEntry<BigInteger[]>>(
+                  TUPLE_QUEUE_CAPACITY);
         }
       } else {
         rIntQueue = null;
@@ -2352,34 +3363,39 @@ final class RawChannelHandler
       //----------------------------------------------------------------
 
       if (handler.valuesFitInt_) {
-        zIntQueue1 = new LinkedBlockingQueue<PoolEntry<int[]>>(10000);
+        zIntQueue1 =
+            new SpscQueue<BatchEntry<int[]>>(TUPLE_QUEUE_CAPACITY);
         zLongQueue1 = null;
         zBigQueue1 = null;
       } else if (handler.valuesFitLong_) {
         zIntQueue1 = null;
-        zLongQueue1 = new LinkedBlockingQueue<PoolEntry<long[]>>(10000);
+        zLongQueue1 =
+            new SpscQueue<BatchEntry<long[]>>(TUPLE_QUEUE_CAPACITY);
         zBigQueue1 = null;
       } else {
         zIntQueue1 = null;
         zLongQueue1 = null;
         zBigQueue1 =
-            new LinkedBlockingQueue<PoolEntry<BigInteger[]>>(10000);
+            new SpscQueue<BatchEntry<BigInteger[]>>(
+                TUPLE_QUEUE_CAPACITY);
       }
       if (handler.localPartyIsPh_) {
         if (handler.valuesFitInt_) {
-          zIntQueue2 = new LinkedBlockingQueue<PoolEntry<int[]>>(10000);
+          zIntQueue2 =
+              new SpscQueue<BatchEntry<int[]>>(TUPLE_QUEUE_CAPACITY);
           zLongQueue2 = null;
           zBigQueue2 = null;
         } else if (handler.valuesFitLong_) {
           zIntQueue2 = null;
           zLongQueue2 =
-              new LinkedBlockingQueue<PoolEntry<long[]>>(10000);
+              new SpscQueue<BatchEntry<long[]>>(TUPLE_QUEUE_CAPACITY);
           zBigQueue2 = null;
         } else {
           zIntQueue2 = null;
           zLongQueue2 = null;
           zBigQueue2 =
-              new LinkedBlockingQueue<PoolEntry<BigInteger[]>>(10000);
+              new SpscQueue<BatchEntry<BigInteger[]>>(
+                  TUPLE_QUEUE_CAPACITY);
         }
       } else {
         zIntQueue2 = null;
@@ -2392,19 +3408,19 @@ final class RawChannelHandler
       if (handler.localPartyIsDb_) {
         if (handler.valuesFitInt_) {
           xIntBatchQueue =
-              new LinkedBlockingQueue<PoolEntry<XIntBatch>>(10000);
+              new SpscQueue<BatchEntry<XIntBatch>>(batchQueueCapacity);
           xLongBatchQueue = null;
           xBigBatchQueue = null;
         } else if (handler.valuesFitLong_) {
           xIntBatchQueue = null;
           xLongBatchQueue =
-              new LinkedBlockingQueue<PoolEntry<XLongBatch>>(10000);
+              new SpscQueue<BatchEntry<XLongBatch>>(batchQueueCapacity);
           xBigBatchQueue = null;
         } else {
           xIntBatchQueue = null;
           xLongBatchQueue = null;
           xBigBatchQueue =
-              new LinkedBlockingQueue<PoolEntry<XBigBatch>>(10000);
+              new SpscQueue<BatchEntry<XBigBatch>>(batchQueueCapacity);
         }
       } else {
         xIntBatchQueue = null;
@@ -2417,19 +3433,20 @@ final class RawChannelHandler
       if (handler.localPartyIsDb_) {
         if (handler.valuesFitInt_) {
           aIntBatchQueue =
-              new LinkedBlockingQueue<PoolEntry<int[]>>(10000);
+              new SpscQueue<BatchEntry<int[]>>(batchQueueCapacity);
           aLongBatchQueue = null;
           aBigBatchQueue = null;
-        } else if (handler.valuesFitLong_) {
+        } else if (handler.valuesFitLong_ || handler.valuesFitWide_) {
           aIntBatchQueue = null;
           aLongBatchQueue =
-              new LinkedBlockingQueue<PoolEntry<long[]>>(10000);
+              new SpscQueue<BatchEntry<long[]>>(batchQueueCapacity);
           aBigBatchQueue = null;
         } else {
           aIntBatchQueue = null;
           aLongBatchQueue = null;
           aBigBatchQueue =
-              new LinkedBlockingQueue<PoolEntry<BigInteger[]>>(10000);
+              new SpscQueue<BatchEntry<BigInteger[]>>(
+                  batchQueueCapacity);
         }
       } else {
         aIntBatchQueue = null;
@@ -2440,18 +3457,18 @@ final class RawChannelHandler
       //----------------------------------------------------------------
 
       bBytesBatchQueues =
-          new HashMap<Party, LinkedBlockingQueue<PoolEntry<byte[]>>>();
+          new HashMap<Party, SpscQueue<BatchEntry<byte[]>>>();
       if (handler.localPartyIsDb_) {
         bBytesBatchQueues.put(
             Party.PH,
-            new LinkedBlockingQueue<PoolEntry<byte[]>>(10000));
+            new SpscQueue<BatchEntry<byte[]>>(batchQueueCapacity));
       } else {
         bBytesBatchQueues.put(
             Party.DB1,
-            new LinkedBlockingQueue<PoolEntry<byte[]>>(10000));
+            new SpscQueue<BatchEntry<byte[]>>(batchQueueCapacity));
         bBytesBatchQueues.put(
             Party.DB2,
-            new LinkedBlockingQueue<PoolEntry<byte[]>>(10000));
+            new SpscQueue<BatchEntry<byte[]>>(batchQueueCapacity));
       }
 
       //----------------------------------------------------------------
@@ -2459,11 +3476,11 @@ final class RawChannelHandler
       if (handler.localPartyIsPh_) {
         xaBytesBatchQueues =
             new HashMap<Party,
-                        LinkedBlockingQueue<PoolEntry<byte[]>>>();
+                        SpscQueue<BatchEntry<byte[]>>>();
         for (final Party db : Party.dbValues()) {
           xaBytesBatchQueues.put(
               db,
-              new LinkedBlockingQueue<PoolEntry<byte[]>>(10000));
+              new SpscQueue<BatchEntry<byte[]>>(batchQueueCapacity));
         }
       } else {
         xaBytesBatchQueues = null;
@@ -2473,11 +3490,11 @@ final class RawChannelHandler
 
       if (handler.localPartyIsPh_) {
         ybBytesBatchQueues =
-            new HashMap<Party, Queue<PoolEntry<byte[]>>>();
+            new HashMap<Party, SpscQueue<BatchEntry<byte[]>>>();
         for (final Party db : Party.dbValues()) {
           ybBytesBatchQueues.put(
               db,
-              new LinkedBlockingQueue<PoolEntry<byte[]>>(10000));
+              new SpscQueue<BatchEntry<byte[]>>(batchQueueCapacity));
         }
       } else {
         ybBytesBatchQueues = null;
@@ -2487,9 +3504,9 @@ final class RawChannelHandler
 
       if (handler.localPartyIsPh_) {
         sBytesQueue1 =
-            new LinkedBlockingQueue<PoolEntry<byte[]>>(10000);
+            new SpscQueue<BatchEntry<byte[]>>(TUPLE_QUEUE_CAPACITY);
         sBytesQueue2 =
-            new LinkedBlockingQueue<PoolEntry<byte[]>>(10000);
+            new SpscQueue<BatchEntry<byte[]>>(TUPLE_QUEUE_CAPACITY);
       } else {
         sBytesQueue1 = null;
         sBytesQueue2 = null;
@@ -2498,7 +3515,7 @@ final class RawChannelHandler
       //----------------------------------------------------------------
 
       if (handler.localPartyIsPh_) {
-        mergeMachine = new MergeMachine(
+        final MergeMachine m = new MergeMachine(
             handler.globals_,
             this,
             handler.modulusInt_,
@@ -2511,6 +3528,10 @@ final class RawChannelHandler
                                                 handler.otherAggCount_,
             handler.remoteParty_ == Party.DB2 ? handler.localAggCount_ :
                                                 handler.otherAggCount_,
+            handler.remoteParty_ == Party.DB1 ? handler.localMaxBatch_ :
+                                                handler.otherMaxBatch_,
+            handler.remoteParty_ == Party.DB2 ? handler.localMaxBatch_ :
+                                                handler.otherMaxBatch_,
             xaBytesBatchQueues.get(Party.DB1),
             xaBytesBatchQueues.get(Party.DB2),
             bBytesBatchQueues.get(Party.DB1),
@@ -2523,6 +3544,13 @@ final class RawChannelHandler
             pipelines.get(Party.DB2).get(StateStream.S2),
             pipelines.get(Party.DB1).get(StateStream.S3),
             pipelines.get(Party.DB2).get(StateStream.S3));
+        m.setTicker(new Runnable() {
+          @Override
+          public final void run() {
+            handler.fireTick(m);
+          }
+        });
+        mergeMachine = m;
       } else {
         mergeMachine = null;
       }
@@ -2533,6 +3561,7 @@ final class RawChannelHandler
     public final void done() {
       if (doneCountdown.decrementAndGet() == 0) {
         globals.removeSharedHandlerData(queryId);
+        batchBudget.close();
       }
     }
   }
@@ -2557,6 +3586,125 @@ final class RawChannelHandler
   private final Table otherTable_;
   private final JdbcRunner jdbcRunner_ = new JdbcRunner();
 
+  //
+  // A grouped scan keeps fullResult_ open across domain tuples, and
+  // some drivers (e.g., MySQL) cannot run other statements on a
+  // connection while a streaming result is open. countJdbcRunner_
+  // holds a second connection for the count queries in this case. It
+  // is not needed with a grouped count, as all rows are counted before
+  // the grouped scan begins.
+  //
+
+  private final JdbcRunner countJdbcRunner_ = new JdbcRunner();
+
+  //
+  // partitionJdbcRunners_ holds a connection for each partition of a
+  // partitioned full query except the first, which runs on jdbcRunner_
+  // (see partitionFullQuery).
+  //
+
+  private final JdbcRunner[] partitionJdbcRunners_;
+
+  //
+  // Each JdbcRunner prepares its statements through its own
+  // StatementCache. When the caches are enabled, the runners keep their
+  // connections and statements from one query to the next instead of
+  // returning them to globals_.sqlChannels() at the end of each query,
+  // so repeated queries of the same form skip preparing their
+  // statements again.
+  //
+  // The kept connections are bounded in three ways. Once the handler
+  // has gone STATEMENT_CACHE_IDLE seconds without a query, or once it
+  // is removed, the caches are closed and the connections go back to
+  // globals_.sqlChannels(). A connection that has sat idle is checked
+  // by DB_PH_S1_CHECK_CONNECTIONS before a query reuses it, and it is
+  // replaced if the database has dropped it. And since any exception,
+  // SQLExceptions included, goes to exceptionCaught(), which closes
+  // all the caches, a connection that has failed is never kept.
+  //
+
+  private final StatementCache statementCache_;
+  private final StatementCache countStatementCache_;
+  private final StatementCache[] partitionStatementCaches_;
+
+  private static final long STATEMENT_CACHE_IDLE = 60;
+  private static final Object STATEMENT_CACHE_IDLE_CHECK = new Object();
+  private long statementCacheQueries_ = 0;
+  private long statementCacheIdleQueries_ = -1;
+  private Future<?> connectionCheck_ = null;
+
+  private final List<StatementCache> statementCaches() {
+    final List<StatementCache> caches = new ArrayList<StatementCache>();
+    caches.add(statementCache_);
+    caches.add(countStatementCache_);
+    caches.addAll(Arrays.asList(partitionStatementCaches_));
+    return caches;
+  }
+
+  private void scheduleStatementCacheIdleCheck() {
+    statementCacheIdleQueries_ = ++statementCacheQueries_;
+    globals_.cpuThreadGroup().schedule(new Runnable() {
+      @Override
+      public final void run() {
+        try {
+          pipeline_.fireUserEventTriggered(STATEMENT_CACHE_IDLE_CHECK);
+        } catch (final Throwable e) {
+          asyncFatal(e);
+        }
+      }
+    }, STATEMENT_CACHE_IDLE, TimeUnit.SECONDS);
+  }
+
+  //
+  // A check only closes the caches if no query has started since the
+  // last one that scheduled it.
+  //
+
+  private void handleStatementCacheIdleCheck() {
+    if (queryString_ == null
+        && statementCacheIdleQueries_ == statementCacheQueries_) {
+      statementCacheIdleQueries_ = -1;
+      closeStatementCaches();
+    }
+  }
+
+  private final void trimStatementCaches() {
+    statementCache_.trim();
+    countStatementCache_.trim();
+    for (final StatementCache cache : partitionStatementCaches_) {
+      cache.trim();
+    }
+  }
+
+  private final void closeStatementCaches() {
+    statementCache_.close();
+    countStatementCache_.close();
+    for (final StatementCache cache : partitionStatementCaches_) {
+      cache.close();
+    }
+  }
+
+  private final void logStatementCaches() {
+    long queryHits = 0;
+    long queryMisses = 0;
+    long hits = 0;
+    long misses = 0;
+    for (final StatementCache cache : statementCaches()) {
+      queryHits += cache.queryHits();
+      queryMisses += cache.queryMisses();
+      hits += cache.hits();
+      misses += cache.misses();
+    }
+    log("This query found " + queryHits + " of "
+        + (queryHits + queryMisses)
+        + " prepared statements in the statement cache, which has a "
+        + "hit rate of "
+        + String.format(Locale.ROOT,
+                        "%.1f",
+                        100.0 * hits / Math.max(hits + misses, 1))
+        + "% on this connection.");
+  }
+
   //--------------------------------------------------------------------
   // getLinkingColumn
   //--------------------------------------------------------------------
@@ -2673,22 +3821,82 @@ final class RawChannelHandler
   private final int valueSize_;
   private final boolean valuesFitInt_;
   private final boolean valuesFitLong_;
+  private final boolean valuesFitWide_;
+  private final int modulusBits_;
+  private final Int128.Mod wideMod_;
+  private final int wideSize_;
   private final Modulus modulus_;
   private final int modulusInt_;
   private final long modulusLong_;
   private final BigInteger modulusBig_;
   private final byte[] randModDstBuf_;
   private final byte[] randModDstBuf2_;
+  private final RandomEngine randomEngine_;
+
+  //
+  // Returns whether values mod m that fit in neither an int nor a long
+  // use the wide tier, which holds each value as a high and a low long
+  // (see Int128). This is the case when m is at most 2^128. Both the
+  // handler and the merge machine use this so that they always agree
+  // on the tier.
+  //
+
+  static final boolean valuesFitWide(final boolean valuesFitInt,
+                                     final boolean valuesFitLong,
+                                     final BigInteger modulus,
+                                     final int valueSize) {
+    return !valuesFitInt && !valuesFitLong
+        && (modulus.bitLength() <= 128
+            || (modulus.bitCount() == 1 && modulus.bitLength() == 129))
+        && valueSize <= 16;
+  }
+
+  //
+  // This may be called from any thread. With the AES_CTR engine, each
+  // thread draws from its own AesCtrPrg.local() instance, so no
+  // generator state is shared between threads.
+  //
 
   private final void
   randMod(final byte[] dst, final int n, final RandModContext ctx) {
+    randMod(dst, 0, n, ctx);
+  }
+
+  private final void randMod(final byte[] dst,
+                             final int i,
+                             final int n,
+                             final RandModContext ctx) {
+    if (randomEngine_ == RandomEngine.AES_CTR) {
+      AesCtrPrg.local().genMod(dst,
+                               i * valueSize_,
+                               n,
+                               valueSize_,
+                               modulusBig_);
+      return;
+    }
     ctx.gen(Rand.cryptoRng(),
             dst,
-            0,
+            i * valueSize_,
             n * valueSize_,
             ByteOrder.BIG_ENDIAN);
   }
 
+  //
+  // Like randMod(), but takes as many values as possible from the
+  // global mask pool first. This must only be used for masks that are
+  // not derived from a seed shared with another party.
+  //
+
+  private final void pooledRandMod(final byte[] dst,
+                                   final int n,
+                                   final RandModContext ctx) {
+    final MaskPool pool = globals_.maskPool();
+    final int i = pool != null ? pool.take(dst, 0, n) : 0;
+    if (i < n) {
+      randMod(dst, i, n - i, ctx);
+    }
+  }
+
   private final void
   randMod(final byte[] src, final int[] dst, final int n) {
     for (int i = 0; i != n; ++i) {
@@ -2769,7 +3977,7 @@ final class RawChannelHandler
 
   private StateStream stateStream_;
 
-  private PoolEntry<ChannelFuture> channelPoolEntry_;
+  private PoolEntry<Future<Channel>> channelPoolEntry_;
   private String queryString_;
   private Guid queryId_;
   private Query query_;
@@ -2791,9 +3999,57 @@ final class RawChannelHandler
   private int otherMaxBatch_;
   private int localMaxBatch_;
 
+  //
+  // Returns the maximum number of rows per batch for a database that
+  // has aggCount aggregates in the current query. The batch size is
+  // chosen so that a batch of rows, each carrying a linking ID and
+  // aggCount values, comes to about batch_bytes bytes. Every party
+  // computes the same value from the lexicon and the query, so the
+  // parties agree on the batch sizes without exchanging them. This
+  // is also why the batch size cannot depend on anything local, such
+  // as the channel output buffer limits or measured throughput.
+  //
+
+  private static final int MIN_MAX_BATCH = 16;
+  private static final int MAX_MAX_BATCH = 65536;
+
+  private final int maxBatch(final int aggCount) {
+    final long rowBytes = (long)lexicon_.common().linkingColumnSize()
+                          + (long)aggCount * valueSize_;
+    final long n = lexicon_.common().batchBytes() / rowBytes;
+    return (int)Math.max(MIN_MAX_BATCH, Math.min(n, MAX_MAX_BATCH));
+  }
+
+  //
+  // Returns the capacity of a queue that carries batches of at most
+  // maxBatch rows between two handlers. A full queue only makes its
+  // producer wait for the next tick, so the capacity just needs to
+  // absorb the jitter between the two handlers, not a whole domain
+  // tuple. The queues that carry one element per domain tuple, such
+  // as the row count queues, hold TUPLE_QUEUE_CAPACITY elements.
+  //
+
+  private static final int TUPLE_QUEUE_CAPACITY = 8192;
+  private static final int QUEUED_ROWS = 1 << 20;
+  private static final int MIN_BATCH_QUEUE_CAPACITY = 64;
+  private static final int MAX_BATCH_QUEUE_CAPACITY = 16384;
+
+  private static final int batchQueueCapacity(final int maxBatch) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(maxBatch > 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return Math.max(MIN_BATCH_QUEUE_CAPACITY,
+                    Math.min(QUEUED_ROWS / maxBatch,
+                             MAX_BATCH_QUEUE_CAPACITY));
+  }
+
   //--------------------------------------------------------------------
 
-  private Queue<BothRowCounts> phDbS1ToPhDbS3BothRowCountsQueue_;
+  private SpscQueue<BothRowCounts> phDbS1ToPhDbS3BothRowCountsQueue_;
 
   //--------------------------------------------------------------------
 
@@ -2805,28 +4061,29 @@ final class RawChannelHandler
   //--------------------------------------------------------------------
 
   private byte[] rBytesRh_;
-  private ConcurrentPool<int[]> rIntPool_;
-  private ConcurrentPool<long[]> rLongPool_;
-  private ConcurrentPool<BigInteger[]> rBigPool_;
-  private PoolEntry<int[]> rIntEntry_;
-  private PoolEntry<long[]> rLongEntry_;
-  private PoolEntry<BigInteger[]> rBigEntry_;
+  private BatchPool<int[]> rIntPool_;
+  private BatchPool<long[]> rLongPool_;
+  private BatchPool<BigInteger[]> rBigPool_;
+  private BatchEntry<int[]> rIntEntry_;
+  private BatchEntry<long[]> rLongEntry_;
+  private BatchEntry<BigInteger[]> rBigEntry_;
 
   //--------------------------------------------------------------------
 
-  private ConcurrentPool<int[]> zIntPool_;
-  private ConcurrentPool<long[]> zLongPool_;
-  private ConcurrentPool<BigInteger[]> zBigPool_;
-  private PoolEntry<int[]> zIntEntry_;
-  private PoolEntry<long[]> zLongEntry_;
-  private PoolEntry<BigInteger[]> zBigEntry_;
+  private BatchPool<int[]> zIntPool_;
+  private BatchPool<long[]> zLongPool_;
+  private BatchPool<BigInteger[]> zBigPool_;
+  private BatchEntry<int[]> zIntEntry_;
+  private BatchEntry<long[]> zLongEntry_;
+  private BatchEntry<BigInteger[]> zBigEntry_;
   private int[] zInt_;
   private long[] zLong_;
   private BigInteger[] zBig_;
+  private long[] zWide_;
   private byte[] zBytes_;
-  private Queue<PoolEntry<int[]>> zIntQueue_;
-  private Queue<PoolEntry<long[]>> zLongQueue_;
-  private Queue<PoolEntry<BigInteger[]>> zBigQueue_;
+  private SpscQueue<BatchEntry<int[]>> zIntQueue_;
+  private SpscQueue<BatchEntry<long[]>> zLongQueue_;
+  private SpscQueue<BatchEntry<BigInteger[]>> zBigQueue_;
 
   //--------------------------------------------------------------------
 
@@ -2835,34 +4092,64 @@ final class RawChannelHandler
   private long[] aLongBatch_;
   private BigInteger[] aBigBatch_;
   private byte[] aBytesBatchRh_;
-  private ConcurrentPool<int[]> aIntBatchPool_;
-  private ConcurrentPool<long[]> aLongBatchPool_;
-  private ConcurrentPool<BigInteger[]> aBigBatchPool_;
-  private PoolEntry<int[]> aIntBatchEntry_;
-  private PoolEntry<long[]> aLongBatchEntry_;
-  private PoolEntry<BigInteger[]> aBigBatchEntry_;
+  private BatchPool<int[]> aIntBatchPool_;
+  private BatchPool<long[]> aLongBatchPool_;
+  private BatchPool<BigInteger[]> aBigBatchPool_;
+  private BatchEntry<int[]> aIntBatchEntry_;
+  private BatchEntry<long[]> aLongBatchEntry_;
+  private BatchEntry<BigInteger[]> aBigBatchEntry_;
+
+  //--------------------------------------------------------------------
+  // Seeded masks
+  //--------------------------------------------------------------------
+  //
+  // When the lexicon enables seeded_masks, the DB-DB SH does not send
+  // its r and a masks to the remote RH. Instead, it sends a fresh seed
+  // once per query, and both sides expand the masks from the seed with
+  // AesCtrPrg, the SH when generating them and the RH when it would
+  // have received them. Both sides consume the r and a streams in the
+  // same order, so the position of each mask in its stream takes the
+  // place of any explicit batch index. The masks are known to both
+  // DBs either way, so the seed reveals nothing that sending the
+  // masks did not.
+  //
+
+  private static final SecureRandom seedRandom_ = new SecureRandom();
+  private boolean seededMasks_;
+  private byte[] maskSeedSh_;
+  private byte[] maskSeedRh_;
+  private AesCtrPrg rPrgSh_;
+  private AesCtrPrg aPrgSh_;
+  private AesCtrPrg rPrgRh_;
+  private AesCtrPrg aPrgRh_;
+
+  private static final long R_MASK_STREAM = 0;
+  private static final long A_MASK_STREAM = 1;
 
   //--------------------------------------------------------------------
 
-  private ConcurrentPool<byte[]> bBytesBatchPool_;
-  private PoolEntry<byte[]> bBytesBatchEntry_;
+  private BatchPool<byte[]> bBytesBatchPool_;
+  private BatchEntry<byte[]> bBytesBatchEntry_;
   private int[] bIntBatch_;
   private long[] bLongBatch_;
   private BigInteger[] bBigBatch_;
-  private LinkedBlockingQueue<PoolEntry<byte[]>> bBytesBatchQueue_;
+  private SpscQueue<BatchEntry<byte[]>> bBytesBatchQueue_;
 
   //--------------------------------------------------------------------
 
-  private ConcurrentPool<XIntBatch> xIntBatchPool_;
-  private ConcurrentPool<XLongBatch> xLongBatchPool_;
-  private ConcurrentPool<XBigBatch> xBigBatchPool_;
-  private PoolEntry<XIntBatch> xIntBatchEntry_;
-  private PoolEntry<XLongBatch> xLongBatchEntry_;
-  private PoolEntry<XBigBatch> xBigBatchEntry_;
+  private BatchPool<XIntBatch> xIntBatchPool_;
+  private BatchPool<XLongBatch> xLongBatchPool_;
+  private BatchPool<XBigBatch> xBigBatchPool_;
+  private BatchEntry<XIntBatch> xIntBatchEntry_;
+  private BatchEntry<XLongBatch> xLongBatchEntry_;
+  private BatchEntry<XBigBatch> xBigBatchEntry_;
   private XIntBatch xIntBatch_;
   private XLongBatch xLongBatch_;
   private XBigBatch xBigBatch_;
   private Future<?> xBatchFuture_;
+  private final LinkedList<XFetch> xFetches_ = new LinkedList<XFetch>();
+  private long xFetchRowIndex_ = -1;
+  private Future<?> xFetchFuture_;
 
   //--------------------------------------------------------------------
 
@@ -2882,23 +4169,40 @@ final class RawChannelHandler
   private long otherRowIndex_;
   private int otherRowBatch_;
 
-  private final LinkedList<Long> otherRowCountQueue_;
-  // TODO: Control otherRowCountQueueLimit_ somehow?
-  private final static int otherRowCountQueueLimit_ = 100000;
+  //
+  // otherRowCountQueue_ carries the other DB's row counts from the
+  // DB-DB RH states to the DB-DB SH states. offer() returning false is
+  // the backpressure that used to be otherRowCountQueueLimit_.
+  //
+
+  private final LongSpscQueue otherRowCountQueue_;
 
   //--------------------------------------------------------------------
 
   private int xaBytesSize_;
   private byte[] xaBytesBatch_;
   private Future<?> xaFuture_;
-  private ConcurrentPool<byte[]> xaBytesBatchPool_;
-  private PoolEntry<byte[]> xaBytesBatchEntry_;
-  private Queue<PoolEntry<byte[]>> xaBytesBatchQueue_;
+  private BatchPool<byte[]> xaBytesBatchPool_;
+  private BatchEntry<byte[]> xaBytesBatchEntry_;
+  private SpscQueue<BatchEntry<byte[]>> xaBytesBatchQueue_;
+
+  //
+  // When the lexicon enables front_coded_ids, each xa batch is sent as
+  // a 4-byte length followed by the batch encoded with IdCodec. The DB
+  // encodes each batch into an xaCodedBatchPool_ entry on the worker
+  // thread that computes it, and the PH decodes it from in_ straight
+  // into an xaBytesBatchPool_ entry, so the merge machine always sees
+  // plain batches.
+  //
+
+  private BatchPool<byte[]> xaCodedBatchPool_;
+  private BatchEntry<byte[]> xaCodedBatchEntry_;
+  private int xaCodedSize_;
 
   //--------------------------------------------------------------------
 
-  private Queue<PoolEntry<byte[]>> ybBytesBatchQueue_;
-  private PoolEntry<byte[]> ybBytesBatchEntry_;
+  private SpscQueue<BatchEntry<byte[]>> ybBytesBatchQueue_;
+  private BatchEntry<byte[]> ybBytesBatchEntry_;
   private byte[] ybBytesBatch_;
   private int[] ybIntBatch_;
   private long[] ybLongBatch_;
@@ -2909,16 +4213,21 @@ final class RawChannelHandler
   private int[] sInt_;
   private long[] sLong_;
   private BigInteger[] sBig_;
-  private ConcurrentPool<byte[]> sBytesPool_;
-  private PoolEntry<byte[]> sBytesEntry_;
+  private long[] sWide_;
+  private BatchPool<byte[]> sBytesPool_;
+  private BatchEntry<byte[]> sBytesEntry_;
   private byte[] sBytes_;
   private Future<?> sFuture_;
-  private Queue<PoolEntry<byte[]>> sBytesQueue_;
+  private SpscQueue<BatchEntry<byte[]>> sBytesQueue_;
 
   //--------------------------------------------------------------------
 
   private void resetForNextQuery() {
-    jdbcRunner_.close();
+    if (statementCache_.enabled()) {
+      trimStatementCaches();
+    } else {
+      closeStatementCaches();
+    }
 
     stateStream_ = null;
     updateLogPrefix();
@@ -2927,7 +4236,7 @@ final class RawChannelHandler
       // channelPoolEntry_ will be null at construction time, which is
       // when the first call to resetForNextQuery is made.
       if (channelPoolEntry_ != null) {
-        channelPoolEntry_.release();
+        globals_.rawChannels(remoteParty_).release(channelPoolEntry_);
         channelPoolEntry_ = null;
       }
     }
@@ -2982,6 +4291,7 @@ final class RawChannelHandler
     zInt_ = null;
     zLong_ = null;
     zBig_ = null;
+    zWide_ = null;
     zBytes_ = null;
     zIntQueue_ = null;
     zLongQueue_ = null;
@@ -3003,6 +4313,16 @@ final class RawChannelHandler
 
     //------------------------------------------------------------------
 
+    seededMasks_ = false;
+    maskSeedSh_ = null;
+    maskSeedRh_ = null;
+    rPrgSh_ = null;
+    aPrgSh_ = null;
+    rPrgRh_ = null;
+    aPrgRh_ = null;
+
+    //------------------------------------------------------------------
+
     bBytesBatchPool_ = null;
     bBytesBatchEntry_ = null;
     bIntBatch_ = null;
@@ -3022,6 +4342,10 @@ final class RawChannelHandler
     xLongBatch_ = null;
     xBigBatch_ = null;
     xBatchFuture_ = null;
+    xFetches_.clear();
+    xFetchRowIndex_ = -1;
+    xFetchFuture_ = null;
+    connectionCheck_ = null;
 
     //------------------------------------------------------------------
 
@@ -3042,7 +4366,8 @@ final class RawChannelHandler
     otherRowBatch_ = -1;
 
     if (localPartyIsDb_) {
-      otherRowCountQueue_.clear();
+      while (otherRowCountQueue_.poll(-1) != -1) {
+      }
     }
 
     //------------------------------------------------------------------
@@ -3053,6 +4378,9 @@ final class RawChannelHandler
     xaBytesBatchPool_ = null;
     xaBytesBatchEntry_ = null;
     xaBytesBatchQueue_ = null;
+    xaCodedBatchPool_ = null;
+    xaCodedBatchEntry_ = null;
+    xaCodedSize_ = -1;
 
     //------------------------------------------------------------------
 
@@ -3068,6 +4396,7 @@ final class RawChannelHandler
     sInt_ = null;
     sLong_ = null;
     sBig_ = null;
+    sWide_ = null;
     sBytesPool_ = null;
     sBytesEntry_ = null;
     sBytes_ = null;
@@ -3082,11 +4411,45 @@ final class RawChannelHandler
     fullSqlFormat_ = null;
     allParameters_ = null;
     domainParameters_ = null;
+    groupedScan_ = false;
+    fullParameters_ = null;
+    groupedCount_ = false;
+    groupedCountSql_ = null;
+    groupedCountSqlFormat_ = null;
+    groupedCountParameters_ = null;
+    rowCounts_ = null;
+    otherRowCounts_ = null;
+    rowCountVector_ = false;
+    groupedKey_ = null;
+    groupedPassKey_ = null;
+    groupedKeyColumn_ = -1;
+    fullRowPending_ = false;
     countStatement_ = null;
     fullStatement_ = null;
     countResult_ = null;
     fullResult_ = null;
-    fullResultMetadata_ = null;
+    fullRowSource_ = null;
+    rowSource_ = null;
+    partitioned_ = false;
+    partitionSql_ = null;
+    partitionSqlFormat_ = null;
+    partitionStatements_ = null;
+    partitionResults_ = null;
+    partitionRowSource_ = null;
+    partitionCount_ = 1;
+    linkingMin_ = 0;
+    linkingMax_ = 0;
+    snapshotSql_ = null;
+    snapshotSqlFormat_ = null;
+    snapshotParameters_ = null;
+    snapshotKeyColumn_ = -1;
+    snapshotSignature_ = null;
+    snapshotRefreshing_ = false;
+    snapshotStatement_ = null;
+    snapshot_ = null;
+    snapshotKey_ = null;
+    snapshotTuple_ = -1;
+    snapshotScan_ = null;
   }
 
   private void gotQuery() {
@@ -3174,6 +4537,15 @@ final class RawChannelHandler
 
         //--------------------------------------------------------------
 
+        SST_ASSERT(maskSeedSh_ == null);
+        SST_ASSERT(maskSeedRh_ == null);
+        SST_ASSERT(rPrgSh_ == null);
+        SST_ASSERT(aPrgSh_ == null);
+        SST_ASSERT(rPrgRh_ == null);
+        SST_ASSERT(aPrgRh_ == null);
+
+        //--------------------------------------------------------------
+
         SST_ASSERT(bBytesBatchPool_ == null);
         SST_ASSERT(bBytesBatchEntry_ == null);
         SST_ASSERT(bIntBatch_ == null);
@@ -3193,6 +4565,9 @@ final class RawChannelHandler
         SST_ASSERT(xLongBatch_ == null);
         SST_ASSERT(xBigBatch_ == null);
         SST_ASSERT(xBatchFuture_ == null);
+        SST_ASSERT(xFetches_.isEmpty());
+        SST_ASSERT(xFetchRowIndex_ == -1);
+        SST_ASSERT(xFetchFuture_ == null);
 
         //--------------------------------------------------------------
 
@@ -3226,6 +4601,9 @@ final class RawChannelHandler
         SST_ASSERT(xaBytesBatchPool_ == null);
         SST_ASSERT(xaBytesBatchEntry_ == null);
         SST_ASSERT(xaBytesBatchQueue_ == null);
+        SST_ASSERT(xaCodedBatchPool_ == null);
+        SST_ASSERT(xaCodedBatchEntry_ == null);
+        SST_ASSERT(xaCodedSize_ == -1);
 
         //--------------------------------------------------------------
 
@@ -3241,6 +4619,7 @@ final class RawChannelHandler
         SST_ASSERT(sInt_ == null);
         SST_ASSERT(sLong_ == null);
         SST_ASSERT(sBig_ == null);
+        SST_ASSERT(sWide_ == null);
         SST_ASSERT(sBytesPool_ == null);
         SST_ASSERT(sBytesEntry_ == null);
         SST_ASSERT(sBytes_ == null);
@@ -3268,12 +4647,11 @@ final class RawChannelHandler
             new FixedPointModContext(modulus_,
                                      xs.get(i).column().scale());
       }
+      fullRowSource_ = newJdbcRowSource();
     }
 
-    // TODO: calculate these from the config, agg counts, and
-    // valueSize_.
-    localMaxBatch_ = 1000;
-    otherMaxBatch_ = 1000;
+    localMaxBatch_ = maxBatch(localAggCount);
+    otherMaxBatch_ = maxBatch(otherAggCount);
     final int localMaxBatch = localMaxBatch_;
     final int otherMaxBatch = otherMaxBatch_;
 
@@ -3291,6 +4669,22 @@ final class RawChannelHandler
       domainIteratorRh_ = new DomainIterator(config_, query_);
     }
 
+    //
+    // Every party must make the same decision here, so it only depends
+    // on the lexicon and the query. A vector that could not be sent in
+    // one buffer falls back to the per-tuple row counts.
+    //
+
+    {
+      final DomainIterator it = domainIterator_ != null ?
+                                    domainIterator_ :
+                                    domainIteratorSh_;
+      rowCountVector_ =
+          lexicon_.common().rowCountVector()
+          && (long)it.partyCount(Party.DB1) + it.partyCount(Party.DB2)
+                 <= Integer.MAX_VALUE / 8;
+    }
+
     //------------------------------------------------------------------
 
     if (localPartyIsPh_
@@ -3318,27 +4712,12 @@ final class RawChannelHandler
     if (localPartyIsDb_ && remotePartyIsDb_) {
       rBytesRh_ = new byte[localAggCount * valueSize_];
       if (valuesFitInt_) {
-        rIntPool_ = new ConcurrentPool<int[]>(new Supplier<int[]>() {
-          @Override
-          public final int[] get() {
-            return new int[localAggCount];
-          }
-        });
+        rIntPool_ = shd_.batchBudget.intPool(localAggCount);
       } else if (valuesFitLong_) {
-        rLongPool_ = new ConcurrentPool<long[]>(new Supplier<long[]>() {
-          @Override
-          public final long[] get() {
-            return new long[localAggCount];
-          }
-        });
+        rLongPool_ = shd_.batchBudget.longPool(localAggCount);
       } else {
-        rBigPool_ = new ConcurrentPool<BigInteger[]>(
-            new Supplier<BigInteger[]>() {
-              @Override
-              public final BigInteger[] get() {
-                return new BigInteger[localAggCount];
-              }
-            });
+        rBigPool_ =
+            shd_.batchBudget.bigPool(localAggCount, valueSize_);
       }
     }
 
@@ -3348,30 +4727,19 @@ final class RawChannelHandler
         || (localPartyIsPh_ && remotePartyIsDb_
             && stateStream_ == StateStream.S1)) {
       if (valuesFitInt_) {
-        zIntPool_ = new ConcurrentPool<int[]>(new Supplier<int[]>() {
-          @Override
-          public final int[] get() {
-            return new int[otherAggCount];
-          }
-        });
+        zIntPool_ = shd_.batchBudget.intPool(otherAggCount);
       } else if (valuesFitLong_) {
-        zLongPool_ = new ConcurrentPool<long[]>(new Supplier<long[]>() {
-          @Override
-          public final long[] get() {
-            return new long[otherAggCount];
-          }
-        });
+        zLongPool_ = shd_.batchBudget.longPool(otherAggCount);
       } else {
-        zBigPool_ = new ConcurrentPool<BigInteger[]>(
-            new Supplier<BigInteger[]>() {
-              @Override
-              public final BigInteger[] get() {
-                return new BigInteger[otherAggCount];
-              }
-            });
+        zBigPool_ =
+            shd_.batchBudget.bigPool(otherAggCount, valueSize_);
       }
     }
 
+    if (localPartyIsDb_ && remotePartyIsDb_ && valuesFitWide_) {
+      zWide_ = new long[wideSize_ * otherAggCount];
+    }
+
     if ((localPartyIsDb_ && remotePartyIsPh_
          && stateStream_ == StateStream.S1)
         || (localPartyIsPh_ && remotePartyIsDb_
@@ -3409,7 +4777,7 @@ final class RawChannelHandler
         aIntBatch_ = new int[otherMaxBatch * otherAggCount];
       } else if (valuesFitLong_) {
         aLongBatch_ = new long[otherMaxBatch * otherAggCount];
-      } else {
+      } else if (!valuesFitWide_) {
         aBigBatch_ = new BigInteger[otherMaxBatch * otherAggCount];
       }
     }
@@ -3419,28 +4787,17 @@ final class RawChannelHandler
           new byte[localMaxBatch * localAggCount * valueSize_];
       if (valuesFitInt_) {
         aIntBatchPool_ =
-            new ConcurrentPool<int[]>(new Supplier<int[]>() {
-              @Override
-              public final int[] get() {
-                return new int[localMaxBatch * localAggCount];
-              }
-            });
+            shd_.batchBudget.intPool(localMaxBatch * localAggCount);
       } else if (valuesFitLong_) {
         aLongBatchPool_ =
-            new ConcurrentPool<long[]>(new Supplier<long[]>() {
-              @Override
-              public final long[] get() {
-                return new long[localMaxBatch * localAggCount];
-              }
-            });
+            shd_.batchBudget.longPool(localMaxBatch * localAggCount);
+      } else if (valuesFitWide_) {
+        aLongBatchPool_ = shd_.batchBudget.longPool(2 * localMaxBatch
+                                                    * localAggCount);
       } else {
-        aBigBatchPool_ = new ConcurrentPool<BigInteger[]>(
-            new Supplier<BigInteger[]>() {
-              @Override
-              public final BigInteger[] get() {
-                return new BigInteger[localMaxBatch * localAggCount];
-              }
-            });
+        aBigBatchPool_ =
+            shd_.batchBudget.bigPool(localMaxBatch * localAggCount,
+                                     valueSize_);
       }
     }
 
@@ -3450,12 +4807,7 @@ final class RawChannelHandler
         || (localPartyIsPh_ && remotePartyIsDb_
             && stateStream_ == StateStream.S2)) {
       bBytesBatchPool_ =
-          new ConcurrentPool<byte[]>(new Supplier<byte[]>() {
-            @Override
-            public final byte[] get() {
-              return new byte[otherMaxBatch * valueSize_];
-            }
-          });
+          shd_.batchBudget.bytePool(otherMaxBatch * valueSize_);
     }
 
     if (localPartyIsDb_ && remotePartyIsDb_) {
@@ -3463,7 +4815,7 @@ final class RawChannelHandler
         bIntBatch_ = new int[otherMaxBatch];
       } else if (valuesFitLong_) {
         bLongBatch_ = new long[otherMaxBatch];
-      } else {
+      } else if (!valuesFitWide_) {
         bBigBatch_ = new BigInteger[otherMaxBatch];
       }
     }
@@ -3481,34 +4833,68 @@ final class RawChannelHandler
 
     if (localPartyIsDb_ && remotePartyIsPh_
         && stateStream_ == StateStream.S1) {
+      final String xBatchShape = "[" + localMaxBatch + ","
+                                 + localAggCount + ","
+                                 + linkingColumnSize_ + "]";
+      final long idBytes = (long)localMaxBatch * linkingColumnSize_;
+      final int xsLength = localMaxBatch * localAggCount;
       if (valuesFitInt_) {
-        xIntBatchPool_ =
-            new ConcurrentPool<XIntBatch>(new Supplier<XIntBatch>() {
+        xIntBatchPool_ = shd_.batchBudget.pool(
+            "XIntBatch" + xBatchShape,
+            idBytes + 4L * xsLength,
+            new Supplier<XIntBatch>() {
               @Override
               public final XIntBatch get() {
                 return new XIntBatch(localMaxBatch,
                                      localAggCount,
                                      linkingColumnSize_);
               }
+            },
+            new Consumer<XIntBatch>() {
+              @Override
+              public final void accept(final XIntBatch x) {
+                x.clear();
+              }
             });
       } else if (valuesFitLong_) {
-        xLongBatchPool_ =
-            new ConcurrentPool<XLongBatch>(new Supplier<XLongBatch>() {
+        xLongBatchPool_ = shd_.batchBudget.pool(
+            "XLongBatch" + xBatchShape,
+            idBytes + 8L * xsLength,
+            new Supplier<XLongBatch>() {
               @Override
               public final XLongBatch get() {
                 return new XLongBatch(localMaxBatch,
                                       localAggCount,
                                       linkingColumnSize_);
               }
+            },
+            new Consumer<XLongBatch>() {
+              @Override
+              public final void accept(final XLongBatch x) {
+                x.clear();
+              }
             });
       } else {
-        xBigBatchPool_ =
-            new ConcurrentPool<XBigBatch>(new Supplier<XBigBatch>() {
+        final boolean valuesFitWide = valuesFitWide_;
+        xBigBatchPool_ = shd_.batchBudget.pool(
+            "XBigBatch" + xBatchShape,
+            idBytes
+                + (valuesFitWide ?
+                       16L * xsLength :
+                       BatchBudget.bigBytes(xsLength, valueSize_)),
+            new Supplier<XBigBatch>() {
               @Override
               public final XBigBatch get() {
                 return new XBigBatch(localMaxBatch,
                                      localAggCount,
-                                     linkingColumnSize_);
+                                     linkingColumnSize_,
+                                     valuesFitWide);
+              }
+            },
+            new Consumer<XBigBatch>() {
+              @Override
+              public final void accept(final XBigBatch x) {
+                x.clear();
               }
             });
       }
@@ -3516,21 +4902,21 @@ final class RawChannelHandler
 
     //------------------------------------------------------------------
 
-    if (localPartyIsDb_ && remotePartyIsPh_
-        && stateStream_ == StateStream.S1) {
-      xaBytesSize_ = linkingColumnSize_ + localAggCount * valueSize_;
-      xaBytesBatch_ = new byte[localMaxBatch * xaBytesSize_];
-    } else if (localPartyIsPh_ && stateStream_ == StateStream.S1) {
+    if (stateStream_ == StateStream.S1
+        && (localPartyIsPh_ || remotePartyIsPh_)) {
       xaBytesSize_ = linkingColumnSize_ + localAggCount * valueSize_;
       final int xaBytesSize = xaBytesSize_;
       xaBytesBatchPool_ =
-          new ConcurrentPool<byte[]>(new Supplier<byte[]>() {
-            @Override
-            public final byte[] get() {
-              return new byte[localMaxBatch * xaBytesSize];
-            }
-          });
-      xaBytesBatchQueue_ = shd_.xaBytesBatchQueues.get(remoteParty_);
+          shd_.batchBudget.bytePool(localMaxBatch * xaBytesSize);
+      if (localPartyIsPh_) {
+        xaBytesBatchQueue_ = shd_.xaBytesBatchQueues.get(remoteParty_);
+      } else if (lexicon_.common().frontCodedIds()) {
+        final int xaCodedBatchSize = IdCodec.maxEncodedSize(
+            localMaxBatch,
+            xaBytesSize,
+            linkingColumnSize_);
+        xaCodedBatchPool_ = shd_.batchBudget.bytePool(xaCodedBatchSize);
+      }
     }
 
     //------------------------------------------------------------------
@@ -3560,17 +4946,16 @@ final class RawChannelHandler
         sLong_ = new long[localAggCount_];
       } else {
         sBig_ = new BigInteger[localAggCount_];
+        if (valuesFitWide_) {
+          sWide_ = new long[wideSize_ * localAggCount_];
+        }
       }
       sBytes_ = new byte[localAggCount_ * valueSize_];
     }
     if (localPartyIsPh_ && remotePartyIsDb_
         && stateStream_ == StateStream.S3) {
-      sBytesPool_ = new ConcurrentPool<byte[]>(new Supplier<byte[]>() {
-        @Override
-        public final byte[] get() {
-          return new byte[localAggCount * valueSize_];
-        }
-      });
+      sBytesPool_ =
+          shd_.batchBudget.bytePool(localAggCount * valueSize_);
       if (localDb_ == Party.DB1) {
         sBytesQueue_ = shd_.sBytesQueue1;
       } else {
@@ -3578,24 +4963,573 @@ final class RawChannelHandler
       }
     }
 
-    //------------------------------------------------------------------
+    //------------------------------------------------------------------
+  }
+
+  //--------------------------------------------------------------------
+
+  private String countSql_;
+  private String countSqlFormat_;
+  private PreparedStatement countStatement_;
+  private ResultSet countResult_;
+
+  private String fullSql_;
+  private String fullSqlFormat_;
+  private PreparedStatement fullStatement_;
+  private ResultSet fullResult_;
+
+  //
+  // fullRowSource_ reads the X values of the rows of fullResult_, and
+  // rowSource_ is the RowSource that the X batches of the current
+  // domain tuple are read from, which is either fullRowSource_,
+  // partitionRowSource_, or snapshotScan_.
+  //
+
+  private JdbcRowSource fullRowSource_;
+  private RowSource rowSource_;
+
+  private ArrayList<Object> allParameters_;
+  private List<Object> domainParameters_;
+
+  //
+  // When groupedScan_ is true, fullStatement_ is a single query that
+  // retrieves the rows for all domain tuples at once, sorted by domain
+  // tuple and then by linking column (see DomainIterator). The rows
+  // for each domain tuple are split out of fullResult_ on the fly, and
+  // fullResult_ is kept open across domain tuples until the domain
+  // tuple order requires an earlier row to be revisited, in which case
+  // the query is run again.
+  //
+  // fullParameters_ holds the parameters of fullStatement_, which do
+  // not change between domain tuples. groupedKey_ holds the domain
+  // positions of the local group-by columns for the current domain
+  // tuple, and groupedPassKey_ holds the domain positions for the last
+  // domain tuple retrieved from fullResult_. The last
+  // groupedKey_.length columns of fullResult_ hold the domain positions
+  // of each row, starting at column groupedKeyColumn_. fullRowPending_
+  // is true when fullResult_ is positioned on a row that has not been
+  // consumed yet.
+  //
+
+  private boolean groupedScan_;
+  private ArrayList<Object> fullParameters_;
+
+  //
+  // When groupedCount_ is true, countStatement_ is a single GROUP BY
+  // query that counts the rows for all domain tuples at once, and
+  // rowCounts_ holds the resulting counts indexed by
+  // DomainIterator.partyIndex(localDb_). Domain tuples with no rows
+  // are absent from the query result and are left as zero in
+  // rowCounts_.
+  //
+  // When rowCountVector_ is true, the DB-PH S1 handler also sends
+  // rowCounts_ to the other DB through SharedHandlerData.localRowCounts
+  // and the DB-DB handler, gets the other DB's vector back in
+  // otherRowCounts_, and sends both vectors to the PH in one message.
+  // The PH-DB S1 handler keeps the two vectors it receives in the same
+  // fields. Every party then takes the row counts of each domain tuple
+  // from the vectors instead of exchanging them per domain tuple.
+  //
+
+  private boolean groupedCount_;
+  private String groupedCountSql_;
+  private String groupedCountSqlFormat_;
+  private ArrayList<Object> groupedCountParameters_;
+  private long[] rowCounts_;
+  private long[] otherRowCounts_;
+  private boolean rowCountVector_;
+
+  private int[] groupedKey_;
+  private int[] groupedPassKey_;
+  private int groupedKeyColumn_;
+  private boolean fullRowPending_;
+
+  private int compareGroupedKey(final ResultSet fullResult)
+      throws SQLException {
+    for (int i = 0; i < groupedKey_.length; ++i) {
+      final int x = fullResult.getInt(groupedKeyColumn_ + i);
+      if (x != groupedKey_[i]) {
+        return x < groupedKey_[i] ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  private boolean groupedKeyAfterPass() {
+    for (int i = 0; i < groupedKey_.length; ++i) {
+      if (groupedKey_[i] != groupedPassKey_[i]) {
+        return groupedKey_[i] > groupedPassKey_[i];
+      }
+    }
+    return false;
+  }
+
+  //
+  // Advances rowSource_ to the next row of the current domain tuple,
+  // skipping any rows of earlier domain tuples. If a row of a later
+  // domain tuple is reached, it is left pending for the next domain
+  // tuple and false is returned.
+  //
+
+  private boolean nextFullRow() throws Exception {
+    if (snapshotScan_ != null) {
+      return snapshotScan_.next();
+    }
+    if (partitionRowSource_ != null) {
+      return partitionRowSource_.next();
+    }
+    final ResultSet fullResult = fullResult_;
+    if (!groupedScan_) {
+      return fullResult.next();
+    }
+    while (fullRowPending_ || fullResult.next()) {
+      fullRowPending_ = false;
+      final int c = compareGroupedKey(fullResult);
+      if (c == 0) {
+        return true;
+      }
+      if (c > 0) {
+        fullRowPending_ = true;
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private final void appendFullSelectSql(final StringBuilder x) {
+    x.append("SELECT ");
+    x.append(localTable_.linkingColumn().underlyingName());
+    for (final Aggregate aggregate : query_.aggregates()) {
+      if (aggregate.db() == localParty_) {
+        x.append(", ");
+        aggregate.toSql(x);
+      }
+    }
+  }
+
+  //
+  // Appends the rest of a grouped scan after the columns appended by
+  // appendFullSelectSql() up to the ORDER BY terms that come after the
+  // domain positions, which appendFullOrderBySql() appends. The grouped
+  // scan selects the domain positions of the local group-by columns
+  // after the aggregate columns and replaces the per-tuple conditions
+  // with IN conditions, so its parameters never change between domain
+  // tuples. Returns the index of the first domain position column.
+  //
+
+  private final int appendGroupedScanSql(final StringBuilder x,
+                                         final StringBuilder y,
+                                         final List<Object> parameters,
+                                         final Condition prefilter) {
+    domainIterator_.toGroupedSelectSql(x, parameters, y, null);
+    x.append(" FROM ");
+    y.append(" FROM ");
+    x.append(localTable_.underlyingName());
+    y.append(localTable_.underlyingName().replace("%", "%%"));
+    x.append(" WHERE ");
+    y.append(" WHERE ");
+    if (prefilter == null) {
+      x.append("0 = 0");
+      y.append("0 = 0");
+    } else {
+      prefilter.toSql(x, parameters, y);
+    }
+    domainIterator_.toGroupedWhereSql(x, parameters, y);
+    x.append(" ORDER BY ");
+    y.append(" ORDER BY ");
+    final int n = domainIterator_.myGroupByCount();
+    int ci = 2;
+    for (final Aggregate aggregate : query_.aggregates(localDb_)) {
+      ci += Math.min(aggregate.aggCount(), 2);
+    }
+    for (int i = 0; i < n; ++i) {
+      x.append(ci + i);
+      y.append(ci + i);
+      x.append(", ");
+      y.append(", ");
+    }
+    return ci;
+  }
+
+  private final void appendFullOrderBySql(final StringBuilder x,
+                                          final StringBuilder y) {
+    if (!config_.orderByOverride().isEmpty()) {
+      x.append(config_.orderByOverride());
+      y.append(config_.orderByOverride());
+    } else if (linkingColumnForceString_ && !linkingColumnIsString_) {
+      x.append("CAST(");
+      y.append("CAST(");
+      x.append(localTable_.linkingColumn().underlyingName());
+      y.append(
+          localTable_.linkingColumn().underlyingName().replace("%",
+                                                               "%%"));
+      x.append(" AS CHAR(32))");
+      y.append(" AS CHAR(32))");
+    } else {
+      x.append(localTable_.linkingColumn().underlyingName());
+      y.append(
+          localTable_.linkingColumn().underlyingName().replace("%",
+                                                               "%%"));
+    }
+  }
+
+  //--------------------------------------------------------------------
+  // Partitioned full queries
+  //--------------------------------------------------------------------
+  //
+  // When partitioned_ is true, the full query of each domain tuple may
+  // be split into partitionCount_ queries over disjoint ranges of the
+  // linking column, each of which runs on its own connection. The
+  // ranges are cut evenly between the smallest and largest linking
+  // column values of the domain tuple, which the count query retrieves
+  // along with the row count. All partitions are started at once, so
+  // the database scans and sorts the ranges in parallel, and each sort
+  // only covers its own range. Since the ranges are disjoint and
+  // ascending, reading the partitions one after another yields the
+  // rows in the same order as the unpartitioned query, so the merge of
+  // the partitions is a simple concatenation. partitionResults_ holds
+  // the results of the partitions.
+  //
+  // The rows are read through partitionRowSource_, which reads each
+  // partition ahead on the JDBC threads into a queue of a few batches
+  // of rows and concatenates the queues (see PartitionedRowSource).
+  // All partitions are thus drained at once, and only the partition
+  // that the X batches are currently being read from is waited for.
+  //
+  // Partitioning is only used for integer linking columns without an
+  // order_by_override, and not with grouped scans or grouped counts,
+  // whose queries are not ordered by the linking column alone or don't
+  // retrieve the range bounds. Domain tuples with fewer than
+  // MIN_PARTITION_ROWS rows per partition use fewer partitions.
+  //
+
+  private static final long MIN_PARTITION_ROWS = 1 << 16;
+
+  private boolean partitioned_;
+  private String partitionSql_;
+  private String partitionSqlFormat_;
+  private PreparedStatement[] partitionStatements_;
+  private ResultSet[] partitionResults_;
+  private PartitionedRowSource partitionRowSource_;
+  private int partitionCount_ = 1;
+  private long linkingMin_;
+  private long linkingMax_;
+
+  private final void partitionFullQuery() throws Exception {
+    partitionCount_ = 1;
+    if (!partitioned_) {
+      return;
+    }
+    final BigInteger lo = BigInteger.valueOf(linkingMin_);
+    final BigInteger span = BigInteger.valueOf(linkingMax_)
+                                .subtract(lo)
+                                .add(BigInteger.ONE);
+    int k = (int)Math.min(partitionStatements_.length,
+                          localRowCount_ / MIN_PARTITION_ROWS);
+    if (span.compareTo(BigInteger.valueOf(k)) < 0) {
+      k = span.intValue();
+    }
+    if (k < 2) {
+      return;
+    }
+    final BigInteger bk = BigInteger.valueOf(k);
+    for (int i = 0; i < k; ++i) {
+      final long a =
+          lo.add(span.multiply(BigInteger.valueOf(i)).divide(bk))
+              .longValue();
+      final long b =
+          lo.add(span.multiply(BigInteger.valueOf(i + 1)).divide(bk))
+              .subtract(BigInteger.ONE)
+              .longValue();
+      final ArrayList<Object> parameters =
+          new ArrayList<Object>(allParameters_);
+      parameters.add(a);
+      parameters.add(b);
+      Jdbc.resetParameters(partitionStatements_[i], parameters);
+      log(String.format(
+          partitionSqlFormat_,
+          (Object[])Jdbc.formatParameters(
+              parameters,
+              config_.databaseConnection().subprotocol())));
+    }
+    partitionCount_ = k;
+  }
+
+  //--------------------------------------------------------------------
+  // Snapshots
+  //--------------------------------------------------------------------
+  //
+  // When globals_.snapshots() is not null, a query whose local group-by
+  // domains support a grouped scan is served from a Snapshot of the
+  // rows of its grouped scan instead of from the database. The
+  // snapshot is identified by a signature of the grouped scan with its
+  // parameters and of the linking column conversion, so every query
+  // with the same local aggregates, group-by domains, and prefilter
+  // shares it. If no fresh snapshot of the query is loaded, the
+  // grouped scan is run once on jdbcRunner_ to build it, or it is
+  // reloaded from its file (see SnapshotStore). Otherwise the query
+  // needs no connection at all.
+  //
+  // The row count of each domain tuple comes from the index of the
+  // snapshot and its rows from a Snapshot.Scan, which is the RowSource
+  // that the X batches are read from instead of fullRowSource_. As
+  // both come from the same snapshot, the row counts and the rows can
+  // never disagree. Since the snapshot holds the X values already
+  // encoded, its signature also covers the modulus and the function
+  // and scale of each local aggregate.
+  //
+  // snapshot_ is the snapshot that serves the current query, or null
+  // if the query is served from the database. snapshotTuple_ is the
+  // local index of the current domain tuple (see
+  // DomainIterator.myIndex()), and snapshotScan_ is the scan of its
+  // rows, or null if its rows aren't being retrieved.
+  //
+
+  private String snapshotSql_;
+  private String snapshotSqlFormat_;
+  private ArrayList<Object> snapshotParameters_;
+  private int snapshotKeyColumn_ = -1;
+  private String snapshotSignature_;
+  private boolean snapshotRefreshing_ = false;
+  private PreparedStatement snapshotStatement_;
+  private Snapshot snapshot_;
+  private int[] snapshotKey_;
+  private int snapshotTuple_ = -1;
+  private Snapshot.Scan snapshotScan_;
+
+  private final JdbcRowSource newJdbcRowSource() {
+    return newJdbcRowSource(zeroScaleFpmContext_,
+                            fixedPointModContexts_);
+  }
+
+  private final JdbcRowSource
+  newJdbcRowSource(final FixedPointModContext zeroScaleContext,
+                   final FixedPointModContext[] contexts) {
+    return new JdbcRowSource(query_.aggregates(localDb_),
+                             zeroScaleContext,
+                             contexts,
+                             new JdbcRowSource.IdEncoder() {
+                               @Override
+                               public final void encode(
+                                   final ResultSet result,
+                                   final int columnIndex,
+                                   final byte[] dst,
+                                   final int off) throws Exception {
+                                 getLinkingColumn(result,
+                                                  columnIndex,
+                                                  dst,
+                                                  off);
+                               }
+                             });
+  }
+
+  //
+  // Returns a JdbcRowSource for a partition of a partitioned full
+  // query. The partitions are read on different threads at once, so
+  // each one gets FixedPointModContexts of its own instead of sharing
+  // zeroScaleFpmContext_ and fixedPointModContexts_.
+  //
+
+  private final JdbcRowSource newPartitionRowSource() {
+    final List<Aggregate> xs = query_.aggregates(localDb_);
+    final FixedPointModContext[] contexts =
+        new FixedPointModContext[xs.size()];
+    for (int i = 0; i < contexts.length; ++i) {
+      contexts[i] =
+          new FixedPointModContext(modulus_,
+                                   xs.get(i).column().scale());
+    }
+    return newJdbcRowSource(new FixedPointModContext(modulus_, 0),
+                            contexts);
   }
 
   //--------------------------------------------------------------------
+  // X batch prefetching
+  //--------------------------------------------------------------------
+  //
+  // The X batches of the current domain tuple are retrieved ahead of
+  // the protocol so that the JDBC cursor latency overlaps with the
+  // computation and sending of the previous xa batches. Each X batch is
+  // retrieved by its own job on the JDBC threads, and since the jobs
+  // all read from rowSource_, a job is only started once the previous
+  // one is done. The jobs are chained by the ticks that their
+  // completions fire.
+  //
+  // xFetches_ holds the jobs that the protocol hasn't taken yet, in
+  // row order. At most config_.xBatchPrefetch() of them are kept
+  // beyond the X batch that the protocol is working on, so a value of
+  // 0 only retrieves an X batch once the protocol asks for it.
+  // xFetchRowIndex_ is the index of the first row of the current
+  // domain tuple that no job has been started for yet, or -1 if the
+  // rows of no domain tuple are being retrieved. xFetchFuture_ is the
+  // future of the last job that was started.
+  //
 
-  private String countSql_;
-  private String countSqlFormat_;
-  private PreparedStatement countStatement_;
-  private ResultSet countResult_;
+  private static final class XFetch {
+    public final BatchEntry<XIntBatch> xIntBatchEntry;
+    public final BatchEntry<XLongBatch> xLongBatchEntry;
+    public final BatchEntry<XBigBatch> xBigBatchEntry;
+    public final int rows;
+    public final Future<?> future;
+    public XFetch(final BatchEntry<XIntBatch> xIntBatchEntry,
+                  final BatchEntry<XLongBatch> xLongBatchEntry,
+                  final BatchEntry<XBigBatch> xBigBatchEntry,
+                  final int rows,
+                  final Future<?> future) {
+      this.xIntBatchEntry = xIntBatchEntry;
+      this.xLongBatchEntry = xLongBatchEntry;
+      this.xBigBatchEntry = xBigBatchEntry;
+      this.rows = rows;
+      this.future = future;
+    }
+  }
 
-  private String fullSql_;
-  private String fullSqlFormat_;
-  private PreparedStatement fullStatement_;
-  private ResultSet fullResult_;
-  private ResultSetMetaData fullResultMetadata_;
+  private final void startXFetches() throws Exception {
+    if (xFetchRowIndex_ < 0) {
+      return;
+    }
+    final boolean held = xIntBatchEntry_ != null
+                         || xLongBatchEntry_ != null
+                         || xBigBatchEntry_ != null;
+    while (xFetchRowIndex_ < localRowCount_
+           && (xFetchFuture_ == null || xFetchFuture_.isDone())
+           && xFetches_.size() + (held ? 1 : 0)
+                  <= config_.xBatchPrefetch()) {
+      if (!startXFetch()) {
+        return;
+      }
+    }
+  }
 
-  private ArrayList<Object> allParameters_;
-  private List<Object> domainParameters_;
+  private final boolean startXFetch() throws Exception {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(localPartyIsDb_);
+        SST_ASSERT(remotePartyIsPh_);
+        SST_ASSERT(stateStream_ == StateStream.S1);
+        SST_ASSERT(xFetchRowIndex_ >= 0);
+        SST_ASSERT(xFetchRowIndex_ < localRowCount_);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    BatchEntry<XIntBatch> xIntBatchEntry = null;
+    BatchEntry<XLongBatch> xLongBatchEntry = null;
+    BatchEntry<XBigBatch> xBigBatchEntry = null;
+    if (valuesFitInt_) {
+      xIntBatchEntry = xIntBatchPool_.tryAcquire(batchWaiter_);
+      if (xIntBatchEntry == null) {
+        return false;
+      }
+    } else if (valuesFitLong_) {
+      xLongBatchEntry = xLongBatchPool_.tryAcquire(batchWaiter_);
+      if (xLongBatchEntry == null) {
+        return false;
+      }
+    } else {
+      xBigBatchEntry = xBigBatchPool_.tryAcquire(batchWaiter_);
+      if (xBigBatchEntry == null) {
+        return false;
+      }
+    }
+    final long localRowIndex = xFetchRowIndex_;
+    final int localRowBatch =
+        (int)Math.min(localRowCount_ - localRowIndex, localMaxBatch_);
+    final boolean valuesFitInt = valuesFitInt_;
+    final boolean valuesFitLong = valuesFitLong_;
+    final XIntBatch xIntBatch =
+        xIntBatchEntry != null ? xIntBatchEntry.object() : null;
+    final XLongBatch xLongBatch =
+        xLongBatchEntry != null ? xLongBatchEntry.object() : null;
+    final XBigBatch xBigBatch =
+        xBigBatchEntry != null ? xBigBatchEntry.object() : null;
+    final RowSource rows = rowSource_;
+    final int localAggCount = localAggCount_;
+    final boolean lastBatch =
+        localRowIndex + localRowBatch == localRowCount_;
+    // TODO: This should use Callable to transfer the exception
+    //       out of the future nicely.
+    final Future<?> xFetchFuture =
+        globals_.jdbcThreadGroup().submit(new Runnable() {
+          @Override
+          public final void run() {
+            try {
+              // TODO: Is hoisting valuesFit* this high up really
+              //       necessary?
+              final byte[] id = valuesFitInt ? xIntBatch.id :
+                                valuesFitLong ? xLongBatch.id :
+                                                xBigBatch.id;
+              int k = 0;
+              for (int i = 0; i < localRowBatch; ++i) {
+                if (!nextFullRow()) {
+                  throw new RuntimeException(
+                      "database changed between queries?");
+                }
+                rows.id(id, i * linkingColumnSize_);
+                if (localRowIndex > 0 || i > 0) {
+                  if (Memory.cmp(previousId_,
+                                 0,
+                                 id,
+                                 i * linkingColumnSize_,
+                                 linkingColumnSize_,
+                                 ByteOrder.BIG_ENDIAN)
+                      > 0) {
+                    throw orderMismatch();
+                  }
+                }
+                System.arraycopy(id,
+                                 i * linkingColumnSize_,
+                                 previousId_,
+                                 0,
+                                 linkingColumnSize_);
+                if (valuesFitInt) {
+                  for (int j = 0; j < localAggCount; ++j) {
+                    xIntBatch.xs[k++] = rows.xInt(j);
+                  }
+                } else if (valuesFitLong) {
+                  for (int j = 0; j < localAggCount; ++j) {
+                    xLongBatch.xs[k++] = rows.xLong(j);
+                  }
+                } else if (xBigBatch.wide != null) {
+                  for (int j = 0; j < localAggCount; ++j) {
+                    rows.xWide(j, xBigBatch.wide, 2 * k++);
+                  }
+                } else {
+                  for (int j = 0; j < localAggCount; ++j) {
+                    xBigBatch.xs[k++] = rows.xBig(j);
+                  }
+                }
+              }
+              if (lastBatch && nextFullRow()) {
+                throw new RuntimeException(
+                    "database changed between queries?");
+              }
+            } catch (final Throwable e) {
+              asyncFatal(e);
+            }
+          }
+        });
+    xFetchFuture.addListener(new FutureListener<Object>() {
+      @Override
+      public final void operationComplete(
+          final Future<Object> future) {
+        try {
+          future.sync();
+          fireTick(pipeline_);
+        } catch (final Throwable e) {
+          asyncFatal(e);
+        }
+      }
+    });
+    xFetches_.add(new XFetch(xIntBatchEntry,
+                             xLongBatchEntry,
+                             xBigBatchEntry,
+                             localRowBatch,
+                             xFetchFuture));
+    xFetchFuture_ = xFetchFuture;
+    xFetchRowIndex_ += localRowBatch;
+    return true;
+  }
 
   //--------------------------------------------------------------------
   // PH-DB query initiation
@@ -3622,6 +5556,57 @@ final class RawChannelHandler
     tick(ctx);
   }
 
+  //--------------------------------------------------------------------
+  // Warming up
+  //--------------------------------------------------------------------
+  //
+  // A WarmUpEvent is sent to an idle outgoing handler by
+  // RawChannelPool.warm(), which has taken the handler's channel out of
+  // the pool. The handler runs the handshake if it has not done so yet,
+  // sends a keepalive, and then puts the channel back into the pool.
+  // The keepalive is a RawMessage of type KEEPALIVE, which the remote
+  // handler discards before it goes on waiting for a query.
+  //
+
+  private PoolEntry<Future<Channel>> warmUpEntry_ = null;
+
+  private void handleWarmUpEvent(final ChannelHandlerContext ctx,
+                                 final WarmUpEvent event)
+      throws Exception {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(ctx != null);
+        SST_ASSERT(event != null);
+        SST_ASSERT(outgoing_);
+        SST_ASSERT(queryString_ == null);
+        SST_ASSERT(warmUpEntry_ == null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    warmUpEntry_ = event.channel();
+    tick(ctx);
+  }
+
+  private void sendKeepalive(final ChannelHandlerContext ctx) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(ctx != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    final ByteBuf out = ctx.alloc().buffer(1);
+    try {
+      out.writeByte(RawMessage.KEEPALIVE.toInt());
+      write(ctx, out);
+      flush(ctx);
+    } catch (final Throwable e) {
+      out.release();
+      throw e;
+    }
+  }
+
   //--------------------------------------------------------------------
   // Outgoing DB-DB query initiation
   //--------------------------------------------------------------------
@@ -3656,9 +5641,9 @@ final class RawChannelHandler
   //--------------------------------------------------------------------
   //
   // Every @Override method in this class except for exceptionCaught()
-  // should begin by running "if (checkFatal(ctx)) { return; }". This
-  // makes the method become a noop when a fatal error has previously
-  // occurred.
+  // and handlerRemoved() should begin by running "if
+  // (checkFatal(ctx)) { return; }". This makes the method become a
+  // noop when a fatal error has previously occurred.
   //
   // asyncFatal() can be called at any time from another thread to flag
   // a fatal error in this handler. This is usually called from future
@@ -3684,9 +5669,19 @@ final class RawChannelHandler
     }
     fatal_.set(true);
     try {
-      jdbcRunner_.close();
+      statementCache_.close();
+    } catch (final Throwable e) {
+    }
+    try {
+      countStatementCache_.close();
     } catch (final Throwable e) {
     }
+    for (final StatementCache cache : partitionStatementCaches_) {
+      try {
+        cache.close();
+      } catch (final Throwable e) {
+      }
+    }
     try {
       ctx.close();
     } catch (final Throwable e) {
@@ -3769,22 +5764,95 @@ final class RawChannelHandler
   // in_ stores the bytes sent by the remote party that are waiting to
   // be consumed. We have AUTO_READ disabled, so in_ will only grow up
   // to some bounded size depending on how we call ctx.read(). Every
-  // chunk of incoming bytes will wake up the state machine.
+  // chunk of incoming bytes will wake up the state machine. in_ is a
+  // composite buffer that holds on to the incoming buffers themselves
+  // instead of appending them to an accumulator. The incoming buffers
+  // are released as soon as they have been fully read, and whatever is
+  // left when the handler is removed is released by handlerRemoved().
+  //
+  // This is not zero-copy. Every state still copies its frame out of
+  // in_ with readBytes(), including the xa, b, and yb batches, which
+  // are copied into pool entries or arrays that the merge machines
+  // work on. No state works on slices of in_. What in_ saves is the
+  // second copy into the accumulator.
+  //
+  // The state machine goes to sleep when it wants to send something
+  // but canWrite() is false, and it is woken up again once canWrite()
+  // may have become true. How canWrite() bounds the bytes waiting to be
+  // sent depends on the kind of channel.
   //
-  // out_ stores the number of bytes sent to the remote party that have
-  // not finished sending yet. In general, we make the state machine go
-  // to sleep when it wants to send something but out_ > outLimit_, and
-  // every send completion will wake up the state machine if it caused
-  // out_ <= outLimit_ to change from false to true. Analagous to in_,
-  // out_ will only grow up to some bounded size depending on how we
-  // call write().
+  // On a plain connection, which is the default, out_ stores the number
+  // of bytes sent to the remote party that have not finished sending
+  // yet. Every write adds its size to outDelta_ and keeps its future in
+  // outFuture_. Every flush moves outDelta_ into out_ and adds a
+  // listener to outFuture_ that takes them back out of out_ once they
+  // have all been sent. canWrite() requires out_ <= outLimit_ as well
+  // as a writable channel, and the listener wakes up the state machine
+  // if it caused out_ <= outLimit_ to change from false to true. The
+  // remote party grants no credit on a plain connection beyond its TCP
+  // receive window.
+  //
+  // On a multiplexed stream, sending is bounded by credit granted by
+  // the remote party: the stream's own HTTP/2 flow-control window,
+  // which is raw_stream_window bytes. The remote party only reopens the
+  // window as it reads, and it only reads when its state machine wants
+  // more bytes, which is after it has found room for the previous batch
+  // in its pools and queues. A slow merge machine therefore holds back
+  // the sender instead of being overrun by it. canWrite() only requires
+  // a writable channel, which is the case while no more than outLimit_
+  // bytes are waiting for window, and channelWritabilityChanged() wakes
+  // up the state machine. Writes are made with the channel's void
+  // promise, so they do not allocate a future each, and a failed write
+  // is reported to exceptionCaught(). out_ is not used.
+  //
+  // Pooled batches are written with write(ctx, entry, length). That
+  // wraps the heap array of the batch in a ByteBuf instead of copying
+  // it into a new one, and adds a listener to the write that releases
+  // the pool entry back to its pool once the write has completed, so
+  // every pooled batch costs a listener. The transport may still copy
+  // the wrapped array into a direct buffer when it sends it. All other
+  // writes copy their bytes into a buffer of exactly the right size.
   //
 
-  private final ByteBuf in_ = Unpooled.buffer();
-  private final AtomicInteger out_ = new AtomicInteger(0);
+  private static final int IN_MAX_COMPONENTS = 1024;
+
+  private final CompositeByteBuf in_ =
+      Unpooled.compositeBuffer(IN_MAX_COMPONENTS);
   private int outLimit_ = -1;
+  private boolean countOut_ = false;
+  private final AtomicInteger out_ = new AtomicInteger(0);
   private int outDelta_ = 0;
-  private ChannelFuture outFuture_;
+  private ChannelFuture outFuture_ = null;
+
+  private final void setOutLimit(final Channel channel,
+                                 final int outLimit) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(channel != null);
+        SST_ASSERT(outLimit > 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    outLimit_ = outLimit;
+    countOut_ = !(channel instanceof Http2StreamChannel);
+    channel.config().setWriteBufferWaterMark(
+        new WriteBufferWaterMark(outLimit / 2, outLimit));
+  }
+
+  private final boolean canWrite(final ChannelHandlerContext ctx) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(ctx != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    if (countOut_ && out_.get() > outLimit_) {
+      return false;
+    }
+    return ctx.channel().isWritable();
+  }
 
   @Override
   protected final void channelRead0(final ChannelHandlerContext ctx,
@@ -3802,8 +5870,8 @@ final class RawChannelHandler
       return;
     }
     try {
-      in_.discardSomeReadBytes();
-      in_.writeBytes(buf);
+      in_.discardReadComponents();
+      in_.addComponent(true, buf.retain());
       tick(ctx);
     } catch (final Throwable e) {
       fatal_.set(true);
@@ -3824,7 +5892,50 @@ final class RawChannelHandler
       }
     }
     outDelta_ += src.readableBytes();
-    outFuture_ = ctx.write(src);
+    if (countOut_) {
+      outFuture_ = ctx.write(src);
+    } else {
+      ctx.write(src, ctx.voidPromise());
+    }
+  }
+
+  @Override
+  public final void handlerRemoved(final ChannelHandlerContext ctx)
+      throws Exception {
+    if (in_.refCnt() > 0) {
+      in_.release();
+    }
+    try {
+      closeStatementCaches();
+    } catch (final Throwable e) {
+    }
+  }
+
+  private final void write(final ChannelHandlerContext ctx,
+                           final BatchEntry<byte[]> src,
+                           final int srcLen) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(ctx != null);
+        SST_ASSERT(src != null);
+        SST_ASSERT(srcLen >= 0);
+        SST_ASSERT(srcLen <= src.object().length);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    outDelta_ += srcLen;
+    outFuture_ =
+        ctx.write(Unpooled.wrappedBuffer(src.object(), 0, srcLen));
+    outFuture_.addListener(new FutureListener<Object>() {
+      @Override
+      public final void operationComplete(final Future<Object> future) {
+        src.release();
+        if (!future.isSuccess()) {
+          asyncFatal(future.cause());
+        }
+      }
+    });
   }
 
   private final void write(final ChannelHandlerContext ctx,
@@ -3843,7 +5954,7 @@ final class RawChannelHandler
         SST_ASSERT(e);
       }
     }
-    final ByteBuf x = ctx.alloc().buffer();
+    final ByteBuf x = ctx.alloc().buffer(srcLen, srcLen);
     try {
       x.writeBytes(src, srcPos, srcLen);
       write(ctx, x);
@@ -3874,26 +5985,54 @@ final class RawChannelHandler
         SST_ASSERT(e);
       }
     }
-    final ChannelPipeline pipeline = pipeline_;
-    final int outDelta = outDelta_;
-    final int outLimit = outLimit_;
-    out_.addAndGet(outDelta);
-    outFuture_.addListener(new FutureListener<Object>() {
-      @Override
-      public final void operationComplete(final Future<Object> future) {
-        try {
-          future.sync();
-          final int k = out_.addAndGet(-outDelta);
-          if (k <= outLimit && k + outDelta > outLimit) {
-            fireTick(pipeline);
+    if (countOut_ && outDelta_ > 0) {
+      final ChannelPipeline pipeline = pipeline_;
+      final int outDelta = outDelta_;
+      final int outLimit = outLimit_;
+      out_.addAndGet(outDelta);
+      outFuture_.addListener(new FutureListener<Object>() {
+        @Override
+        public final void operationComplete(
+            final Future<Object> future) {
+          try {
+            future.sync();
+            final int k = out_.addAndGet(-outDelta);
+            if (k <= outLimit && k + outDelta > outLimit) {
+              fireTick(pipeline);
+            }
+          } catch (final Throwable e) {
+            asyncFatal(e);
           }
-        } catch (final Throwable e) {
-          asyncFatal(e);
         }
-      }
-    });
-    ctx.flush();
+      });
+    }
     outDelta_ = 0;
+    outFuture_ = null;
+    ctx.flush();
+  }
+
+  @Override
+  public final void channelWritabilityChanged(
+      final ChannelHandlerContext ctx) throws Exception {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(ctx != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    if (checkFatal(ctx)) {
+      return;
+    }
+    try {
+      if (canWrite(ctx)) {
+        tick(ctx);
+      }
+    } catch (final Throwable e) {
+      fatal_.set(true);
+      throw e;
+    }
+    ctx.fireChannelWritabilityChanged();
   }
 
   //--------------------------------------------------------------------
@@ -3902,12 +6041,15 @@ final class RawChannelHandler
     SEND_PARTY,
     RECV_PARTY,
     SEND_LEXICON,
+    RECV_LEXICON_DIGEST,
+    SEND_FULL_LEXICON,
     RECV_LEXICON_1,
     RECV_LEXICON_2,
     SEND_QUERY,
     RECV_QUERY_1,
     RECV_QUERY_2,
 
+    PH_DB_S1_RECV_ALL_ROW_COUNTS_FROM_DB_PH_S1,
     PH_DB_S1_NEXT_DOMAIN_TUPLE,
     PH_DB_S1_RECV_BOTH_ROW_COUNTS_FROM_DB_PH_S1,
     PH_DB_S1_SEND_LOCAL_ROW_COUNT_TO_MERGE_MACHINE,
@@ -3933,7 +6075,13 @@ final class RawChannelHandler
     PH_DB_S3_RECV_S_FROM_DB_PH_S3,
     PH_DB_S3_SEND_S_TO_MERGE_MACHINE,
 
+    DB_PH_S1_CHECK_CONNECTIONS,
+    DB_PH_S1_LOAD_SNAPSHOT,
     DB_PH_S1_CONNECT_TO_DATABASE,
+    DB_PH_S1_DO_GROUPED_COUNT_QUERY,
+    DB_PH_S1_SEND_LOCAL_ROW_COUNTS_TO_DB_DB,
+    DB_PH_S1_RECV_OTHER_ROW_COUNTS_FROM_DB_DB_RH,
+    DB_PH_S1_SEND_ALL_ROW_COUNTS_TO_PH_DB_S1,
     DB_PH_S1_NEXT_DOMAIN_TUPLE,
     DB_PH_S1_DO_COUNT_QUERY,
     DB_PH_S1_SEND_LOCAL_ROW_COUNT_TO_DB_DB_SH,
@@ -3972,6 +6120,9 @@ final class RawChannelHandler
 
     DB_DB_DUPLEX,
 
+    DB_DB_SH_SEND_SEED_TO_REMOTE_DB_DB_RH,
+    DB_DB_SH_SEND_LOCAL_ROW_COUNTS_TO_REMOTE_DB_DB_RH,
+    DB_DB_SH_RECV_OTHER_ROW_COUNTS_FROM_DB_DB_RH,
     DB_DB_SH_NEXT_DOMAIN_TUPLE,
     DB_DB_SH_RECV_LOCAL_ROW_COUNT_FROM_DB_PH_S1,
     DB_DB_SH_SEND_LOCAL_ROW_COUNT_TO_REMOTE_DB_DB_RH,
@@ -3988,6 +6139,8 @@ final class RawChannelHandler
     DB_DB_SH_SEND_Z_TO_DB_PH_S1,
     DB_DB_SH_DONE,
 
+    DB_DB_RH_RECV_SEED_FROM_REMOTE_DB_DB_SH,
+    DB_DB_RH_RECV_OTHER_ROW_COUNTS_FROM_REMOTE_DB_DB_SH,
     DB_DB_RH_NEXT_DOMAIN_TUPLE,
     DB_DB_RH_RECV_LOCAL_ROW_COUNT_FROM_DB_PH_S1,
     DB_DB_RH_RECV_OTHER_ROW_COUNT_FROM_REMOTE_DB_DB_SH,
@@ -4020,6 +6173,35 @@ final class RawChannelHandler
     state_ = state;
   }
 
+  private void startDbDbDuplex() {
+    seededMasks_ = lexicon_.common().seededMasks();
+    if (seededMasks_) {
+      setSenderState(State.DB_DB_SH_SEND_SEED_TO_REMOTE_DB_DB_RH);
+      setRecverState(State.DB_DB_RH_RECV_SEED_FROM_REMOTE_DB_DB_SH);
+    } else {
+      setSenderState(shFirstState());
+      setRecverState(rhFirstState());
+    }
+  }
+
+  //
+  // The DB-DB SH and RH states that follow the seed exchange, if any.
+  //
+
+  private State shFirstState() {
+    if (rowCountVector_) {
+      return State.DB_DB_SH_SEND_LOCAL_ROW_COUNTS_TO_REMOTE_DB_DB_RH;
+    }
+    return State.DB_DB_SH_NEXT_DOMAIN_TUPLE;
+  }
+
+  private State rhFirstState() {
+    if (rowCountVector_) {
+      return State.DB_DB_RH_RECV_OTHER_ROW_COUNTS_FROM_REMOTE_DB_DB_SH;
+    }
+    return State.DB_DB_RH_NEXT_DOMAIN_TUPLE;
+  }
+
   private void setSenderState(final State senderState) {
     if (!SST_NDEBUG) {
       try {
@@ -4056,6 +6238,20 @@ final class RawChannelHandler
 
   private static final Object TICK = new Object();
 
+  //
+  // The producer states that acquire their batches with tryAcquire()
+  // simply return when the batch budget of the query is used up, and
+  // the budget runs batchWaiter_ to tick the handler again once some
+  // batch of the query is released.
+  //
+
+  private final Runnable batchWaiter_ = new Runnable() {
+    @Override
+    public final void run() {
+      fireTick(pipeline_);
+    }
+  };
+
   private static final void fireTick(final ChannelPipeline pipeline) {
     // null means the pipeline hasn't registered itself yet, in which
     // case there's no reason to fire a tick because it will reach a
@@ -4079,7 +6275,7 @@ final class RawChannelHandler
       }
     }
     if (mergeMachine.tickDepth.getAndIncrement() == 0) {
-      globals_.workerThreadGroup().submit(new Runnable() {
+      globals_.mergeThreadGroup().submit(new Runnable() {
         @Override
         public final void run() {
           try {
@@ -4121,7 +6317,7 @@ final class RawChannelHandler
   private static final Object ZOMBIE_CHECK = new Object();
 
   private void scheduleNextZombieCheck() {
-    globals_.workerThreadGroup().schedule(new Runnable() {
+    globals_.cpuThreadGroup().schedule(new Runnable() {
       @Override
       public final void run() {
         try {
@@ -4187,7 +6383,8 @@ final class RawChannelHandler
     if (outgoing_) {
       remotePartyIsDb_ = remoteParty_.isDb();
       remotePartyIsPh_ = !remotePartyIsDb_;
-      outLimit_ = config_.channelOutputBufferLimit().get(remoteParty_);
+      setOutLimit(pipeline_.channel(),
+                  config_.channelOutputBufferLimit().get(remoteParty_));
     }
     lexicon_ = config_.lexicon();
     guidSize_ = lexicon_.common().guidSize();
@@ -4199,6 +6396,7 @@ final class RawChannelHandler
       linkingColumnJdbcType_ = null;
       linkingColumnIsString_ = false;
       previousId_ = null;
+      partitionJdbcRunners_ = new JdbcRunner[0];
     } else {
       linkingColumnJdbcType_ = lexicon_.dbInfos()
                                    .get(localParty_)
@@ -4211,6 +6409,22 @@ final class RawChannelHandler
           || linkingColumnJdbcType_ == JdbcType.NCHAR
           || linkingColumnJdbcType_ == JdbcType.NVARCHAR;
       previousId_ = new byte[linkingColumnSize_];
+      partitionJdbcRunners_ =
+          new JdbcRunner[config_.fullQueryPartitions() - 1];
+      for (int i = 0; i < partitionJdbcRunners_.length; ++i) {
+        partitionJdbcRunners_[i] = new JdbcRunner();
+      }
+    }
+    {
+      final int n = config_.statementCacheSize();
+      statementCache_ = new StatementCache(jdbcRunner_, n);
+      countStatementCache_ = new StatementCache(countJdbcRunner_, n);
+      partitionStatementCaches_ =
+          new StatementCache[partitionJdbcRunners_.length];
+      for (int i = 0; i < partitionJdbcRunners_.length; ++i) {
+        partitionStatementCaches_[i] =
+            new StatementCache(partitionJdbcRunners_[i], n);
+      }
     }
     linkingColumnUnicode_ = lexicon_.common().linkingColumnUnicode();
     linkingColumnForceString_ =
@@ -4243,9 +6457,19 @@ final class RawChannelHandler
     }
     randModDstBuf_ = new byte[valueSize_ + 1];
     randModDstBuf2_ = new byte[valueSize_ + 1];
+    valuesFitWide_ = valuesFitWide(valuesFitInt_,
+                                   valuesFitLong_,
+                                   modulusBig_,
+                                   valueSize_);
+    modulusBits_ = modulusBig_.bitLength() - 1;
+    wideMod_ = valuesFitWide_ && modulusBig_.bitCount() > 1 ?
+                   new Int128.Mod(modulusBig_) :
+                   null;
+    wideSize_ = wideMod_ != null ? Int128.ACC_SIZE : 2;
+    randomEngine_ = globals_.config().randomEngine();
 
     if (localPartyIsDb_) {
-      otherRowCountQueue_ = new LinkedList<Long>();
+      otherRowCountQueue_ = new LongSpscQueue(TUPLE_QUEUE_CAPACITY);
     } else {
       otherRowCountQueue_ = null;
     }
@@ -4261,11 +6485,87 @@ final class RawChannelHandler
   // State machine
   //--------------------------------------------------------------------
 
-  private final boolean tickSender(final ChannelHandlerContext ctx)
-      throws Exception {
-    boolean motion = false;
-    while (true) {
-      switch (senderState_) {
+  private final boolean tickSender(final ChannelHandlerContext ctx)
+      throws Exception {
+    boolean motion = false;
+    while (true) {
+      switch (senderState_) {
+
+        case DB_DB_SH_SEND_SEED_TO_REMOTE_DB_DB_RH: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsDb_);
+              SST_ASSERT(remotePartyIsDb_);
+              SST_ASSERT(stateStream_ == StateStream.S1);
+              SST_ASSERT(seededMasks_);
+              SST_ASSERT(maskSeedSh_ == null);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          if (!canWrite(ctx)) {
+            return motion;
+          }
+          maskSeedSh_ = new byte[AesCtrPrg.SEED_SIZE];
+          seedRandom_.nextBytes(maskSeedSh_);
+          rPrgSh_ = new AesCtrPrg(maskSeedSh_, R_MASK_STREAM);
+          aPrgSh_ = new AesCtrPrg(maskSeedSh_, A_MASK_STREAM);
+          write(ctx, maskSeedSh_);
+          flush(ctx);
+          setSenderState(shFirstState());
+        } break;
+
+        case DB_DB_SH_SEND_LOCAL_ROW_COUNTS_TO_REMOTE_DB_DB_RH: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsDb_);
+              SST_ASSERT(remotePartyIsDb_);
+              SST_ASSERT(stateStream_ == StateStream.S1);
+              SST_ASSERT(rowCountVector_);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          final long[] rowCounts = shd_.localRowCounts.get();
+          if (rowCounts == null) {
+            return motion;
+          }
+          if (!canWrite(ctx)) {
+            return motion;
+          }
+          {
+            final ByteBuf x = ctx.alloc().buffer(8 * rowCounts.length);
+            try {
+              for (final long rowCount : rowCounts) {
+                x.writeLong(rowCount);
+              }
+              write(ctx, x);
+              flush(ctx);
+            } catch (final Throwable e) {
+              x.release();
+              throw e;
+            }
+          }
+          setSenderState(
+              State.DB_DB_SH_RECV_OTHER_ROW_COUNTS_FROM_DB_DB_RH);
+        } break;
+
+        case DB_DB_SH_RECV_OTHER_ROW_COUNTS_FROM_DB_DB_RH: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsDb_);
+              SST_ASSERT(remotePartyIsDb_);
+              SST_ASSERT(stateStream_ == StateStream.S1);
+              SST_ASSERT(rowCountVector_);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          if (shd_.otherRowCounts.get() == null) {
+            return motion;
+          }
+          setSenderState(State.DB_DB_SH_NEXT_DOMAIN_TUPLE);
+        } break;
 
         case DB_DB_SH_NEXT_DOMAIN_TUPLE: {
           if (!SST_NDEBUG) {
@@ -4277,11 +6577,20 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (domainIteratorSh_.next()) {
+          if (!domainIteratorSh_.next()) {
+            setSenderState(State.DB_DB_SH_DONE);
+          } else if (rowCountVector_) {
+            localRowCountSh_ = shd_.localRowCounts.get()[
+                domainIteratorSh_.partyIndex(localDb_)];
+            otherRowCountSh_ = shd_.otherRowCounts.get()[
+                domainIteratorSh_.partyIndex(otherDb_)];
+            if (localRowCountSh_ != 0 && otherRowCountSh_ != 0) {
+              otherRowIndex_ = 0;
+              setSenderState(State.DB_DB_SH_START_COMPUTING_Z);
+            }
+          } else {
             setSenderState(
                 State.DB_DB_SH_RECV_LOCAL_ROW_COUNT_FROM_DB_PH_S1);
-          } else {
-            setSenderState(State.DB_DB_SH_DONE);
           }
         } break;
 
@@ -4296,8 +6605,9 @@ final class RawChannelHandler
             }
           }
           {
-            final Long x = shd_.dbPhS1ToDbDbSsLocalRowCountQueue.poll();
-            if (x == null) {
+            final long x =
+                shd_.dbPhS1ToDbDbSsLocalRowCountQueue.poll(-1);
+            if (x == -1) {
               return motion;
             }
             localRowCountSh_ = x;
@@ -4314,7 +6624,7 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (out_.get() > outLimit_) {
+          if (!canWrite(ctx)) {
             return motion;
           }
           {
@@ -4339,10 +6649,13 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (otherRowCountQueue_.isEmpty()) {
-            return motion;
+          {
+            final long x = otherRowCountQueue_.poll(-1);
+            if (x == -1) {
+              return motion;
+            }
+            otherRowCountSh_ = x;
           }
-          otherRowCountSh_ = otherRowCountQueue_.removeFirst();
           if (localRowCountSh_ == 0 || otherRowCountSh_ == 0) {
             setSenderState(State.DB_DB_SH_NEXT_DOMAIN_TUPLE);
           } else {
@@ -4382,6 +6695,11 @@ final class RawChannelHandler
             for (int i = 0; i < zBig_.length; ++i) {
               zBig_[i] = BigInteger.ZERO;
             }
+            if (valuesFitWide_) {
+              for (int i = 0; i < zWide_.length; ++i) {
+                zWide_[i] = 0;
+              }
+            }
           }
           setSenderState(State.DB_DB_SH_GENERATE_R);
         } break;
@@ -4397,7 +6715,15 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          randMod(rBytesSh_, otherAggCount_, randMod_);
+          if (seededMasks_) {
+            rPrgSh_.genMod(rBytesSh_,
+                           0,
+                           otherAggCount_,
+                           valueSize_,
+                           modulusBig_);
+          } else {
+            pooledRandMod(rBytesSh_, otherAggCount_, randMod_);
+          }
           if (valuesFitInt_) {
             randMod(rBytesSh_, rInt_, otherAggCount_);
             //log("rInt_ = " + Rep.toString(rInt_));
@@ -4422,11 +6748,13 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (out_.get() > outLimit_) {
-            return motion;
+          if (!seededMasks_) {
+            if (!canWrite(ctx)) {
+              return motion;
+            }
+            write(ctx, rBytesSh_);
+            flush(ctx);
           }
-          write(ctx, rBytesSh_);
-          flush(ctx);
           setSenderState(State.DB_DB_SH_NEXT_OTHER_ROW_BATCH);
         } break;
 
@@ -4461,7 +6789,10 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          bBytesBatchEntry_ = bBytesBatchPool_.acquire();
+          bBytesBatchEntry_ = bBytesBatchPool_.tryAcquire(batchWaiter_);
+          if (bBytesBatchEntry_ == null) {
+            return motion;
+          }
           final byte[] bBytesBatch = bBytesBatchEntry_.object();
           final int modulusInt = modulusInt_;
           final long modulusLong = modulusLong_;
@@ -4472,6 +6803,9 @@ final class RawChannelHandler
           final int[] zInt = zInt_;
           final long[] zLong = zLong_;
           final BigInteger[] zBig = zBig_;
+          final long[] zWide = zWide_;
+          final boolean widePow2 = wideMod_ == null;
+          final int wideSize = wideSize_;
           final int[] aIntBatch = aIntBatch_;
           final long[] aLongBatch = aLongBatch_;
           final BigInteger[] aBigBatch = aBigBatch_;
@@ -4480,15 +6814,25 @@ final class RawChannelHandler
           final BigInteger[] bBigBatch = bBigBatch_;
           final RandModContext randMod2 = randMod2_;
           final byte[] randModDstBuf2 = new byte[valueSize_ + 1];
+          final AesCtrPrg aPrg = aPrgSh_;
+          final int valueSize = valueSize_;
           generateABBatchFuture_ =
-              globals_.workerThreadGroup().submit(new Runnable() {
+              globals_.cpuThreadGroup().submit(new Runnable() {
                 @Override
                 public final void run() {
                   try {
-                    randMod(aBytesBatchSh,
-                            otherRowBatch * otherAggCount,
-                            randMod2);
-                    randMod(bBytesBatch, otherRowBatch, randMod2);
+                    if (aPrg != null) {
+                      aPrg.genMod(aBytesBatchSh,
+                                  0,
+                                  otherRowBatch * otherAggCount,
+                                  valueSize,
+                                  modulusBig);
+                    } else {
+                      pooledRandMod(aBytesBatchSh,
+                                    otherRowBatch * otherAggCount,
+                                    randMod2);
+                    }
+                    pooledRandMod(bBytesBatch, otherRowBatch, randMod2);
                     if (valuesFitInt_) {
                       randMod(aBytesBatchSh,
                               aIntBatch,
@@ -4580,6 +6924,33 @@ final class RawChannelHandler
                           }
                         }
                       }
+                    } else if (zWide != null) {
+                      // m is in (2^64, 2^128]. A power of two wraps
+                      // and is masked once when z is finished, and any
+                      // other modulus accumulates the unreduced sum
+                      // that wideMod_ reduces once when z is finished.
+                      int aj = 0;
+                      for (int i = 0; i < otherRowBatch; ++i) {
+                        final int bj = i * valueSize;
+                        final long bHi =
+                            Int128.hi(bBytesBatch, bj, valueSize);
+                        final long bLo =
+                            Int128.lo(bBytesBatch, bj, valueSize);
+                        for (int k = 0; k < otherAggCount; ++k) {
+                          final long aHi =
+                              Int128.hi(aBytesBatchSh, aj, valueSize);
+                          final long aLo =
+                              Int128.lo(aBytesBatchSh, aj, valueSize);
+                          if (widePow2) {
+                            Int128.mulAdd(zWide, 2 * k, aHi, aLo, bHi,
+                                          bLo);
+                          } else {
+                            Int128.mulAcc(zWide, wideSize * k, aHi, aLo,
+                                          bHi, bLo);
+                          }
+                          aj += valueSize;
+                        }
+                      }
                     } else {
                       randMod(aBytesBatchSh,
                               aBigBatch,
@@ -4671,10 +7042,12 @@ final class RawChannelHandler
           }
           // Our batch size is not necessarily the same as the remote
           // batch size. It's a continuous stream, so it's okay.
-          if (out_.get() > outLimit_) {
-            return motion;
-          }
-          {
+          // With seeded masks, the remote RH expands the same batch
+          // from the seed itself.
+          if (!seededMasks_) {
+            if (!canWrite(ctx)) {
+              return motion;
+            }
             final ByteBuf x = ctx.alloc().buffer();
             try {
               x.writeBytes(aBytesBatchSh_,
@@ -4772,6 +7145,24 @@ final class RawChannelHandler
               }
             }
             //log("zLongEntry_ = " + Rep.toString(zLongEntry_.object()));
+          } else if (valuesFitWide_) {
+            // modulus is in (2^64, 2^128]
+            final BigInteger[] z = zBigEntry_.object();
+            final BigInteger[] r = rBig_;
+            final long[] zWide = zWide_;
+            final long[] rWide = new long[4];
+            for (int k = 0; k < otherAggCount_; ++k) {
+              Int128.fromBig(r[k], rWide, 0);
+              if (wideMod_ == null) {
+                Int128.sub(zWide, 2 * k, rWide[0], rWide[1]);
+                Int128.mask(zWide, 2 * k, modulusBits_);
+                z[k] = Int128.toBig(zWide, 2 * k);
+              } else {
+                wideMod_.reduce(zWide, wideSize_ * k, rWide, 2);
+                wideMod_.sub(rWide, 2, rWide[0], rWide[1]);
+                z[k] = Int128.toBig(rWide, 2);
+              }
+            }
           } else {
             final BigInteger modulus = modulusBig_;
             final BigInteger[] z = zBigEntry_.object();
@@ -4853,6 +7244,57 @@ final class RawChannelHandler
     while (true) {
       switch (recverState_) {
 
+        case DB_DB_RH_RECV_SEED_FROM_REMOTE_DB_DB_SH: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsDb_);
+              SST_ASSERT(remotePartyIsDb_);
+              SST_ASSERT(stateStream_ == StateStream.S1);
+              SST_ASSERT(seededMasks_);
+              SST_ASSERT(maskSeedRh_ == null);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          if (in_.readableBytes() < AesCtrPrg.SEED_SIZE) {
+            ctx.read();
+            return motion;
+          }
+          maskSeedRh_ = new byte[AesCtrPrg.SEED_SIZE];
+          in_.readBytes(maskSeedRh_);
+          rPrgRh_ = new AesCtrPrg(maskSeedRh_, R_MASK_STREAM);
+          aPrgRh_ = new AesCtrPrg(maskSeedRh_, A_MASK_STREAM);
+          setRecverState(rhFirstState());
+        } break;
+
+        case DB_DB_RH_RECV_OTHER_ROW_COUNTS_FROM_REMOTE_DB_DB_SH: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsDb_);
+              SST_ASSERT(remotePartyIsDb_);
+              SST_ASSERT(stateStream_ == StateStream.S1);
+              SST_ASSERT(rowCountVector_);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          if (shd_.localRowCounts.get() == null) {
+            return motion;
+          }
+          final int n = domainIteratorRh_.partyCount(otherDb_);
+          if (in_.readableBytes() < 8 * n) {
+            ctx.read();
+            return motion;
+          }
+          final long[] rowCounts = new long[n];
+          for (int i = 0; i < n; ++i) {
+            rowCounts[i] = in_.readLong();
+          }
+          shd_.otherRowCounts.set(rowCounts);
+          fireTick(Party.PH, StateStream.S1);
+          setRecverState(State.DB_DB_RH_NEXT_DOMAIN_TUPLE);
+        } break;
+
         case DB_DB_RH_NEXT_DOMAIN_TUPLE: {
           if (!SST_NDEBUG) {
             try {
@@ -4863,11 +7305,19 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (domainIteratorRh_.next()) {
+          if (!domainIteratorRh_.next()) {
+            setRecverState(State.DB_DB_RH_DONE);
+          } else if (rowCountVector_) {
+            localRowCountRh_ = shd_.localRowCounts.get()[
+                domainIteratorRh_.partyIndex(localDb_)];
+            otherRowCountRh_ = shd_.otherRowCounts.get()[
+                domainIteratorRh_.partyIndex(otherDb_)];
+            localRowIndex_ = 0;
             setRecverState(
-                State.DB_DB_RH_RECV_LOCAL_ROW_COUNT_FROM_DB_PH_S1);
+                State.DB_DB_RH_SEND_BOTH_ROW_COUNTS_TO_DB_PH_S2);
           } else {
-            setRecverState(State.DB_DB_RH_DONE);
+            setRecverState(
+                State.DB_DB_RH_RECV_LOCAL_ROW_COUNT_FROM_DB_PH_S1);
           }
         } break;
 
@@ -4882,8 +7332,9 @@ final class RawChannelHandler
             }
           }
           {
-            final Long x = shd_.dbPhS1ToDbDbRsLocalRowCountQueue.poll();
-            if (x == null) {
+            final long x =
+                shd_.dbPhS1ToDbDbRsLocalRowCountQueue.poll(-1);
+            if (x == -1) {
               return motion;
             }
             localRowCountRh_ = x;
@@ -4921,16 +7372,13 @@ final class RawChannelHandler
               SST_ASSERT(stateStream_ == StateStream.S1);
               SST_ASSERT(localRowCountRh_ >= 0);
               SST_ASSERT(otherRowCountRh_ >= 0);
-              SST_ASSERT(otherRowCountQueue_.size()
-                         <= otherRowCountQueueLimit_);
             } catch (final Throwable e) {
               SST_ASSERT(e);
             }
           }
-          if (otherRowCountQueue_.size() == otherRowCountQueueLimit_) {
+          if (!otherRowCountQueue_.offer(otherRowCountRh_)) {
             return motion;
           }
-          otherRowCountQueue_.addLast(otherRowCountRh_);
           setRecverState(
               State.DB_DB_RH_SEND_OTHER_ROW_COUNT_TO_DB_PH_S1);
         } break;
@@ -4995,11 +7443,19 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (in_.readableBytes() < rBytesRh_.length) {
-            ctx.read();
-            return motion;
+          if (seededMasks_) {
+            rPrgRh_.genMod(rBytesRh_,
+                           0,
+                           localAggCount_,
+                           valueSize_,
+                           modulusBig_);
+          } else {
+            if (in_.readableBytes() < rBytesRh_.length) {
+              ctx.read();
+              return motion;
+            }
+            in_.readBytes(rBytesRh_);
           }
-          in_.readBytes(rBytesRh_);
           if (valuesFitInt_) {
             rIntEntry_ = rIntPool_.acquire();
             randMod(rBytesRh_, rIntEntry_.object(), localAggCount_);
@@ -5082,14 +7538,22 @@ final class RawChannelHandler
           }
           // Our batch size is not necessarily the same as the remote
           // batch size. It's a continuous stream, so it's okay.
-          if (in_.readableBytes()
-              < localRowBatch_ * localAggCount_ * valueSize_) {
-            ctx.read();
-            return motion;
+          if (seededMasks_) {
+            aPrgRh_.genMod(aBytesBatchRh_,
+                           0,
+                           localRowBatch_ * localAggCount_,
+                           valueSize_,
+                           modulusBig_);
+          } else {
+            if (in_.readableBytes()
+                < localRowBatch_ * localAggCount_ * valueSize_) {
+              ctx.read();
+              return motion;
+            }
+            in_.readBytes(aBytesBatchRh_,
+                          0,
+                          localRowBatch_ * localAggCount_ * valueSize_);
           }
-          in_.readBytes(aBytesBatchRh_,
-                        0,
-                        localRowBatch_ * localAggCount_ * valueSize_);
           if (valuesFitInt_) {
             aIntBatchEntry_ = aIntBatchPool_.acquire();
             randMod(aBytesBatchRh_,
@@ -5100,6 +7564,17 @@ final class RawChannelHandler
             randMod(aBytesBatchRh_,
                     aLongBatchEntry_.object(),
                     localRowBatch_ * localAggCount_);
+          } else if (valuesFitWide_) {
+            aLongBatchEntry_ = aLongBatchPool_.acquire();
+            final long[] a = aLongBatchEntry_.object();
+            for (int i = 0, n = localRowBatch_ * localAggCount_; i < n;
+                 ++i) {
+              Int128.fromBytes(aBytesBatchRh_,
+                               i * valueSize_,
+                               valueSize_,
+                               a,
+                               2 * i);
+            }
           } else {
             aBigBatchEntry_ = aBigBatchPool_.acquire();
             randMod(aBytesBatchRh_,
@@ -5125,7 +7600,7 @@ final class RawChannelHandler
               return motion;
             }
             aIntBatchEntry_ = null;
-          } else if (valuesFitLong_) {
+          } else if (valuesFitLong_ || valuesFitWide_) {
             if (!shd_.aLongBatchQueue.offer(aLongBatchEntry_)) {
               return motion;
             }
@@ -5186,7 +7661,7 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (out_.get() > outLimit_) {
+          if (!canWrite(ctx)) {
             return;
           }
           {
@@ -5220,8 +7695,9 @@ final class RawChannelHandler
           updateLogPrefix();
           remotePartyIsDb_ = remoteParty_.isDb();
           remotePartyIsPh_ = !remotePartyIsDb_;
-          outLimit_ =
-              config_.channelOutputBufferLimit().get(remoteParty_);
+          setOutLimit(ctx.channel(),
+                      config_.channelOutputBufferLimit().get(
+                          remoteParty_));
           setState(State.SEND_LEXICON);
         } break;
 
@@ -5233,7 +7709,49 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (out_.get() > outLimit_) {
+          if (!canWrite(ctx)) {
+            return;
+          }
+          write(ctx, globals_.lexiconDigest());
+          flush(ctx);
+          setState(State.RECV_LEXICON_DIGEST);
+        } break;
+
+        case RECV_LEXICON_DIGEST: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(remoteParty_ != null);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          if (in_.readableBytes() < Lexicon.DIGEST_SIZE) {
+            ctx.read();
+            return;
+          }
+          final byte[] digest = new byte[Lexicon.DIGEST_SIZE];
+          in_.readBytes(digest);
+          if (Arrays.equals(digest, globals_.lexiconDigest())) {
+            if (outgoing_) {
+              setState(State.SEND_QUERY);
+            } else {
+              setState(State.RECV_QUERY_1);
+            }
+          } else {
+            log("lexicon digest mismatch: exchanging full lexicons");
+            setState(State.SEND_FULL_LEXICON);
+          }
+        } break;
+
+        case SEND_FULL_LEXICON: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(remoteParty_ != null);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          if (!canWrite(ctx)) {
             return;
           }
           {
@@ -5288,6 +7806,7 @@ final class RawChannelHandler
               Json.getAs(new JSONObject(lexiconString).toMap(),
                          Lexicon.fromJson());
           if (!lexicon.lexiconEquals(lexicon_)) {
+            log("lexicon mismatch: remote lexicon: " + lexiconString);
             throw new RuntimeException("lexicon mismatch");
           }
           if (outgoing_) {
@@ -5311,17 +7830,27 @@ final class RawChannelHandler
             }
           }
           if (queryString_ == null) {
+            if (warmUpEntry_ != null) {
+              if (!canWrite(ctx)) {
+                return;
+              }
+              sendKeepalive(ctx);
+              final PoolEntry<Future<Channel>> entry = warmUpEntry_;
+              warmUpEntry_ = null;
+              entry.release();
+            }
             // No query. This is an extra tick. Go back to sleep.
             return;
           }
           totalRxAtQueryStart_ =
               totalRx_ + (initialReadableBytes - in_.readableBytes());
-          if (out_.get() > outLimit_) {
+          if (!canWrite(ctx)) {
             return;
           }
           {
             final ByteBuf out = ctx.alloc().buffer();
             try {
+              out.writeByte(RawMessage.QUERY.toInt());
               out.writeInt(stateStream_.toInt());
               out.writeBytes(queryId_.toBytes());
               out.writeInt(queryString_.length());
@@ -5335,10 +7864,12 @@ final class RawChannelHandler
           }
           if (localPartyIsDb_) {
             setState(State.DB_DB_DUPLEX);
-            setSenderState(State.DB_DB_SH_NEXT_DOMAIN_TUPLE);
-            setRecverState(State.DB_DB_RH_NEXT_DOMAIN_TUPLE);
+            startDbDbDuplex();
           } else if (stateStream_ == StateStream.S1) {
-            setState(State.PH_DB_S1_NEXT_DOMAIN_TUPLE);
+            setState(
+                rowCountVector_ ?
+                    State.PH_DB_S1_RECV_ALL_ROW_COUNTS_FROM_DB_PH_S1 :
+                    State.PH_DB_S1_NEXT_DOMAIN_TUPLE);
           } else if (stateStream_ == StateStream.S2) {
             setState(State.PH_DB_S2_NEXT_DOMAIN_TUPLE);
           } else if (stateStream_ == StateStream.S3) {
@@ -5359,10 +7890,21 @@ final class RawChannelHandler
           }
           totalRxAtQueryStart_ =
               totalRx_ + (initialReadableBytes - in_.readableBytes());
-          if (in_.readableBytes() < 4 + guidSize_ + 4) {
+          if (in_.readableBytes() < 1) {
+            ctx.read();
+            return;
+          }
+          final RawMessage message =
+              RawMessage.fromInt(in_.getUnsignedByte(in_.readerIndex()));
+          if (message == RawMessage.KEEPALIVE) {
+            in_.skipBytes(1);
+            break;
+          }
+          if (in_.readableBytes() < 1 + 4 + guidSize_ + 4) {
             ctx.read();
             return;
           }
+          in_.skipBytes(1);
           stateStream_ = StateStream.fromInt(in_.readInt());
           updateLogPrefix();
           final byte[] x = new byte[guidSize_];
@@ -5396,12 +7938,12 @@ final class RawChannelHandler
               final String queryString = queryString_;
               final Guid queryId = queryId_;
               final Query query = query_;
-              final PoolEntry<ChannelFuture> entry =
+              final PoolEntry<Future<Channel>> entry =
                   globals_.rawChannels(Party.DB2).acquire();
-              entry.object().addListener(new ChannelFutureListener() {
+              entry.object().addListener(new FutureListener<Channel>() {
                 @Override
                 public final void operationComplete(
-                    final ChannelFuture future) throws Exception {
+                    final Future<Channel> future) throws Exception {
                   try {
                     if (!SST_NDEBUG) {
                       try {
@@ -5411,7 +7953,7 @@ final class RawChannelHandler
                       }
                     }
                     future.sync()
-                        .channel()
+                        .getNow()
                         .pipeline()
                         .fireUserEventTriggered(
                             new DbStartQueryEvent(queryString,
@@ -5426,10 +7968,9 @@ final class RawChannelHandler
             }
             if (remotePartyIsDb_) {
               setState(State.DB_DB_DUPLEX);
-              setSenderState(State.DB_DB_SH_NEXT_DOMAIN_TUPLE);
-              setRecverState(State.DB_DB_RH_NEXT_DOMAIN_TUPLE);
+              startDbDbDuplex();
             } else {
-              setState(State.DB_PH_S1_CONNECT_TO_DATABASE);
+              setState(State.DB_PH_S1_CHECK_CONNECTIONS);
             }
           } else if (stateStream_ == StateStream.S2) {
             setState(State.DB_PH_S2_NEXT_DOMAIN_TUPLE);
@@ -5440,6 +7981,36 @@ final class RawChannelHandler
           }
         } break;
 
+        case PH_DB_S1_RECV_ALL_ROW_COUNTS_FROM_DB_PH_S1: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsPh_);
+              SST_ASSERT(remotePartyIsDb_);
+              SST_ASSERT(stateStream_ == StateStream.S1);
+              SST_ASSERT(rowCountVector_);
+              SST_ASSERT(rowCounts_ == null);
+              SST_ASSERT(otherRowCounts_ == null);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          final int n1 = domainIterator_.partyCount(localDb_);
+          final int n2 = domainIterator_.partyCount(otherDb_);
+          if (in_.readableBytes() < 8 * (n1 + n2)) {
+            ctx.read();
+            return;
+          }
+          rowCounts_ = new long[n1];
+          for (int i = 0; i < n1; ++i) {
+            rowCounts_[i] = in_.readLong();
+          }
+          otherRowCounts_ = new long[n2];
+          for (int i = 0; i < n2; ++i) {
+            otherRowCounts_[i] = in_.readLong();
+          }
+          setState(State.PH_DB_S1_NEXT_DOMAIN_TUPLE);
+        } break;
+
         case PH_DB_S1_NEXT_DOMAIN_TUPLE: {
           if (!SST_NDEBUG) {
             try {
@@ -5450,13 +8021,21 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (domainIterator_.next()) {
+          if (!domainIterator_.next()) {
+            setState(State.DONE_QUERY);
+          } else if (rowCountVector_) {
+            localRowCount_ =
+                rowCounts_[domainIterator_.partyIndex(localDb_)];
+            localRowIndex_ = 0;
+            otherRowCount_ =
+                otherRowCounts_[domainIterator_.partyIndex(otherDb_)];
+            setState(
+                State.PH_DB_S1_SEND_LOCAL_ROW_COUNT_TO_MERGE_MACHINE);
+          } else {
             localRowCount_ = -1;
             localRowIndex_ = -1;
             otherRowCount_ = -1;
             setState(State.PH_DB_S1_RECV_BOTH_ROW_COUNTS_FROM_DB_PH_S1);
-          } else {
-            setState(State.DONE_QUERY);
           }
         } break;
 
@@ -5597,14 +8176,42 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (in_.readableBytes() < localRowBatch_ * xaBytesSize_) {
-            ctx.read();
-            return;
+          if (lexicon_.common().frontCodedIds()) {
+            if (in_.readableBytes() < 4
+                || in_.readableBytes() - 4
+                       < in_.getInt(in_.readerIndex())) {
+              ctx.read();
+              return;
+            }
+            xaBytesBatchEntry_ =
+                xaBytesBatchPool_.tryAcquire(batchWaiter_);
+            if (xaBytesBatchEntry_ == null) {
+              return;
+            }
+            final int n = in_.readInt();
+            final int i = in_.readerIndex();
+            IdCodec.decode(in_,
+                           localRowBatch_,
+                           xaBytesSize_,
+                           linkingColumnSize_,
+                           xaBytesBatchEntry_.object());
+            if (in_.readerIndex() - i != n) {
+              throw new RuntimeException("Invalid xa batch length.");
+            }
+          } else {
+            if (in_.readableBytes() < localRowBatch_ * xaBytesSize_) {
+              ctx.read();
+              return;
+            }
+            xaBytesBatchEntry_ =
+                xaBytesBatchPool_.tryAcquire(batchWaiter_);
+            if (xaBytesBatchEntry_ == null) {
+              return;
+            }
+            in_.readBytes(xaBytesBatchEntry_.object(),
+                          0,
+                          localRowBatch_ * xaBytesSize_);
           }
-          xaBytesBatchEntry_ = xaBytesBatchPool_.acquire();
-          in_.readBytes(xaBytesBatchEntry_.object(),
-                        0,
-                        localRowBatch_ * xaBytesSize_);
           setState(State.PH_DB_S1_SEND_XA_BATCH_TO_MERGE_MACHINE);
         } break;
 
@@ -5844,7 +8451,10 @@ final class RawChannelHandler
             ctx.read();
             return;
           }
-          bBytesBatchEntry_ = bBytesBatchPool_.acquire();
+          bBytesBatchEntry_ = bBytesBatchPool_.tryAcquire(batchWaiter_);
+          if (bBytesBatchEntry_ == null) {
+            return;
+          }
           in_.readBytes(bBytesBatchEntry_.object(),
                         0,
                         otherRowBatch_ * valueSize_);
@@ -6002,12 +8612,11 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (out_.get() > outLimit_) {
+          if (!canWrite(ctx)) {
             return;
           }
-          write(ctx, ybBytesBatch_, 0, localRowBatch_ * valueSize_);
+          write(ctx, ybBytesBatchEntry_, localRowBatch_ * valueSize_);
           flush(ctx);
-          ybBytesBatchEntry_.release();
           ybBytesBatchEntry_ = null;
           ybBytesBatch_ = null;
           localRowIndex_ += localRowBatch_;
@@ -6059,6 +8668,200 @@ final class RawChannelHandler
           setState(State.PH_DB_S3_NEXT_DOMAIN_TUPLE);
         } break;
 
+        case DB_PH_S1_CHECK_CONNECTIONS: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsDb_);
+              SST_ASSERT(remotePartyIsPh_);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          if (connectionCheck_ == null) {
+            final List<StatementCache> caches =
+                new ArrayList<StatementCache>();
+            for (final StatementCache cache : statementCaches()) {
+              if (cache.needsValidation()) {
+                caches.add(cache);
+              }
+            }
+            if (caches.isEmpty()) {
+              setState(State.DB_PH_S1_LOAD_SNAPSHOT);
+              break;
+            }
+            connectionCheck_ =
+                globals_.jdbcThreadGroup().submit(new Runnable() {
+                  @Override
+                  public final void run() {
+                    for (final StatementCache cache : caches) {
+                      cache.validate();
+                    }
+                  }
+                });
+            connectionCheck_.addListener(new FutureListener<Object>() {
+              @Override
+              public final void operationComplete(
+                  final Future<Object> future) {
+                try {
+                  future.sync();
+                  fireTick(pipeline_);
+                } catch (final Throwable e) {
+                  asyncFatal(e);
+                }
+              }
+            });
+          }
+          if (!connectionCheck_.isDone()) {
+            return;
+          }
+          connectionCheck_ = null;
+          for (final StatementCache cache : statementCaches()) {
+            if (cache.invalid()) {
+              log("Replacing a database connection that was lost while "
+                  + "it was idle.");
+              cache.close();
+            }
+          }
+          setState(State.DB_PH_S1_LOAD_SNAPSHOT);
+        } break;
+
+        case DB_PH_S1_LOAD_SNAPSHOT: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsDb_);
+              SST_ASSERT(remotePartyIsPh_);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          final SnapshotStore snapshots = globals_.snapshots();
+          if (snapshots == null
+              || !domainIterator_.supportsGroupedScan()) {
+            setState(State.DB_PH_S1_CONNECT_TO_DATABASE);
+            break;
+          }
+          if (snapshotSignature_ == null) {
+            final StringBuilder x = new StringBuilder();
+            final StringBuilder y = new StringBuilder();
+            snapshotParameters_ = new ArrayList<Object>();
+            appendFullSelectSql(x);
+            y.append(x.toString().replace("%", "%%"));
+            snapshotKeyColumn_ =
+                appendGroupedScanSql(x,
+                                     y,
+                                     snapshotParameters_,
+                                     query_.prefilters().get(localDb_));
+            appendFullOrderBySql(x, y);
+            snapshotSql_ = x.toString();
+            snapshotSqlFormat_ = String.format(
+                y.toString(),
+                (Object[])Jdbc.formatParameters(
+                    snapshotParameters_,
+                    config_.databaseConnection().subprotocol()));
+            final StringBuilder z = new StringBuilder();
+            z.append(snapshotSqlFormat_);
+            z.append("\n" + linkingColumnJdbcType_ + " "
+                     + linkingColumnSize_ + " "
+                     + linkingColumnForceString_ + " "
+                     + linkingColumnUnicode_);
+            z.append("\n" + modulusBig_);
+            for (final Aggregate aggregate :
+                 query_.aggregates(localDb_)) {
+              z.append("\n" + aggregate.function() + " "
+                       + aggregate.column().scale());
+            }
+            snapshotSignature_ = SnapshotStore.signature(z.toString());
+          }
+          if (!snapshotRefreshing_) {
+            snapshot_ = snapshots.fresh(snapshotSignature_);
+            snapshotRefreshing_ = snapshot_ == null;
+          }
+          if (snapshot_ == null) {
+            if (!jdbcRunner_.open(globals_.sqlChannels(),
+                                  this.<JdbcConnection>onSuccess(TICK),
+                                  onFailure())) {
+              return;
+            }
+            if (snapshotStatement_ == null) {
+              snapshotStatement_ =
+                  statementCache_.prepareStreaming(snapshotSql_);
+              Jdbc.resetParameters(snapshotStatement_,
+                                   snapshotParameters_);
+              log("Refreshing the snapshot with: "
+                  + snapshotSqlFormat_);
+            }
+            final String signature = snapshotSignature_;
+            final PreparedStatement statement = snapshotStatement_;
+            final int keyColumn = snapshotKeyColumn_;
+            final Config config = config_;
+            final Query query = query_;
+            final int idSize = linkingColumnSize_;
+            final int valueSize;
+            if (valuesFitInt_) {
+              valueSize = 4;
+            } else if (valuesFitLong_) {
+              valueSize = 8;
+            } else {
+              valueSize =
+                  (modulusBig_.subtract(BigInteger.ONE).bitLength() + 7)
+                  / 8;
+            }
+            final JdbcRowSource rows = newJdbcRowSource();
+            snapshot_ = jdbcRunner_.runAsync(
+                new Callable<Snapshot>() {
+                  @Override
+                  public final Snapshot call() throws Exception {
+                    final DomainIterator domainIterator =
+                        new DomainIterator(config, query);
+                    final int[] positions =
+                        new int[domainIterator.myGroupByCount()];
+                    return snapshots.refresh(
+                        signature,
+                        statement,
+                        rows,
+                        new Snapshot.TupleIndex() {
+                          @Override
+                          public final int tupleIndex()
+                              throws Exception {
+                            final ResultSet result = rows.result();
+                            for (int i = 0; i < positions.length;
+                                 ++i) {
+                              positions[i] =
+                                  result.getInt(keyColumn + i);
+                            }
+                            return domainIterator.myIndex(positions);
+                          }
+                        },
+                        domainIterator.myCount(),
+                        idSize,
+                        valueSize);
+                  }
+                },
+                globals_.jdbcThreadGroup(),
+                this.<Snapshot>onSuccess(TICK),
+                onFailure());
+            if (snapshot_ == null) {
+              return;
+            }
+          }
+          snapshotKey_ = new int[domainIterator_.myGroupByCount()];
+          log("This query is served from the snapshot in "
+              + snapshot_.file() + ", which has "
+              + snapshot_.rowCount() + " rows and was built "
+              + (System.currentTimeMillis() - snapshot_.createdMillis())
+                    / 1000
+              + " seconds ago.");
+          if (rowCountVector_) {
+            rowCounts_ = new long[domainIterator_.myCount()];
+            for (int i = 0; i < rowCounts_.length; ++i) {
+              rowCounts_[i] = snapshot_.rowCount(i);
+            }
+            setState(State.DB_PH_S1_SEND_LOCAL_ROW_COUNTS_TO_DB_DB);
+          } else {
+            setState(State.DB_PH_S1_NEXT_DOMAIN_TUPLE);
+          }
+        } break;
+
         case DB_PH_S1_CONNECT_TO_DATABASE: {
           if (!SST_NDEBUG) {
             try {
@@ -6068,9 +8871,40 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (!jdbcRunner_.open(globals_.sqlChannels(),
-                                this.<JdbcConnection>onSuccess(TICK),
-                                onFailure())) {
+          if (!jdbcRunner_.open(globals_.sqlChannels(),
+                                this.<JdbcConnection>onSuccess(TICK),
+                                onFailure())) {
+            return;
+          }
+          groupedScan_ = config_.groupedScan()
+                         && domainIterator_.supportsGroupedScan();
+          groupedCount_ = rowCountVector_
+                          || (config_.groupedCount()
+                              && domainIterator_.supportsGroupedScan());
+          partitioned_ =
+              partitionJdbcRunners_.length > 0 && !groupedScan_
+              && !groupedCount_ && config_.orderByOverride().isEmpty()
+              && !linkingColumnForceString_
+              && (linkingColumnJdbcType_ == JdbcType.TINYINT
+                  || linkingColumnJdbcType_ == JdbcType.SMALLINT
+                  || linkingColumnJdbcType_ == JdbcType.INTEGER
+                  || linkingColumnJdbcType_ == JdbcType.BIGINT);
+          if (partitioned_) {
+            for (final JdbcRunner runner : partitionJdbcRunners_) {
+              if (!runner.open(globals_.sqlChannels(),
+                               this.<JdbcConnection>onSuccess(TICK),
+                               onFailure())) {
+                return;
+              }
+            }
+          }
+          final StatementCache countStatementCache =
+              groupedScan_ ? countStatementCache_ : statementCache_;
+          if (groupedScan_ && !groupedCount_
+              && !countJdbcRunner_.open(
+                  globals_.sqlChannels(),
+                  this.<JdbcConnection>onSuccess(TICK),
+                  onFailure())) {
             return;
           }
           final StringBuilder where = new StringBuilder();
@@ -6093,7 +8927,15 @@ final class RawChannelHandler
           final StringBuilder y = new StringBuilder();
           x.setLength(0);
           y.setLength(0);
-          x.append("SELECT COUNT(*) FROM ");
+          x.append("SELECT COUNT(*)");
+          if (partitioned_) {
+            x.append(", MIN(");
+            x.append(localTable_.linkingColumn().underlyingName());
+            x.append("), MAX(");
+            x.append(localTable_.linkingColumn().underlyingName());
+            x.append(")");
+          }
+          x.append(" FROM ");
           x.append(localTable_.underlyingName());
           y.append(x.toString().replace("%", "%%"));
           x.append(where);
@@ -6102,47 +8944,248 @@ final class RawChannelHandler
           countSqlFormat_ = y.toString();
           x.setLength(0);
           y.setLength(0);
-          x.append("SELECT ");
-          x.append(localTable_.linkingColumn().underlyingName());
-          for (final Aggregate aggregate : query_.aggregates()) {
-            if (aggregate.db() == localParty_) {
+          appendFullSelectSql(x);
+          if (groupedScan_) {
+            fullParameters_ = new ArrayList<Object>();
+            y.append(x.toString().replace("%", "%%"));
+            groupedKeyColumn_ =
+                appendGroupedScanSql(x, y, fullParameters_, prefilter);
+            groupedKey_ = new int[domainIterator_.myGroupByCount()];
+            groupedPassKey_ = new int[domainIterator_.myGroupByCount()];
+          } else {
+            x.append(" FROM ");
+            x.append(localTable_.underlyingName());
+            y.append(x.toString().replace("%", "%%"));
+            x.append(where);
+            y.append(whereFormat);
+            if (partitioned_) {
+              final String c =
+                  localTable_.linkingColumn().underlyingName();
+              partitionSql_ = x + " AND " + c + " >= ? AND " + c
+                              + " <= ? ORDER BY " + c;
+              partitionSqlFormat_ = y + " AND " + c.replace("%", "%%")
+                                    + " >= %s AND "
+                                    + c.replace("%", "%%")
+                                    + " <= %s ORDER BY "
+                                    + c.replace("%", "%%");
+            }
+            x.append(" ORDER BY ");
+            y.append(" ORDER BY ");
+          }
+          appendFullOrderBySql(x, y);
+          fullSql_ = x.toString();
+          fullSqlFormat_ = y.toString();
+          if (groupedCount_) {
+            //
+            // The grouped count query counts the rows of all domain
+            // tuples at once by grouping on the same domain positions
+            // that a grouped scan sorts by. The positions are computed
+            // in a derived table because not every database allows a
+            // parameterized expression to be repeated in GROUP BY.
+            //
+            final int n = domainIterator_.myGroupByCount();
+            final String alias = "pulsar_vlds_k";
+            groupedCountParameters_ = new ArrayList<Object>();
+            x.setLength(0);
+            y.setLength(0);
+            x.append("SELECT ");
+            for (int i = 0; i < n; ++i) {
+              x.append(alias);
+              x.append(i);
               x.append(", ");
-              aggregate.toSql(x);
             }
+            x.append("COUNT(*) FROM (SELECT 0 AS pulsar_vlds_z");
+            y.append(x.toString().replace("%", "%%"));
+            domainIterator_.toGroupedSelectSql(x,
+                                               groupedCountParameters_,
+                                               y,
+                                               alias);
+            x.append(" FROM ");
+            y.append(" FROM ");
+            x.append(localTable_.underlyingName());
+            y.append(localTable_.underlyingName().replace("%", "%%"));
+            x.append(" WHERE ");
+            y.append(" WHERE ");
+            if (prefilter == null) {
+              x.append("0 = 0");
+              y.append("0 = 0");
+            } else {
+              prefilter.toSql(x, groupedCountParameters_, y);
+            }
+            domainIterator_.toGroupedWhereSql(x,
+                                              groupedCountParameters_,
+                                              y);
+            x.append(") AS pulsar_vlds_q");
+            y.append(") AS pulsar_vlds_q");
+            for (int i = 0; i < n; ++i) {
+              x.append(i == 0 ? " GROUP BY " : ", ");
+              y.append(i == 0 ? " GROUP BY " : ", ");
+              x.append(alias);
+              y.append(alias);
+              x.append(i);
+              y.append(i);
+            }
+            groupedCountSql_ = x.toString();
+            groupedCountSqlFormat_ = y.toString();
+            countStatement_ =
+                statementCache_.prepare(groupedCountSql_);
+            Jdbc.resetParameters(countStatement_,
+                                 groupedCountParameters_);
+          } else {
+            countStatement_ = countStatementCache.prepare(countSql_);
           }
-          x.append(" FROM ");
-          x.append(localTable_.underlyingName());
-          y.append(x.toString().replace("%", "%%"));
-          x.append(where);
-          y.append(whereFormat);
-          x.append(" ORDER BY ");
-          y.append(" ORDER BY ");
-          if (!config_.orderByOverride().isEmpty()) {
-            x.append(config_.orderByOverride());
-            y.append(config_.orderByOverride());
-          } else if (linkingColumnForceString_
-                     && !linkingColumnIsString_) {
-            x.append("CAST(");
-            y.append("CAST(");
-            x.append(localTable_.linkingColumn().underlyingName());
-            y.append(
-                localTable_.linkingColumn().underlyingName().replace(
-                    "%",
-                    "%%"));
-            x.append(" AS CHAR(32))");
-            y.append(" AS CHAR(32))");
+          fullStatement_ = statementCache_.prepareStreaming(fullSql_);
+          if (partitioned_) {
+            final int n = partitionJdbcRunners_.length + 1;
+            partitionStatements_ = new PreparedStatement[n];
+            partitionResults_ = new ResultSet[n];
+            partitionStatements_[0] =
+                statementCache_.prepareStreaming(partitionSql_);
+            for (int i = 1; i < n; ++i) {
+              partitionStatements_[i] =
+                  partitionStatementCaches_[i - 1].prepareStreaming(
+                      partitionSql_);
+            }
+          }
+          if (groupedScan_) {
+            Jdbc.resetParameters(fullStatement_, fullParameters_);
+          }
+          if (groupedCount_) {
+            log(String.format(
+                groupedCountSqlFormat_,
+                (Object[])Jdbc.formatParameters(
+                    groupedCountParameters_,
+                    config_.databaseConnection().subprotocol())));
+            setState(State.DB_PH_S1_DO_GROUPED_COUNT_QUERY);
           } else {
-            x.append(localTable_.linkingColumn().underlyingName());
-            y.append(
-                localTable_.linkingColumn().underlyingName().replace(
-                    "%",
-                    "%%"));
+            setState(State.DB_PH_S1_NEXT_DOMAIN_TUPLE);
+          }
+        } break;
+
+        case DB_PH_S1_DO_GROUPED_COUNT_QUERY: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsDb_);
+              SST_ASSERT(remotePartyIsPh_);
+              SST_ASSERT(groupedCount_);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          final PreparedStatement countStatement = countStatement_;
+          final Config config = config_;
+          final Query query = query_;
+          final int n = domainIterator_.myGroupByCount();
+          final int myCount = domainIterator_.myCount();
+          rowCounts_ = jdbcRunner_.runAsync(
+              new Callable<long[]>() {
+                @Override
+                public final long[] call() throws Exception {
+                  final DomainIterator it =
+                      new DomainIterator(config, query);
+                  final long[] groupedRowCounts = new long[myCount];
+                  final int[] positions = new int[n];
+                  final ResultSet result =
+                      countStatement.executeQuery();
+                  try {
+                    while (result.next()) {
+                      for (int i = 0; i < n; ++i) {
+                        positions[i] = result.getInt(i + 1);
+                      }
+                      groupedRowCounts[it.myIndex(positions)] =
+                          result.getLong(n + 1);
+                    }
+                  } finally {
+                    result.close();
+                  }
+                  final long[] rowCounts = new long[myCount];
+                  while (it.next()) {
+                    it.myPositions(positions);
+                    final int i = it.myIndex(positions);
+                    it.myFirstPositions(positions);
+                    rowCounts[i] =
+                        groupedRowCounts[it.myIndex(positions)];
+                  }
+                  return rowCounts;
+                }
+              },
+              globals_.jdbcThreadGroup(),
+              this.<long[]>onSuccess(TICK),
+              onFailure());
+          if (rowCounts_ == null) {
+            return;
+          }
+          setState(rowCountVector_ ?
+                       State.DB_PH_S1_SEND_LOCAL_ROW_COUNTS_TO_DB_DB :
+                       State.DB_PH_S1_NEXT_DOMAIN_TUPLE);
+        } break;
+
+        case DB_PH_S1_SEND_LOCAL_ROW_COUNTS_TO_DB_DB: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsDb_);
+              SST_ASSERT(remotePartyIsPh_);
+              SST_ASSERT(rowCountVector_);
+              SST_ASSERT(rowCounts_ != null);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          shd_.localRowCounts.set(rowCounts_);
+          fireTick(otherDb_, StateStream.S1);
+          setState(State.DB_PH_S1_RECV_OTHER_ROW_COUNTS_FROM_DB_DB_RH);
+        } break;
+
+        case DB_PH_S1_RECV_OTHER_ROW_COUNTS_FROM_DB_DB_RH: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsDb_);
+              SST_ASSERT(remotePartyIsPh_);
+              SST_ASSERT(rowCountVector_);
+              SST_ASSERT(otherRowCounts_ == null);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          otherRowCounts_ = shd_.otherRowCounts.get();
+          if (otherRowCounts_ == null) {
+            return;
+          }
+          setState(State.DB_PH_S1_SEND_ALL_ROW_COUNTS_TO_PH_DB_S1);
+        } break;
+
+        case DB_PH_S1_SEND_ALL_ROW_COUNTS_TO_PH_DB_S1: {
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(localPartyIsDb_);
+              SST_ASSERT(remotePartyIsPh_);
+              SST_ASSERT(rowCountVector_);
+              SST_ASSERT(rowCounts_ != null);
+              SST_ASSERT(otherRowCounts_ != null);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
+          if (!canWrite(ctx)) {
+            return;
+          }
+          {
+            final ByteBuf x = ctx.alloc().buffer(
+                8 * (rowCounts_.length + otherRowCounts_.length));
+            try {
+              for (final long rowCount : rowCounts_) {
+                x.writeLong(rowCount);
+              }
+              for (final long rowCount : otherRowCounts_) {
+                x.writeLong(rowCount);
+              }
+              write(ctx, x);
+              flush(ctx);
+            } catch (final Throwable e) {
+              x.release();
+              throw e;
+            }
           }
-          fullSql_ = x.toString();
-          fullSqlFormat_ = y.toString();
-          countStatement_ = jdbcRunner_.prepareStatement(countSql_);
-          fullStatement_ =
-              jdbcRunner_.prepareStreamingStatement(fullSql_);
           setState(State.DB_PH_S1_NEXT_DOMAIN_TUPLE);
         } break;
 
@@ -6155,20 +9198,57 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (domainIterator_.next(domainParameters_)) {
+          if (snapshot_ != null ?
+                  domainIterator_.next() :
+                  domainIterator_.next(domainParameters_)) {
             localRowCount_ = -1;
             localRowIndex_ = -1;
             localRowBatch_ = -1;
             otherRowCount_ = -1;
-            Jdbc.resetParameters(countStatement_, allParameters_);
-            Jdbc.resetParameters(fullStatement_, allParameters_);
-            log(String.format(
-                countSqlFormat_,
-                (Object[])Jdbc.formatParameters(
-                    allParameters_,
-                    config_.databaseConnection().subprotocol())));
-            setState(State.DB_PH_S1_DO_COUNT_QUERY);
+            final State countState;
+            if (rowCountVector_) {
+              localRowCount_ =
+                  rowCounts_[domainIterator_.partyIndex(localDb_)];
+              otherRowCount_ =
+                  otherRowCounts_[domainIterator_.partyIndex(otherDb_)];
+              countState =
+                  State.DB_PH_S1_SEND_BOTH_ROW_COUNTS_TO_DB_PH_S3;
+            } else {
+              countState =
+                  State.DB_PH_S1_SEND_LOCAL_ROW_COUNT_TO_DB_DB_SH;
+            }
+            if (snapshot_ != null) {
+              domainIterator_.myPositions(snapshotKey_);
+              snapshotTuple_ = domainIterator_.myIndex(snapshotKey_);
+              localRowCount_ = snapshot_.rowCount(snapshotTuple_);
+              setState(countState);
+              break;
+            }
+            if (groupedScan_) {
+              domainIterator_.myPositions(groupedKey_);
+            } else {
+              Jdbc.resetParameters(fullStatement_, allParameters_);
+            }
+            if (groupedCount_) {
+              localRowCount_ =
+                  rowCounts_[domainIterator_.partyIndex(localDb_)];
+              setState(countState);
+            } else {
+              Jdbc.resetParameters(countStatement_, allParameters_);
+              log(String.format(
+                  countSqlFormat_,
+                  (Object[])Jdbc.formatParameters(
+                      allParameters_,
+                      config_.databaseConnection().subprotocol())));
+              setState(State.DB_PH_S1_DO_COUNT_QUERY);
+            }
           } else {
+            if (fullResult_ != null) {
+              fullResult_.close();
+              fullResult_ = null;
+              fullRowSource_.reset(null);
+              rowSource_ = null;
+            }
             setState(State.DONE_QUERY);
           }
         } break;
@@ -6187,14 +9267,16 @@ final class RawChannelHandler
             }
           }
           final PreparedStatement countStatement = countStatement_;
-          countResult_ = jdbcRunner_.runAsync(
+          final JdbcRunner countJdbcRunner =
+              groupedScan_ ? countJdbcRunner_ : jdbcRunner_;
+          countResult_ = countJdbcRunner.runAsync(
               new Callable<ResultSet>() {
                 @Override
                 public final ResultSet call() throws Exception {
                   return countStatement.executeQuery();
                 }
               },
-              globals_.workerThreadGroup(),
+              globals_.jdbcThreadGroup(),
               this.<ResultSet>onSuccess(TICK),
               onFailure());
           if (countResult_ == null) {
@@ -6202,7 +9284,11 @@ final class RawChannelHandler
           }
           countResult_.next();
           localRowCount_ = countResult_.getLong(1);
-          jdbcRunner_.close(countResult_);
+          if (partitioned_) {
+            linkingMin_ = countResult_.getLong(2);
+            linkingMax_ = countResult_.getLong(3);
+          }
+          countJdbcRunner.close(countResult_);
           setState(State.DB_PH_S1_SEND_LOCAL_ROW_COUNT_TO_DB_DB_SH);
         } break;
 
@@ -6261,8 +9347,8 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          final Long x = shd_.dbDbRhToDbPhS1OtherRowCountQueue.poll();
-          if (x == null) {
+          final long x = shd_.dbDbRhToDbPhS1OtherRowCountQueue.poll(-1);
+          if (x == -1) {
             return;
           }
           fireTick(otherDb_, StateStream.S1);
@@ -6304,10 +9390,10 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (out_.get() > outLimit_) {
-            return;
-          }
-          {
+          if (!rowCountVector_) {
+            if (!canWrite(ctx)) {
+              return;
+            }
             final ByteBuf x = ctx.alloc().buffer();
             try {
               x.writeLong(localRowCount_);
@@ -6321,12 +9407,53 @@ final class RawChannelHandler
           }
           if (localRowCount_ == 0 || otherRowCount_ == 0) {
             setState(State.DB_PH_S1_NEXT_DOMAIN_TUPLE);
+          } else if (snapshot_ != null) {
+            snapshotScan_ = snapshot_.scan(snapshotTuple_);
+            rowSource_ = snapshotScan_;
+            localRowIndex_ = 0;
+            xFetchRowIndex_ = 0;
+            setState(State.DB_PH_S1_NEXT_LOCAL_ROW_BATCH);
+          } else if (groupedScan_) {
+            if (fullResult_ != null && groupedKeyAfterPass()) {
+              // The rows of this domain tuple are still ahead of us in
+              // the current pass, so there's no need to query again.
+              System.arraycopy(groupedKey_,
+                               0,
+                               groupedPassKey_,
+                               0,
+                               groupedKey_.length);
+              localRowIndex_ = 0;
+              xFetchRowIndex_ = 0;
+              setState(State.DB_PH_S1_NEXT_LOCAL_ROW_BATCH);
+            } else {
+              if (fullResult_ != null) {
+                fullResult_.close();
+                fullResult_ = null;
+                fullRowSource_.reset(null);
+                rowSource_ = null;
+              }
+              System.arraycopy(groupedKey_,
+                               0,
+                               groupedPassKey_,
+                               0,
+                               groupedKey_.length);
+              fullRowPending_ = false;
+              log(String.format(
+                  fullSqlFormat_,
+                  (Object[])Jdbc.formatParameters(
+                      fullParameters_,
+                      config_.databaseConnection().subprotocol())));
+              setState(State.DB_PH_S1_DO_FULL_QUERY);
+            }
           } else {
-            log(String.format(
-                fullSqlFormat_,
-                (Object[])Jdbc.formatParameters(
-                    allParameters_,
-                    config_.databaseConnection().subprotocol())));
+            partitionFullQuery();
+            if (partitionCount_ == 1) {
+              log(String.format(
+                  fullSqlFormat_,
+                  (Object[])Jdbc.formatParameters(
+                      allParameters_,
+                      config_.databaseConnection().subprotocol())));
+            }
             setState(State.DB_PH_S1_DO_FULL_QUERY);
           }
         } break;
@@ -6340,6 +9467,54 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
+          if (partitionCount_ > 1) {
+            boolean ready = true;
+            for (int i = 0; i < partitionCount_; ++i) {
+              if (partitionResults_[i] != null) {
+                continue;
+              }
+              final PreparedStatement statement =
+                  partitionStatements_[i];
+              final JdbcRunner runner =
+                  i == 0 ? jdbcRunner_ : partitionJdbcRunners_[i - 1];
+              partitionResults_[i] = runner.runAsync(
+                  new Callable<ResultSet>() {
+                    @Override
+                    public final ResultSet call() throws Exception {
+                      return statement.executeQuery();
+                    }
+                  },
+                  globals_.jdbcThreadGroup(),
+                  this.<ResultSet>onSuccess(TICK),
+                  onFailure());
+              if (partitionResults_[i] == null) {
+                ready = false;
+              }
+            }
+            if (!ready) {
+              return;
+            }
+            final RowSource[] sources = new RowSource[partitionCount_];
+            for (int i = 0; i < partitionCount_; ++i) {
+              sources[i] = newPartitionRowSource().reset(
+                  partitionResults_[i]);
+            }
+            partitionRowSource_ = new PartitionedRowSource(
+                sources,
+                valuesFitInt_ ? PartitionedRowSource.XKind.INT :
+                valuesFitLong_ ? PartitionedRowSource.XKind.LONG :
+                valuesFitWide_ ? PartitionedRowSource.XKind.WIDE :
+                                 PartitionedRowSource.XKind.BIG,
+                localAggCount_,
+                linkingColumnSize_,
+                localMaxBatch_,
+                globals_.jdbcThreadGroup());
+            rowSource_ = partitionRowSource_;
+            localRowIndex_ = 0;
+            xFetchRowIndex_ = 0;
+            setState(State.DB_PH_S1_NEXT_LOCAL_ROW_BATCH);
+            break;
+          }
           final PreparedStatement fullStatement = fullStatement_;
           fullResult_ = jdbcRunner_.runAsync(
               new Callable<ResultSet>() {
@@ -6348,14 +9523,15 @@ final class RawChannelHandler
                   return fullStatement.executeQuery();
                 }
               },
-              globals_.workerThreadGroup(),
+              globals_.jdbcThreadGroup(),
               this.<ResultSet>onSuccess(TICK),
               onFailure());
           if (fullResult_ == null) {
             return;
           }
-          fullResultMetadata_ = fullResult_.getMetaData();
+          rowSource_ = fullRowSource_.reset(fullResult_);
           localRowIndex_ = 0;
+          xFetchRowIndex_ = 0;
           setState(State.DB_PH_S1_NEXT_LOCAL_ROW_BATCH);
         } break;
 
@@ -6368,7 +9544,8 @@ final class RawChannelHandler
               SST_ASSERT(localRowCount_ >= 0);
               SST_ASSERT(localRowIndex_ >= 0);
               SST_ASSERT(localRowIndex_ <= localRowCount_);
-              SST_ASSERT(xaBytesBatch_ != null);
+              SST_ASSERT(xaBytesBatchPool_ != null);
+              SST_ASSERT(xaBytesBatchEntry_ == null);
               SST_ASSERT(xaFuture_ == null);
             } catch (final Throwable e) {
               SST_ASSERT(e);
@@ -6380,9 +9557,34 @@ final class RawChannelHandler
                               localMaxBatch_);
             setState(State.DB_PH_S1_START_RETRIEVING_X_BATCH);
           } else {
-            fullResult_.close();
-            fullResult_ = null;
-            fullResultMetadata_ = null;
+            if (!SST_NDEBUG) {
+              try {
+                SST_ASSERT(xFetches_.isEmpty());
+                SST_ASSERT(xFetchRowIndex_ == localRowCount_);
+                SST_ASSERT(xFetchFuture_.isDone());
+              } catch (final Throwable e) {
+                SST_ASSERT(e);
+              }
+            }
+            xFetchRowIndex_ = -1;
+            xFetchFuture_ = null;
+            if (snapshotScan_ != null) {
+              snapshotScan_ = null;
+              rowSource_ = null;
+            } else if (!groupedScan_) {
+              if (partitionCount_ > 1) {
+                for (int i = 0; i < partitionCount_; ++i) {
+                  partitionResults_[i].close();
+                  partitionResults_[i] = null;
+                }
+                partitionRowSource_ = null;
+              } else {
+                fullResult_.close();
+                fullResult_ = null;
+                fullRowSource_.reset(null);
+              }
+              rowSource_ = null;
+            }
             setState(State.DB_PH_S1_RECV_Z_FROM_DB_DB_SH);
           }
         } break;
@@ -6413,241 +9615,29 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
+          startXFetches();
+          final XFetch xFetch = xFetches_.poll();
+          if (xFetch == null) {
+            return;
+          }
+          if (!SST_NDEBUG) {
+            try {
+              SST_ASSERT(xFetch.rows == localRowBatch_);
+            } catch (final Throwable e) {
+              SST_ASSERT(e);
+            }
+          }
           if (valuesFitInt_) {
-            xIntBatchEntry_ = xIntBatchPool_.acquire();
+            xIntBatchEntry_ = xFetch.xIntBatchEntry;
             xIntBatch_ = xIntBatchEntry_.object();
           } else if (valuesFitLong_) {
-            xLongBatchEntry_ = xLongBatchPool_.acquire();
+            xLongBatchEntry_ = xFetch.xLongBatchEntry;
             xLongBatch_ = xLongBatchEntry_.object();
           } else {
-            xBigBatchEntry_ = xBigBatchPool_.acquire();
+            xBigBatchEntry_ = xFetch.xBigBatchEntry;
             xBigBatch_ = xBigBatchEntry_.object();
           }
-          final boolean valuesFitInt = valuesFitInt_;
-          final boolean valuesFitLong = valuesFitLong_;
-          final XIntBatch xIntBatch = xIntBatch_;
-          final XLongBatch xLongBatch = xLongBatch_;
-          final XBigBatch xBigBatch = xBigBatch_;
-          final int localRowBatch = localRowBatch_;
-          final ResultSet fullResult = fullResult_;
-          final ResultSetMetaData metadata = fullResultMetadata_;
-          final int localAggCount = localAggCount_;
-          final List<Aggregate> aggregates =
-              query_.aggregates(localDb_);
-          final boolean lastBatch =
-              localRowIndex_ + localRowBatch_ == localRowCount_;
-          final long localRowIndex = localRowIndex_;
-          final FixedPointModContext zeroScaleFpmContext =
-              zeroScaleFpmContext_;
-          final FixedPointModContext[] fixedPointModContexts =
-              fixedPointModContexts_;
-          // TODO: This should use Callable to transfer the exception
-          //       out of the future nicely.
-          xBatchFuture_ =
-              globals_.workerThreadGroup().submit(new Runnable() {
-                @Override
-                public final void run() {
-                  try {
-                    // TODO: Is hoisting valuesFit* this high up really
-                    //       necessary?
-                    // TODO: The handling of the squaring is quite error
-                    //       prone here. How do we make it better?
-                    if (valuesFitInt) {
-                      int k = 0;
-                      for (int i = 0; i < localRowBatch; ++i) {
-                        if (!fullResult.next()) {
-                          throw new RuntimeException(
-                              "database changed between queries?");
-                        }
-                        getLinkingColumn(fullResult,
-                                         1,
-                                         xIntBatch.id,
-                                         i * linkingColumnSize_);
-                        if (localRowIndex > 0 || i > 0) {
-                          if (Memory.cmp(previousId_,
-                                         0,
-                                         xIntBatch.id,
-                                         i * linkingColumnSize_,
-                                         linkingColumnSize_,
-                                         ByteOrder.BIG_ENDIAN)
-                              > 0) {
-                            throw orderMismatch();
-                          }
-                        }
-                        System.arraycopy(xIntBatch.id,
-                                         i * linkingColumnSize_,
-                                         previousId_,
-                                         0,
-                                         linkingColumnSize_);
-                        int ci = 2;
-                        for (int ai = 0; ai < aggregates.size(); ++ai) {
-                          final Aggregate agg = aggregates.get(ai);
-                          final int n = agg.aggCount();
-                          for (int j = 0; j < n; ++j) {
-                            final FixedPointModContext fp =
-                                agg.shouldScale(j) ?
-                                    fixedPointModContexts[ai] :
-                                    zeroScaleFpmContext;
-                            if (j < 2) {
-                              xIntBatch.xs[k] = fp.encode(
-                                  fullResult,
-                                  ci,
-                                  JdbcType.fromInt(
-                                      metadata.getColumnType(ci)),
-                                  (Integer)null,
-                                  true);
-                              ++ci;
-                            } else {
-                              xIntBatch.xs[k] = fp.encodeSquare(
-                                  fullResult,
-                                  ci - 1,
-                                  JdbcType.fromInt(
-                                      metadata.getColumnType(ci - 1)),
-                                  (Integer)null,
-                                  true);
-                            }
-                            ++k;
-                          }
-                        }
-                      }
-                    } else if (valuesFitLong) {
-                      int k = 0;
-                      for (int i = 0; i < localRowBatch; ++i) {
-                        if (!fullResult.next()) {
-                          throw new RuntimeException(
-                              "database changed between queries?");
-                        }
-                        getLinkingColumn(fullResult,
-                                         1,
-                                         xLongBatch.id,
-                                         i * linkingColumnSize_);
-                        if (localRowIndex > 0 || i > 0) {
-                          if (Memory.cmp(previousId_,
-                                         0,
-                                         xLongBatch.id,
-                                         i * linkingColumnSize_,
-                                         linkingColumnSize_,
-                                         ByteOrder.BIG_ENDIAN)
-                              > 0) {
-                            throw orderMismatch();
-                          }
-                        }
-                        System.arraycopy(xLongBatch.id,
-                                         i * linkingColumnSize_,
-                                         previousId_,
-                                         0,
-                                         linkingColumnSize_);
-                        int ci = 2;
-                        for (int ai = 0; ai < aggregates.size(); ++ai) {
-                          final Aggregate agg = aggregates.get(ai);
-                          final int n = agg.aggCount();
-                          for (int j = 0; j < n; ++j) {
-                            final FixedPointModContext fp =
-                                agg.shouldScale(j) ?
-                                    fixedPointModContexts[ai] :
-                                    zeroScaleFpmContext;
-                            if (j < 2) {
-                              xLongBatch.xs[k] = fp.encode(
-                                  fullResult,
-                                  ci,
-                                  JdbcType.fromInt(
-                                      metadata.getColumnType(ci)),
-                                  (Long)null,
-                                  true);
-                              ++ci;
-                            } else {
-                              xLongBatch.xs[k] = fp.encodeSquare(
-                                  fullResult,
-                                  ci - 1,
-                                  JdbcType.fromInt(
-                                      metadata.getColumnType(ci - 1)),
-                                  (Long)null,
-                                  true);
-                            }
-                            ++k;
-                          }
-                        }
-                      }
-                    } else {
-                      int k = 0;
-                      for (int i = 0; i < localRowBatch; ++i) {
-                        if (!fullResult.next()) {
-                          throw new RuntimeException(
-                              "database changed between queries?");
-                        }
-                        getLinkingColumn(fullResult,
-                                         1,
-                                         xBigBatch.id,
-                                         i * linkingColumnSize_);
-                        if (localRowIndex > 0 || i > 0) {
-                          if (Memory.cmp(previousId_,
-                                         0,
-                                         xBigBatch.id,
-                                         i * linkingColumnSize_,
-                                         linkingColumnSize_,
-                                         ByteOrder.BIG_ENDIAN)
-                              > 0) {
-                            throw orderMismatch();
-                          }
-                        }
-                        System.arraycopy(xBigBatch.id,
-                                         i * linkingColumnSize_,
-                                         previousId_,
-                                         0,
-                                         linkingColumnSize_);
-                        int ci = 2;
-                        for (int ai = 0; ai < aggregates.size(); ++ai) {
-                          final Aggregate agg = aggregates.get(ai);
-                          final int n = agg.aggCount();
-                          for (int j = 0; j < n; ++j) {
-                            final FixedPointModContext fp =
-                                agg.shouldScale(j) ?
-                                    fixedPointModContexts[ai] :
-                                    zeroScaleFpmContext;
-                            if (j < 2) {
-                              xBigBatch.xs[k] = fp.encode(
-                                  fullResult,
-                                  ci,
-                                  JdbcType.fromInt(
-                                      metadata.getColumnType(ci)),
-                                  (BigInteger)null,
-                                  true);
-                              ++ci;
-                            } else {
-                              xBigBatch.xs[k] = fp.encodeSquare(
-                                  fullResult,
-                                  ci - 1,
-                                  JdbcType.fromInt(
-                                      metadata.getColumnType(ci - 1)),
-                                  (BigInteger)null,
-                                  true);
-                            }
-                            ++k;
-                          }
-                        }
-                      }
-                    }
-                    if (lastBatch && fullResult.next()) {
-                      throw new RuntimeException(
-                          "database changed between queries?");
-                    }
-                  } catch (final Throwable e) {
-                    asyncFatal(e);
-                  }
-                }
-              });
-          xBatchFuture_.addListener(new FutureListener<Object>() {
-            @Override
-            public final void operationComplete(
-                final Future<Object> future) {
-              try {
-                future.sync();
-                fireTick(pipeline_);
-              } catch (final Throwable e) {
-                asyncFatal(e);
-              }
-            }
-          });
+          xBatchFuture_ = xFetch.future;
           setState(State.DB_PH_S1_RECV_A_BATCH_FROM_DB_DB_RH);
         } break;
 
@@ -6673,7 +9663,7 @@ final class RawChannelHandler
               return;
             }
             aIntBatch_ = aIntBatchEntry_.object();
-          } else if (valuesFitLong_) {
+          } else if (valuesFitLong_ || valuesFitWide_) {
             aLongBatchEntry_ = shd_.aLongBatchQueue.poll();
             if (aLongBatchEntry_ == null) {
               return;
@@ -6714,15 +9704,28 @@ final class RawChannelHandler
               SST_ASSERT(localPartyIsDb_);
               SST_ASSERT(remotePartyIsPh_);
               SST_ASSERT(stateStream_ == StateStream.S1);
-              SST_ASSERT(xaBytesBatch_ != null);
+              SST_ASSERT(xaBytesBatchPool_ != null);
+              SST_ASSERT(xaBytesBatchEntry_ == null);
               SST_ASSERT(xaFuture_ == null);
             } catch (final Throwable e) {
               SST_ASSERT(e);
             }
           }
+          xaBytesBatchEntry_ = xaBytesBatchPool_.acquire();
+          xaBytesBatch_ = xaBytesBatchEntry_.object();
+          if (xaCodedBatchPool_ != null) {
+            xaCodedBatchEntry_ = xaCodedBatchPool_.acquire();
+          }
+          final byte[] xaCodedBatch = xaCodedBatchEntry_ != null ?
+                                          xaCodedBatchEntry_.object() :
+                                          null;
+          final int xaBytesSize = xaBytesSize_;
           final int valueSize = valueSize_;
           final boolean valuesFitInt = valuesFitInt_;
           final boolean valuesFitLong = valuesFitLong_;
+          final boolean valuesFitWide = valuesFitWide_;
+          final Int128.Mod wideMod = wideMod_;
+          final int modulusBits = modulusBits_;
           final XIntBatch xIntBatch = xIntBatch_;
           final XLongBatch xLongBatch = xLongBatch_;
           final XBigBatch xBigBatch = xBigBatch_;
@@ -6736,7 +9739,7 @@ final class RawChannelHandler
           final int localAggCount = localAggCount_;
           final byte[] xaBytesBatch = xaBytesBatch_;
           xaFuture_ =
-              globals_.workerThreadGroup().submit(new Runnable() {
+              globals_.cpuThreadGroup().submit(new Runnable() {
                 @Override
                 public final void run() {
                   try {
@@ -6906,6 +9909,40 @@ final class RawChannelHandler
                           }
                         }
                       }
+                    } else if (valuesFitWide) {
+                      // m is in (2^64, 2^128], and the a values are
+                      // Int128 pairs in aLongBatch
+                      final long[] xs = xBigBatch.wide;
+                      final long[] xa = new long[2];
+                      for (int i = 0; i < localRowBatch; ++i) {
+                        System.arraycopy(xBigBatch.id,
+                                         i * linkingColumnSize_,
+                                         xaBytesBatch,
+                                         xai,
+                                         linkingColumnSize_);
+                        xai += linkingColumnSize_;
+                        for (int j = 0; j < localAggCount; ++j) {
+                          xa[0] = xs[2 * xi];
+                          xa[1] = xs[2 * xi + 1];
+                          if (wideMod == null) {
+                            Int128.add(xa,
+                                       0,
+                                       aLongBatch[2 * ai],
+                                       aLongBatch[2 * ai + 1]);
+                            Int128.mask(xa, 0, modulusBits);
+                          } else {
+                            wideMod.add(xa,
+                                        0,
+                                        aLongBatch[2 * ai],
+                                        aLongBatch[2 * ai + 1]);
+                          }
+                          Int128.toBytes(xa, 0, xaBytesBatch, xai,
+                                         valueSize);
+                          ++xi;
+                          ++ai;
+                          xai += valueSize;
+                        }
+                      }
                     } else {
                       for (int i = 0; i < localRowBatch; ++i) {
                         System.arraycopy(xBigBatch.id,
@@ -6932,6 +9969,13 @@ final class RawChannelHandler
                         }
                       }
                     }
+                    if (xaCodedBatch != null) {
+                      xaCodedSize_ = IdCodec.encode(xaBytesBatch,
+                                                    localRowBatch,
+                                                    xaBytesSize,
+                                                    linkingColumnSize_,
+                                                    xaCodedBatch);
+                    }
                   } catch (final Throwable e) {
                     asyncFatal(e);
                   }
@@ -6971,7 +10015,7 @@ final class RawChannelHandler
             aIntBatchEntry_.release();
             aIntBatchEntry_ = null;
             aIntBatch_ = null;
-          } else if (valuesFitLong_) {
+          } else if (valuesFitLong_ || valuesFitWide_) {
             aLongBatchEntry_.release();
             aLongBatchEntry_ = null;
             aLongBatch_ = null;
@@ -6993,11 +10037,30 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (out_.get() > outLimit_) {
+          if (!canWrite(ctx)) {
             return;
           }
-          write(ctx, xaBytesBatch_, 0, localRowBatch_ * xaBytesSize_);
+          if (xaCodedBatchEntry_ != null) {
+            final ByteBuf x = ctx.alloc().buffer(4, 4);
+            try {
+              x.writeInt(xaCodedSize_);
+              write(ctx, x);
+            } catch (final Throwable e) {
+              x.release();
+              throw e;
+            }
+            write(ctx, xaCodedBatchEntry_, xaCodedSize_);
+            xaCodedBatchEntry_ = null;
+            xaCodedSize_ = -1;
+            xaBytesBatchEntry_.release();
+          } else {
+            write(ctx,
+                  xaBytesBatchEntry_,
+                  localRowBatch_ * xaBytesSize_);
+          }
           flush(ctx);
+          xaBytesBatchEntry_ = null;
+          xaBytesBatch_ = null;
           localRowIndex_ += localRowBatch_;
           setState(State.DB_PH_S1_SEND_X_BATCH_TO_DB_PH_S3);
         } break;
@@ -7057,7 +10120,7 @@ final class RawChannelHandler
             }
           }
           if (valuesFitInt_) {
-            final PoolEntry<int[]> entry = zIntQueue_.poll();
+            final BatchEntry<int[]> entry = zIntQueue_.poll();
             if (entry == null) {
               return;
             }
@@ -7073,7 +10136,7 @@ final class RawChannelHandler
             }
             entry.release();
           } else if (valuesFitLong_) {
-            final PoolEntry<long[]> entry = zLongQueue_.poll();
+            final BatchEntry<long[]> entry = zLongQueue_.poll();
             if (entry == null) {
               return;
             }
@@ -7092,7 +10155,7 @@ final class RawChannelHandler
             }
             entry.release();
           } else {
-            final PoolEntry<BigInteger[]> entry = zBigQueue_.poll();
+            final BatchEntry<BigInteger[]> entry = zBigQueue_.poll();
             if (entry == null) {
               return;
             }
@@ -7126,7 +10189,7 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (out_.get() > outLimit_) {
+          if (!canWrite(ctx)) {
             return;
           }
           write(ctx, zBytes_, 0, zBytes_.length);
@@ -7258,15 +10321,11 @@ final class RawChannelHandler
           }
           // Our batch size is not necessarily the same as the remote
           // batch size. It's a continuous stream, so it's okay.
-          if (out_.get() > outLimit_) {
+          if (!canWrite(ctx)) {
             return;
           }
-          write(ctx,
-                bBytesBatchEntry_.object(),
-                0,
-                otherRowBatch_ * valueSize_);
+          write(ctx, bBytesBatchEntry_, otherRowBatch_ * valueSize_);
           flush(ctx);
-          bBytesBatchEntry_.release();
           bBytesBatchEntry_ = null;
           otherRowIndex_ += otherRowBatch_;
           otherRowBatch_ = -1;
@@ -7300,6 +10359,9 @@ final class RawChannelHandler
               for (int i = 0; i < localAggCount_; ++i) {
                 sBig_[i] = BigInteger.ZERO;
               }
+              if (sWide_ != null) {
+                Arrays.fill(sWide_, 0);
+              }
             }
             setState(State.DB_PH_S3_RECV_BOTH_ROW_COUNTS_FROM_DB_PH_S1);
           } else {
@@ -7521,12 +10583,15 @@ final class RawChannelHandler
           final int[] sInt = sInt_;
           final long[] sLong = sLong_;
           final BigInteger[] sBig = sBig_;
+          final long[] sWide = sWide_;
+          final boolean widePow2 = wideMod_ == null;
+          final int wideSize = wideSize_;
           final XIntBatch xIntBatch = xIntBatch_;
           final XLongBatch xLongBatch = xLongBatch_;
           final XBigBatch xBigBatch = xBigBatch_;
           final byte[] ybBytesBatch = ybBytesBatch_;
           sFuture_ =
-              globals_.workerThreadGroup().submit(new Runnable() {
+              globals_.cpuThreadGroup().submit(new Runnable() {
                 @Override
                 public final void run() {
                   try {
@@ -7674,6 +10739,32 @@ final class RawChannelHandler
                           }
                         }
                       }
+                    } else if (sWide != null) {
+                      // m is in (2^64, 2^128]. A power of two wraps
+                      // and is masked once when s is finished, and any
+                      // other modulus accumulates the unreduced sum
+                      // that wideMod_ reduces once when s is finished.
+                      final long[] xs = xBigBatch.wide;
+                      int xi = 0;
+                      int ybi = 0;
+                      for (int i = 0; i < localRowBatch; ++i) {
+                        final long ybHi =
+                            Int128.hi(ybBytesBatch, ybi, valueSize);
+                        final long ybLo =
+                            Int128.lo(ybBytesBatch, ybi, valueSize);
+                        ybi += valueSize;
+                        for (int j = 0; j < localAggCount; ++j) {
+                          if (widePow2) {
+                            Int128.mulAdd(sWide, 2 * j, xs[2 * xi],
+                                          xs[2 * xi + 1], ybHi, ybLo);
+                          } else {
+                            Int128.mulAcc(sWide, wideSize * j,
+                                          xs[2 * xi], xs[2 * xi + 1],
+                                          ybHi, ybLo);
+                          }
+                          ++xi;
+                        }
+                      }
                     } else {
                       int xi = 0;
                       int ybi = 0;
@@ -7859,6 +10950,18 @@ final class RawChannelHandler
               }
             }
           } else {
+            if (sWide_ != null) {
+              final long[] t = new long[2];
+              for (int j = 0; j < localAggCount_; ++j) {
+                if (wideMod_ == null) {
+                  Int128.mask(sWide_, 2 * j, modulusBits_);
+                  sBig_[j] = Int128.toBig(sWide_, 2 * j);
+                } else {
+                  wideMod_.reduce(sWide_, wideSize_ * j, t, 0);
+                  sBig_[j] = Int128.toBig(t, 0);
+                }
+              }
+            }
             for (int j = 0; j < localAggCount_; ++j) {
               if (sBig_[j].compareTo(rBig_[j]) >= 0) {
                 sBig_[j] = sBig_[j].subtract(rBig_[j]);
@@ -7923,7 +11026,7 @@ final class RawChannelHandler
               SST_ASSERT(e);
             }
           }
-          if (out_.get() > outLimit_) {
+          if (!canWrite(ctx)) {
             return;
           }
           write(ctx, sBytes_);
@@ -7964,6 +11067,11 @@ final class RawChannelHandler
               + (totalRxAtQueryDone_ - totalRxAtQueryStart_)
               + " bytes from " + remoteParty_.toString().toUpperCase()
               + ".");
+          if (statementCache_.enabled() && localPartyIsDb_
+              && remotePartyIsPh_ && stateStream_ == StateStream.S1) {
+            logStatementCaches();
+            scheduleStatementCacheIdleCheck();
+          }
           shd_.done();
           resetForNextQuery();
           if (outgoing_) {
@@ -8015,6 +11123,7 @@ final class RawChannelHandler
     if (!inTick_) {
       inTick_ = true;
       final int a = in_.readableBytes();
+      startXFetches();
       tick2(ctx);
       final int b = in_.readableBytes();
       totalRx_ += a - b;
@@ -8062,6 +11171,8 @@ final class RawChannelHandler
     }
     if (event == ZOMBIE_CHECK) {
       handleZombieCheck(ctx);
+    } else if (event == STATEMENT_CACHE_IDLE_CHECK) {
+      handleStatementCacheIdleCheck();
     } else if (event == TICK) {
       tick(ctx);
       updateLastActivityTime();
@@ -8071,6 +11182,9 @@ final class RawChannelHandler
     } else if (event instanceof DbStartQueryEvent) {
       handleDbStartQueryEvent(ctx, (DbStartQueryEvent)event);
       updateLastActivityTime();
+    } else if (event instanceof WarmUpEvent) {
+      handleWarmUpEvent(ctx, (WarmUpEvent)event);
+      updateLastActivityTime();
     } else {
       ctx.fireUserEventTriggered(event);
     }
@@ -31,18 +31,63 @@ package com.stealthsoftwareinc.pulsarvlds;
 import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
 import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
 
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2LocalFlowController;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2Stream;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public final class RawChannelInitializer
     extends ChannelInitializer<SocketChannel> {
 
+  //--------------------------------------------------------------------
+  // TLS
+  //--------------------------------------------------------------------
+  //
+  // The cipher suites are limited to AES-GCM ones, which both the JDK
+  // and OpenSSL engines run with AES-NI and carry-less
+  // multiplication where the CPU has them. Suites that the engine does
+  // not support, such as the TLS 1.3 ones on older JDKs, are dropped.
+  //
+  // Sessions are cached on both sides so that a reconnect to the same
+  // party can resume its previous session with an abbreviated
+  // handshake instead of doing a full key exchange. The client side
+  // only looks up cached sessions when the handler is told the remote
+  // host and port.
+  //
+
+  private static final List<String> CIPHERS =
+      Collections.unmodifiableList(
+          Arrays.asList("TLS_AES_128_GCM_SHA256",
+                        "TLS_AES_256_GCM_SHA384",
+                        "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+                        "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+                        "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+                        "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384"));
+
+  private static final long SESSION_CACHE_SIZE = 1024;
+  private static final long SESSION_TIMEOUT = 86400;
+
+  //--------------------------------------------------------------------
+
   private final Globals globals_;
   private final Party remoteParty_;
   private final SslContext sslCtx_;
+  private final ChannelInitializer<Channel> streamInitializer_;
 
   public RawChannelInitializer(final Globals globals,
                                final Party remoteParty)
@@ -56,19 +101,148 @@ public final class RawChannelInitializer
     }
     globals_ = globals;
     remoteParty_ = remoteParty;
+    final SslContextBuilder sslCtx;
     if (remoteParty_ == null) {
-      sslCtx_ =
-          SslContextBuilder
-              .forServer(globals_.selfSignedCertificate().certificate(),
-                         globals_.selfSignedCertificate().privateKey())
-              .build();
+      sslCtx = SslContextBuilder.forServer(
+          globals_.rawTlsIdentity().privateKey(),
+          globals_.rawTlsIdentity().certificate());
     } else {
-      sslCtx_ = SslContextBuilder.forClient()
-                    .trustManager(InsecureTrustManagerFactory.INSTANCE)
-                    .build();
+      sslCtx = SslContextBuilder.forClient().trustManager(
+          InsecureTrustManagerFactory.INSTANCE);
     }
+    sslCtx_ =
+        sslCtx.sslProvider(globals_.config().tlsEngine().sslProvider())
+            .ciphers(CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+            .sessionCacheSize(SESSION_CACHE_SIZE)
+            .sessionTimeout(SESSION_TIMEOUT)
+            .build();
+    streamInitializer_ = new ChannelInitializer<Channel>() {
+      @Override
+      protected final void initChannel(final Channel channel)
+          throws Exception {
+        channel.config().setAutoRead(false);
+        channel.pipeline().addLast(
+            new RawStreamCodec(remoteParty_ != null));
+        channel.pipeline().addLast(new RawChannelHandler(
+            globals_,
+            channel.pipeline(),
+            remoteParty_));
+      }
+    };
   }
 
+  //--------------------------------------------------------------------
+  // Multiplexing
+  //--------------------------------------------------------------------
+  //
+  // When raw_multiplexing is enabled, each raw connection carries an
+  // HTTP/2 connection instead of a single RawChannelHandler, and every
+  // HTTP/2 stream gets its own RawChannelHandler behind a
+  // RawStreamCodec. The pooled channels are then streams, so all the
+  // queries between two parties share one TLS connection, and opening
+  // another channel costs a HEADERS frame instead of a TCP and TLS
+  // handshake. Each stream still runs the usual party, lexicon and
+  // query exchange, which is how a stream is tied to its query ID and
+  // StateStream.
+  //
+  // The connection itself always reads, as it must keep delivering
+  // frames to the other streams. Backpressure comes from the HTTP/2
+  // flow-control window of each stream instead, which is reopened only
+  // as the stream's RawChannelHandler reads. The window is the credit
+  // the receiver grants to the sender, and it is set by
+  // raw_stream_window, as the HTTP/2 default of 64 KiB is far too small
+  // to keep a high-latency link busy.
+  //
+  // The streams are not independent, though, as all of their DATA
+  // frames also count against the window of the connection. A stream
+  // that stops reading can hold up to a full stream window of
+  // unconsumed data, so if the connection window were smaller than the
+  // stream windows of all the streams together, a few stalled streams
+  // could use it up and keep the data that their queries are waiting
+  // for on other streams from ever arriving. The number of streams per
+  // connection is therefore capped at raw_max_streams with
+  // SETTINGS_MAX_CONCURRENT_STREAMS, and the connection window is
+  // raised to raw_max_streams times raw_stream_window as soon as the
+  // connection is active. RawChannelFactory opens another connection
+  // once a connection has raw_max_streams streams.
+  //
+
+  private final Http2Settings settings() {
+    return Http2Settings.defaultSettings()
+        .initialWindowSize(globals_.config().rawStreamWindow())
+        .maxConcurrentStreams(globals_.config().rawMaxStreams());
+  }
+
+  private static final class ConnectionWindow
+      extends ChannelInboundHandlerAdapter {
+    private final Http2FrameCodec codec_;
+    private final int size_;
+
+    public ConnectionWindow(final Http2FrameCodec codec,
+                            final int size) {
+      codec_ = codec;
+      size_ = size;
+    }
+
+    private void open(final ChannelHandlerContext ctx)
+        throws Exception {
+      final Http2Connection connection = codec_.connection();
+      final Http2Stream stream = connection.connectionStream();
+      final Http2LocalFlowController flowController =
+          connection.local().flowController();
+      final int delta = size_ - flowController.windowSize(stream);
+      if (delta > 0) {
+        flowController.incrementWindowSize(stream, delta);
+        ctx.flush();
+      }
+      ctx.pipeline().remove(this);
+    }
+
+    @Override
+    public final void handlerAdded(final ChannelHandlerContext ctx)
+        throws Exception {
+      if (ctx.channel().isActive()) {
+        open(ctx);
+      }
+    }
+
+    @Override
+    public final void channelActive(final ChannelHandlerContext ctx)
+        throws Exception {
+      ctx.fireChannelActive();
+      open(ctx);
+    }
+  }
+
+  private final void addCodec(final SocketChannel channel,
+                              final Http2FrameCodec codec) {
+    channel.pipeline().addLast(codec);
+    channel.pipeline().addLast(new ConnectionWindow(
+        codec,
+        globals_.config().rawMaxStreams()
+            * globals_.config().rawStreamWindow()));
+  }
+
+  //
+  // Streams are only ever opened by the connecting side, so a stream
+  // opened by the accepting side is closed immediately.
+  //
+
+  private static final ChannelInitializer<Channel> REJECT_STREAM =
+      new ChannelInitializer<Channel>() {
+        @Override
+        protected final void initChannel(final Channel channel)
+            throws Exception {
+          channel.close();
+        }
+      };
+
+  public final ChannelInitializer<Channel> streamInitializer() {
+    return streamInitializer_;
+  }
+
+  //--------------------------------------------------------------------
+
   @Override
   protected final void initChannel(final SocketChannel channel)
       throws Exception {
@@ -79,9 +253,36 @@ public final class RawChannelInitializer
         SST_ASSERT(e);
       }
     }
-    channel.pipeline().addLast(sslCtx_.newHandler(channel.alloc()));
-    channel.pipeline().addLast(new RawChannelHandler(globals_,
-                                                     channel.pipeline(),
-                                                     remoteParty_));
+    if (remoteParty_ == null) {
+      channel.pipeline().addLast(sslCtx_.newHandler(channel.alloc()));
+    } else {
+      channel.pipeline().addLast(sslCtx_.newHandler(
+          channel.alloc(),
+          globals_.config().rawConnectHost(remoteParty_),
+          globals_.config().rawConnectPort(remoteParty_)));
+    }
+    if (globals_.config().rawMultiplexing()) {
+      channel.config().setAutoRead(true);
+      if (remoteParty_ == null) {
+        addCodec(channel,
+                 Http2FrameCodecBuilder.forServer()
+                     .initialSettings(settings())
+                     .build());
+        channel.pipeline().addLast(
+            new Http2MultiplexHandler(streamInitializer_));
+      } else {
+        addCodec(channel,
+                 Http2FrameCodecBuilder.forClient()
+                     .initialSettings(settings())
+                     .build());
+        channel.pipeline().addLast(
+            new Http2MultiplexHandler(REJECT_STREAM));
+      }
+    } else {
+      channel.pipeline().addLast(new RawChannelHandler(
+          globals_,
+          channel.pipeline(),
+          remoteParty_));
+    }
   }
 }
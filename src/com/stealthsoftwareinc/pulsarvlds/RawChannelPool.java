@@ -0,0 +1,158 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import com.stealthsoftwareinc.sst.ConcurrentPool;
+import com.stealthsoftwareinc.sst.PoolEntry;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//
+// RawChannelPool is the pool of raw channels to one remote party. It
+// adds two things to a plain ConcurrentPool.
+//
+// First, acquire() never hands out a dead channel. A pooled channel
+// whose connection failed or was closed while it sat idle is evicted
+// by simply dropping its pool entry instead of releasing it, which is
+// also how a handler that hits a fatal error leaves the pool.
+//
+// Second, warm() keeps a number of channels ready ahead of time. The
+// channels that queries acquired and have not released yet count
+// toward that number, so warm() only takes the rest out of the pool at
+// once, evicting any dead ones along the way, which makes the pool
+// create new channels for whatever is missing. A query must therefore
+// give its channel back with release() instead of releasing the entry
+// itself. Each channel that warm() takes is then sent a WarmUpEvent,
+// which makes its RawChannelHandler run the party and lexicon
+// handshake right away instead of just before its first query. The
+// handler puts the channel back into the pool once the handshake is
+// done, and it also sends a keepalive to the remote party, so calling
+// warm() periodically keeps the idle connections from being dropped
+// by the network for inactivity and finds the broken ones.
+//
+
+public final class RawChannelPool {
+  private final Globals globals_;
+  private final Party remoteParty_;
+  private final ConcurrentPool<Future<Channel>> pool_;
+  private final Set<Future<Channel>> inUse_ =
+      ConcurrentHashMap.<Future<Channel>>newKeySet();
+
+  public RawChannelPool(final Globals globals,
+                        final Party remoteParty,
+                        final RawChannelFactory factory) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(globals != null);
+        SST_ASSERT(remoteParty != null);
+        SST_ASSERT(factory != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    globals_ = globals;
+    remoteParty_ = remoteParty;
+    pool_ = new ConcurrentPool<Future<Channel>>(factory);
+  }
+
+  private static boolean isDead(final Future<Channel> channel) {
+    return channel.isDone()
+        && (!channel.isSuccess() || !channel.getNow().isActive());
+  }
+
+  private PoolEntry<Future<Channel>> acquireLive() {
+    while (true) {
+      final PoolEntry<Future<Channel>> entry = pool_.acquire();
+      if (!isDead(entry.object())) {
+        return entry;
+      }
+    }
+  }
+
+  public final PoolEntry<Future<Channel>> acquire() {
+    final PoolEntry<Future<Channel>> entry = acquireLive();
+    inUse_.add(entry.object());
+    return entry;
+  }
+
+  public final void release(final PoolEntry<Future<Channel>> entry) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(entry != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    inUse_.remove(entry.object());
+    entry.release();
+  }
+
+  public final void warm(final int count) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(count >= 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    // A channel that a query dropped instead of releasing is dead, so
+    // it no longer counts as in use.
+    inUse_.removeIf(channel -> isDead(channel));
+    final int n = Math.max(count - inUse_.size(), 0);
+    final List<PoolEntry<Future<Channel>>> entries =
+        new ArrayList<PoolEntry<Future<Channel>>>(n);
+    for (int i = 0; i != n; ++i) {
+      entries.add(acquireLive());
+    }
+    for (final PoolEntry<Future<Channel>> entry : entries) {
+      entry.object().addListener(new FutureListener<Channel>() {
+        @Override
+        public final void operationComplete(
+            final Future<Channel> future) throws Exception {
+          if (future.isSuccess()) {
+            future.getNow().pipeline().fireUserEventTriggered(
+                new WarmUpEvent(entry));
+          } else {
+            globals_.log("raw pool warm-up: "
+                         + remoteParty_.toString().toUpperCase()
+                         + ": " + future.cause().getMessage());
+          }
+        }
+      });
+    }
+  }
+}
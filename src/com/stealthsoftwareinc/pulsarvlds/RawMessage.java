@@ -0,0 +1,59 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import com.stealthsoftwareinc.sst.Enums;
+import com.stealthsoftwareinc.sst.ToInt;
+
+//
+// The type of a message that an outgoing raw channel sends while the
+// remote handler waits for a query, i.e., in SEND_QUERY. The type is
+// sent as a single byte, and what follows depends on it:
+//
+//       QUERY:     int StateStream, query ID, int length, query string
+//       KEEPALIVE: nothing
+//
+// A KEEPALIVE is sent by a handler that was warmed up by RawChannelPool
+// to keep its idle connection alive, and the remote handler discards
+// it and goes on waiting for a query.
+//
+
+enum RawMessage implements ToInt {
+  QUERY,
+  KEEPALIVE;
+
+  @Override
+  public final int toInt() {
+    return ordinal();
+  }
+
+  public final static RawMessage fromInt(final int src) {
+    return Enums.fromInt(RawMessage.class, src);
+  }
+}
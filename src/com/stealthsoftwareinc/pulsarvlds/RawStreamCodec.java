@@ -0,0 +1,152 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.util.ReferenceCountUtil;
+
+//
+// RawStreamCodec sits between an HTTP/2 stream channel and a
+// RawChannelHandler when raw connections are multiplexed. It turns the
+// stream's DATA frames into the plain ByteBufs that RawChannelHandler
+// expects and wraps everything RawChannelHandler writes back into DATA
+// frames, so the state machine runs unchanged over a logical stream.
+//
+// HTTP/2 requires each side of a stream to start with a HEADERS frame,
+// so one is written before the first DATA frame. The HEADERS frames
+// received from the other side carry nothing of interest and are
+// dropped. Since AUTO_READ is disabled, a read that only produced
+// dropped frames must be followed by another read, as otherwise
+// RawChannelHandler would wait forever for data it never asked for
+// again.
+//
+// Each stream has its own HTTP/2 flow-control window, and the window
+// is only reopened as the stream channel reads, so a stream whose
+// RawChannelHandler stops calling ctx.read() stalls only itself and
+// not the other streams sharing the connection.
+//
+
+final class RawStreamCodec extends ChannelDuplexHandler {
+  private final boolean outgoing_;
+  private boolean sentHeaders_ = false;
+  private boolean forwarded_ = false;
+
+  public RawStreamCodec(final boolean outgoing) {
+    outgoing_ = outgoing;
+  }
+
+  private final Http2Headers headers() {
+    if (outgoing_) {
+      return new DefaultHttp2Headers()
+          .method("POST")
+          .scheme("https")
+          .path("/raw");
+    }
+    return new DefaultHttp2Headers().status("200");
+  }
+
+  @Override
+  public final void channelRead(final ChannelHandlerContext ctx,
+                                final Object msg) throws Exception {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(ctx != null);
+        SST_ASSERT(msg != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    if (msg instanceof Http2DataFrame) {
+      final ByteBuf content = ((Http2DataFrame)msg).content();
+      if (content.isReadable()) {
+        forwarded_ = true;
+        ctx.fireChannelRead(content);
+      } else {
+        content.release();
+      }
+    } else {
+      ReferenceCountUtil.release(msg);
+    }
+  }
+
+  @Override
+  public final void channelReadComplete(final ChannelHandlerContext ctx)
+      throws Exception {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(ctx != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    if (forwarded_) {
+      forwarded_ = false;
+      ctx.fireChannelReadComplete();
+    } else {
+      ctx.read();
+    }
+  }
+
+  @Override
+  public final void write(final ChannelHandlerContext ctx,
+                          final Object msg,
+                          final ChannelPromise promise)
+      throws Exception {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(ctx != null);
+        SST_ASSERT(msg != null);
+        SST_ASSERT(promise != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    if (!sentHeaders_) {
+      sentHeaders_ = true;
+      ctx.write(new DefaultHttp2HeadersFrame(headers(), false));
+    }
+    if (msg instanceof ByteBuf) {
+      ctx.write(new DefaultHttp2DataFrame((ByteBuf)msg, false),
+                promise);
+    } else {
+      ctx.write(msg, promise);
+    }
+  }
+}
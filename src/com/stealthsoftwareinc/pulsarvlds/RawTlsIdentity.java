@@ -0,0 +1,182 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.Date;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+//
+// RawTlsIdentity is the private key and self-signed certificate that a
+// party presents on its raw connections. Generating a key pair is
+// slow, especially an RSA one, so the first run generates them and
+// saves them in the home directory as <party>-tls-<type>.key and
+// <party>-tls-<type>.crt, and every later run loads them from there.
+// Both files are written under temporary names that only the owner
+// can read and are then moved into place, so an interrupted run never
+// leaves a half-written file behind.
+//
+// The private key is stored as unencrypted PKCS #8 and the certificate
+// as X.509, both in PEM format. Deleting the files makes the next run
+// generate a new identity. Since the raw connections do not verify the
+// remote party's certificate, nothing else needs to change when that
+// happens.
+//
+
+public final class RawTlsIdentity {
+  private static final String SUBJECT = "CN=localhost";
+
+  //
+  // The same validity period as Netty's SelfSignedCertificate: from a
+  // year ago until the end of the representable range of X.509 dates.
+  //
+
+  private static final Date NOT_BEFORE =
+      new Date(System.currentTimeMillis() - 86400000L * 365);
+  private static final Date NOT_AFTER = new Date(253402300799000L);
+
+  private final PrivateKey privateKey_;
+  private final X509Certificate certificate_;
+
+  public RawTlsIdentity(final Config config) throws Exception {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(config != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    final TlsKeyType type = config.tlsKeyType();
+    final String base = config.home() + File.separator
+                        + config.localParty() + "-tls-" + type;
+    final Path keyFile = new File(base + ".key").toPath();
+    final Path certFile = new File(base + ".crt").toPath();
+    if (Files.isRegularFile(keyFile) && Files.isRegularFile(certFile)) {
+      privateKey_ = KeyFactory.getInstance(type.keyAlgorithm())
+                        .generatePrivate(
+                            new PKCS8EncodedKeySpec(readPem(keyFile)));
+      try (final InputStream in = Files.newInputStream(certFile)) {
+        certificate_ =
+            (X509Certificate)CertificateFactory.getInstance("X.509")
+                .generateCertificate(in);
+      }
+    } else {
+      final SecureRandom random = new SecureRandom();
+      final KeyPairGenerator generator =
+          KeyPairGenerator.getInstance(type.keyAlgorithm());
+      generator.initialize(type.keySize(), random);
+      final KeyPair keyPair = generator.generateKeyPair();
+      final X500Name subject = new X500Name(SUBJECT);
+      final BigInteger serial = new BigInteger(64, random);
+      privateKey_ = keyPair.getPrivate();
+      certificate_ = new JcaX509CertificateConverter().getCertificate(
+          new JcaX509v3CertificateBuilder(subject,
+                                          serial,
+                                          NOT_BEFORE,
+                                          NOT_AFTER,
+                                          subject,
+                                          keyPair.getPublic())
+              .build(new JcaContentSignerBuilder(
+                         type.signatureAlgorithm())
+                         .build(privateKey_)));
+      Files.createDirectories(keyFile.getParent());
+      writePem(keyFile, "PRIVATE KEY", privateKey_.getEncoded());
+      writePem(certFile, "CERTIFICATE", certificate_.getEncoded());
+    }
+  }
+
+  public final PrivateKey privateKey() {
+    return privateKey_;
+  }
+
+  public final X509Certificate certificate() {
+    return certificate_;
+  }
+
+  //--------------------------------------------------------------------
+  // PEM files
+  //--------------------------------------------------------------------
+
+  private static byte[] readPem(final Path file) throws Exception {
+    final StringBuilder base64 = new StringBuilder();
+    for (final String line :
+         Files.readAllLines(file, StandardCharsets.US_ASCII)) {
+      if (!line.startsWith("-----")) {
+        base64.append(line.trim());
+      }
+    }
+    return Base64.getDecoder().decode(base64.toString());
+  }
+
+  private static void writePem(final Path file,
+                               final String label,
+                               final byte[] der) throws Exception {
+    final Path tmp = Files.createTempFile(file.getParent(),
+                                          file.getFileName().toString(),
+                                          ".tmp");
+    try {
+      try (final Writer out = Files.newBufferedWriter(
+               tmp,
+               StandardCharsets.US_ASCII)) {
+        out.write("-----BEGIN " + label + "-----\n");
+        out.write(Base64.getMimeEncoder(64, new byte[] {'\n'})
+                      .encodeToString(der));
+        out.write("\n-----END " + label + "-----\n");
+      }
+      Files.move(tmp,
+                 file,
+                 StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import java.math.BigInteger;
+
+//
+// The rows that a database party computes its X batches from, which
+// come either from the database through a JdbcRowSource or from a
+// Snapshot through a Snapshot.Scan.
+//
+// next() moves to the next row and returns false once there are no
+// more. For the current row, id() writes the linking column as its
+// memcmp-comparable byte sequence, and the x*() methods return its
+// k-th X value already encoded as an element of Z_m, where the X
+// values of a row are those of the local aggregates in order, as
+// Aggregate.aggCount() counts them. Only the x*() method that matches
+// the size of m needs to be supported: xInt() if the values fit in an
+// int, xLong() if they fit in a long, and xBig() and xWide() if not,
+// where xWide() writes the value as a high and a low long to
+// dst[off] and dst[off + 1] (see Int128).
+//
+
+interface RowSource {
+  boolean next() throws Exception;
+
+  void id(byte[] dst, int off) throws Exception;
+
+  int xInt(int k) throws Exception;
+
+  long xLong(int k) throws Exception;
+
+  BigInteger xBig(int k) throws Exception;
+
+  void xWide(int k, long[] dst, int off) throws Exception;
+}
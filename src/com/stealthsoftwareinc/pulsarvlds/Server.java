@@ -44,8 +44,6 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.util.NetUtil;
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -233,8 +231,9 @@ public final class Server implements Callable<Integer> {
       throw e.add(configLabel + ": ");
     }
 
+    final Transport transport = config.transport().resolve();
     final EventLoopGroup ioThreadGroup =
-        new NioEventLoopGroup(config.ioThreadCount());
+        transport.newEventLoopGroup(config.ioThreadCount());
     try {
       final Globals globals =
           new Globals(stdin, stdout, stderr, config, ioThreadGroup);
@@ -318,9 +317,8 @@ public final class Server implements Callable<Integer> {
         //--------------------------------------------------------------
 
         final ServerBootstrap rawBootstrap =
-            new ServerBootstrap()
+            transport.configure(new ServerBootstrap(), config)
                 .group(globals.ioThreadGroup())
-                .channel(NioServerSocketChannel.class)
                 .childHandler(new RawChannelInitializer(globals, null))
                 .option(ChannelOption.SO_BACKLOG,
                         Math.min(NetUtil.SOMAXCONN, 128))
@@ -332,9 +330,8 @@ public final class Server implements Callable<Integer> {
         final ServerBootstrap httpBootstrap;
         if (config.localParty() == Party.PH) {
           httpBootstrap =
-              new ServerBootstrap()
+              transport.configure(new ServerBootstrap(), config)
                   .group(globals.ioThreadGroup())
-                  .channel(NioServerSocketChannel.class)
                   .childHandler(new HttpChannelInitializer(globals))
                   .option(ChannelOption.SO_BACKLOG,
                           Math.min(NetUtil.SOMAXCONN, 128))
@@ -397,14 +394,7 @@ public final class Server implements Callable<Integer> {
                 }
 
                 try {
-                  globals.workerThreadGroup()
-                      .shutdownGracefully(0, 0, TimeUnit.NANOSECONDS)
-                      .sync();
-                } catch (final Throwable e) {
-                }
-
-                try {
-                  globals.selfSignedCertificate().delete();
+                  globals.shutdownThreadGroups();
                 } catch (final Throwable e) {
                 }
               }
@@ -423,6 +413,7 @@ public final class Server implements Callable<Integer> {
                                      "Logging is disabled."));
             }
 
+            globals.log("Using the " + transport + " transport.");
             globals.log("Listening for raw connections on "
                         + config.rawListenHost() + ":"
                         + config.rawListenPort() + ".");
@@ -454,9 +445,7 @@ public final class Server implements Callable<Integer> {
         }
       } finally {
         try {
-          globals.workerThreadGroup()
-              .shutdownGracefully(0, 0, TimeUnit.NANOSECONDS)
-              .sync();
+          globals.shutdownThreadGroups();
         } catch (final Throwable e) {
         }
       }
@@ -0,0 +1,497 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+//
+// A Snapshot is a columnar copy of the rows that a grouped scan of the
+// local table retrieves, which lets a database party serve repeated
+// queries of the same shape without running them on the database.
+//
+// The rows are stored in the order of the grouped scan, which is by
+// domain tuple and then by linking column. The linking column is
+// stored already converted to its memcmp-comparable byte sequence, and
+// each X value (see RowSource) is stored already encoded as an element
+// of Z_m in an array of its own. The values are stored as valueSize
+// bytes each: 4 if they fit in an int, 8 if they fit in a long, and
+// otherwise as many as m - 1 needs, as an unsigned big-endian integer.
+// Storing the encoded values keeps DECIMAL and NUMERIC columns exact
+// at any precision and values of any modulus intact, and saves the
+// encoding when the snapshot is read. The domain positions are not
+// stored. Instead, the header holds the index of the first row of each
+// local domain tuple, as numbered by DomainIterator.myIndex().
+//
+// The file consists of an 8-byte magic number, the 4-byte length of
+// the header, the header, the linking column section, and one section
+// per X value. Each section is memory-mapped on its own, so a section
+// cannot exceed 2 GiB.
+//
+// A Snapshot is immutable once it is loaded and can be read by any
+// number of threads, each through its own Scan.
+//
+
+final class Snapshot {
+  private static final long MAGIC = 0x50564C4453534E32L;
+
+  //
+  // The magic number of the first format, which stored the column
+  // values of the grouped scan instead of the X values. Files in that
+  // format are rebuilt as if they didn't exist.
+  //
+
+  private static final long MAGIC_1 = 0x50564C4453534E31L;
+
+  //
+  // Returns the local index of the domain tuple of the current row of
+  // the RowSource that a snapshot is being written from.
+  //
+
+  public interface TupleIndex {
+    int tupleIndex() throws Exception;
+  }
+
+  private final Path file_;
+  private final String signature_;
+  private final long createdMillis_;
+  private final int idSize_;
+  private final int valueSize_;
+  private final long rowCount_;
+  private final long[] starts_;
+  private final ByteBuffer ids_;
+  private final ByteBuffer[] values_;
+
+  private Snapshot(final Path file,
+                   final String signature,
+                   final long createdMillis,
+                   final int idSize,
+                   final int valueSize,
+                   final long rowCount,
+                   final long[] starts,
+                   final ByteBuffer ids,
+                   final ByteBuffer[] values) {
+    file_ = file;
+    signature_ = signature;
+    createdMillis_ = createdMillis;
+    idSize_ = idSize;
+    valueSize_ = valueSize;
+    rowCount_ = rowCount;
+    starts_ = starts;
+    ids_ = ids;
+    values_ = values;
+  }
+
+  public final Path file() {
+    return file_;
+  }
+
+  public final String signature() {
+    return signature_;
+  }
+
+  public final long createdMillis() {
+    return createdMillis_;
+  }
+
+  public final long rowCount() {
+    return rowCount_;
+  }
+
+  public final long rowCount(final int tuple) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(tuple >= 0);
+        SST_ASSERT(tuple < starts_.length - 1);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return starts_[tuple + 1] - starts_[tuple];
+  }
+
+  public final Scan scan(final int tuple) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(tuple >= 0);
+        SST_ASSERT(tuple < starts_.length - 1);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    return new Scan((int)starts_[tuple], (int)starts_[tuple + 1]);
+  }
+
+  //--------------------------------------------------------------------
+  // Writing
+  //--------------------------------------------------------------------
+  //
+  // Writes rows to file. The rows must be sorted by domain tuple, as
+  // numbered by tuples, and then by linking column, and each row has
+  // xCount X values of valueSize bytes each. Each section is first
+  // written to a temporary file of its own since the row count isn't
+  // known until the end, and the sections are then joined into another
+  // temporary file that is moved into place, so an interrupted write
+  // never leaves a half-written snapshot behind.
+  //
+
+  public static void write(final RowSource rows,
+                           final TupleIndex tuples,
+                           final int tupleCount,
+                           final int xCount,
+                           final int idSize,
+                           final int valueSize,
+                           final String signature,
+                           final Path file) throws Exception {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(rows != null);
+        SST_ASSERT(tuples != null);
+        SST_ASSERT(tupleCount >= 0);
+        SST_ASSERT(xCount >= 0);
+        SST_ASSERT(idSize > 0);
+        SST_ASSERT(valueSize == 4 || valueSize >= 8);
+        SST_ASSERT(signature != null);
+        SST_ASSERT(file != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    final long createdMillis = System.currentTimeMillis();
+    final long[] starts = new long[tupleCount + 1];
+    final byte[] id = new byte[idSize];
+    final byte[] value = new byte[valueSize];
+    final Path dir = file.toAbsolutePath().getParent();
+    final String name = file.getFileName().toString();
+    Files.createDirectories(dir);
+    final Path[] parts = new Path[xCount + 1];
+    final DataOutputStream[] outs = new DataOutputStream[xCount + 1];
+    Path tmp = null;
+    try {
+      for (int c = 0; c <= xCount; ++c) {
+        parts[c] = Files.createTempFile(dir, name, ".part");
+        outs[c] = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(parts[c])));
+      }
+      long rowCount = 0;
+      int tuple = 0;
+      while (rows.next()) {
+        final int t = tuples.tupleIndex();
+        if (t < tuple) {
+          throw new RuntimeException(
+              "The rows of the snapshot query are not sorted by "
+              + "domain tuple.");
+        }
+        tuple = t;
+        ++starts[t + 1];
+        rows.id(id, 0);
+        outs[0].write(id);
+        for (int k = 0; k < xCount; ++k) {
+          if (valueSize == 4) {
+            outs[k + 1].writeInt(rows.xInt(k));
+          } else if (valueSize == 8) {
+            outs[k + 1].writeLong(rows.xLong(k));
+          } else {
+            toBytes(rows.xBig(k), value);
+            outs[k + 1].write(value);
+          }
+        }
+        ++rowCount;
+      }
+      if (rowCount * Math.max(idSize, valueSize) > Integer.MAX_VALUE) {
+        throw new RuntimeException(
+            "The table has too many rows for a snapshot.");
+      }
+      for (int t = 1; t < starts.length; ++t) {
+        starts[t] += starts[t - 1];
+      }
+      for (int c = 0; c <= xCount; ++c) {
+        outs[c].close();
+      }
+      final ByteArrayOutputStream header = new ByteArrayOutputStream();
+      final DataOutputStream h = new DataOutputStream(header);
+      h.writeUTF(signature);
+      h.writeLong(createdMillis);
+      h.writeInt(idSize);
+      h.writeInt(valueSize);
+      h.writeInt(xCount);
+      h.writeLong(rowCount);
+      h.writeInt(starts.length);
+      for (final long start : starts) {
+        h.writeLong(start);
+      }
+      h.flush();
+      tmp = Files.createTempFile(dir, name, ".tmp");
+      try (final OutputStream out = Files.newOutputStream(tmp)) {
+        final DataOutputStream d = new DataOutputStream(out);
+        d.writeLong(MAGIC);
+        d.writeInt(header.size());
+        header.writeTo(d);
+        d.flush();
+        for (final Path part : parts) {
+          Files.copy(part, out);
+        }
+      }
+      Files.move(tmp,
+                 file,
+                 StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      for (int c = 0; c <= xCount; ++c) {
+        if (outs[c] != null) {
+          try {
+            outs[c].close();
+          } catch (final Throwable e) {
+          }
+        }
+        if (parts[c] != null) {
+          Files.deleteIfExists(parts[c]);
+        }
+      }
+      if (tmp != null) {
+        Files.deleteIfExists(tmp);
+      }
+    }
+  }
+
+  private static void toBytes(final BigInteger src, final byte[] dst) {
+    if (src.signum() < 0 || src.bitLength() > dst.length * 8) {
+      throw new RuntimeException("The value " + src
+                                 + " does not fit in a snapshot.");
+    }
+    final byte[] x = src.toByteArray();
+    final int n = Math.min(x.length, dst.length);
+    for (int i = 0; i < dst.length - n; ++i) {
+      dst[i] = 0;
+    }
+    System.arraycopy(x, x.length - n, dst, dst.length - n, n);
+  }
+
+  //--------------------------------------------------------------------
+  // Loading
+  //--------------------------------------------------------------------
+  //
+  // Loads the snapshot in file, or returns null if file is a snapshot
+  // in the first format.
+  //
+
+  public static Snapshot load(final Path file) throws Exception {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(file != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    try (final FileChannel channel =
+             FileChannel.open(file, StandardOpenOption.READ)) {
+      final ByteBuffer prefix = ByteBuffer.allocate(12);
+      while (prefix.hasRemaining()) {
+        if (channel.read(prefix) < 0) {
+          throw new RuntimeException("The snapshot " + file
+                                     + " is truncated.");
+        }
+      }
+      prefix.flip();
+      final long magic = prefix.getLong();
+      if (magic == MAGIC_1) {
+        return null;
+      }
+      if (magic != MAGIC) {
+        throw new RuntimeException("The file " + file
+                                   + " is not a snapshot.");
+      }
+      final byte[] header = new byte[prefix.getInt()];
+      final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+      while (headerBuffer.hasRemaining()) {
+        if (channel.read(headerBuffer) < 0) {
+          throw new RuntimeException("The snapshot " + file
+                                     + " is truncated.");
+        }
+      }
+      final DataInputStream h =
+          new DataInputStream(new ByteArrayInputStream(header));
+      final String signature = h.readUTF();
+      final long createdMillis = h.readLong();
+      final int idSize = h.readInt();
+      final int valueSize = h.readInt();
+      final int xCount = h.readInt();
+      final long rowCount = h.readLong();
+      final long[] starts = new long[h.readInt()];
+      for (int t = 0; t < starts.length; ++t) {
+        starts[t] = h.readLong();
+      }
+      long offset = 12 + header.length;
+      if (channel.size()
+          != offset + rowCount * (idSize + (long)valueSize * xCount)) {
+        throw new RuntimeException("The snapshot " + file
+                                   + " is truncated.");
+      }
+      final ByteBuffer ids = channel.map(FileChannel.MapMode.READ_ONLY,
+                                         offset,
+                                         rowCount * idSize);
+      offset += rowCount * idSize;
+      final ByteBuffer[] values = new ByteBuffer[xCount];
+      for (int k = 0; k < xCount; ++k) {
+        values[k] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                offset,
+                                rowCount * valueSize);
+        offset += rowCount * valueSize;
+      }
+      return new Snapshot(file,
+                          signature,
+                          createdMillis,
+                          idSize,
+                          valueSize,
+                          rowCount,
+                          starts,
+                          ids,
+                          values);
+    }
+  }
+
+  //--------------------------------------------------------------------
+  // Scanning
+  //--------------------------------------------------------------------
+  //
+  // A Scan is a RowSource over the rows of one domain tuple. Its
+  // getters read the values straight from the mapped buffers, as they
+  // are called for every value of every row.
+  //
+
+  public final class Scan implements RowSource {
+    private final ByteBuffer ids_;
+    private final ByteBuffer[] values_;
+    private final int end_;
+    private int row_;
+
+    private Scan(final int begin, final int end) {
+      ids_ = Snapshot.this.ids_.duplicate();
+      values_ = new ByteBuffer[Snapshot.this.values_.length];
+      for (int k = 0; k < values_.length; ++k) {
+        values_[k] = Snapshot.this.values_[k].duplicate();
+      }
+      end_ = end;
+      row_ = begin - 1;
+    }
+
+    @Override
+    public final boolean next() {
+      if (row_ + 1 >= end_) {
+        row_ = end_;
+        return false;
+      }
+      ++row_;
+      return true;
+    }
+
+    @Override
+    public final void id(final byte[] dst, final int off) {
+      ids_.position(row_ * idSize_);
+      ids_.get(dst, off, idSize_);
+    }
+
+    @Override
+    public final int xInt(final int k) {
+      if (!SST_NDEBUG) {
+        try {
+          SST_ASSERT(valueSize_ == 4);
+        } catch (final Throwable e) {
+          SST_ASSERT(e);
+        }
+      }
+      return values_[k].getInt(row_ * 4);
+    }
+
+    @Override
+    public final long xLong(final int k) {
+      if (!SST_NDEBUG) {
+        try {
+          SST_ASSERT(valueSize_ == 8);
+        } catch (final Throwable e) {
+          SST_ASSERT(e);
+        }
+      }
+      return values_[k].getLong(row_ * 8);
+    }
+
+    @Override
+    public final BigInteger xBig(final int k) {
+      if (!SST_NDEBUG) {
+        try {
+          SST_ASSERT(valueSize_ > 8);
+        } catch (final Throwable e) {
+          SST_ASSERT(e);
+        }
+      }
+      final byte[] x = new byte[valueSize_];
+      final ByteBuffer values = values_[k];
+      values.position(row_ * valueSize_);
+      values.get(x);
+      return new BigInteger(1, x);
+    }
+
+    @Override
+    public final void xWide(final int k,
+                            final long[] dst,
+                            final int off) {
+      if (!SST_NDEBUG) {
+        try {
+          SST_ASSERT(valueSize_ > 8);
+          SST_ASSERT(valueSize_ <= 16);
+        } catch (final Throwable e) {
+          SST_ASSERT(e);
+        }
+      }
+      final ByteBuffer values = values_[k];
+      final int i = row_ * valueSize_;
+      final int n = valueSize_ - 8;
+      long hi = 0;
+      for (int j = 0; j < n; ++j) {
+        hi = (hi << 8) | (values.get(i + j) & 0xFF);
+      }
+      dst[off] = hi;
+      dst[off + 1] = values.getLong(i + n);
+    }
+  }
+}
@@ -0,0 +1,287 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+//
+// The snapshots of a database party, each of which holds the rows of
+// one query shape. A snapshot is identified by its signature, which is
+// the SHA-256 of a text that describes everything its rows depend on,
+// and is stored in the home directory as
+// <party>-snapshot-<signature prefix>.bin, so it survives restarts.
+//
+// A snapshot is stale once it is older than snapshot_max_age seconds,
+// if that is positive, or once the file <party>-snapshot.refresh in
+// the home directory has been modified since the snapshot was built.
+// Touching that file therefore requests that every snapshot be rebuilt
+// by the next query that needs it. Stale snapshots are only rebuilt on
+// demand, by refresh(), which runs on a JDBC thread.
+//
+// Every refresh() also evicts the other stale snapshots and deletes
+// their files, including the files of earlier runs, so snapshots of
+// query shapes that are no longer used do not pile up in memory or in
+// the home directory. A snapshot that a query is still reading stays
+// readable, as its file is mapped.
+//
+
+final class SnapshotStore {
+  private final String base_;
+  private final Path marker_;
+  private final long maxAgeMillis_;
+  private final ConcurrentHashMap<String, Snapshot> snapshots_ =
+      new ConcurrentHashMap<String, Snapshot>();
+  private final ConcurrentHashMap<String, Lock> locks_ =
+      new ConcurrentHashMap<String, Lock>();
+
+  private static final class Lock {
+    public int users = 0;
+  }
+
+  public SnapshotStore(final Config config) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(config != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    base_ = config.home() + File.separator + config.localParty()
+            + "-snapshot";
+    marker_ = new File(base_ + ".refresh").toPath();
+    maxAgeMillis_ = config.snapshotMaxAge() * 1000L;
+  }
+
+  public static String signature(final String text) throws Exception {
+    final byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+        text.getBytes(StandardCharsets.UTF_8));
+    final StringBuilder s = new StringBuilder();
+    for (final byte b : digest) {
+      s.append(String.format("%02x", b & 0xFF));
+    }
+    return s.toString();
+  }
+
+  private Path file(final String signature) {
+    return new File(base_ + "-" + signature.substring(0, 16) + ".bin")
+        .toPath();
+  }
+
+  private long markerMillis() throws IOException {
+    try {
+      return Files.getLastModifiedTime(marker_).toMillis();
+    } catch (final NoSuchFileException e) {
+      return Long.MIN_VALUE;
+    }
+  }
+
+  private boolean stale(final long created, final long markerMillis) {
+    return (maxAgeMillis_ > 0
+            && System.currentTimeMillis() - created > maxAgeMillis_)
+        || markerMillis >= created;
+  }
+
+  private boolean stale(final Snapshot snapshot) throws IOException {
+    return stale(snapshot.createdMillis(), markerMillis());
+  }
+
+  //
+  // Evicts every stale snapshot but the one with the given signature
+  // and deletes the stale snapshot files in the home directory. A file
+  // that cannot be deleted, e.g., because it is still mapped on a
+  // platform that does not allow that, is left for the next eviction.
+  //
+
+  private void evict(final String keep) throws IOException {
+    final long markerMillis = markerMillis();
+    for (final Snapshot snapshot : snapshots_.values()) {
+      if (!snapshot.signature().equals(keep)
+          && stale(snapshot.createdMillis(), markerMillis)) {
+        snapshots_.remove(snapshot.signature(), snapshot);
+      }
+    }
+    final Path keepFile = file(keep);
+    final Path dir = keepFile.getParent();
+    final String glob = new File(base_).getName() + "-*.bin";
+    try (final DirectoryStream<Path> files =
+             Files.newDirectoryStream(dir, glob)) {
+      for (final Path file : files) {
+        if (file.equals(keepFile)) {
+          continue;
+        }
+        try {
+          if (stale(Files.getLastModifiedTime(file).toMillis(),
+                    markerMillis)) {
+            Files.deleteIfExists(file);
+          }
+        } catch (final IOException e) {
+          // Try again on the next eviction.
+        }
+      }
+    }
+  }
+
+  //
+  // Returns the snapshot with the given signature if it is loaded and
+  // not stale, or null if not.
+  //
+
+  public final Snapshot fresh(final String signature)
+      throws IOException {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(signature != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    final Snapshot snapshot = snapshots_.get(signature);
+    if (snapshot == null || stale(snapshot)) {
+      return null;
+    }
+    return snapshot;
+  }
+
+  //
+  // The lock of a signature is removed once no refresh() holds or waits
+  // for it, so that locks_ only holds the signatures being refreshed.
+  //
+
+  private Lock lock(final String signature) {
+    return locks_.compute(signature, (k, lock) -> {
+      final Lock x = lock == null ? new Lock() : lock;
+      ++x.users;
+      return x;
+    });
+  }
+
+  private void unlock(final String signature) {
+    locks_.computeIfPresent(signature, (k, lock) -> {
+      --lock.users;
+      return lock.users == 0 ? null : lock;
+    });
+  }
+
+  //
+  // Returns a fresh snapshot with the given signature, loading it from
+  // its file if the file is fresh or building it from the result of
+  // statement otherwise, which rows reads after it has been reset to
+  // that result (see Snapshot.write()). Builds of the same signature
+  // are serialized so that concurrent queries of the same shape build
+  // the snapshot only once, while builds of different signatures run
+  // in parallel.
+  //
+
+  public final Snapshot refresh(final String signature,
+                                final PreparedStatement statement,
+                                final JdbcRowSource rows,
+                                final Snapshot.TupleIndex tuples,
+                                final int tupleCount,
+                                final int idSize,
+                                final int valueSize) throws Exception {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(signature != null);
+        SST_ASSERT(statement != null);
+        SST_ASSERT(rows != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    final Lock lock = lock(signature);
+    try {
+      synchronized (lock) {
+        return refreshLocked(signature,
+                             statement,
+                             rows,
+                             tuples,
+                             tupleCount,
+                             idSize,
+                             valueSize);
+      }
+    } finally {
+      unlock(signature);
+    }
+  }
+
+  private Snapshot refreshLocked(final String signature,
+                                 final PreparedStatement statement,
+                                 final JdbcRowSource rows,
+                                 final Snapshot.TupleIndex tuples,
+                                 final int tupleCount,
+                                 final int idSize,
+                                 final int valueSize) throws Exception {
+    Snapshot snapshot = fresh(signature);
+    if (snapshot != null) {
+      return snapshot;
+    }
+    final Path file = file(signature);
+    if (Files.isRegularFile(file)) {
+      snapshot = Snapshot.load(file);
+      if (snapshot != null
+          && (!snapshot.signature().equals(signature)
+              || stale(snapshot))) {
+        snapshot = null;
+      }
+    }
+    if (snapshot == null) {
+      final ResultSet result = statement.executeQuery();
+      try {
+        Snapshot.write(rows.reset(result),
+                       tuples,
+                       tupleCount,
+                       rows.count(),
+                       idSize,
+                       valueSize,
+                       signature,
+                       file);
+      } finally {
+        rows.reset(null);
+        result.close();
+      }
+      snapshot = Snapshot.load(file);
+    }
+    snapshots_.put(signature, snapshot);
+    evict(signature);
+    return snapshot;
+  }
+}
@@ -0,0 +1,156 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+//
+// A bounded lock-free queue for exactly one producer thread and one
+// consumer thread at a time.
+//
+// The elements live in a ring buffer whose capacity is rounded up to
+// a power of two. The producer only ever writes the tail index and the
+// consumer only ever writes the head index, each with a lazySet, so
+// offer() and poll() take no locks and allocate nothing. Each side
+// also caches the other side's index and only rereads it when the
+// cached value says the queue is full or empty, which keeps the two
+// threads from reading each other's index on every call. headCache_
+// is only touched by the consumer and tailCache_ only by the producer.
+//
+// "One thread" may be a different thread from call to call as long as
+// the calls are ordered by some other synchronization, such as the
+// event loop of a channel or the tick depth of the merge machine.
+//
+
+final class SpscQueue<T> {
+
+  static final int capacity(final int capacity) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(capacity > 0);
+        SST_ASSERT(capacity <= 1 << 30);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    final int n = Integer.highestOneBit(capacity);
+    return n == capacity ? n : n << 1;
+  }
+
+  //--------------------------------------------------------------------
+
+  private final Object[] buffer_;
+  private final int mask_;
+  private final AtomicLong head_ = new AtomicLong(0);
+  private final AtomicLong tail_ = new AtomicLong(0);
+  private long headCache_ = 0;
+  private long tailCache_ = 0;
+
+  public SpscQueue(final int capacity) {
+    buffer_ = new Object[capacity(capacity)];
+    mask_ = buffer_.length - 1;
+  }
+
+  public final int capacity() {
+    return buffer_.length;
+  }
+
+  //
+  // Producer side.
+  //
+
+  public final boolean offer(final T x) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(x != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    final long t = tail_.get();
+    if (t - tailCache_ == buffer_.length) {
+      tailCache_ = head_.get();
+      if (t - tailCache_ == buffer_.length) {
+        return false;
+      }
+    }
+    buffer_[(int)t & mask_] = x;
+    tail_.lazySet(t + 1);
+    return true;
+  }
+
+  //
+  // Consumer side.
+  //
+
+  @SuppressWarnings("unchecked")
+  public final T peek() {
+    final long h = head_.get();
+    if (h == headCache_) {
+      headCache_ = tail_.get();
+      if (h == headCache_) {
+        return null;
+      }
+    }
+    return (T)buffer_[(int)h & mask_];
+  }
+
+  @SuppressWarnings("unchecked")
+  public final T poll() {
+    final long h = head_.get();
+    if (h == headCache_) {
+      headCache_ = tail_.get();
+      if (h == headCache_) {
+        return null;
+      }
+    }
+    final int i = (int)h & mask_;
+    final T x = (T)buffer_[i];
+    buffer_[i] = null;
+    head_.lazySet(h + 1);
+    return x;
+  }
+
+  //
+  // Either side. The result may already be stale when it is returned.
+  //
+
+  public final boolean isEmpty() {
+    return head_.get() == tail_.get();
+  }
+
+  public final int size() {
+    final long h = head_.get();
+    final long t = tail_.get();
+    return (int)Math.min(t - h, buffer_.length);
+  }
+}
@@ -0,0 +1,242 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import com.stealthsoftwareinc.sst.netty.JdbcRunner;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//
+// A least recently used cache of the prepared statements of a single
+// JdbcRunner, which lets the runner keep its connection and statements
+// from one query to the next.
+//
+// Each statement is filed under its SQL, which is always the template
+// with a ? for each parameter, so repeated queries of the same form
+// find the statements that the earlier ones prepared and skip the
+// parsing and planning of the database. A statement is returned with
+// its parameters cleared, and the caller must set them all again.
+//
+// A statement that is evicted may still be in use by the current
+// query, so it is only closed by the next call to trim(), which the
+// caller makes once the query is done. A capacity of 0 disables the
+// cache, in which case every call prepares a new statement.
+//
+// A connection that the cache keeps between queries may be dropped by
+// the database while it sits idle. Before a query reuses a connection
+// that has been idle for at least VALIDATE_AFTER nanoseconds, the
+// caller runs validate() on a JDBC thread and then closes the cache
+// if invalid() is true. The lost connection itself is closed as well,
+// so that it is not reused as if it were alive.
+//
+
+final class StatementCache {
+  private static final long VALIDATE_AFTER = 1000000000L;
+  private static final int VALIDATE_TIMEOUT = 5;
+
+  private final JdbcRunner runner_;
+  private final int capacity_;
+  private final LinkedHashMap<String, PreparedStatement> statements_;
+  private final ArrayList<PreparedStatement> evicted_ =
+      new ArrayList<PreparedStatement>();
+  private long hits_ = 0;
+  private long misses_ = 0;
+  private long queryHits_ = 0;
+  private long queryMisses_ = 0;
+  private long idleSince_ = System.nanoTime();
+  private volatile boolean invalid_ = false;
+  private volatile Connection lostConnection_ = null;
+
+  public StatementCache(final JdbcRunner runner, final int capacity) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(runner != null);
+        SST_ASSERT(capacity >= 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    runner_ = runner;
+    capacity_ = capacity;
+    statements_ =
+        new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+          @Override
+          protected final boolean removeEldestEntry(
+              final Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > capacity_) {
+              evicted_.add(eldest.getValue());
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  public final boolean enabled() {
+    return capacity_ > 0;
+  }
+
+  public final JdbcRunner runner() {
+    return runner_;
+  }
+
+  public final PreparedStatement prepare(final String sql)
+      throws Exception {
+    return prepare(sql, false);
+  }
+
+  public final PreparedStatement prepareStreaming(final String sql)
+      throws Exception {
+    return prepare(sql, true);
+  }
+
+  private PreparedStatement prepare(final String sql,
+                                    final boolean streaming)
+      throws Exception {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(sql != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    if (capacity_ == 0) {
+      return streaming ? runner_.prepareStreamingStatement(sql) :
+                         runner_.prepareStatement(sql);
+    }
+    final String key = (streaming ? "S:" : "N:") + sql;
+    PreparedStatement statement = statements_.get(key);
+    if (statement != null && !statement.isClosed()) {
+      ++hits_;
+      ++queryHits_;
+      statement.clearParameters();
+      return statement;
+    }
+    ++misses_;
+    ++queryMisses_;
+    statement = streaming ? runner_.prepareStreamingStatement(sql) :
+                            runner_.prepareStatement(sql);
+    statements_.put(key, statement);
+    return statement;
+  }
+
+  //
+  // Closes the statements that were evicted since the last call and
+  // starts counting the hits and misses of the next query.
+  //
+
+  public final void trim() {
+    for (final PreparedStatement statement : evicted_) {
+      try {
+        statement.close();
+      } catch (final Throwable e) {
+      }
+    }
+    evicted_.clear();
+    queryHits_ = 0;
+    queryMisses_ = 0;
+    idleSince_ = System.nanoTime();
+  }
+
+  //
+  // Closes the runner along with its statements and forgets the
+  // statements.
+  //
+
+  public final void close() {
+    final Connection lostConnection = lostConnection_;
+    if (lostConnection != null) {
+      try {
+        lostConnection.close();
+      } catch (final Throwable e) {
+      }
+    }
+    invalid_ = false;
+    lostConnection_ = null;
+    statements_.clear();
+    evicted_.clear();
+    queryHits_ = 0;
+    queryMisses_ = 0;
+    runner_.close();
+  }
+
+  public final boolean needsValidation() {
+    return !statements_.isEmpty()
+           && System.nanoTime() - idleSince_ >= VALIDATE_AFTER;
+  }
+
+  //
+  // Checks whether the connection of the cached statements is still
+  // alive. This blocks, so it must run on a JDBC thread, and it must
+  // not run at the same time as the query that uses the cache.
+  //
+
+  public final void validate() {
+    for (final PreparedStatement statement : statements_.values()) {
+      Connection connection = null;
+      try {
+        connection = statement.getConnection();
+        if (connection.isValid(VALIDATE_TIMEOUT)) {
+          return;
+        }
+      } catch (final SQLException e) {
+      }
+      lostConnection_ = connection;
+      invalid_ = true;
+      return;
+    }
+  }
+
+  public final boolean invalid() {
+    return invalid_;
+  }
+
+  public final long hits() {
+    return hits_;
+  }
+
+  public final long misses() {
+    return misses_;
+  }
+
+  public final long queryHits() {
+    return queryHits_;
+  }
+
+  public final long queryMisses() {
+    return queryMisses_;
+  }
+}
@@ -37,11 +37,14 @@ import com.stealthsoftwareinc.sst.Json;
 import com.stealthsoftwareinc.sst.JsonException;
 import com.stealthsoftwareinc.sst.ToJson;
 import com.stealthsoftwareinc.sst.Types;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 public final class Table implements ToJson {
 
@@ -197,5 +200,23 @@ public final class Table implements ToJson {
     return true;
   }
 
+  public final void lexiconDigest(final DataOutput dst)
+      throws IOException {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(dst != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    Lexicon.digestString(dst, name());
+    dst.writeInt(columns().size());
+    for (final Column column :
+         new TreeMap<String, Column>(columns()).values()) {
+      column.lexiconDigest(dst);
+    }
+    linkingColumn().lexiconDigest(dst);
+  }
+
   //--------------------------------------------------------------------
 }
@@ -0,0 +1,124 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import com.stealthsoftwareinc.sst.CreateFromJson;
+import com.stealthsoftwareinc.sst.Enums;
+import com.stealthsoftwareinc.sst.ImpossibleException;
+import com.stealthsoftwareinc.sst.ToInt;
+import com.stealthsoftwareinc.sst.ToJson;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslProvider;
+import java.util.Locale;
+
+//
+// The TLS implementation used for raw connections. JDK is the JDK's
+// own SSLEngine. OPENSSL is OpenSSL or BoringSSL through
+// netty-tcnative, which is only available if netty-tcnative is on the
+// class path and its native library can be loaded. AUTO means OPENSSL
+// if it is available and JDK otherwise.
+//
+
+public enum TlsEngine implements ToInt, ToJson {
+  JDK,
+  OPENSSL,
+  AUTO;
+
+  //--------------------------------------------------------------------
+  // Integer representation
+  //--------------------------------------------------------------------
+
+  @Override
+  public int toInt() {
+    return ordinal();
+  }
+
+  public static TlsEngine fromInt(final int src) {
+    return Enums.fromInt(TlsEngine.class, src);
+  }
+
+  //--------------------------------------------------------------------
+  // String representation
+  //--------------------------------------------------------------------
+
+  @Override
+  public String toString() {
+    return name().toLowerCase(Locale.ROOT);
+  }
+
+  public static TlsEngine fromString(final CharSequence src) {
+    return Enums.fromString(TlsEngine.class, src, true);
+  }
+
+  //--------------------------------------------------------------------
+  // JSON representation
+  //--------------------------------------------------------------------
+
+  @Override
+  public final String toJson() {
+    return toString();
+  }
+
+  public static CreateFromJson<TlsEngine> fromJson() {
+    return Enums.fromJson(TlsEngine.class, true);
+  }
+
+  //--------------------------------------------------------------------
+  // Resolution
+  //--------------------------------------------------------------------
+
+  public final TlsEngine resolve() {
+    switch (this) {
+      case JDK:
+        return JDK;
+      case OPENSSL:
+        if (!OpenSsl.isAvailable()) {
+          throw new RuntimeException(
+              "The openssl TLS engine is not available.",
+              OpenSsl.unavailabilityCause());
+        }
+        return OPENSSL;
+      case AUTO:
+        return OpenSsl.isAvailable() ? OPENSSL : JDK;
+      default:
+        throw new ImpossibleException();
+    }
+  }
+
+  public final SslProvider sslProvider() {
+    switch (resolve()) {
+      case JDK:
+        return SslProvider.JDK;
+      case OPENSSL:
+        return SslProvider.OPENSSL;
+      default:
+        throw new ImpossibleException();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import com.stealthsoftwareinc.sst.CreateFromJson;
+import com.stealthsoftwareinc.sst.Enums;
+import com.stealthsoftwareinc.sst.ImpossibleException;
+import com.stealthsoftwareinc.sst.ToInt;
+import com.stealthsoftwareinc.sst.ToJson;
+import java.util.Locale;
+
+//
+// The type of key pair that a party uses for its raw connections. RSA
+// is a 2048-bit RSA key pair. ECDSA is an ECDSA key pair on the P-256
+// curve, which is much faster to generate and makes for much cheaper
+// handshakes.
+//
+
+public enum TlsKeyType implements ToInt, ToJson {
+  RSA,
+  ECDSA;
+
+  //--------------------------------------------------------------------
+  // Integer representation
+  //--------------------------------------------------------------------
+
+  @Override
+  public int toInt() {
+    return ordinal();
+  }
+
+  public static TlsKeyType fromInt(final int src) {
+    return Enums.fromInt(TlsKeyType.class, src);
+  }
+
+  //--------------------------------------------------------------------
+  // String representation
+  //--------------------------------------------------------------------
+
+  @Override
+  public String toString() {
+    return name().toLowerCase(Locale.ROOT);
+  }
+
+  public static TlsKeyType fromString(final CharSequence src) {
+    return Enums.fromString(TlsKeyType.class, src, true);
+  }
+
+  //--------------------------------------------------------------------
+  // JSON representation
+  //--------------------------------------------------------------------
+
+  @Override
+  public final String toJson() {
+    return toString();
+  }
+
+  public static CreateFromJson<TlsKeyType> fromJson() {
+    return Enums.fromJson(TlsKeyType.class, true);
+  }
+
+  //--------------------------------------------------------------------
+  // Algorithms
+  //--------------------------------------------------------------------
+
+  public final String keyAlgorithm() {
+    switch (this) {
+      case RSA:
+        return "RSA";
+      case ECDSA:
+        return "EC";
+      default:
+        throw new ImpossibleException();
+    }
+  }
+
+  public final int keySize() {
+    switch (this) {
+      case RSA:
+        return 2048;
+      case ECDSA:
+        return 256;
+      default:
+        throw new ImpossibleException();
+    }
+  }
+
+  public final String signatureAlgorithm() {
+    switch (this) {
+      case RSA:
+        return "SHA256withRSA";
+      case ECDSA:
+        return "SHA256withECDSA";
+      default:
+        throw new ImpossibleException();
+    }
+  }
+}
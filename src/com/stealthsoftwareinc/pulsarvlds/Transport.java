@@ -0,0 +1,212 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import static com.stealthsoftwareinc.sst.Assert.SST_ASSERT;
+import static com.stealthsoftwareinc.sst.Assert.SST_NDEBUG;
+
+import com.stealthsoftwareinc.sst.CreateFromJson;
+import com.stealthsoftwareinc.sst.Enums;
+import com.stealthsoftwareinc.sst.ImpossibleException;
+import com.stealthsoftwareinc.sst.ToInt;
+import com.stealthsoftwareinc.sst.ToJson;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import java.util.Locale;
+
+//
+// The Netty transport used for all network I/O. NIO is the portable
+// Java NIO transport. EPOLL is Netty's native Linux transport, which
+// is only available if its native library can be loaded. AUTO means
+// EPOLL if it is available and NIO otherwise.
+//
+// The epoll-specific options from the config are only applied by the
+// EPOLL transport and are ignored by the NIO transport.
+//
+
+public enum Transport implements ToInt, ToJson {
+  NIO,
+  EPOLL,
+  AUTO;
+
+  //--------------------------------------------------------------------
+  // Integer representation
+  //--------------------------------------------------------------------
+
+  @Override
+  public int toInt() {
+    return ordinal();
+  }
+
+  public static Transport fromInt(final int src) {
+    return Enums.fromInt(Transport.class, src);
+  }
+
+  //--------------------------------------------------------------------
+  // String representation
+  //--------------------------------------------------------------------
+
+  @Override
+  public String toString() {
+    return name().toLowerCase(Locale.ROOT);
+  }
+
+  public static Transport fromString(final CharSequence src) {
+    return Enums.fromString(Transport.class, src, true);
+  }
+
+  //--------------------------------------------------------------------
+  // JSON representation
+  //--------------------------------------------------------------------
+
+  @Override
+  public final String toJson() {
+    return toString();
+  }
+
+  public static CreateFromJson<Transport> fromJson() {
+    return Enums.fromJson(Transport.class, true);
+  }
+
+  //--------------------------------------------------------------------
+  // Resolution
+  //--------------------------------------------------------------------
+
+  public final Transport resolve() {
+    switch (this) {
+      case NIO:
+        return NIO;
+      case EPOLL:
+        if (!Epoll.isAvailable()) {
+          throw new RuntimeException(
+              "The epoll transport is not available.",
+              Epoll.unavailabilityCause());
+        }
+        return EPOLL;
+      case AUTO:
+        return Epoll.isAvailable() ? EPOLL : NIO;
+      default:
+        throw new ImpossibleException();
+    }
+  }
+
+  //--------------------------------------------------------------------
+  // Bootstrapping
+  //--------------------------------------------------------------------
+  //
+  // These functions may only be called on a resolved transport.
+  //
+
+  public final EventLoopGroup newEventLoopGroup(final int threadCount) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(this != AUTO);
+        SST_ASSERT(threadCount > 0);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    if (this == EPOLL) {
+      return new EpollEventLoopGroup(threadCount);
+    }
+    return new NioEventLoopGroup(threadCount);
+  }
+
+  public final ServerBootstrap
+  configure(final ServerBootstrap bootstrap, final Config config) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(this != AUTO);
+        SST_ASSERT(bootstrap != null);
+        SST_ASSERT(config != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    if (this == EPOLL) {
+      final EpollMode mode = config.epollEdgeTriggered() ?
+                                 EpollMode.EDGE_TRIGGERED :
+                                 EpollMode.LEVEL_TRIGGERED;
+      bootstrap.channel(EpollServerSocketChannel.class)
+          .option(EpollChannelOption.EPOLL_MODE, mode)
+          .childOption(EpollChannelOption.EPOLL_MODE, mode)
+          .childOption(EpollChannelOption.TCP_QUICKACK,
+                       config.tcpQuickack());
+      if (config.soBusyPoll() > 0) {
+        bootstrap.childOption(EpollChannelOption.SO_BUSY_POLL,
+                              config.soBusyPoll());
+      }
+    } else {
+      bootstrap.channel(NioServerSocketChannel.class);
+    }
+    return bootstrap;
+  }
+
+  public final Bootstrap configure(final Bootstrap bootstrap,
+                                   final Config config) {
+    if (!SST_NDEBUG) {
+      try {
+        SST_ASSERT(this != AUTO);
+        SST_ASSERT(bootstrap != null);
+        SST_ASSERT(config != null);
+      } catch (final Throwable e) {
+        SST_ASSERT(e);
+      }
+    }
+    if (this == EPOLL) {
+      bootstrap.channel(EpollSocketChannel.class)
+          .option(EpollChannelOption.EPOLL_MODE,
+                  config.epollEdgeTriggered() ?
+                      EpollMode.EDGE_TRIGGERED :
+                      EpollMode.LEVEL_TRIGGERED)
+          .option(EpollChannelOption.TCP_QUICKACK,
+                  config.tcpQuickack());
+      if (config.soBusyPoll() > 0) {
+        bootstrap.option(EpollChannelOption.SO_BUSY_POLL,
+                         config.soBusyPoll());
+      }
+    } else {
+      bootstrap.channel(NioSocketChannel.class);
+    }
+    return bootstrap;
+  }
+
+  //--------------------------------------------------------------------
+}
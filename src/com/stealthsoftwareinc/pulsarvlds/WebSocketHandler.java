@@ -139,7 +139,7 @@ final class WebSocketHandler
       return;
     }
     final ChannelPipeline pipeline = ctx.channel().pipeline();
-    globals_.workerThreadGroup().schedule(new Runnable() {
+    globals_.cpuThreadGroup().schedule(new Runnable() {
       @Override
       public final void run() {
         try {
@@ -230,7 +230,7 @@ final class WebSocketHandler
         message_.put("data", d);
         ctx.writeAndFlush(new TextWebSocketFrame(Json.dump(message_)));
         final ChannelPipeline pipeline = ctx.channel().pipeline();
-        globals_.workerThreadGroup().schedule(new Runnable() {
+        globals_.cpuThreadGroup().schedule(new Runnable() {
           @Override
           public final void run() {
             try {
@@ -0,0 +1,103 @@
+#! /bin/sh -
+#
+# Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+#
+# Permission is hereby granted, free of charge, to any person
+# obtaining a copy of this software and associated documentation
+# files (the "Software"), to deal in the Software without
+# restriction, including without limitation the rights to use,
+# copy, modify, merge, publish, distribute, sublicense, and/or
+# sell copies of the Software, and to permit persons to whom the
+# Software is furnished to do so, subject to the following
+# conditions:
+#
+# The above copyright notice and this permission notice (including
+# the next paragraph) shall be included in all copies or
+# substantial portions of the Software.
+#
+# THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+# EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+# OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+# NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+# HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+# WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+# FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+# OTHER DEALINGS IN THE SOFTWARE.
+#
+# SPDX-License-Identifier: MIT
+#
+# This script uses the SST Bash library to bootstrap from /bin/sh into
+# bash. See the Bash library > Bootstrapping section of the SST manual
+# for more information.
+#
+
+#-----------------------------------------------------------------------
+# Load the prelude
+#-----------------------------------------------------------------------
+
+case $0 in /*) x=$0 ;; *) x=./$0 ;; esac
+r='\(.*/\)'
+x=`expr "$x" : "$r"`. || exit $?
+set -e || exit $?
+. "$x/../src/bash/sst.bash"
+
+#-----------------------------------------------------------------------
+#
+# Compiles the standalone checks and benchmarks in unittest/java
+# against the staged jars (or CLASSPATH when STAGE is not set) and
+# runs one of them, for example:
+#
+#       STAGE=/tmp/stage unittest/java.bash Int128Check 100000
+#       STAGE=/tmp/stage unittest/java.bash Int128Bench 65536 40
+#       STAGE=/tmp/stage unittest/java.bash SnapshotCheck 1000
+#
+
+unittest_dir=$(
+  case $0 in /*) x=$0 ;; *) x=./$0 ;; esac
+  cd "${x%/*}"
+  pwd | sst_csf
+)
+sst_csf unittest_dir
+readonly unittest_dir
+
+if (($# < 1)); then
+  sst_barf "usage: java.bash <class> [<arg>...]"
+fi
+
+if command -v cygpath >/dev/null; then
+  sep=';'
+else
+  sep=':'
+fi
+readonly sep
+
+cp=${CLASSPATH-}
+if [[ "${STAGE-}" != '' ]]; then
+  STAGE=$(sst_dot_slash "$STAGE" | sst_csf)
+  sst_csf STAGE
+  STAGE=$( { cd "$STAGE"; pwd; } | sst_csf)
+  sst_csf STAGE
+  readonly STAGE
+  if [[ "$sep" == ';' ]]; then
+    cp=$(cygpath -w -l "$STAGE")/usr/local/share/java/*
+  else
+    cp=$STAGE/usr/local/share/java/*
+  fi
+fi
+readonly cp
+
+out=$(mktemp -d)
+readonly out
+trap 'rm -f -r "$out"' EXIT
+
+srcs=()
+while IFS= read -r -d '' x; do
+  srcs+=("$x")
+done < <(find "$unittest_dir/java" -name '*.java' -print0)
+readonly srcs
+
+javac -Xlint:all -Werror -cp "$cp" -d "$out" "${srcs[@]}"
+
+class=$1
+shift
+java -ea -cp "$out$sep$cp" "com.stealthsoftwareinc.pulsarvlds.$class" "$@"
@@ -0,0 +1,121 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import com.stealthsoftwareinc.sst.Rand;
+import com.stealthsoftwareinc.sst.RandModContext;
+import java.math.BigInteger;
+import java.nio.ByteOrder;
+
+//
+// Compares the throughput of the two random engines on the mask
+// batches that randMod() produces: the jdk engine, which is
+// RandModContext over Rand.cryptoRng(), and the aes_ctr engine, which
+// is AesCtrPrg.genMod(). Run it with
+// unittest/java.bash AesCtrPrgBench [values] [rounds]. Each round fills
+// one batch of values with each engine and is timed separately, and
+// the first half of the rounds are warmup.
+//
+
+final class AesCtrPrgBench {
+  private AesCtrPrgBench() {
+  }
+
+  private static long sink_ = 0;
+
+  private static long jdk(final RandModContext ctx,
+                          final byte[] dst,
+                          final int count) {
+    final long t0 = System.nanoTime();
+    ctx.gen(Rand.cryptoRng(),
+            dst,
+            0,
+            count * ctx.valueSize(),
+            ByteOrder.BIG_ENDIAN);
+    final long t1 = System.nanoTime();
+    sink_ += dst[0];
+    return t1 - t0;
+  }
+
+  private static long aes(final AesCtrPrg prg,
+                          final BigInteger modulus,
+                          final int valueSize,
+                          final byte[] dst,
+                          final int count) {
+    final long t0 = System.nanoTime();
+    prg.genMod(dst, 0, count, valueSize, modulus);
+    final long t1 = System.nanoTime();
+    sink_ += dst[0];
+    return t1 - t0;
+  }
+
+  private static void run(final String name,
+                          final BigInteger modulus,
+                          final int count,
+                          final int rounds) {
+    final RandModContext ctx = new RandModContext(modulus);
+    final int valueSize = ctx.valueSize();
+    final byte[] dst = new byte[count * valueSize];
+    final AesCtrPrg prg = AesCtrPrg.local();
+    long jdkBest = Long.MAX_VALUE;
+    long aesBest = Long.MAX_VALUE;
+    for (int r = 0; r < rounds; ++r) {
+      final long tj = jdk(ctx, dst, count);
+      final long ta = aes(prg, modulus, valueSize, dst, count);
+      if (r >= rounds / 2) {
+        jdkBest = Math.min(jdkBest, tj);
+        aesBest = Math.min(aesBest, ta);
+      }
+    }
+    System.out.printf("%-16s %2d bytes   jdk %7.1f ns/value"
+                          + "   aes_ctr %7.1f ns/value   %5.1fx%n",
+                      name,
+                      valueSize,
+                      (double)jdkBest / count,
+                      (double)aesBest / count,
+                      (double)jdkBest / aesBest);
+  }
+
+  public static void main(final String[] args) {
+    final int count =
+        args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    final int rounds =
+        args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    final BigInteger one = BigInteger.ONE;
+    final BigInteger two = BigInteger.valueOf(2);
+    run("m = 2^32", two.pow(32), count, rounds);
+    run("m = 2^61 - 1", two.pow(61).subtract(one), count, rounds);
+    run("m = 2^64", two.pow(64), count, rounds);
+    run("m = 2^127 + 1", two.pow(127).add(one), count, rounds);
+    run("m = 2^128", two.pow(128), count, rounds);
+    if (sink_ == 42) {
+      System.out.println();
+    }
+  }
+}
@@ -0,0 +1,163 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+//
+// Compares the wide tier inner loop, z = z + a * b modulo m over a
+// batch, when done with BigInteger and when done with Int128. For a
+// modulus that is not a power of two, the Int128 side accumulates the
+// products and reduces once at the end of the batch, as the handler
+// does. Run it
+// with unittest/java.bash Int128Bench [rows] [rounds]. Each round is
+// timed separately, and the first half of the rounds are warmup.
+//
+
+final class Int128Bench {
+  private Int128Bench() {
+  }
+
+  private static final int AGG_COUNT = 4;
+
+  private static long sink_ = 0;
+
+  private static long big(final BigInteger m,
+                          final BigInteger[] a,
+                          final BigInteger[] b) {
+    final BigInteger[] z = new BigInteger[AGG_COUNT];
+    for (int k = 0; k < AGG_COUNT; ++k) {
+      z[k] = BigInteger.ZERO;
+    }
+    final long t0 = System.nanoTime();
+    int ai = 0;
+    for (int i = 0; i < b.length; ++i) {
+      for (int k = 0; k < AGG_COUNT; ++k) {
+        z[k] = z[k].add(a[ai].multiply(b[i])).remainder(m);
+        ++ai;
+      }
+    }
+    final long t1 = System.nanoTime();
+    sink_ += z[0].longValue();
+    return t1 - t0;
+  }
+
+  private static long wide(final Int128.Mod mod,
+                           final int bits,
+                           final long[] a,
+                           final long[] b) {
+    final long[] z = new long[2 * AGG_COUNT];
+    final long[] acc = new long[Int128.ACC_SIZE * AGG_COUNT];
+    final long t0 = System.nanoTime();
+    int ai = 0;
+    for (int i = 0; i < b.length; i += 2) {
+      for (int k = 0; k < AGG_COUNT; ++k) {
+        if (mod == null) {
+          Int128.mulAdd(z, 2 * k, a[ai], a[ai + 1], b[i], b[i + 1]);
+        } else {
+          Int128.mulAcc(acc,
+                        Int128.ACC_SIZE * k,
+                        a[ai],
+                        a[ai + 1],
+                        b[i],
+                        b[i + 1]);
+        }
+        ai += 2;
+      }
+    }
+    for (int k = 0; k < AGG_COUNT; ++k) {
+      if (mod == null) {
+        Int128.mask(z, 2 * k, bits);
+      } else {
+        mod.reduce(acc, Int128.ACC_SIZE * k, z, 2 * k);
+      }
+    }
+    final long t1 = System.nanoTime();
+    sink_ += z[1];
+    return t1 - t0;
+  }
+
+  private static void run(final String name,
+                          final BigInteger m,
+                          final int rows,
+                          final int rounds,
+                          final Random random) {
+    final BigInteger[] aBig = new BigInteger[rows * AGG_COUNT];
+    final BigInteger[] bBig = new BigInteger[rows];
+    final long[] a = new long[2 * aBig.length];
+    final long[] b = new long[2 * bBig.length];
+    for (int i = 0; i < aBig.length; ++i) {
+      aBig[i] = new BigInteger(m.bitLength() + 8, random).mod(m);
+      Int128.fromBig(aBig[i], a, 2 * i);
+    }
+    for (int i = 0; i < bBig.length; ++i) {
+      bBig[i] = new BigInteger(m.bitLength() + 8, random).mod(m);
+      Int128.fromBig(bBig[i], b, 2 * i);
+    }
+    final boolean pow2 = m.bitCount() == 1;
+    final Int128.Mod mod = pow2 ? null : new Int128.Mod(m);
+    final int bits = m.bitLength() - 1;
+    long bigBest = Long.MAX_VALUE;
+    long wideBest = Long.MAX_VALUE;
+    for (int r = 0; r < rounds; ++r) {
+      final long tb = big(m, aBig, bBig);
+      final long tw = wide(mod, bits, a, b);
+      if (r >= rounds / 2) {
+        bigBest = Math.min(bigBest, tb);
+        wideBest = Math.min(wideBest, tw);
+      }
+    }
+    final double ops = (double)rows * AGG_COUNT;
+    System.out.printf("%-24s BigInteger %7.1f ns/op"
+                          + "   Int128 %7.1f ns/op   %5.1fx%n",
+                      name,
+                      bigBest / ops,
+                      wideBest / ops,
+                      (double)bigBest / wideBest);
+  }
+
+  public static void main(final String[] args) {
+    final int rows =
+        args.length > 0 ? Integer.parseInt(args[0]) : 65536;
+    final int rounds =
+        args.length > 1 ? Integer.parseInt(args[1]) : 40;
+    final Random random = new Random(1);
+    final BigInteger two = BigInteger.valueOf(2);
+    run("m = 2^128", two.pow(128), rows, rounds, random);
+    run("m = 2^96", two.pow(96), rows, rounds, random);
+    final BigInteger m127 = two.pow(127).subtract(BigInteger.ONE);
+    run("m = 2^127 - 1", m127, rows, rounds, random);
+    final BigInteger m80 = two.pow(80).add(BigInteger.valueOf(13));
+    run("m = 2^80 + 13", m80, rows, rounds, random);
+    if (sink_ == 42) {
+      System.out.println();
+    }
+  }
+}
@@ -0,0 +1,224 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+//
+// Checks every Int128 operation against BigInteger on random operands.
+// Run it with unittest/java.bash Int128Check [iterations] after
+// changing Int128.
+//
+
+final class Int128Check {
+  private Int128Check() {
+  }
+
+  private static BigInteger check(final BigInteger x,
+                                  final long[] src,
+                                  final int k) {
+    if (!Int128.toBig(src, k).equals(x)) {
+      throw new RuntimeException("Int128 check failed: expected " + x
+                                 + ", got " + Int128.toBig(src, k));
+    }
+    return x;
+  }
+
+  //
+  // Moduli just above or below a power of two are the ones whose limbs
+  // are all zero or all ones, which is where algorithm D needs its
+  // rarer corrections, so half of the moduli are of that form.
+  //
+
+  private static BigInteger randomModulus(final Random random) {
+    while (true) {
+      final int bits = 65 + random.nextInt(64);
+      final BigInteger e = BigInteger.valueOf(random.nextInt(256));
+      final BigInteger p = BigInteger.ONE.shiftLeft(bits - 1);
+      final BigInteger m;
+      switch (random.nextInt(4)) {
+        case 0:
+          m = p.add(e);
+          break;
+        case 1:
+          m = p.shiftLeft(1).subtract(BigInteger.ONE).subtract(e);
+          break;
+        default:
+          m = new BigInteger(bits, random);
+          break;
+      }
+      if (m.bitLength() > 64 && m.bitCount() > 1) {
+        return m;
+      }
+    }
+  }
+
+  private static BigInteger below(final Random random,
+                                  final BigInteger m) {
+    while (true) {
+      final BigInteger x = new BigInteger(m.bitLength(), random);
+      if (x.compareTo(m) < 0) {
+        return x;
+      }
+    }
+  }
+
+  private static void checkPowerOfTwo(final Random random) {
+    final BigInteger m128 = BigInteger.ONE.shiftLeft(128);
+    final long[] d = new long[4];
+    final BigInteger x = new BigInteger(128, random);
+    final BigInteger y = new BigInteger(128, random);
+    final BigInteger z = new BigInteger(128, random);
+    final long xHi = x.shiftRight(64).longValue();
+    final long xLo = x.longValue();
+    final long yHi = y.shiftRight(64).longValue();
+    final long yLo = y.longValue();
+
+    Int128.fromBig(z, d, 2);
+    check(z, d, 2);
+    Int128.mulAdd(d, 2, xHi, xLo, yHi, yLo);
+    final BigInteger p = check(z.add(x.multiply(y)).mod(m128), d, 2);
+
+    final int bits = random.nextInt(129);
+    Int128.mask(d, 2, bits);
+    check(p.mod(BigInteger.ONE.shiftLeft(bits)), d, 2);
+
+    Int128.fromBig(z, d, 2);
+    Int128.add(d, 2, xHi, xLo);
+    check(z.add(x).mod(m128), d, 2);
+
+    Int128.fromBig(z, d, 2);
+    Int128.sub(d, 2, xHi, xLo);
+    check(z.subtract(x).mod(m128), d, 2);
+
+    final long a = random.nextLong();
+    final long b = random.nextLong();
+    final BigInteger ab =
+        Int128.toBig(0, a).multiply(Int128.toBig(0, b));
+    if (Int128.multiplyHighUnsigned(a, b)
+        != ab.shiftRight(64).longValue()) {
+      throw new RuntimeException(
+          "Int128 check failed: multiplyHighUnsigned");
+    }
+
+    final int size = 1 + random.nextInt(16);
+    final byte[] src = new byte[size + 2];
+    random.nextBytes(src);
+    Int128.fromBytes(src, 1, size, d, 0);
+    check(new BigInteger(1, Arrays.copyOfRange(src, 1, size + 1)),
+          d,
+          0);
+    final byte[] dst = new byte[size + 2];
+    Int128.toBytes(d, 0, dst, 1, size);
+    if (!Arrays.equals(Arrays.copyOfRange(src, 1, size + 1),
+                       Arrays.copyOfRange(dst, 1, size + 1))) {
+      throw new RuntimeException("Int128 check failed: toBytes");
+    }
+  }
+
+  private static BigInteger accToBig(final long[] acc, final int k) {
+    BigInteger x = BigInteger.ZERO;
+    for (int i = 0; i < Int128.ACC_SIZE; ++i) {
+      x = x.shiftLeft(64).add(Int128.toBig(0, acc[k + i]));
+    }
+    return x;
+  }
+
+  private static void checkMod(final Random random) {
+    final BigInteger m = randomModulus(random);
+    final Int128.Mod mod = new Int128.Mod(m).copy();
+    final long[] d = new long[4];
+    final BigInteger x = below(random, m);
+    final BigInteger z = below(random, m);
+    final long xHi = x.shiftRight(64).longValue();
+    final long xLo = x.longValue();
+
+    Int128.fromBig(z, d, 2);
+    mod.add(d, 2, xHi, xLo);
+    check(z.add(x).mod(m), d, 2);
+
+    Int128.fromBig(z, d, 2);
+    mod.sub(d, 2, xHi, xLo);
+    check(z.subtract(x).mod(m), d, 2);
+
+    // Accumulate a few products, sometimes all of the largest possible
+    // operand, and reduce them once.
+    final int count = 1 + random.nextInt(8);
+    final boolean top = random.nextInt(4) == 0;
+    final long[] acc = new long[2 * Int128.ACC_SIZE];
+    BigInteger sum = BigInteger.ZERO;
+    for (int i = 0; i < count; ++i) {
+      final BigInteger a =
+          top ? m.subtract(BigInteger.ONE) : below(random, m);
+      final BigInteger b =
+          top ? m.subtract(BigInteger.ONE) : below(random, m);
+      Int128.mulAcc(acc,
+                    Int128.ACC_SIZE,
+                    a.shiftRight(64).longValue(),
+                    a.longValue(),
+                    b.shiftRight(64).longValue(),
+                    b.longValue());
+      sum = sum.add(a.multiply(b));
+    }
+    if (!accToBig(acc, Int128.ACC_SIZE).equals(sum)) {
+      throw new RuntimeException("Int128 check failed: mulAcc");
+    }
+    mod.reduce(acc, Int128.ACC_SIZE, d, 0);
+    check(sum.mod(m), d, 0);
+
+    // Reduce an arbitrary 320-bit accumulator, and one that is the sum
+    // of two others.
+    for (int i = 0; i < acc.length; ++i) {
+      acc[i] = random.nextLong();
+    }
+    final BigInteger a0 = accToBig(acc, 0);
+    final BigInteger a1 = accToBig(acc, Int128.ACC_SIZE);
+    mod.reduce(acc, 0, d, 0);
+    check(a0.mod(m), d, 0);
+    Int128.accAdd(acc, 0, acc, Int128.ACC_SIZE);
+    final BigInteger a2 = a0.add(a1).mod(BigInteger.ONE.shiftLeft(320));
+    if (!accToBig(acc, 0).equals(a2)) {
+      throw new RuntimeException("Int128 check failed: accAdd");
+    }
+    mod.reduce(acc, 0, d, 2);
+    check(a2.mod(m), d, 2);
+  }
+
+  public static void main(final String[] args) {
+    final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    final Random random = new Random();
+    for (int i = 0; i < n; ++i) {
+      checkPowerOfTwo(random);
+      checkMod(random);
+    }
+    System.out.println("Int128 check passed " + n + " iterations");
+  }
+}
@@ -0,0 +1,259 @@
+//
+// Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+//
+// Permission is hereby granted, free of charge, to any person
+// obtaining a copy of this software and associated documentation
+// files (the "Software"), to deal in the Software without
+// restriction, including without limitation the rights to use,
+// copy, modify, merge, publish, distribute, sublicense, and/or
+// sell copies of the Software, and to permit persons to whom the
+// Software is furnished to do so, subject to the following
+// conditions:
+//
+// The above copyright notice and this permission notice (including
+// the next paragraph) shall be included in all copies or
+// substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+// OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+// HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+// WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+// FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+// OTHER DEALINGS IN THE SOFTWARE.
+//
+// SPDX-License-Identifier: MIT
+//
+
+package com.stealthsoftwareinc.pulsarvlds;
+
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+//
+// Checks that a Snapshot gives back exactly the IDs and X values it was
+// written with, for moduli of every value size. The X values are those
+// of DECIMAL columns of up to 38 digits, which need more than 8 bytes
+// once they are encoded for a modulus above 2^64. Run it with
+// unittest/java.bash SnapshotCheck [iterations] after changing
+// Snapshot.
+//
+
+final class SnapshotCheck {
+  private SnapshotCheck() {
+  }
+
+  private static final BigInteger[] MODULI = {
+      BigInteger.ONE.shiftLeft(16).add(BigInteger.ONE),
+      BigInteger.ONE.shiftLeft(32),
+      BigInteger.ONE.shiftLeft(61).subtract(BigInteger.ONE),
+      BigInteger.ONE.shiftLeft(64),
+      BigInteger.ONE.shiftLeft(64).add(BigInteger.valueOf(13)),
+      BigInteger.ONE.shiftLeft(127).subtract(BigInteger.ONE),
+      BigInteger.ONE.shiftLeft(128),
+      BigInteger.ONE.shiftLeft(200).add(BigInteger.valueOf(235))};
+
+  private static int valueSize(final BigInteger m) {
+    final int bits = m.subtract(BigInteger.ONE).bitLength();
+    return bits <= 32 ? 4 : bits <= 64 ? 8 : (bits + 7) / 8;
+  }
+
+  //
+  // Returns a random DECIMAL(38, scale) value encoded as an element of
+  // Z_m, i.e., its unscaled value modulo m.
+  //
+
+  private static BigInteger decimal(final Random random,
+                                    final BigInteger m) {
+    final int scale = random.nextInt(10);
+    final BigInteger unscaled =
+        new BigInteger(1 + random.nextInt(126), random);
+    final BigDecimal x = new BigDecimal(
+        random.nextBoolean() ? unscaled : unscaled.negate(),
+        scale);
+    return x.unscaledValue().mod(m);
+  }
+
+  private static final class Rows implements RowSource {
+    private final byte[][] ids_;
+    private final BigInteger[][] xs_;
+    private int row_ = -1;
+
+    public Rows(final byte[][] ids, final BigInteger[][] xs) {
+      ids_ = ids;
+      xs_ = xs;
+    }
+
+    public final int row() {
+      return row_;
+    }
+
+    @Override
+    public final boolean next() {
+      return ++row_ < ids_.length;
+    }
+
+    @Override
+    public final void id(final byte[] dst, final int off) {
+      System.arraycopy(ids_[row_], 0, dst, off, ids_[row_].length);
+    }
+
+    @Override
+    public final int xInt(final int k) {
+      return xs_[row_][k].intValue();
+    }
+
+    @Override
+    public final long xLong(final int k) {
+      return xs_[row_][k].longValue();
+    }
+
+    @Override
+    public final BigInteger xBig(final int k) {
+      return xs_[row_][k];
+    }
+
+    @Override
+    public final void xWide(final int k,
+                            final long[] dst,
+                            final int off) {
+      Int128.fromBig(xs_[row_][k], dst, off);
+    }
+  }
+
+  private static void fail(final String what) {
+    throw new RuntimeException("Snapshot check failed: " + what);
+  }
+
+  private static void check(final Random random,
+                            final BigInteger m,
+                            final Path file) throws Exception {
+    final int valueSize = valueSize(m);
+    final int idSize = 1 + random.nextInt(12);
+    final int xCount = random.nextInt(5);
+    final int tupleCount = 1 + random.nextInt(5);
+    final int[] counts = new int[tupleCount];
+    int rowCount = 0;
+    for (int t = 0; t < tupleCount; ++t) {
+      counts[t] = random.nextInt(4) == 0 ? 0 : random.nextInt(20);
+      rowCount += counts[t];
+    }
+    final int[] tuples = new int[rowCount];
+    final byte[][] ids = new byte[rowCount][idSize];
+    final BigInteger[][] xs = new BigInteger[rowCount][xCount];
+    for (int t = 0, i = 0; t < tupleCount; ++t) {
+      for (int j = 0; j < counts[t]; ++j, ++i) {
+        tuples[i] = t;
+        random.nextBytes(ids[i]);
+        for (int k = 0; k < xCount; ++k) {
+          xs[i][k] = decimal(random, m);
+        }
+      }
+    }
+    final Rows rows = new Rows(ids, xs);
+    Snapshot.write(rows,
+                   new Snapshot.TupleIndex() {
+                     @Override
+                     public final int tupleIndex() {
+                       return tuples[rows.row()];
+                     }
+                   },
+                   tupleCount,
+                   xCount,
+                   idSize,
+                   valueSize,
+                   "check",
+                   file);
+    final Snapshot snapshot = Snapshot.load(file);
+    if (snapshot == null || !snapshot.signature().equals("check")
+        || snapshot.rowCount() != rowCount) {
+      fail("header");
+    }
+    final byte[] id = new byte[idSize + 2];
+    final long[] wide = new long[4];
+    for (int t = 0, i = 0; t < tupleCount; ++t) {
+      if (snapshot.rowCount(t) != counts[t]) {
+        fail("rowCount(" + t + ")");
+      }
+      final Snapshot.Scan scan = snapshot.scan(t);
+      for (int j = 0; j < counts[t]; ++j, ++i) {
+        if (!scan.next()) {
+          fail("next()");
+        }
+        scan.id(id, 1);
+        if (!Arrays.equals(Arrays.copyOfRange(id, 1, idSize + 1),
+                           ids[i])) {
+          fail("id()");
+        }
+        for (int k = 0; k < xCount; ++k) {
+          final BigInteger x = xs[i][k];
+          if (valueSize == 4) {
+            if (scan.xInt(k) != x.intValue()) {
+              fail("xInt() for m = " + m);
+            }
+          } else if (valueSize == 8) {
+            if (scan.xLong(k) != x.longValue()) {
+              fail("xLong() for m = " + m);
+            }
+          } else {
+            if (!scan.xBig(k).equals(x)) {
+              fail("xBig() for m = " + m);
+            }
+            if (valueSize <= 16) {
+              scan.xWide(k, wide, 2);
+              if (!Int128.toBig(wide, 2).equals(x)) {
+                fail("xWide() for m = " + m);
+              }
+            }
+          }
+        }
+      }
+      if (scan.next()) {
+        fail("next() at the end");
+      }
+    }
+  }
+
+  //
+  // A snapshot in the first format, which stored the column values
+  // instead of the X values, must read as absent so that it is
+  // rebuilt.
+  //
+
+  private static void checkFirstFormat(final Path file)
+      throws Exception {
+    try (final DataOutputStream out =
+             new DataOutputStream(Files.newOutputStream(file))) {
+      out.writeLong(0x50564C4453534E31L);
+      out.writeInt(0);
+    }
+    if (Snapshot.load(file) != null) {
+      fail("first format");
+    }
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    final Random random = new Random();
+    final Path dir = Files.createTempDirectory("SnapshotCheck");
+    final Path file = dir.resolve("snapshot.bin");
+    try {
+      checkFirstFormat(file);
+      for (int i = 0; i < n; ++i) {
+        for (final BigInteger m : MODULI) {
+          check(random, m, file);
+        }
+      }
+    } finally {
+      Files.deleteIfExists(file);
+      Files.delete(dir);
+    }
+    System.out.println("Snapshot check passed " + n + " iterations");
+  }
+}
@@ -0,0 +1,140 @@
+#! /usr/bin/env python3
+#
+# Copyright (C) 2018-2023 Stealth Software Technologies, Inc.
+#
+# Permission is hereby granted, free of charge, to any person
+# obtaining a copy of this software and associated documentation
+# files (the "Software"), to deal in the Software without
+# restriction, including without limitation the rights to use,
+# copy, modify, merge, publish, distribute, sublicense, and/or
+# sell copies of the Software, and to permit persons to whom the
+# Software is furnished to do so, subject to the following
+# conditions:
+#
+# The above copyright notice and this permission notice (including
+# the next paragraph) shall be included in all copies or
+# substantial portions of the Software.
+#
+# THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+# EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+# OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+# NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+# HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+# WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+# FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+# OTHER DEALINGS IN THE SOFTWARE.
+#
+# SPDX-License-Identifier: MIT
+#
+# Runs one query on the PH of a unittest run and prints its result.
+#
+# Usage: result.py <host>:<port> <query string>
+#
+# The query string is the part of the /query URL after the question
+# mark. The result is read from the /result WebSocket the same way the
+# web interface reads it, and is printed as a JSON array that holds
+# the aggregate values of each domain tuple in order, so two runs of
+# the same query can be compared with jq.
+#
+
+import base64
+import json
+import os
+import socket
+import struct
+import sys
+import urllib.request
+
+
+def send_text(sock, text):
+    payload = text.encode('utf-8')
+    header = bytearray([0x81])
+    if len(payload) < 126:
+        header.append(0x80 | len(payload))
+    elif len(payload) < 65536:
+        header.append(0x80 | 126)
+        header += struct.pack('>H', len(payload))
+    else:
+        header.append(0x80 | 127)
+        header += struct.pack('>Q', len(payload))
+    mask = os.urandom(4)
+    header += mask
+    sock.sendall(bytes(header)
+                 + bytes(b ^ mask[i % 4] for i, b in enumerate(payload)))
+
+
+def read_exactly(stream, n):
+    data = stream.read(n)
+    if len(data) != n:
+        raise EOFError('connection closed mid-frame')
+    return data
+
+
+def recv_text(stream):
+    message = b''
+    while True:
+        b0, b1 = read_exactly(stream, 2)
+        opcode = b0 & 0x0F
+        n = b1 & 0x7F
+        if n == 126:
+            n, = struct.unpack('>H', read_exactly(stream, 2))
+        elif n == 127:
+            n, = struct.unpack('>Q', read_exactly(stream, 8))
+        mask = read_exactly(stream, 4) if b1 & 0x80 else None
+        payload = read_exactly(stream, n)
+        if mask is not None:
+            payload = bytes(b ^ mask[i % 4] for i, b in enumerate(payload))
+        if opcode == 0x8:
+            return None
+        if opcode in (0x0, 0x1):
+            message += payload
+            if b0 & 0x80:
+                return message.decode('utf-8')
+
+
+def main():
+    host, port = sys.argv[1].rsplit(':', 1)
+    query = sys.argv[2]
+
+    url = 'http://%s:%s/query?%s' % (host, port, query)
+    with urllib.request.urlopen(url) as response:
+        query_id = json.load(response)['query_id']
+
+    sock = socket.create_connection((host, int(port)))
+    stream = sock.makefile('rb')
+    key = base64.b64encode(os.urandom(16)).decode('ascii')
+    sock.sendall(('GET /result HTTP/1.1\r\n'
+                  'Host: %s:%s\r\n'
+                  'Upgrade: websocket\r\n'
+                  'Connection: Upgrade\r\n'
+                  'Sec-WebSocket-Key: %s\r\n'
+                  'Sec-WebSocket-Version: 13\r\n'
+                  '\r\n' % (host, port, key)).encode('ascii'))
+    status = stream.readline()
+    if b' 101 ' not in status:
+        sys.exit('result.py: WebSocket handshake failed: '
+                 + status.decode('latin-1').strip())
+    while stream.readline() not in (b'\r\n', b''):
+        pass
+
+    send_text(sock, json.dumps({'query_id': query_id}))
+
+    tuples = []
+    while True:
+        text = recv_text(stream)
+        if text is None:
+            break
+        message = json.loads(text)
+        if message['type'] == 'tuple_done':
+            tuples.append(message['data'])
+        elif message['type'] == 'all_done':
+            break
+        elif message['type'] == 'unknown_query':
+            sys.exit('result.py: unknown query: ' + query)
+    sock.close()
+
+    json.dump(tuples, sys.stdout)
+    sys.stdout.write('\n')
+
+
+main()
@@ -43,6 +43,16 @@ set -e || exit $?
 
 #-----------------------------------------------------------------------
 
+unittest_dir=$(
+  case $0 in /*) x=$0 ;; *) x=./$0 ;; esac
+  cd "${x%/*}"
+  pwd | sst_csf
+)
+sst_csf unittest_dir
+readonly unittest_dir
+
+#-----------------------------------------------------------------------
+
 if command -v cygpath >/dev/null; then
   system=cygwin
 else
@@ -86,6 +96,42 @@ if [[ "${STAGE-}" != '' ]]; then
   readonly STAGE_NATIVE
 fi
 
+#-----------------------------------------------------------------------
+# Feature variants
+#-----------------------------------------------------------------------
+#
+# Each directory variants/$v next to this script holds config overlays
+# named like the config files of a test directory (common.cfg*,
+# db1.cfg*, db2.cfg*, and ph.cfg*) that turn on one feature. Every test
+# directory is run once with its own config files and then once per
+# variant with the overlays of the variant merged on top of them.
+#
+# The *.rest requests of every run are checked against their *.ans
+# files. Each *.query file holds a /query string, and every run of it,
+# with or without a variant, must return the result rows in its *.ans
+# file, which is a JSON array of the aggregate values of each domain
+# tuple. Values that are sent as strings are compared as numbers.
+# Every *.query file is run twice in a row so that the features that
+# keep state from one query to the next are exercised too.
+#
+# VARIANTS may be set to a space-separated list of variant names to
+# run only those variants. It defaults to all of them. Set it to the
+# empty string to run only the baseline.
+#
+
+if [[ "${VARIANTS+x}" ]]; then
+  read -a variants <<<"$VARIANTS"
+else
+  variants=()
+  for x in "$unittest_dir"/variants/*/; do
+    if [[ -d "$x" ]]; then
+      x=${x%/}
+      variants+=("${x##*/}")
+    fi
+  done
+fi
+readonly variants
+
 #-----------------------------------------------------------------------
 # Construct the pulsar-vlds-server command
 #-----------------------------------------------------------------------
@@ -203,39 +249,58 @@ num_success=0
 num_fail=0
 exit_status=0
 
-for i; do
+tally() {
+  local name=$1
+  local ok=$2
+  case $ok in
+    true)
+      echo pass: "$name"
+      num_success=$(($num_success + 1))
+    ;;
+    *)
+      echo fail: "$name"
+      num_fail=$(($num_fail + 1))
+      exit_status=1
+    ;;
+  esac
+  num_tests=$(($num_tests + 1))
+}
 
-  sst_pushd $i
+check() {
+  local name=$1
+  local want=$2
+  local have=$3
+  local eq
+  eq=$(jq -s '.[0]==.[1] and (.[1]|type) != "string"' \
+          "$want" "$have")
+  tally "$name" $eq
+  if [[ "$eq" != true ]]; then
+    git diff --no-index "$want" "$have" || :
+  fi
+}
 
-  #---------------------------------------------------------------------
+numeric_rows='
+  if type == "array" then
+    map(map(if type == "string" then tonumber else . end))
+  else
+    .
+  end
+'
+readonly numeric_rows
 
-  #
-  # For each group of $x.sql.* files, construct $x.sql as the
-  # concatenation of all $x.sql?* files in lexicographic order except
-  # for those of the form *.$e for engine names $e other than $ENGINE.
-  #
+#
+# Runs the servers with the config files of the current test directory
+# and the overlays of variant $1, or with no overlays if $1 is empty,
+# and checks the results of all queries.
+#
 
-  unset xs
-  declare -A xs
-  for x in *.sql.*; do
-    xs[${x%%.sql.*}]=x
-  done
-  for x in "${!xs[@]}"; do
-    first=1
-    for y in "$x".sql.*; do
-      if ((first)); then
-        >"$x".sql
-        first=0
-      fi
-      for e in "${engines[@]}"; do
-        if [[ "$e" != "$ENGINE" && "$y" == *."$e" ]]; then
-          continue 2
-        fi
-      done
-      cat ./"$y" >>"$x".sql
-    done
-  done
-  unset xs
+run() {
+
+  local v=$1
+  local tag=${v:-baseline}
+  local x y e j n bn pid
+  local files
+  local pids
 
   #---------------------------------------------------------------------
   #
@@ -245,26 +310,41 @@ for i; do
   #
   #    1. common.cfg* in lexicographic order.
   #    2. $x.cfg* in lexicographic order.
+  #    3. variants/$v/common.cfg* in lexicographic order.
+  #    4. variants/$v/$x.cfg* in lexicographic order.
+  #
+  # With a variant, the files are merged into variant-$x.cfg with jq,
+  # which merges nested objects such as the lexicon key by key.
   #
 
   for x in db1 db2 ph; do
-    eval "${x}_configs=()"
-    for y in common.cfg* "$x".cfg*; do
+    files=()
+    for y in common.cfg* "$x".cfg* \
+             ${v:+"$unittest_dir/variants/$v"/common.cfg*} \
+             ${v:+"$unittest_dir/variants/$v/$x".cfg*}; do
+      if [[ ! -f "$y" ]]; then
+        continue
+      fi
       for e in "${engines[@]}"; do
         if [[ "$e" != "$ENGINE" && "$y" == *."$e" ]]; then
           continue 2
         fi
       done
+      files+=("$y")
+    done
+    if [[ "$v" ]]; then
+      jq -s 'reduce .[] as $c ({}; . * $c)' "${files[@]}" \
+        >variant-"$x".cfg
+      files=(variant-"$x".cfg)
+    fi
+    eval "${x}_configs=()"
+    for y in "${files[@]}"; do
       eval "${x}_configs+=(--config \"\$y\")"
     done
   done
 
   #---------------------------------------------------------------------
 
-  db_start
-
-  #---------------------------------------------------------------------
-
   pids=()
 
   eval " $pulsar_vlds_server ${db1_configs[@]} </dev/null &"
@@ -278,25 +358,30 @@ for i; do
 
   sleep 6
   for j in *.rest; do
+    if [[ ! -f "$j" ]]; then
+      continue
+    fi
     url=http://127.0.0.1:8099$(cat $j)
     bn=$(echo $j | sed 's/\.rest$//')
     curl -sS "$url" >$bn.ans2
     jq -S '.data |= sort' $bn.ans >$bn.want
     jq -S 'del(.queryID)|.data |= sort' $bn.ans2 >$bn.have
-    eq=$(jq -s '.[0]==.[1]' $bn.want $bn.have)
-    case $eq in
-      true)
-        echo pass: $i/$j
-        num_success=$(($num_success + 1))
-      ;;
-      false)
-        echo fail: $i/$j
-        git diff --no-index $bn.want $bn.have || :
-        num_fail=$(($num_fail + 1))
-        exit_status=1
-      ;;
-    esac
-    num_tests=$(($num_tests + 1))
+    check "$i/$j ($tag)" $bn.want $bn.have
+  done
+
+  for j in *.query; do
+    if [[ ! -f "$j" ]]; then
+      continue
+    fi
+    bn=${j%.query}
+    jq -S "$numeric_rows" $bn.ans >$bn.want
+    for n in 1 2; do
+      if ! python3 "$unittest_dir"/result.py 127.0.0.1:8099 "$(cat $j)" \
+           | jq -S "$numeric_rows" >$bn.$tag.$n.have; then
+        echo '"query failed"' >$bn.$tag.$n.have
+      fi
+      check "$i/$j ($tag, run $n)" $bn.want $bn.$tag.$n.have
+    done
   done
 
   for pid in "${pids[@]}"; do
@@ -306,6 +391,53 @@ for i; do
     wait $pid || :
   done
 
+}
+
+for i; do
+
+  sst_pushd $i
+
+  #---------------------------------------------------------------------
+
+  #
+  # For each group of $x.sql.* files, construct $x.sql as the
+  # concatenation of all $x.sql?* files in lexicographic order except
+  # for those of the form *.$e for engine names $e other than $ENGINE.
+  #
+
+  unset xs
+  declare -A xs
+  for x in *.sql.*; do
+    xs[${x%%.sql.*}]=x
+  done
+  for x in "${!xs[@]}"; do
+    first=1
+    for y in "$x".sql.*; do
+      if ((first)); then
+        >"$x".sql
+        first=0
+      fi
+      for e in "${engines[@]}"; do
+        if [[ "$e" != "$ENGINE" && "$y" == *."$e" ]]; then
+          continue 2
+        fi
+      done
+      cat ./"$y" >>"$x".sql
+    done
+  done
+  unset xs
+
+  #---------------------------------------------------------------------
+
+  db_start
+
+  #---------------------------------------------------------------------
+
+  run ''
+  for v in ${variants[@]+"${variants[@]}"}; do
+    run "$v"
+  done
+
   sst_popd
 
   db_stop